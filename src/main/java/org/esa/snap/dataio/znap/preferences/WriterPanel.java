@@ -43,15 +43,30 @@ final class WriterPanel extends javax.swing.JPanel {
     public static final String ZLIB_DEFAULT_COMPRESSOR_LIB = "zlib (default)";
     public static final String COMPRESSOR_NULL = "null";
     public static final Integer[] ZLIB_COMPRESSION_LEVELS = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+    public static final String[] BLOSC_CNAMES = {"lz4", "lz4hc", "zstd", "zlib", "blosclz"};
+    public static final String[] BLOSC_SHUFFLES = {"no shuffle", "byte shuffle", "bit shuffle"};
+    public static final Integer[] OVERVIEW_LEVELS = {0, 1, 2, 3, 4, 5, 6, 7, 8};
+    public static final String[] ZARR_VERSIONS = {"2 (default)", "3"};
+    public static final String[] OVERVIEW_AGGREGATIONS = {OVERVIEW_AGGREGATION_AUTO, "mean", "nearest", "mode"};
     private final WriterOptionsPanelController controller;
     private JComponent binaryFormatLabel;
     private JComboBox<String> binaryFormatCombo;
+    private JComponent zarrVersionLabel;
+    private JComboBox<String> zarrVersionCombo;
     private JComponent compressorLabel;
     private JComboBox<String> compressorCombo;
     private JComponent compressionLevelLabel;
     private JComboBox<String> compressionLevelCombo;
+    private JComponent bloscCnameLabel;
+    private JComboBox<String> bloscCnameCombo;
+    private JComponent bloscShuffleLabel;
+    private JComboBox<String> bloscShuffleCombo;
     private JComponent createZipArchiveLabel;
     private JCheckBox createZipArchiveCheck;
+    private JComponent overviewLevelsLabel;
+    private JComboBox<Integer> overviewLevelsCombo;
+    private JComponent overviewAggregationLabel;
+    private JComboBox<String> overviewAggregationCombo;
 
     WriterPanel(WriterOptionsPanelController controller) {
         this.controller = controller;
@@ -85,6 +100,9 @@ final class WriterPanel extends javax.swing.JPanel {
         String binaryFormat = preferences.get(PROPERTY_NAME_BINARY_FORMAT, ZARR_FORMAT_NAME);
         binaryFormatCombo.setSelectedItem(binaryFormat);
 
+        final int zarrFormat = preferences.getInt(PROPERTY_NAME_ZARR_FORMAT, DEFAULT_ZARR_FORMAT);
+        zarrVersionCombo.setSelectedIndex(zarrFormat == ZARR_FORMAT_V3 ? 1 : 0);
+
         String compressorId = preferences.get(PROPERTY_NAME_COMPRESSOR_ID, ZLIB_DEFAULT_COMPRESSOR_LIB);
         compressorCombo.setSelectedItem(compressorId);
 
@@ -92,8 +110,16 @@ final class WriterPanel extends javax.swing.JPanel {
         int idx = Arrays.asList(ZLIB_COMPRESSION_LEVELS).indexOf(compressionLevel);
         compressionLevelCombo.setSelectedIndex(idx);
 
+        bloscCnameCombo.setSelectedItem(preferences.get(PROPERTY_NAME_BLOSC_CNAME, DEFAULT_BLOSC_CNAME));
+        bloscShuffleCombo.setSelectedIndex(preferences.getInt(PROPERTY_NAME_BLOSC_SHUFFLE, DEFAULT_BLOSC_SHUFFLE));
+
         final boolean useZipArchive = preferences.getBoolean(PROPERTY_NAME_USE_ZIP_ARCHIVE, DEFAULT_USE_ZIP_ARCHIVE);
         createZipArchiveCheck.setSelected(useZipArchive);
+
+        final int overviewLevels = preferences.getInt(PROPERTY_NAME_OVERVIEW_LEVELS, DEFAULT_OVERVIEW_LEVELS);
+        overviewLevelsCombo.setSelectedItem(overviewLevels);
+        final String overviewAggregation = preferences.get(PROPERTY_NAME_OVERVIEW_AGGREGATION, DEFAULT_OVERVIEW_AGGREGATION);
+        overviewAggregationCombo.setSelectedItem(overviewAggregation);
     }
 
     void store() {
@@ -105,9 +131,16 @@ final class WriterPanel extends javax.swing.JPanel {
                 preferences.remove(PROPERTY_NAME_COMPRESSOR_ID);
                 preferences.remove(PROPERTY_NAME_COMPRESSION_LEVEL);
                 preferences.put(PROPERTY_NAME_USE_ZIP_ARCHIVE, String.valueOf(false));
+                preferences.remove(PROPERTY_NAME_ZARR_FORMAT);
                 return;
             }
             preferences.remove(PROPERTY_NAME_BINARY_FORMAT);
+            final int zarrFormat = zarrVersionCombo.getSelectedIndex() == 1 ? ZARR_FORMAT_V3 : ZARR_FORMAT_V2;
+            if (zarrFormat != DEFAULT_ZARR_FORMAT) {
+                preferences.putInt(PROPERTY_NAME_ZARR_FORMAT, zarrFormat);
+            } else {
+                preferences.remove(PROPERTY_NAME_ZARR_FORMAT);
+            }
             String compressorId = compressorCombo.getItemAt(compressorCombo.getSelectedIndex());
             if (ZLIB_DEFAULT_COMPRESSOR_LIB.equals(compressorId)) {
                 preferences.remove(PROPERTY_NAME_COMPRESSOR_ID);
@@ -118,16 +151,38 @@ final class WriterPanel extends javax.swing.JPanel {
                 } else {
                     preferences.putInt(PROPERTY_NAME_COMPRESSION_LEVEL, compressionLevel);
                 }
-            } else if (COMPRESSOR_NULL.equals(compressorId)) {
+            } else if (COMPRESSOR_ID_BLOSC.equals(compressorId)) {
+                preferences.put(PROPERTY_NAME_COMPRESSOR_ID, compressorId);
+                int compressionLevel = ZLIB_COMPRESSION_LEVELS[compressionLevelCombo.getSelectedIndex()];
+                preferences.putInt(PROPERTY_NAME_COMPRESSION_LEVEL, compressionLevel);
+                preferences.put(PROPERTY_NAME_BLOSC_CNAME, bloscCnameCombo.getItemAt(bloscCnameCombo.getSelectedIndex()));
+                preferences.putInt(PROPERTY_NAME_BLOSC_SHUFFLE, bloscShuffleCombo.getSelectedIndex());
+            } else {
                 preferences.put(PROPERTY_NAME_COMPRESSOR_ID, compressorId);
                 preferences.remove(PROPERTY_NAME_COMPRESSION_LEVEL);
             }
+            if (!COMPRESSOR_ID_BLOSC.equals(compressorId)) {
+                preferences.remove(PROPERTY_NAME_BLOSC_CNAME);
+                preferences.remove(PROPERTY_NAME_BLOSC_SHUFFLE);
+            }
             final boolean useZipArchive = createZipArchiveCheck.isSelected();
             if (useZipArchive != DEFAULT_USE_ZIP_ARCHIVE) {
                 preferences.put(PROPERTY_NAME_USE_ZIP_ARCHIVE, String.valueOf(useZipArchive));
             } else {
                 preferences.remove(PROPERTY_NAME_USE_ZIP_ARCHIVE);
             }
+            final int overviewLevels = overviewLevelsCombo.getItemAt(overviewLevelsCombo.getSelectedIndex());
+            if (overviewLevels != DEFAULT_OVERVIEW_LEVELS) {
+                preferences.putInt(PROPERTY_NAME_OVERVIEW_LEVELS, overviewLevels);
+            } else {
+                preferences.remove(PROPERTY_NAME_OVERVIEW_LEVELS);
+            }
+            final String overviewAggregation = overviewAggregationCombo.getItemAt(overviewAggregationCombo.getSelectedIndex());
+            if (!DEFAULT_OVERVIEW_AGGREGATION.equals(overviewAggregation)) {
+                preferences.put(PROPERTY_NAME_OVERVIEW_AGGREGATION, overviewAggregation);
+            } else {
+                preferences.remove(PROPERTY_NAME_OVERVIEW_AGGREGATION);
+            }
         } finally {
             try {
                 preferences.flush();
@@ -149,8 +204,14 @@ final class WriterPanel extends javax.swing.JPanel {
         addWriterFormatNames(formatNames);
         binaryFormatCombo = new JComboBox<>(formatNames);
 
+        zarrVersionLabel = new JLabel("Zarr version:");
+        zarrVersionCombo = new JComboBox<>(ZARR_VERSIONS);
+
         compressorLabel = new JLabel("Compressor:");
-        compressorCombo = new JComboBox<>(new String[]{ZLIB_DEFAULT_COMPRESSOR_LIB, COMPRESSOR_NULL});
+        compressorCombo = new JComboBox<>(new String[]{ZLIB_DEFAULT_COMPRESSOR_LIB, COMPRESSOR_NULL,
+                COMPRESSOR_ID_BLOSC, COMPRESSOR_ID_ZSTD, COMPRESSOR_ID_LZ4});
+        compressorCombo.setToolTipText("zstd and lz4 compress with fixed parameters (zstd level 3, lz4 acceleration 1), " +
+                                       "blosc requires the native c-blosc library.");
 
         compressionLevelLabel = new JLabel("Compression level:");
         compressionLevelCombo = new JComboBox<>();
@@ -162,9 +223,21 @@ final class WriterPanel extends javax.swing.JPanel {
             compressionLevelCombo.addItem(item);
         }
 
+        bloscCnameLabel = new JLabel("Blosc compressor:");
+        bloscCnameCombo = new JComboBox<>(BLOSC_CNAMES);
+
+        bloscShuffleLabel = new JLabel("Blosc shuffle:");
+        bloscShuffleCombo = new JComboBox<>(BLOSC_SHUFFLES);
+
         createZipArchiveLabel = new JLabel("Create zip arcive:");
         createZipArchiveCheck = new JCheckBox();
 
+        overviewLevelsLabel = new JLabel("Overview levels:");
+        overviewLevelsCombo = new JComboBox<>(OVERVIEW_LEVELS);
+
+        overviewAggregationLabel = new JLabel("Overview aggregation:");
+        overviewAggregationCombo = new JComboBox<>(OVERVIEW_AGGREGATIONS);
+
         setBorder(new TitledBorder("SNAP-ZARR Options"));
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(this);
         layout.setAutoCreateGaps(true);
@@ -180,6 +253,10 @@ final class WriterPanel extends javax.swing.JPanel {
                                 layout.createParallelGroup(GroupLayout.Alignment.CENTER)
                                         .addComponent(binaryFormatLabel)
                                         .addComponent(binaryFormatCombo))
+                        .addGroup(
+                                layout.createParallelGroup(GroupLayout.Alignment.CENTER)
+                                        .addComponent(zarrVersionLabel)
+                                        .addComponent(zarrVersionCombo))
                         .addGroup(
                                 layout.createParallelGroup(GroupLayout.Alignment.CENTER)
                                         .addComponent(compressorLabel)
@@ -188,6 +265,22 @@ final class WriterPanel extends javax.swing.JPanel {
                                 layout.createParallelGroup(GroupLayout.Alignment.CENTER)
                                         .addComponent(compressionLevelLabel)
                                         .addComponent(compressionLevelCombo))
+                        .addGroup(
+                                layout.createParallelGroup(GroupLayout.Alignment.CENTER)
+                                        .addComponent(bloscCnameLabel)
+                                        .addComponent(bloscCnameCombo))
+                        .addGroup(
+                                layout.createParallelGroup(GroupLayout.Alignment.CENTER)
+                                        .addComponent(bloscShuffleLabel)
+                                        .addComponent(bloscShuffleCombo))
+                        .addGroup(
+                                layout.createParallelGroup(GroupLayout.Alignment.CENTER)
+                                        .addComponent(overviewLevelsLabel)
+                                        .addComponent(overviewLevelsCombo))
+                        .addGroup(
+                                layout.createParallelGroup(GroupLayout.Alignment.CENTER)
+                                        .addComponent(overviewAggregationLabel)
+                                        .addComponent(overviewAggregationCombo))
                         .addGap(0, 2000, Short.MAX_VALUE)
         );
         layout.setHorizontalGroup(
@@ -195,15 +288,25 @@ final class WriterPanel extends javax.swing.JPanel {
                         .addGroup(
                                 layout.createParallelGroup(GroupLayout.Alignment.LEADING)
                                         .addComponent(binaryFormatLabel)
+                                        .addComponent(zarrVersionLabel)
                                         .addComponent(compressorLabel)
                                         .addComponent(compressionLevelLabel)
-                                        .addComponent(createZipArchiveLabel))
+                                        .addComponent(bloscCnameLabel)
+                                        .addComponent(bloscShuffleLabel)
+                                        .addComponent(createZipArchiveLabel)
+                                        .addComponent(overviewLevelsLabel)
+                                        .addComponent(overviewAggregationLabel))
                         .addGroup(
                                 layout.createParallelGroup(GroupLayout.Alignment.LEADING)
                                         .addComponent(binaryFormatCombo)
+                                        .addComponent(zarrVersionCombo)
                                         .addComponent(compressorCombo)
                                         .addComponent(compressionLevelCombo)
-                                        .addComponent(createZipArchiveCheck))
+                                        .addComponent(bloscCnameCombo)
+                                        .addComponent(bloscShuffleCombo)
+                                        .addComponent(createZipArchiveCheck)
+                                        .addComponent(overviewLevelsCombo)
+                                        .addComponent(overviewAggregationCombo))
                         .addGap(0, 2000, Short.MAX_VALUE)
         );
 
@@ -215,9 +318,14 @@ final class WriterPanel extends javax.swing.JPanel {
             updateState();
         };
         binaryFormatCombo.addItemListener(itemListener);
+        zarrVersionCombo.addItemListener(itemListener);
         compressorCombo.addItemListener(itemListener);
         compressionLevelCombo.addItemListener(itemListener);
+        bloscCnameCombo.addItemListener(itemListener);
+        bloscShuffleCombo.addItemListener(itemListener);
         createZipArchiveCheck.addItemListener(itemListener);
+        overviewLevelsCombo.addItemListener(itemListener);
+        overviewAggregationCombo.addItemListener(itemListener);
     }
 
     private void updateState() {
@@ -225,12 +333,26 @@ final class WriterPanel extends javax.swing.JPanel {
         final boolean noZipArchive = !createZipArchiveCheck.isSelected();
         binaryFormatLabel.setEnabled(noZipArchive);
         binaryFormatCombo.setEnabled(noZipArchive);
+        zarrVersionLabel.setEnabled(zarrFormat);
+        zarrVersionCombo.setEnabled(zarrFormat);
         final boolean noArchiveAndZarrFormat = noZipArchive && zarrFormat;
         compressorCombo.setEnabled(noArchiveAndZarrFormat);
         compressorLabel.setEnabled(noArchiveAndZarrFormat);
         boolean zlibDefaultCompressor = compressorCombo.getSelectedIndex() == 0;
-        boolean levelEnabled = noArchiveAndZarrFormat && zlibDefaultCompressor;
+        boolean bloscCompressor = COMPRESSOR_ID_BLOSC.equals(compressorCombo.getSelectedItem());
+        boolean levelEnabled = noArchiveAndZarrFormat && (zlibDefaultCompressor || bloscCompressor);
         compressionLevelCombo.setEnabled(levelEnabled);
         compressionLevelLabel.setEnabled(levelEnabled);
+        boolean bloscEnabled = noArchiveAndZarrFormat && bloscCompressor;
+        bloscCnameLabel.setEnabled(bloscEnabled);
+        bloscCnameCombo.setEnabled(bloscEnabled);
+        bloscShuffleLabel.setEnabled(bloscEnabled);
+        bloscShuffleCombo.setEnabled(bloscEnabled);
+        final boolean overviewsEnabled = zarrFormat;
+        overviewLevelsLabel.setEnabled(overviewsEnabled);
+        overviewLevelsCombo.setEnabled(overviewsEnabled);
+        final boolean aggregationEnabled = overviewsEnabled && overviewLevelsCombo.getSelectedIndex() > 0;
+        overviewAggregationLabel.setEnabled(aggregationEnabled);
+        overviewAggregationCombo.setEnabled(aggregationEnabled);
     }
 }
@@ -18,14 +18,161 @@ package org.esa.snap.dataio.znap.preferences;
 
 public final class ZnapPreferencesConstants {
 
+    /**
+     * Compression level of the zlib and blosc compressors. zstd and lz4 are compressed by a pure Java implementation
+     * with fixed parameters, zstd level 3 and lz4 acceleration 1, and ignore this property.
+     */
     public static final String PROPERTY_NAME_COMPRESSION_LEVEL = "znap.compression.level";
     public static final int DEFAULT_COMPRESSION_LEVEL = 3;
 
+    /**
+     * The compressor of the chunks: "null", "zlib", "zstd", "lz4" or "blosc". zstd and lz4 are pure Java
+     * implementations, blosc requires the native c-blosc library used by jzarr.
+     */
     public static final String PROPERTY_NAME_COMPRESSOR_ID = "znap.compressor.id";
     public static final String DEFAULT_COMPRESSOR_ID = "null";
+    public static final String COMPRESSOR_ID_ZLIB = "zlib";
+    public static final String COMPRESSOR_ID_BLOSC = "blosc";
+    public static final String COMPRESSOR_ID_ZSTD = "zstd";
+    public static final String COMPRESSOR_ID_LZ4 = "lz4";
+
+    /**
+     * Prefix of the properties holding the filters applied to the chunks of a zarr data type before compression,
+     * e.g. {@code znap.filters.u2 = delta,shuffle}. Parameters are given in parentheses, separated by semicolons,
+     * e.g. {@code znap.filters.f4 = fixedscaleoffset(scale=100;offset=0;astype=i2),shuffle}. Supported filters are
+     * shuffle, delta and fixedscaleoffset, bit shuffling is available with the blosc compressor. Fixedscaleoffset
+     * stores NaN as the fill value and can not be applied to float arrays whose fill value is NaN.
+     */
+    public static final String PROPERTY_NAME_FILTERS_PREFIX = "znap.filters.";
+
+    /**
+     * Lossy quantization of float bands, e.g. {@code bitround(keepbits=10)} or {@code int16(scale=0.01;offset=20)}.
+     * The property {@code znap.quantization.<band name>} overrides it for a single band, {@code none} disables it.
+     */
+    public static final String PROPERTY_NAME_QUANTIZATION = "znap.quantization";
+
+    public static final String PROPERTY_NAME_BLOSC_CNAME = "znap.blosc.cname";
+    public static final String DEFAULT_BLOSC_CNAME = "lz4";
+
+    /**
+     * Blosc shuffle mode: 0 no shuffle, 1 byte shuffle, 2 bit shuffle.
+     */
+    public static final String PROPERTY_NAME_BLOSC_SHUFFLE = "znap.blosc.shuffle";
+    public static final int DEFAULT_BLOSC_SHUFFLE = 1;
+
+    /**
+     * Chunk shape of the band arrays: "auto" plans the chunk shape from the data type, the target chunk size,
+     * the raster size and the access pattern, "tile" uses the tile shape of the source image and
+     * {@code <width>x<height>}, e.g. {@code 1024x1024}, sets a fixed chunk shape.
+     * <p>
+     * Products written with the default "auto" are usually chunked differently than products written by
+     * earlier versions, which always used the tile shape of the source image. Use "tile" to keep the
+     * former chunking, e.g. if other tools depend on it.
+     */
+    public static final String PROPERTY_NAME_CHUNK_SHAPE = "znap.chunk.shape";
+    public static final String DEFAULT_CHUNK_SHAPE = "auto";
+
+    /**
+     * The target number of uncompressed kilobytes per chunk used by the automatic chunk shape planning.
+     */
+    public static final String PROPERTY_NAME_CHUNK_TARGET_SIZE_KB = "znap.chunk.target.size.kb";
+    public static final int DEFAULT_CHUNK_TARGET_SIZE_KB = 4096;
+
+    /**
+     * The expected access pattern of readers: "tile" for image tiles or "pixel" for time series of single pixels,
+     * which favours smaller chunks.
+     */
+    public static final String PROPERTY_NAME_CHUNK_ACCESS_PATTERN = "znap.chunk.access.pattern";
+    public static final String DEFAULT_CHUNK_ACCESS_PATTERN = "tile";
+
+    /**
+     * Number of chunks per shard in each dimension. Sharded arrays store a block of chunks in a single entry
+     * of the store. Zero or one disables sharding.
+     */
+    public static final String PROPERTY_NAME_SHARD_CHUNKS = "znap.shard.chunks";
+    public static final int DEFAULT_SHARD_CHUNKS = 0;
+
+    /**
+     * Version of the zarr store layout: 2 for {@code .zgroup}, {@code .zarray} and {@code .zattrs} documents,
+     * 3 for {@code zarr.json} documents. Consolidated metadata ({@code .zmetadata}) is only written for version 2.
+     */
+    public static final String PROPERTY_NAME_ZARR_FORMAT = "znap.zarr.format";
+    public static final int ZARR_FORMAT_V2 = 2;
+    public static final int ZARR_FORMAT_V3 = 3;
+    public static final int DEFAULT_ZARR_FORMAT = ZARR_FORMAT_V2;
 
     public static final String PROPERTY_NAME_USE_ZIP_ARCHIVE = "znap.use.zip.archive";
     public static final boolean DEFAULT_USE_ZIP_ARCHIVE = true;
 
+    /**
+     * Compression method of the zip archive entries: "stored", "deflated" or "auto". The latter deflates
+     * the entries only if the chunks are not already compressed by a zarr compressor and not sharded,
+     * because inner chunks of deflated shards can not be read without inflating the shard up to them.
+     */
+    public static final String PROPERTY_NAME_ZIP_ENTRY_METHOD = "znap.zip.entry.method";
+    public static final String ZIP_ENTRY_METHOD_AUTO = "auto";
+    public static final String ZIP_ENTRY_METHOD_STORED = "stored";
+    public static final String ZIP_ENTRY_METHOD_DEFLATED = "deflated";
+    public static final String DEFAULT_ZIP_ENTRY_METHOD = ZIP_ENTRY_METHOD_AUTO;
+
     public static final String PROPERTY_NAME_BINARY_FORMAT = "znap.binary.format";
+
+    public static final String PROPERTY_NAME_CHUNK_CACHE_SIZE_MB = "znap.chunk.cache.size.mb";
+    public static final int DEFAULT_CHUNK_CACHE_SIZE_MB = 256;
+
+    public static final String PROPERTY_NAME_USE_MEMORY_MAPPING = "znap.use.memory.mapping";
+    public static final boolean DEFAULT_USE_MEMORY_MAPPING = true;
+
+    /**
+     * If enabled, readers count the chunks, bytes, cache hits and latencies of the read path per product and band
+     * and expose them as MBeans of the domain {@code org.esa.snap.dataio.znap}. Tile and chunk reads are also
+     * emitted as Flight Recorder events of the category "SNAP Zarr", if the runtime supports them.
+     */
+    public static final String PROPERTY_NAME_READER_METRICS = "znap.reader.metrics";
+    public static final boolean DEFAULT_READER_METRICS = false;
+
+    public static final String PROPERTY_NAME_OVERVIEW_LEVELS = "znap.overview.levels";
+    public static final int DEFAULT_OVERVIEW_LEVELS = 0;
+
+    public static final String PROPERTY_NAME_OVERVIEW_AGGREGATION = "znap.overview.aggregation";
+    public static final String OVERVIEW_AGGREGATION_AUTO = "auto";
+    public static final String DEFAULT_OVERVIEW_AGGREGATION = OVERVIEW_AGGREGATION_AUTO;
+
+    /**
+     * Number of threads compressing and storing chunks. Zero means writing on the calling thread,
+     * a negative value means one thread per available processor.
+     */
+    public static final String PROPERTY_NAME_WRITER_THREADS = "znap.writer.threads";
+    public static final int DEFAULT_WRITER_THREADS = -1;
+
+    /**
+     * Number of megabytes of chunks queued for compression and storing. The encoded chunks of incomplete shards
+     * are limited to the same size, the largest incomplete shards are stored early if they exceed it.
+     */
+    public static final String PROPERTY_NAME_WRITER_QUEUE_SIZE_MB = "znap.writer.queue.size.mb";
+    public static final int DEFAULT_WRITER_QUEUE_SIZE_MB = 256;
+
+    /**
+     * If enabled, chunks consisting of fill values only are not stored. Readers return the fill value for them.
+     */
+    public static final String PROPERTY_NAME_SKIP_FILL_CHUNKS = "znap.writer.skip.fill.chunks";
+    public static final boolean DEFAULT_SKIP_FILL_CHUNKS = true;
+
+    /**
+     * If enabled, writers count the tiles, chunks, bytes and the time spent in compression, storing and waiting
+     * for the chunk write queue per product, band and overview level. The metrics are exposed as MBeans of the domain
+     * {@code org.esa.snap.dataio.znap} and summarised in the log when the writer is closed. Chunk writes and shard
+     * flushes are also emitted as Flight Recorder events of the category "SNAP Zarr", if the runtime supports them.
+     */
+    public static final String PROPERTY_NAME_WRITER_METRICS = "znap.writer.metrics";
+    public static final boolean DEFAULT_WRITER_METRICS = false;
+
+    /**
+     * If enabled, the product metadata is written into a separate document of the store instead of the root
+     * group attributes, so readers can open a product without parsing it and read it on first access.
+     * Readers of znap versions before this option can not read metadata written this way, therefore it is
+     * disabled by default.
+     */
+    public static final String PROPERTY_NAME_WRITER_SEPARATE_METADATA = "znap.writer.separate.metadata";
+    public static final boolean DEFAULT_WRITER_SEPARATE_METADATA = false;
 }
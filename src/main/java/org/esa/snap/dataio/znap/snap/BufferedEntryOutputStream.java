@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Collects the content of a store entry and hands it over to an entry writer on close. Used by the store
+ * decorators which have to transform an entry as a whole before it is written to the underlying store.
+ */
+final class BufferedEntryOutputStream extends ByteArrayOutputStream {
+
+    interface EntryWriter {
+        void write(byte[] data) throws IOException;
+    }
+
+    private final EntryWriter entryWriter;
+    private boolean closed;
+
+    BufferedEntryOutputStream(EntryWriter entryWriter) {
+        super(8192);
+        this.entryWriter = entryWriter;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            entryWriter.write(toByteArray());
+        }
+    }
+}
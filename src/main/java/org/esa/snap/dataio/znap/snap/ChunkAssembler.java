@@ -0,0 +1,422 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import java.awt.Rectangle;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assembles arbitrary rectangular writes into complete chunks, so that every chunk is
+ * compressed and stored exactly once, even if the data arrives in line strips or tiles
+ * which are not aligned to the chunk grid. Partially filled chunks are kept in heap
+ * arrays until the heap budget is exhausted; further partial chunks are kept in direct
+ * (off-heap) byte buffers.
+ * <p>
+ * The off-heap memory is bounded as well. If it is exhausted, the off-heap chunk with the most pixels written
+ * is returned early from {@link #write(Object, int[], int[])}, although it is incomplete. The chunk is regarded
+ * as completed, so the remaining pixels are merged with the stored chunk later on, see below.
+ * <p>
+ * If a region of a chunk is written again after the chunk has been completed, the chunk is
+ * assembled anew. Should it remain incomplete, it is returned by {@link #drain()} together with
+ * the mask of the pixels written, so that the caller can merge it with the stored chunk instead
+ * of overwriting the stored pixels with the fill value.
+ */
+class ChunkAssembler {
+
+    private final int width;
+    private final int height;
+    private final int chunkWidth;
+    private final int chunkHeight;
+    private final Class<?> elemType;
+    private final int elemSize;
+    private final Number fillValue;
+    private final long maxHeapBytes;
+    private final long maxOffHeapBytes;
+    private final int numChunksX;
+    private final Map<Long, PartialChunk> partialChunks = new LinkedHashMap<>();
+    private final BitSet completedChunks = new BitSet();
+    private long heapBytes;
+    private long offHeapBytes;
+
+    static class Chunk {
+        final Object data;
+        final int[] shape;  // common data model manner { y, x }
+        final int[] offset; // common data model manner { y, x }
+        // the pixels written, if the chunk is incomplete and has been completed before, otherwise null
+        final BitSet written;
+
+        Chunk(Object data, int[] shape, int[] offset) {
+            this(data, shape, offset, null);
+        }
+
+        Chunk(Object data, int[] shape, int[] offset, BitSet written) {
+            this.data = data;
+            this.shape = shape;
+            this.offset = offset;
+            this.written = written;
+        }
+
+        /**
+         * Replaces the pixels which were not written by the pixels of the stored chunk.
+         *
+         * @param stored the data of the stored chunk with the same shape
+         */
+        void mergeWith(Object stored) {
+            if (written == null) {
+                return;
+            }
+            final int numElems = shape[0] * shape[1];
+            int start = written.nextClearBit(0);
+            while (start < numElems) {
+                int end = written.nextSetBit(start);
+                if (end < 0 || end > numElems) {
+                    end = numElems;
+                }
+                System.arraycopy(stored, start, data, start, end - start);
+                start = written.nextClearBit(end);
+            }
+        }
+    }
+
+    /**
+     * @param shape           the array shape in common data model manner { y, x }
+     * @param chunks          the chunk shape in common data model manner { y, x }
+     * @param elemType        the primitive element type of the data, e.g. {@code short.class}
+     * @param fillValue       the value of pixels which are never written, or {@code null} for zero
+     * @param maxHeapBytes    the maximum number of bytes of partially filled chunks kept on the heap
+     * @param maxOffHeapBytes the maximum number of bytes of partially filled chunks kept off-heap, exceeded
+     *                        only if a single chunk does not fit
+     */
+    ChunkAssembler(int[] shape, int[] chunks, Class<?> elemType, Number fillValue, long maxHeapBytes, long maxOffHeapBytes) {
+        height = shape[0];
+        width = shape[1];
+        chunkHeight = chunks[0];
+        chunkWidth = chunks[1];
+        this.elemType = elemType;
+        this.elemSize = (int) ChunkCache.sizeOf(Array.newInstance(elemType, 1));
+        this.fillValue = fillValue;
+        this.maxHeapBytes = maxHeapBytes;
+        this.maxOffHeapBytes = maxOffHeapBytes;
+        numChunksX = (width + chunkWidth - 1) / chunkWidth;
+    }
+
+    /**
+     * Adds the data of a rectangular region.
+     *
+     * @return the chunks completed by this write, in data model manner ready to be written, and the incomplete
+     * chunks flushed because the off-heap memory is exhausted; chunks carrying the mask of the written pixels
+     * must be merged with the stored chunk, see {@link Chunk#mergeWith(Object)}
+     */
+    synchronized List<Chunk> write(Object data, int[] dataShape, int[] offset) {
+        final Rectangle dataRect = new Rectangle(offset[1], offset[0], dataShape[1], dataShape[0]);
+        final List<Chunk> completed = new ArrayList<>();
+        final int cx0 = dataRect.x / chunkWidth;
+        final int cy0 = dataRect.y / chunkHeight;
+        final int cx1 = (dataRect.x + dataRect.width - 1) / chunkWidth;
+        final int cy1 = (dataRect.y + dataRect.height - 1) / chunkHeight;
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                final Rectangle chunkRect = getChunkRect(cx, cy);
+                final Rectangle part = chunkRect.intersection(dataRect);
+                if (part.isEmpty()) {
+                    continue;
+                }
+                final long key = (long) cy << 32 | cx;
+                PartialChunk partial = partialChunks.get(key);
+                if (partial == null && part.equals(chunkRect)) {
+                    final Object chunkData = Array.newInstance(elemType, chunkRect.width * chunkRect.height);
+                    ZarrOpImage.copyIntersection(data, dataRect, chunkData, chunkRect);
+                    completed.add(toChunk(chunkData, chunkRect));
+                    completedChunks.set(cy * numChunksX + cx);
+                    continue;
+                }
+                if (partial == null) {
+                    partial = createPartialChunk(chunkRect, completed);
+                    partialChunks.put(key, partial);
+                }
+                partial.copy(data, dataRect, part);
+                if (partial.isComplete()) {
+                    partialChunks.remove(key);
+                    release(partial);
+                    completed.add(toChunk(partial.getData(), chunkRect));
+                    completedChunks.set(cy * numChunksX + cx);
+                }
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Removes all partially filled chunks. Pixels which were never written hold the fill value. Chunks which
+     * have been completed before carry the mask of the written pixels, see {@link Chunk#mergeWith(Object)}.
+     */
+    synchronized List<Chunk> drain() {
+        final List<Chunk> remaining = new ArrayList<>();
+        for (Map.Entry<Long, PartialChunk> entry : partialChunks.entrySet()) {
+            remaining.add(toIncompleteChunk(entry.getKey(), entry.getValue()));
+        }
+        partialChunks.clear();
+        return remaining;
+    }
+
+    synchronized int getPartialChunkCount() {
+        return partialChunks.size();
+    }
+
+    synchronized int getOffHeapChunkCount() {
+        int count = 0;
+        for (PartialChunk partial : partialChunks.values()) {
+            if (partial.offHeap != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Rectangle getChunkRect(int cx, int cy) {
+        final int x = cx * chunkWidth;
+        final int y = cy * chunkHeight;
+        return new Rectangle(x, y, Math.min(chunkWidth, width - x), Math.min(chunkHeight, height - y));
+    }
+
+    private static Chunk toChunk(Object data, Rectangle rect) {
+        return new Chunk(data, new int[]{rect.height, rect.width}, new int[]{rect.y, rect.x});
+    }
+
+    private Chunk toIncompleteChunk(long key, PartialChunk partial) {
+        final int chunkIndex = (int) (key >>> 32) * numChunksX + (int) key;
+        release(partial);
+        final Rectangle rect = partial.rect;
+        final BitSet written = completedChunks.get(chunkIndex) ? (BitSet) partial.filled.clone() : null;
+        return new Chunk(partial.getData(), new int[]{rect.height, rect.width}, new int[]{rect.y, rect.x}, written);
+    }
+
+    private PartialChunk createPartialChunk(Rectangle chunkRect, List<Chunk> completed) {
+        final int numElems = chunkRect.width * chunkRect.height;
+        final long numBytes = (long) numElems * elemSize;
+        final PartialChunk partial;
+        if (heapBytes + numBytes <= maxHeapBytes) {
+            heapBytes += numBytes;
+            partial = new PartialChunk(chunkRect, Array.newInstance(elemType, numElems), null);
+        } else {
+            while (offHeapBytes + numBytes > maxOffHeapBytes && flushFullestOffHeapChunk(completed)) {
+                // free off-heap memory until the chunk fits
+            }
+            offHeapBytes += numBytes;
+            final ByteBuffer buffer = ByteBuffer.allocateDirect((int) numBytes).order(ByteOrder.nativeOrder());
+            partial = new PartialChunk(chunkRect, null, buffer);
+        }
+        if (fillValue != null && fillValue.doubleValue() != 0) {
+            final Object values = partial.heap != null ? partial.heap : Array.newInstance(elemType, numElems);
+            fillArray(values, fillValue);
+            if (partial.offHeap != null) {
+                put(values, 0, partial.offHeap, 0, numElems);
+            }
+        }
+        return partial;
+    }
+
+    private boolean flushFullestOffHeapChunk(List<Chunk> completed) {
+        Map.Entry<Long, PartialChunk> fullest = null;
+        for (Map.Entry<Long, PartialChunk> entry : partialChunks.entrySet()) {
+            final PartialChunk partial = entry.getValue();
+            if (partial.offHeap != null && (fullest == null || partial.filledCount > fullest.getValue().filledCount)) {
+                fullest = entry;
+            }
+        }
+        if (fullest == null) {
+            return false;
+        }
+        final long key = fullest.getKey();
+        partialChunks.remove(key);
+        completed.add(toIncompleteChunk(key, fullest.getValue()));
+        // the pixels written later on must be merged with the flushed ones
+        completedChunks.set((int) (key >>> 32) * numChunksX + (int) key);
+        return true;
+    }
+
+    private void release(PartialChunk partial) {
+        final long numBytes = (long) partial.rect.width * partial.rect.height * elemSize;
+        if (partial.heap != null) {
+            heapBytes -= numBytes;
+        } else {
+            offHeapBytes -= numBytes;
+        }
+    }
+
+    private class PartialChunk {
+
+        private final Rectangle rect;
+        private final Object heap;
+        private final ByteBuffer offHeap;
+        private final BitSet filled;
+        private int filledCount;
+
+        PartialChunk(Rectangle rect, Object heap, ByteBuffer offHeap) {
+            this.rect = rect;
+            this.heap = heap;
+            this.offHeap = offHeap;
+            filled = new BitSet(rect.width * rect.height);
+        }
+
+        void copy(Object src, Rectangle srcRect, Rectangle part) {
+            for (int y = part.y; y < part.y + part.height; y++) {
+                final int srcIndex = (y - srcRect.y) * srcRect.width + part.x - srcRect.x;
+                final int destIndex = (y - rect.y) * rect.width + part.x - rect.x;
+                if (heap != null) {
+                    System.arraycopy(src, srcIndex, heap, destIndex, part.width);
+                } else {
+                    put(src, srcIndex, offHeap, destIndex, part.width);
+                }
+                filled.set(destIndex, destIndex + part.width);
+            }
+            filledCount = filled.cardinality();
+        }
+
+        boolean isComplete() {
+            return filledCount == rect.width * rect.height;
+        }
+
+        Object getData() {
+            if (heap != null) {
+                return heap;
+            }
+            final Object data = Array.newInstance(elemType, rect.width * rect.height);
+            get(offHeap, data);
+            return data;
+        }
+    }
+
+    private static void put(Object src, int srcIndex, ByteBuffer dest, int destIndex, int length) {
+        if (src instanceof byte[]) {
+            final ByteBuffer view = dest.duplicate();
+            view.position(destIndex);
+            view.put((byte[]) src, srcIndex, length);
+        } else if (src instanceof short[]) {
+            final ShortBuffer view = dest.asShortBuffer();
+            view.position(destIndex);
+            view.put((short[]) src, srcIndex, length);
+        } else if (src instanceof int[]) {
+            final IntBuffer view = dest.asIntBuffer();
+            view.position(destIndex);
+            view.put((int[]) src, srcIndex, length);
+        } else if (src instanceof float[]) {
+            final FloatBuffer view = dest.asFloatBuffer();
+            view.position(destIndex);
+            view.put((float[]) src, srcIndex, length);
+        } else if (src instanceof double[]) {
+            final DoubleBuffer view = dest.asDoubleBuffer();
+            view.position(destIndex);
+            view.put((double[]) src, srcIndex, length);
+        } else {
+            throw new IllegalArgumentException("Unsupported array type: " + src.getClass().getName());
+        }
+    }
+
+    private static void get(ByteBuffer src, Object dest) {
+        if (dest instanceof byte[]) {
+            src.duplicate().get((byte[]) dest);
+        } else if (dest instanceof short[]) {
+            src.asShortBuffer().get((short[]) dest);
+        } else if (dest instanceof int[]) {
+            src.asIntBuffer().get((int[]) dest);
+        } else if (dest instanceof float[]) {
+            src.asFloatBuffer().get((float[]) dest);
+        } else if (dest instanceof double[]) {
+            src.asDoubleBuffer().get((double[]) dest);
+        } else {
+            throw new IllegalArgumentException("Unsupported array type: " + dest.getClass().getName());
+        }
+    }
+
+    static void fillArray(Object array, Number value) {
+        if (array instanceof byte[]) {
+            Arrays.fill((byte[]) array, value.byteValue());
+        } else if (array instanceof short[]) {
+            Arrays.fill((short[]) array, value.shortValue());
+        } else if (array instanceof int[]) {
+            Arrays.fill((int[]) array, value.intValue());
+        } else if (array instanceof float[]) {
+            Arrays.fill((float[]) array, value.floatValue());
+        } else if (array instanceof double[]) {
+            Arrays.fill((double[]) array, value.doubleValue());
+        }
+    }
+
+    /**
+     * Checks whether all elements of the given array are equal to the given value. Floating point elements
+     * are compared bitwise, so that a NaN value matches all NaN elements.
+     *
+     * @return {@code false} if the value is {@code null} or at least one element differs
+     */
+    static boolean isFilledWith(Object array, Number value) {
+        if (value == null) {
+            return false;
+        }
+        if (array instanceof byte[]) {
+            final byte v = value.byteValue();
+            for (byte b : (byte[]) array) {
+                if (b != v) {
+                    return false;
+                }
+            }
+        } else if (array instanceof short[]) {
+            final short v = value.shortValue();
+            for (short s : (short[]) array) {
+                if (s != v) {
+                    return false;
+                }
+            }
+        } else if (array instanceof int[]) {
+            final int v = value.intValue();
+            for (int i : (int[]) array) {
+                if (i != v) {
+                    return false;
+                }
+            }
+        } else if (array instanceof float[]) {
+            final int v = Float.floatToIntBits(value.floatValue());
+            for (float f : (float[]) array) {
+                if (Float.floatToIntBits(f) != v) {
+                    return false;
+                }
+            }
+        } else if (array instanceof double[]) {
+            final long v = Double.doubleToLongBits(value.doubleValue());
+            for (double d : (double[]) array) {
+                if (Double.doubleToLongBits(d) != v) {
+                    return false;
+                }
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.esa.snap.runtime.Config;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants.DEFAULT_CHUNK_CACHE_SIZE_MB;
+import static org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants.PROPERTY_NAME_CHUNK_CACHE_SIZE_MB;
+
+/**
+ * A process wide, byte bounded LRU cache of decoded zarr chunks.
+ * Chunks are identified by the store they are read from, the array key within
+ * the store and the chunk index. The cached values are the decoded primitive
+ * java arrays (e.g. {@code short[]}) of a chunk.
+ */
+final class ChunkCache {
+
+    private static ChunkCache instance;
+
+    private final LinkedHashMap<Key, Object> chunks = new LinkedHashMap<>(64, 0.75f, true);
+    private final long maxSizeInBytes;
+    private long sizeInBytes;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    ChunkCache(long maxSizeInBytes) {
+        this.maxSizeInBytes = maxSizeInBytes;
+    }
+
+    static synchronized ChunkCache getInstance() {
+        if (instance == null) {
+            instance = new ChunkCache(getConfiguredSizeInBytes());
+        }
+        return instance;
+    }
+
+    interface ChunkLoader {
+        Object load() throws IOException;
+    }
+
+    boolean isEnabled() {
+        return maxSizeInBytes > 0;
+    }
+
+    /**
+     * Returns the chunk data for the given chunk. If the chunk is not already cached
+     * it is loaded by the given loader and put into the cache.
+     * The loader is called outside of the cache lock. So concurrent requests for the
+     * same not yet cached chunk might load the chunk more than once, but the cache
+     * will never block while decoding.
+     *
+     * @param store      the store the chunk is read from
+     * @param arrayKey   the key of the array within the store
+     * @param chunkIndex the chunk index in common data model manner { y, x }
+     * @param loader     loads the chunk if it is not cached
+     *
+     * @return the decoded chunk data
+     *
+     * @throws IOException if the loader fails
+     */
+    Object get(Object store, String arrayKey, int[] chunkIndex, ChunkLoader loader) throws IOException {
+        if (!isEnabled()) {
+            return loader.load();
+        }
+        final Key key = new Key(store, arrayKey, chunkIndex);
+        synchronized (this) {
+            final Object cached = chunks.get(key);
+            if (cached != null) {
+                hitCount++;
+                return cached;
+            }
+            missCount++;
+        }
+        final Object loaded = loader.load();
+        put(key, loaded);
+        return loaded;
+    }
+
+    /**
+     * Removes all chunks of the given store from the cache. Should be called if a store is closed.
+     *
+     * @param store the store
+     */
+    synchronized void invalidate(Object store) {
+        final Iterator<Map.Entry<Key, Object>> iterator = chunks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Key, Object> entry = iterator.next();
+            if (entry.getKey().store == store) {
+                sizeInBytes -= sizeOf(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        chunks.clear();
+        sizeInBytes = 0;
+    }
+
+    synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    long getMaxSizeInBytes() {
+        return maxSizeInBytes;
+    }
+
+    synchronized int getChunkCount() {
+        return chunks.size();
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ChunkCache{" +
+               "chunks=" + chunks.size() +
+               ", sizeInBytes=" + sizeInBytes +
+               ", maxSizeInBytes=" + maxSizeInBytes +
+               ", hits=" + hitCount +
+               ", misses=" + missCount +
+               ", evictions=" + evictionCount +
+               '}';
+    }
+
+    private synchronized void put(Key key, Object data) {
+        final long size = sizeOf(data);
+        if (size > maxSizeInBytes) {
+            return;
+        }
+        final Object previous = chunks.put(key, data);
+        if (previous != null) {
+            sizeInBytes -= sizeOf(previous);
+        }
+        sizeInBytes += size;
+        final Iterator<Map.Entry<Key, Object>> eldestFirst = chunks.entrySet().iterator();
+        while (sizeInBytes > maxSizeInBytes && eldestFirst.hasNext()) {
+            final Map.Entry<Key, Object> eldest = eldestFirst.next();
+            sizeInBytes -= sizeOf(eldest.getValue());
+            eldestFirst.remove();
+            evictionCount++;
+        }
+    }
+
+    static long sizeOf(Object primitiveArray) {
+        final Class<?> type = primitiveArray.getClass().getComponentType();
+        final int length = Array.getLength(primitiveArray);
+        if (type == byte.class) {
+            return length;
+        } else if (type == short.class) {
+            return 2L * length;
+        } else if (type == int.class || type == float.class) {
+            return 4L * length;
+        } else {
+            return 8L * length;
+        }
+    }
+
+    private static long getConfiguredSizeInBytes() {
+        final int sizeMB = Config.instance("snap").load().preferences()
+                .getInt(PROPERTY_NAME_CHUNK_CACHE_SIZE_MB, DEFAULT_CHUNK_CACHE_SIZE_MB);
+        return Math.max(0, sizeMB) * 1024L * 1024L;
+    }
+
+    private static final class Key {
+
+        private final Object store;
+        private final String arrayKey;
+        private final int[] chunkIndex;
+        private final int hash;
+
+        private Key(Object store, String arrayKey, int[] chunkIndex) {
+            this.store = store;
+            this.arrayKey = arrayKey;
+            this.chunkIndex = chunkIndex;
+            this.hash = 31 * (31 * System.identityHashCode(store) + arrayKey.hashCode()) + Arrays.hashCode(chunkIndex);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return store == key.store
+                   && arrayKey.equals(key.arrayKey)
+                   && Arrays.equals(chunkIndex, key.chunkIndex);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.snap.dataio.znap.snap;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A compressor or filter applied to the bytes of a chunk. The configuration is the numcodecs
+ * compatible JSON object recorded in the {@code compressor} or {@code filters} entry of the
+ * array header.
+ */
+interface ChunkCodec {
+
+    String getId();
+
+    Map<String, Object> getConfig();
+
+    byte[] encode(byte[] data) throws IOException;
+
+    /**
+     * @param data           the encoded bytes
+     * @param maxDecodedSize an upper bound of the decoded size, used if the encoded data does not contain it
+     */
+    byte[] decode(byte[] data, int maxDecodedSize) throws IOException;
+}
@@ -0,0 +1,685 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.snap.dataio.znap.snap;
+
+import io.airlift.compress.MalformedInputException;
+import io.airlift.compress.lz4.Lz4Compressor;
+import io.airlift.compress.lz4.Lz4Decompressor;
+import io.airlift.compress.zstd.ZstdCompressor;
+import io.airlift.compress.zstd.ZstdDecompressor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Pure Java chunk codecs which are not provided by jzarr. The encoded data is compatible
+ * with the corresponding numcodecs codecs, so the products can also be read by zarr-python.
+ * The only exception is the bitshuffle filter, which numcodecs provides as part of blosc only.
+ * It is not offered for writing any more and only decodes products written by earlier versions.
+ * <p>
+ * zstd and lz4 are implemented with aircompressor, which compresses with fixed parameters only:
+ * zstd level 3 and lz4 acceleration 1. Blosc is not implemented here, jzarr compresses blosc
+ * chunks with the native c-blosc library through jblosc.
+ */
+final class ChunkCodecs {
+
+    static final String ID_ZLIB = "zlib";
+    static final String ID_ZSTD = "zstd";
+    static final String ID_LZ4 = "lz4";
+    static final String ID_SHUFFLE = "shuffle";
+    static final String ID_BITSHUFFLE = "bitshuffle";
+    static final String ID_DELTA = "delta";
+    static final String ID_FIXED_SCALE_OFFSET = "fixedscaleoffset";
+
+    private ChunkCodecs() {
+    }
+
+    /**
+     * @return whether the compressor is implemented here and not by jzarr
+     */
+    static boolean isSupportedCompressor(String id) {
+        return ID_ZSTD.equals(id) || ID_LZ4.equals(id);
+    }
+
+    static ChunkCodec createCompressor(String id) {
+        return createCompressor(id, -1);
+    }
+
+    /**
+     * @param level the compression level, only used by zlib. zstd and lz4 compress with fixed parameters.
+     */
+    static ChunkCodec createCompressor(String id, int level) {
+        if (ID_ZSTD.equals(id)) {
+            return new ZstdCodec();
+        } else if (ID_LZ4.equals(id)) {
+            return new Lz4Codec();
+        } else if (ID_ZLIB.equals(id)) {
+            return new ZlibCodec(level);
+        }
+        throw new IllegalArgumentException("Unsupported compressor '" + id + "'.");
+    }
+
+    /**
+     * @param config the compressor configuration as found in an array header
+     *
+     * @return the compressor or {@code null} if the compressor is not implemented here
+     */
+    static ChunkCodec compressorFromConfig(Map<String, Object> config) {
+        if (config == null) {
+            return null;
+        }
+        final Object id = config.get("id");
+        if (ID_ZLIB.equals(id)) {
+            final Object level = config.get("level");
+            return new ZlibCodec(level instanceof Number ? ((Number) level).intValue() : -1);
+        } else if (id instanceof String && isSupportedCompressor((String) id)) {
+            return createCompressor((String) id);
+        }
+        return null;
+    }
+
+    /**
+     * @param config the filter configuration as found in an array header
+     * @param dtype  the data type of the array
+     *
+     * @return the filter or {@code null} if the filter is not implemented here
+     */
+    static ChunkCodec filterFromConfig(Map<String, Object> config, String dtype) {
+        final Object id = config.get("id");
+        final ElementType elementType = new ElementType(dtype);
+        if (ID_SHUFFLE.equals(id)) {
+            return new ShuffleFilter(getInt(config, "elementsize", elementType.size));
+        } else if (ID_BITSHUFFLE.equals(id)) {
+            return new BitshuffleFilter(getInt(config, "elementsize", elementType.size));
+        } else if (ID_DELTA.equals(id)) {
+            final Object filterDtype = config.get("dtype");
+            return new DeltaFilter(filterDtype instanceof String ? (String) filterDtype : dtype);
+        } else if (ID_FIXED_SCALE_OFFSET.equals(id)) {
+            final Object filterDtype = config.get("dtype");
+            return new FixedScaleOffsetFilter(filterDtype instanceof String ? (String) filterDtype : dtype,
+                                              (String) config.get("astype"),
+                                              ((Number) config.get("scale")).doubleValue(),
+                                              ((Number) config.get("offset")).doubleValue());
+        }
+        return null;
+    }
+
+    /**
+     * Creates filters from a specification like {@code "delta,shuffle"} or
+     * {@code "fixedscaleoffset(scale=100;offset=0;astype=i2),shuffle"}.
+     *
+     * @param spec  the comma separated filter specification, may be {@code null} or empty
+     * @param dtype the data type of the array, e.g. {@code ">i2"}
+     */
+    static List<ChunkCodec> createFilters(String spec, String dtype) {
+        if (spec == null || spec.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<ChunkCodec> filters = new ArrayList<>();
+        for (String filterSpec : spec.split(",")) {
+            final Map<String, Object> config = new LinkedHashMap<>();
+            String id = filterSpec.trim();
+            final int paramsStart = id.indexOf('(');
+            if (paramsStart >= 0) {
+                if (!id.endsWith(")")) {
+                    throw new IllegalArgumentException("Invalid filter specification '" + filterSpec + "'.");
+                }
+                for (String param : id.substring(paramsStart + 1, id.length() - 1).split(";")) {
+                    final String[] keyValue = param.split("=", 2);
+                    if (keyValue.length != 2) {
+                        throw new IllegalArgumentException("Invalid filter parameter '" + param + "'.");
+                    }
+                    config.put(keyValue[0].trim(), parseValue(keyValue[1].trim(), dtype));
+                }
+                id = id.substring(0, paramsStart).trim();
+            }
+            config.put("id", id);
+            if (ID_BITSHUFFLE.equals(id)) {
+                throw new IllegalArgumentException("The bitshuffle filter can not be read by zarr-python, " +
+                                                   "use blosc with bit shuffle instead.");
+            }
+            final ChunkCodec filter = filterFromConfig(config, dtype);
+            if (filter == null) {
+                throw new IllegalArgumentException("Unsupported filter '" + id + "'.");
+            }
+            filters.add(filter);
+        }
+        return filters;
+    }
+
+    private static Object parseValue(String value, String dtype) {
+        try {
+            return Double.valueOf(value);
+        } catch (NumberFormatException e) {
+            // a data type without byte order gets the byte order of the array
+            return value.matches("[iuf][1248]") ? dtype.charAt(0) + value : value;
+        }
+    }
+
+    private static int getInt(Map<String, Object> config, String key, int defaultValue) {
+        final Object value = config.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+
+    private static Map<String, Object> config(String id, Object... keyValuePairs) {
+        final Map<String, Object> config = new LinkedHashMap<>();
+        config.put("id", id);
+        for (int i = 0; i < keyValuePairs.length; i += 2) {
+            config.put((String) keyValuePairs[i], keyValuePairs[i + 1]);
+        }
+        return config;
+    }
+
+    /**
+     * The kind, size and byte order of a numpy data type string like {@code "<f4"}.
+     */
+    static final class ElementType {
+
+        final String dtype;
+        final char kind;
+        final int size;
+        final ByteOrder byteOrder;
+
+        ElementType(String dtype) {
+            this.dtype = dtype;
+            kind = dtype.charAt(1);
+            size = Integer.parseInt(dtype.substring(2));
+            byteOrder = dtype.charAt(0) == '>' ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        }
+
+        boolean isInteger() {
+            return kind == 'i' || kind == 'u';
+        }
+
+        long getMinLong() {
+            return kind == 'u' ? 0 : size == 8 ? Long.MIN_VALUE : -(1L << (size * 8 - 1));
+        }
+
+        long getMaxLong() {
+            if (size == 8) {
+                return Long.MAX_VALUE;
+            }
+            return kind == 'u' ? (1L << (size * 8)) - 1 : (1L << (size * 8 - 1)) - 1;
+        }
+
+        long getLong(ByteBuffer buffer, int index) {
+            final int pos = index * size;
+            switch (size) {
+                case 1:
+                    return kind == 'u' ? Byte.toUnsignedLong(buffer.get(pos)) : buffer.get(pos);
+                case 2:
+                    return kind == 'u' ? Short.toUnsignedLong(buffer.getShort(pos)) : buffer.getShort(pos);
+                case 4:
+                    return kind == 'u' ? Integer.toUnsignedLong(buffer.getInt(pos)) : buffer.getInt(pos);
+                default:
+                    return buffer.getLong(pos);
+            }
+        }
+
+        void putLong(ByteBuffer buffer, int index, long value) {
+            final int pos = index * size;
+            switch (size) {
+                case 1:
+                    buffer.put(pos, (byte) value);
+                    break;
+                case 2:
+                    buffer.putShort(pos, (short) value);
+                    break;
+                case 4:
+                    buffer.putInt(pos, (int) value);
+                    break;
+                default:
+                    buffer.putLong(pos, value);
+            }
+        }
+
+        double getDouble(ByteBuffer buffer, int index) {
+            if (kind == 'f') {
+                return size == 4 ? buffer.getFloat(index * size) : buffer.getDouble(index * size);
+            }
+            return getLong(buffer, index);
+        }
+
+        void putDouble(ByteBuffer buffer, int index, double value) {
+            if (kind == 'f') {
+                if (size == 4) {
+                    buffer.putFloat(index * size, (float) value);
+                } else {
+                    buffer.putDouble(index * size, value);
+                }
+            } else {
+                putLong(buffer, index, (long) value);
+            }
+        }
+    }
+
+    /**
+     * zlib streams as written by jzarr and numcodecs.
+     */
+    static final class ZlibCodec implements ChunkCodec {
+
+        private final int level;
+
+        ZlibCodec(int level) {
+            this.level = level;
+        }
+
+        @Override
+        public String getId() {
+            return ID_ZLIB;
+        }
+
+        @Override
+        public Map<String, Object> getConfig() {
+            return config(ID_ZLIB, "level", level);
+        }
+
+        @Override
+        public byte[] encode(byte[] data) {
+            final Deflater deflater = new Deflater(level);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(data.length / 2, 64));
+                final byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        public byte[] decode(byte[] data, int maxDecodedSize) throws IOException {
+            final Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data);
+                final byte[] decompressed = new byte[maxDecodedSize];
+                int size = 0;
+                while (!inflater.finished() && size < decompressed.length) {
+                    final int n = inflater.inflate(decompressed, size, decompressed.length - size);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Truncated zlib compressed chunk.");
+                    }
+                    size += n;
+                }
+                return size == decompressed.length ? decompressed : Arrays.copyOf(decompressed, size);
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid zlib compressed chunk.", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Zstandard frames. The frame header contains the decompressed size. The level can not be configured,
+     * aircompressor always compresses with the zstd default level, which is recorded in the configuration.
+     */
+    static final class ZstdCodec implements ChunkCodec {
+
+        private static final int LEVEL = 3;
+
+        @Override
+        public String getId() {
+            return ID_ZSTD;
+        }
+
+        @Override
+        public Map<String, Object> getConfig() {
+            return config(ID_ZSTD, "level", LEVEL);
+        }
+
+        @Override
+        public byte[] encode(byte[] data) {
+            final ZstdCompressor compressor = new ZstdCompressor();
+            final byte[] compressed = new byte[compressor.maxCompressedLength(data.length)];
+            final int size = compressor.compress(data, 0, data.length, compressed, 0, compressed.length);
+            return Arrays.copyOf(compressed, size);
+        }
+
+        @Override
+        public byte[] decode(byte[] data, int maxDecodedSize) throws IOException {
+            final long frameSize = ZstdDecompressor.getDecompressedSize(data, 0, data.length);
+            final byte[] decompressed = new byte[frameSize >= 0 ? (int) frameSize : maxDecodedSize];
+            try {
+                final int size = new ZstdDecompressor().decompress(data, 0, data.length, decompressed, 0, decompressed.length);
+                return size == decompressed.length ? decompressed : Arrays.copyOf(decompressed, size);
+            } catch (MalformedInputException e) {
+                throw new IOException("Invalid zstd compressed chunk.", e);
+            }
+        }
+    }
+
+    /**
+     * LZ4 blocks prefixed by the decompressed size as 32 bit little endian integer, like numcodecs does.
+     * The acceleration can not be configured, aircompressor always compresses with the default acceleration.
+     */
+    static final class Lz4Codec implements ChunkCodec {
+
+        private static final int ACCELERATION = 1;
+        private static final int HEADER_SIZE = 4;
+
+        @Override
+        public String getId() {
+            return ID_LZ4;
+        }
+
+        @Override
+        public Map<String, Object> getConfig() {
+            return config(ID_LZ4, "acceleration", ACCELERATION);
+        }
+
+        @Override
+        public byte[] encode(byte[] data) {
+            final Lz4Compressor compressor = new Lz4Compressor();
+            final byte[] compressed = new byte[HEADER_SIZE + compressor.maxCompressedLength(data.length)];
+            ByteBuffer.wrap(compressed).order(ByteOrder.LITTLE_ENDIAN).putInt(data.length);
+            final int size = compressor.compress(data, 0, data.length, compressed, HEADER_SIZE, compressed.length - HEADER_SIZE);
+            return Arrays.copyOf(compressed, HEADER_SIZE + size);
+        }
+
+        @Override
+        public byte[] decode(byte[] data, int maxDecodedSize) throws IOException {
+            if (data.length < HEADER_SIZE) {
+                throw new IOException("Invalid lz4 compressed chunk.");
+            }
+            final int decodedSize = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getInt();
+            if (decodedSize < 0 || decodedSize > maxDecodedSize) {
+                throw new IOException("Invalid size " + decodedSize + " of lz4 compressed chunk.");
+            }
+            final byte[] decompressed = new byte[decodedSize];
+            try {
+                new Lz4Decompressor().decompress(data, HEADER_SIZE, data.length - HEADER_SIZE, decompressed, 0, decodedSize);
+            } catch (MalformedInputException e) {
+                throw new IOException("Invalid lz4 compressed chunk.", e);
+            }
+            return decompressed;
+        }
+    }
+
+    /**
+     * Groups the n-th bytes of all elements, so that e.g. the slowly varying high bytes of
+     * 16 bit integers are stored next to each other.
+     */
+    static final class ShuffleFilter implements ChunkCodec {
+
+        private final int elementSize;
+
+        ShuffleFilter(int elementSize) {
+            this.elementSize = elementSize;
+        }
+
+        @Override
+        public String getId() {
+            return ID_SHUFFLE;
+        }
+
+        @Override
+        public Map<String, Object> getConfig() {
+            return config(ID_SHUFFLE, "elementsize", elementSize);
+        }
+
+        @Override
+        public byte[] encode(byte[] data) {
+            final byte[] shuffled = data.clone();
+            final int count = data.length / elementSize;
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < elementSize; j++) {
+                    shuffled[j * count + i] = data[i * elementSize + j];
+                }
+            }
+            return shuffled;
+        }
+
+        @Override
+        public byte[] decode(byte[] data, int maxDecodedSize) {
+            final byte[] unshuffled = data.clone();
+            final int count = data.length / elementSize;
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < elementSize; j++) {
+                    unshuffled[i * elementSize + j] = data[j * count + i];
+                }
+            }
+            return unshuffled;
+        }
+    }
+
+    /**
+     * Groups the n-th bits of all elements. The bit matrix of all elements of the chunk, rounded down to a
+     * multiple of eight elements, is transposed as a whole; trailing elements are copied unchanged. This is not
+     * the blocked layout of the bitshuffle library, the filter is kept for reading products of earlier versions.
+     */
+    static final class BitshuffleFilter implements ChunkCodec {
+
+        private final int elementSize;
+
+        BitshuffleFilter(int elementSize) {
+            this.elementSize = elementSize;
+        }
+
+        @Override
+        public String getId() {
+            return ID_BITSHUFFLE;
+        }
+
+        @Override
+        public Map<String, Object> getConfig() {
+            return config(ID_BITSHUFFLE, "elementsize", elementSize);
+        }
+
+        @Override
+        public byte[] encode(byte[] data) {
+            final byte[] shuffled = data.clone();
+            final int count = data.length / elementSize / 8 * 8;
+            final int bitsPerElement = elementSize * 8;
+            Arrays.fill(shuffled, 0, count * elementSize, (byte) 0);
+            for (int i = 0; i < count; i++) {
+                for (int b = 0; b < bitsPerElement; b++) {
+                    if (getBit(data, i * bitsPerElement + b)) {
+                        setBit(shuffled, b * count + i);
+                    }
+                }
+            }
+            return shuffled;
+        }
+
+        @Override
+        public byte[] decode(byte[] data, int maxDecodedSize) {
+            final byte[] unshuffled = data.clone();
+            final int count = data.length / elementSize / 8 * 8;
+            final int bitsPerElement = elementSize * 8;
+            Arrays.fill(unshuffled, 0, count * elementSize, (byte) 0);
+            for (int i = 0; i < count; i++) {
+                for (int b = 0; b < bitsPerElement; b++) {
+                    if (getBit(data, b * count + i)) {
+                        setBit(unshuffled, i * bitsPerElement + b);
+                    }
+                }
+            }
+            return unshuffled;
+        }
+
+        private static boolean getBit(byte[] bytes, int bitIndex) {
+            return (bytes[bitIndex >> 3] & (1 << (bitIndex & 7))) != 0;
+        }
+
+        private static void setBit(byte[] bytes, int bitIndex) {
+            bytes[bitIndex >> 3] |= 1 << (bitIndex & 7);
+        }
+    }
+
+    /**
+     * Stores the differences between consecutive integer elements.
+     */
+    static final class DeltaFilter implements ChunkCodec {
+
+        private final ElementType type;
+
+        DeltaFilter(String dtype) {
+            type = new ElementType(dtype);
+            if (!type.isInteger()) {
+                throw new IllegalArgumentException("The delta filter supports integer data types only, not '" + dtype + "'.");
+            }
+        }
+
+        @Override
+        public String getId() {
+            return ID_DELTA;
+        }
+
+        @Override
+        public Map<String, Object> getConfig() {
+            return config(ID_DELTA, "dtype", type.dtype);
+        }
+
+        @Override
+        public byte[] encode(byte[] data) {
+            final byte[] encoded = data.clone();
+            final ByteBuffer in = ByteBuffer.wrap(data).order(type.byteOrder);
+            final ByteBuffer out = ByteBuffer.wrap(encoded).order(type.byteOrder);
+            final int count = data.length / type.size;
+            long previous = 0;
+            for (int i = 0; i < count; i++) {
+                final long value = type.getLong(in, i);
+                type.putLong(out, i, value - previous);
+                previous = value;
+            }
+            return encoded;
+        }
+
+        @Override
+        public byte[] decode(byte[] data, int maxDecodedSize) {
+            final byte[] decoded = data.clone();
+            final ByteBuffer in = ByteBuffer.wrap(data).order(type.byteOrder);
+            final ByteBuffer out = ByteBuffer.wrap(decoded).order(type.byteOrder);
+            final int count = data.length / type.size;
+            long sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += type.getLong(in, i);
+                type.putLong(out, i, sum);
+            }
+            return decoded;
+        }
+    }
+
+    /**
+     * Stores {@code round((value - offset) * scale)} as integers of a smaller data type. Values outside the range
+     * of the storage data type are clamped to its minimum or maximum.
+     */
+    /**
+     * Stores values as {@code round((value - offset) * scale)} in an integer type. As numcodecs, values are rounded
+     * half to even and decoded into integer types by truncation.
+     */
+    static final class FixedScaleOffsetFilter implements ChunkCodec {
+
+        private final ElementType type;
+        private final ElementType storageType;
+        private final double scale;
+        private final double offset;
+        private double nanValue = Double.NaN;
+
+        FixedScaleOffsetFilter(String dtype, String astype, double scale, double offset) {
+            if (astype == null) {
+                throw new IllegalArgumentException("The fixed scale offset filter requires a storage data type.");
+            }
+            this.type = new ElementType(dtype);
+            this.storageType = new ElementType(astype);
+            if (!storageType.isInteger()) {
+                throw new IllegalArgumentException("The fixed scale offset filter requires an integer storage data type, not '" + astype + "'.");
+            }
+            this.scale = scale;
+            this.offset = offset;
+        }
+
+        /**
+         * The integer storage types can not represent NaN, so NaN values of floating point data are encoded
+         * like the fill value of the array, which readers treat as no-data.
+         *
+         * @param fillValue the fill value of the array
+         *
+         * @throws IllegalArgumentException if the data is floating point and the fill value is NaN or missing
+         */
+        void setFillValue(Number fillValue) {
+            if (type.isInteger()) {
+                return;
+            }
+            if (fillValue == null || Double.isNaN(fillValue.doubleValue())) {
+                throw new IllegalArgumentException("The fixed scale offset filter requires a fill value other than NaN.");
+            }
+            nanValue = fillValue.doubleValue();
+        }
+
+        @Override
+        public String getId() {
+            return ID_FIXED_SCALE_OFFSET;
+        }
+
+        @Override
+        public Map<String, Object> getConfig() {
+            return config(ID_FIXED_SCALE_OFFSET, "scale", scale, "offset", offset,
+                          "dtype", type.dtype, "astype", storageType.dtype);
+        }
+
+        @Override
+        public byte[] encode(byte[] data) {
+            final int count = data.length / type.size;
+            final byte[] encoded = new byte[count * storageType.size];
+            final ByteBuffer in = ByteBuffer.wrap(data).order(type.byteOrder);
+            final ByteBuffer out = ByteBuffer.wrap(encoded).order(storageType.byteOrder);
+            final long min = storageType.getMinLong();
+            final long max = storageType.getMaxLong();
+            for (int i = 0; i < count; i++) {
+                double value = type.getDouble(in, i);
+                if (Double.isNaN(value)) {
+                    if (Double.isNaN(nanValue)) {
+                        throw new IllegalArgumentException("The fixed scale offset filter can not encode NaN without a fill value.");
+                    }
+                    value = nanValue;
+                }
+                final long encodedValue = (long) Math.rint((value - offset) * scale);
+                storageType.putLong(out, i, Math.min(max, Math.max(min, encodedValue)));
+            }
+            return encoded;
+        }
+
+        @Override
+        public byte[] decode(byte[] data, int maxDecodedSize) {
+            final int count = data.length / storageType.size;
+            final byte[] decoded = new byte[count * type.size];
+            final ByteBuffer in = ByteBuffer.wrap(data).order(storageType.byteOrder);
+            final ByteBuffer out = ByteBuffer.wrap(decoded).order(type.byteOrder);
+            for (int i = 0; i < count; i++) {
+                final double value = storageType.getDouble(in, i) / scale + offset;
+                type.putDouble(out, i, value);
+            }
+            return decoded;
+        }
+    }
+}
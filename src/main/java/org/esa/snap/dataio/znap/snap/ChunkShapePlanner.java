@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+/**
+ * Plans the chunk shape of a band array. In the automatic mode the tile shape of the source image is
+ * grown in multiples of the tile size, or shrunk if a single tile is too large, until a chunk holds
+ * about the target number of bytes. Growing in multiples keeps the source tiles aligned to the chunk grid,
+ * so that the chunks can be assembled without copying pixels twice. Pixel wise access, e.g. for time
+ * series of single pixels over many products, favours smaller chunks, because every read decodes a
+ * whole chunk.
+ */
+final class ChunkShapePlanner {
+
+    static final String MODE_AUTO = "auto";
+    static final String MODE_TILE = "tile";
+
+    /**
+     * The chunk size in bytes for pixel wise access is the target size divided by this factor.
+     */
+    private static final int PIXEL_ACCESS_DIVISOR = 16;
+
+    enum AccessPattern {
+        TILE, PIXEL;
+
+        static AccessPattern parse(String value) {
+            return valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    private final int[] fixedChunks;
+    private final boolean useTileShape;
+    private final long targetBytes;
+
+    private ChunkShapePlanner(int[] fixedChunks, boolean useTileShape, long targetBytes) {
+        this.fixedChunks = fixedChunks;
+        this.useTileShape = useTileShape;
+        this.targetBytes = targetBytes;
+    }
+
+    /**
+     * @param mode          "auto", "tile" to use the source tile shape or a fixed chunk shape given as {@code <width>x<height>}
+     * @param targetBytes   the target number of uncompressed bytes per chunk
+     * @param accessPattern the expected access pattern of readers
+     */
+    static ChunkShapePlanner create(String mode, long targetBytes, AccessPattern accessPattern) {
+        final String value = mode.trim().toLowerCase();
+        if (MODE_AUTO.equals(value)) {
+            if (targetBytes <= 0) {
+                throw new IllegalArgumentException("The target chunk size must be positive.");
+            }
+            final long bytes = accessPattern == AccessPattern.PIXEL ? targetBytes / PIXEL_ACCESS_DIVISOR : targetBytes;
+            return new ChunkShapePlanner(null, false, Math.max(1, bytes));
+        }
+        if (MODE_TILE.equals(value)) {
+            return new ChunkShapePlanner(null, true, 0);
+        }
+        final String[] parts = value.split("x");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid chunk shape '" + mode + "'. Expected 'auto', 'tile' or '<width>x<height>'.");
+        }
+        final int width = Integer.parseInt(parts[0].trim());
+        final int height = Integer.parseInt(parts[1].trim());
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid chunk shape '" + mode + "'. The chunk size must be positive.");
+        }
+        return new ChunkShapePlanner(new int[]{height, width}, false, 0);
+    }
+
+    /**
+     * @param shape     the array shape in common data model manner { y, x }
+     * @param tileShape the tile shape of the source image in common data model manner { y, x }
+     * @param elemSize  the number of bytes per element
+     *
+     * @return the chunk shape in common data model manner { y, x }, never larger than the array shape
+     */
+    int[] plan(int[] shape, int[] tileShape, int elemSize) {
+        if (fixedChunks != null) {
+            return trim(fixedChunks[0], fixedChunks[1], shape);
+        }
+        if (useTileShape) {
+            return trim(tileShape[0], tileShape[1], shape);
+        }
+        long height = Math.max(1, Math.min(tileShape[0], shape[0]));
+        long width = Math.max(1, Math.min(tileShape[1], shape[1]));
+        // shrink oversized tiles, e.g. a single tile covering the whole raster
+        while (height * width * elemSize > targetBytes && (height > 1 || width > 1)) {
+            if (width >= height) {
+                width = (width + 1) / 2;
+            } else {
+                height = (height + 1) / 2;
+            }
+        }
+        // grow the smaller dimension first, so that chunks of strip tiles become wider blocks
+        while (true) {
+            final boolean growWidth = width < shape[1] && (width <= height || height >= shape[0]);
+            final boolean growHeight = !growWidth && height < shape[0];
+            if (!growWidth && !growHeight) {
+                break;
+            }
+            final long newWidth = growWidth ? Math.min(2 * width, shape[1]) : width;
+            final long newHeight = growHeight ? Math.min(2 * height, shape[0]) : height;
+            if (newHeight * newWidth * elemSize > targetBytes) {
+                break;
+            }
+            width = newWidth;
+            height = newHeight;
+        }
+        return new int[]{(int) height, (int) width};
+    }
+
+    private static int[] trim(int height, int width, int[] shape) {
+        return new int[]{Math.min(height, shape[0]), Math.min(width, shape[1])};
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import ucar.ma2.InvalidRangeException;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes chunk write tasks (compression and storing) on a bounded pool of worker threads.
+ * The amount of data held by queued tasks is limited by a memory budget. If the budget is
+ * exhausted, {@link #submit(long, WriteTask)} blocks until running tasks have released
+ * their memory. The first error of any task is rethrown by the next call to
+ * {@link #submit(long, WriteTask)}, {@link #flush()} or {@link #close()}.
+ * <p>
+ * If the pipeline is created with zero threads, the tasks are executed synchronously
+ * on the calling thread.
+ */
+final class ChunkWritePipeline {
+
+    private static final int KB = 1024;
+
+    private final ExecutorService executor;
+    private final Semaphore memoryBudget;
+    private final int maxPermits;
+    private final WriteMetrics metrics;
+    private final Object lock = new Object();
+    private int pendingTasks;
+    private Throwable firstError;
+
+    interface WriteTask {
+        void run() throws IOException, InvalidRangeException;
+    }
+
+    /**
+     * @param numThreads     the number of worker threads. Zero means synchronous execution.
+     * @param maxQueuedBytes the maximum number of bytes held by submitted but not yet finished tasks
+     */
+    ChunkWritePipeline(int numThreads, long maxQueuedBytes) {
+        this(numThreads, maxQueuedBytes, null);
+    }
+
+    /**
+     * @param numThreads     the number of worker threads. Zero means synchronous execution.
+     * @param maxQueuedBytes the maximum number of bytes held by submitted but not yet finished tasks
+     * @param metrics        records the time submitters are blocked by the exhausted memory budget, may be {@code null}
+     */
+    ChunkWritePipeline(int numThreads, long maxQueuedBytes, WriteMetrics metrics) {
+        this.metrics = metrics;
+        if (numThreads > 0) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(numThreads, r -> {
+                final Thread thread = new Thread(r, "znap-chunk-writer-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            executor = null;
+        }
+        maxPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxQueuedBytes / KB));
+        memoryBudget = new Semaphore(maxPermits);
+    }
+
+    boolean isAsynchronous() {
+        return executor != null;
+    }
+
+    /**
+     * Submits a write task. Blocks while the memory budget is exhausted.
+     *
+     * @param sizeInBytes the number of bytes held by the task until it is finished
+     * @param task        the task
+     *
+     * @throws IOException if the task fails in synchronous mode or a previously submitted task failed
+     */
+    void submit(long sizeInBytes, WriteTask task) throws IOException {
+        rethrowError();
+        if (executor == null) {
+            runTask(task);
+            rethrowError();
+            return;
+        }
+        final int permits = (int) Math.min(maxPermits, Math.max(1, sizeInBytes / KB));
+        try {
+            if (!memoryBudget.tryAcquire(permits)) {
+                final long start = System.nanoTime();
+                memoryBudget.acquire(permits);
+                if (metrics != null) {
+                    metrics.recordQueueWait(System.nanoTime() - start);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the chunk write queue.", e);
+        }
+        synchronized (lock) {
+            pendingTasks++;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    runTask(task);
+                } finally {
+                    memoryBudget.release(permits);
+                    synchronized (lock) {
+                        pendingTasks--;
+                        lock.notifyAll();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            memoryBudget.release(permits);
+            synchronized (lock) {
+                pendingTasks--;
+                lock.notifyAll();
+            }
+            throw new IOException("Unable to submit chunk write task.", e);
+        }
+    }
+
+    /**
+     * Waits until all submitted tasks are finished.
+     *
+     * @throws IOException if any of the tasks failed
+     */
+    void flush() throws IOException {
+        synchronized (lock) {
+            while (pendingTasks > 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for chunk write tasks.", e);
+                }
+            }
+        }
+        rethrowError();
+    }
+
+    /**
+     * Waits until all submitted tasks are finished and shuts down the worker threads.
+     *
+     * @throws IOException if any of the tasks failed
+     */
+    void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+                try {
+                    executor.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards the tasks which have not been started yet, interrupts the running ones and shuts down the worker
+     * threads. Used instead of {@link #close()} if writing has failed. Has no effect on a closed pipeline.
+     */
+    void abort() {
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void runTask(WriteTask task) {
+        try {
+            task.run();
+        } catch (Throwable t) {
+            synchronized (lock) {
+                if (firstError == null) {
+                    firstError = t;
+                }
+            }
+        }
+    }
+
+    private void rethrowError() throws IOException {
+        final Throwable error;
+        synchronized (lock) {
+            error = firstError;
+        }
+        if (error == null) {
+            return;
+        }
+        if (error instanceof IOException) {
+            throw new IOException(error.getMessage(), error);
+        }
+        throw new IOException("Chunk write task failed.", error);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.snap.dataio.znap.snap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.esa.snap.core.util.SystemUtils.LOG;
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.cast;
+
+/**
+ * The filters and the compressor of a zarr array which are applied by the {@link CodecStore}
+ * instead of jzarr. On encoding the filters are applied in order followed by the compressor,
+ * on decoding in reverse order.
+ */
+final class CodecPipeline {
+
+    private final List<ChunkCodec> filters;
+    private final ChunkCodec compressor;
+    private final int chunkByteSize;
+
+    CodecPipeline(List<ChunkCodec> filters, ChunkCodec compressor, int chunkByteSize) {
+        this.filters = Collections.unmodifiableList(new ArrayList<>(filters));
+        this.compressor = compressor;
+        this.chunkByteSize = chunkByteSize;
+    }
+
+    /**
+     * @param header an array header as written to {@code .zarray}
+     *
+     * @return the pipeline or {@code null} if the chunks of the array are decoded by jzarr
+     */
+    static CodecPipeline fromHeader(Map<String, Object> header) {
+        final String dtype = cast(header.get("dtype"));
+        final List<Map<String, Object>> filterConfigs = cast(header.get("filters"));
+        final List<ChunkCodec> filters = new ArrayList<>();
+        if (filterConfigs != null) {
+            for (Map<String, Object> filterConfig : filterConfigs) {
+                final ChunkCodec filter = ChunkCodecs.filterFromConfig(filterConfig, dtype);
+                if (filter == null) {
+                    LOG.warning("Unsupported zarr filter '" + filterConfig.get("id") + "'.");
+                    return null;
+                }
+                filters.add(filter);
+            }
+        }
+        final Map<String, Object> compressorConfig = cast(header.get("compressor"));
+        final ChunkCodec compressor = ChunkCodecs.compressorFromConfig(compressorConfig);
+        if (filters.isEmpty()) {
+            // without filters jzarr decodes all compressors it knows itself
+            if (compressor == null || !ChunkCodecs.isSupportedCompressor(compressor.getId())) {
+                return null;
+            }
+        } else if (compressor == null && compressorConfig != null) {
+            LOG.warning("Filters in combination with the '" + compressorConfig.get("id") + "' compressor are not supported.");
+            return null;
+        }
+        return new CodecPipeline(filters, compressor, getChunkByteSize(header));
+    }
+
+    static int getChunkByteSize(Map<String, Object> header) {
+        final String dtype = cast(header.get("dtype"));
+        // e.g. "<f4", ">i2" or "|u1"
+        long size = Integer.parseInt(dtype.substring(2));
+        final List<Number> chunks = cast(header.get("chunks"));
+        for (Number chunk : chunks) {
+            size *= chunk.longValue();
+        }
+        return Math.toIntExact(size);
+    }
+
+    byte[] encode(byte[] data) throws IOException {
+        byte[] encoded = data;
+        for (ChunkCodec filter : filters) {
+            encoded = filter.encode(encoded);
+        }
+        return compressor != null ? compressor.encode(encoded) : encoded;
+    }
+
+    byte[] decode(byte[] data) throws IOException {
+        byte[] decoded = compressor != null ? compressor.decode(data, chunkByteSize) : data;
+        for (int i = filters.size() - 1; i >= 0; i--) {
+            decoded = filters.get(i).decode(decoded, chunkByteSize);
+        }
+        return decoded;
+    }
+
+    Map<String, Object> getCompressorConfig() {
+        return compressor != null ? compressor.getConfig() : null;
+    }
+
+    List<Map<String, Object>> getFilterConfigs() {
+        if (filters.isEmpty()) {
+            return null;
+        }
+        final List<Map<String, Object>> configs = new ArrayList<>();
+        for (ChunkCodec filter : filters) {
+            configs.add(filter.getConfig());
+        }
+        return configs;
+    }
+}
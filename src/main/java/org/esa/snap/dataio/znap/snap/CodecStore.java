@@ -0,0 +1,613 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.zarr.storage.Store;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static com.bc.zarr.ZarrConstants.FILENAME_DOT_ZARRAY;
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.cast;
+
+/**
+ * A {@link Store} decorator which encodes and decodes chunks with codecs jzarr does not provide.
+ * jzarr itself reads and writes such arrays as uncompressed arrays.
+ * <p>
+ * On writing, every array header passes the pipeline factory. If it returns a pipeline, its
+ * compressor and filters are recorded in the header, and the chunks of the array are encoded
+ * when their output streams are closed. On reading, the compressor and filters of the header are
+ * replaced by {@code null} for jzarr, and the chunks are decoded with the pipeline described by
+ * the original header.
+ * <p>
+ * Arrays can be sharded, see {@link ShardLayout}. jzarr reads and writes the inner chunks of such
+ * arrays. Encoded inner chunks are collected per shard and the shard is stored as soon as all of
+ * its inner chunks have been written or deleted; incomplete shards are stored on {@link #flush()}.
+ * If the encoded inner chunks held by incomplete shards exceed a byte limit, the largest incomplete
+ * shards are stored early and completed by rewriting them when their remaining inner chunks arrive.
+ * A chunk written again after its shard has been stored causes the whole shard to be rewritten.
+ * Inner chunks are read by skipping to their offset in the shard, which is a positional read for
+ * file system stores and stored zip entries.
+ */
+final class CodecStore implements Store {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .enable(JsonParser.Feature.ALLOW_NON_NUMERIC_NUMBERS)
+            .disable(JsonGenerator.Feature.QUOTE_NON_NUMERIC_NUMBERS);
+
+    private final Store delegate;
+    private final Function<Map<String, Object>, CodecPipeline> pipelineFactory;
+    private final Function<Map<String, Object>, ShardLayout> shardingFactory;
+    private final Map<String, ArrayCodecs> arrays = new ConcurrentHashMap<>();
+    private final Map<String, PendingShard> pendingShards = new ConcurrentHashMap<>();
+    private final Map<String, long[]> shardIndices = new ConcurrentHashMap<>();
+    // the positions of the inner chunks received when the shard was stored
+    private final Map<String, BitSet> writtenShards = new ConcurrentHashMap<>();
+    // all changes of a shard are made while holding its lock
+    private final Map<String, Object> shardLocks = new ConcurrentHashMap<>();
+    private final AtomicLong pendingShardBytes = new AtomicLong();
+    private final Object spillLock = new Object();
+    private final long maxPendingShardBytes;
+
+    /**
+     * Creates a store for reading.
+     */
+    CodecStore(Store delegate) {
+        this(delegate, null, null);
+    }
+
+    /**
+     * Creates a store for writing.
+     *
+     * @param pipelineFactory creates the pipeline for an array header, or returns {@code null} if the chunks
+     *                        of the array shall be encoded by jzarr
+     */
+    CodecStore(Store delegate, Function<Map<String, Object>, CodecPipeline> pipelineFactory) {
+        this(delegate, pipelineFactory, null);
+    }
+
+    /**
+     * Creates a store for writing.
+     *
+     * @param pipelineFactory creates the pipeline for an array header, or returns {@code null} if the chunks
+     *                        of the array shall be encoded by jzarr
+     * @param shardingFactory creates the shard layout for an array header, or returns {@code null} if the
+     *                        array shall not be sharded. May be {@code null}.
+     */
+    CodecStore(Store delegate, Function<Map<String, Object>, CodecPipeline> pipelineFactory,
+               Function<Map<String, Object>, ShardLayout> shardingFactory) {
+        this(delegate, pipelineFactory, shardingFactory, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a store for writing.
+     *
+     * @param pipelineFactory      creates the pipeline for an array header, or returns {@code null} if the chunks
+     *                             of the array shall be encoded by jzarr
+     * @param shardingFactory      creates the shard layout for an array header, or returns {@code null} if the
+     *                             array shall not be sharded. May be {@code null}.
+     * @param maxPendingShardBytes the number of bytes of encoded inner chunks incomplete shards may hold before
+     *                             the largest of them are stored
+     */
+    CodecStore(Store delegate, Function<Map<String, Object>, CodecPipeline> pipelineFactory,
+               Function<Map<String, Object>, ShardLayout> shardingFactory, long maxPendingShardBytes) {
+        this.delegate = delegate;
+        this.pipelineFactory = pipelineFactory;
+        this.shardingFactory = shardingFactory;
+        this.maxPendingShardBytes = maxPendingShardBytes;
+    }
+
+    @Override
+    public InputStream getInputStream(String key) throws IOException {
+        if (isArrayHeader(key)) {
+            final Map<String, Object> header = readHeader(key);
+            if (header == null) {
+                return null;
+            }
+            arrays.put(getParentKey(key), toJzarrHeader(header));
+            return new ByteArrayInputStream(MAPPER.writeValueAsBytes(header));
+        }
+        final ArrayCodecs codecs = isChunk(key) ? getArrayCodecs(getParentKey(key)) : ArrayCodecs.NONE;
+        final byte[] encoded;
+        if (codecs.sharding != null) {
+            encoded = readInnerChunk(getParentKey(key), getName(key), codecs.sharding);
+        } else if (codecs.pipeline != null) {
+            try (InputStream is = delegate.getInputStream(key)) {
+                encoded = is != null ? readAll(is) : null;
+            }
+        } else {
+            return delegate.getInputStream(key);
+        }
+        if (encoded == null) {
+            return null;
+        }
+        return new ByteArrayInputStream(codecs.pipeline != null ? codecs.pipeline.decode(encoded) : encoded);
+    }
+
+    @Override
+    public OutputStream getOutputStream(String key) throws IOException {
+        if (pipelineFactory != null && isArrayHeader(key)) {
+            return new BufferedEntryOutputStream(data -> writeHeader(key, data));
+        }
+        final ArrayCodecs codecs = isChunk(key) ? getArrayCodecs(getParentKey(key)) : ArrayCodecs.NONE;
+        if (codecs == ArrayCodecs.NONE) {
+            return delegate.getOutputStream(key);
+        }
+        return new BufferedEntryOutputStream(data -> {
+            final byte[] encoded = codecs.pipeline != null ? codecs.pipeline.encode(data) : data;
+            if (codecs.sharding != null) {
+                putInnerChunk(getParentKey(key), getName(key), codecs.sharding, encoded);
+            } else {
+                write(key, encoded);
+            }
+        });
+    }
+
+    /**
+     * Deleting an inner chunk of a sharded array marks it as empty in its shard.
+     */
+    @Override
+    public void delete(String key) throws IOException {
+        final ArrayCodecs codecs = isChunk(key) ? getArrayCodecs(getParentKey(key)) : ArrayCodecs.NONE;
+        if (codecs.sharding != null) {
+            putInnerChunk(getParentKey(key), getName(key), codecs.sharding, null);
+        } else {
+            delegate.delete(key);
+        }
+    }
+
+    @Override
+    public TreeSet<String> getArrayKeys() throws IOException {
+        return delegate.getArrayKeys();
+    }
+
+    @Override
+    public TreeSet<String> getGroupKeys() throws IOException {
+        return delegate.getGroupKeys();
+    }
+
+    @Override
+    public TreeSet<String> getKeysEndingWith(String suffix) throws IOException {
+        return delegate.getKeysEndingWith(suffix);
+    }
+
+    /**
+     * The shards of a sharded array are listed as the inner chunks they contain.
+     */
+    @Override
+    public Stream<String> getRelativeLeafKeys(String key) throws IOException {
+        final String normalized = normalize(key);
+        final ShardLayout sharding = normalized.isEmpty() ? null : getArrayCodecs(normalized).sharding;
+        final Stream<String> keys = delegate.getRelativeLeafKeys(key);
+        if (sharding == null) {
+            return keys;
+        }
+        final List<String> expanded = new ArrayList<>();
+        keys.forEach(leafKey -> {
+            final int[] shardIndex = ShardLayout.parseKey(leafKey);
+            if (shardIndex != null && sharding.isInShardGrid(shardIndex)) {
+                for (int[] chunkIndex : sharding.getChunkIndices(shardIndex)) {
+                    expanded.add(ShardLayout.toKey(chunkIndex));
+                }
+            } else {
+                expanded.add(leafKey);
+            }
+        });
+        keys.close();
+        return expanded.stream();
+    }
+
+    /**
+     * Stores all shards which are not complete yet. Missing inner chunks are stored as empty chunks.
+     */
+    void flush() throws IOException {
+        for (String shardKey : new ArrayList<>(pendingShards.keySet())) {
+            storePendingShard(shardKey);
+        }
+    }
+
+    /**
+     * @return the number of bytes of the encoded inner chunks held by incomplete shards
+     */
+    long getPendingShardBytes() {
+        return pendingShardBytes.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            shardIndices.clear();
+            shardLocks.clear();
+            delegate.close();
+        }
+    }
+
+    /**
+     * Converts a stored array header into the header presented to jzarr.
+     */
+    private static ArrayCodecs toJzarrHeader(Map<String, Object> header) {
+        final ShardLayout sharding = ShardLayout.fromHeader(header);
+        if (sharding != null) {
+            final Map<String, Object> config = cast(header.get("compressor"));
+            header.put("chunks", toList(sharding.getChunks()));
+            header.put("compressor", config.get("compressor"));
+            header.put("filters", config.get("filters"));
+        }
+        final CodecPipeline pipeline = CodecPipeline.fromHeader(header);
+        if (pipeline != null) {
+            header.put("compressor", null);
+            header.put("filters", null);
+        }
+        return ArrayCodecs.of(pipeline, sharding);
+    }
+
+    private void writeHeader(String key, byte[] data) throws IOException {
+        final Map<String, Object> header = cast(MAPPER.readValue(data, Map.class));
+        final CodecPipeline pipeline = pipelineFactory.apply(header);
+        final ShardLayout sharding = shardingFactory != null ? shardingFactory.apply(header) : null;
+        arrays.put(getParentKey(key), ArrayCodecs.of(pipeline, sharding));
+        if (pipeline == null && sharding == null) {
+            write(key, data);
+            return;
+        }
+        if (pipeline != null) {
+            header.put("compressor", pipeline.getCompressorConfig());
+            header.put("filters", pipeline.getFilterConfigs());
+        }
+        if (sharding != null) {
+            header.put("compressor", sharding.toConfig(header.get("compressor"), header.get("filters")));
+            header.put("filters", null);
+            header.put("chunks", toList(sharding.getShardShape()));
+        }
+        write(key, MAPPER.writerWithDefaultPrettyPrinter().writeValueAsBytes(header));
+    }
+
+    private void write(String key, byte[] data) throws IOException {
+        try (OutputStream os = delegate.getOutputStream(key)) {
+            os.write(data);
+        }
+    }
+
+    private ArrayCodecs getArrayCodecs(String arrayKey) throws IOException {
+        ArrayCodecs codecs = arrays.get(arrayKey);
+        if (codecs == null) {
+            final Map<String, Object> header = readHeader(arrayKey + "/" + FILENAME_DOT_ZARRAY);
+            codecs = header != null ? toJzarrHeader(header) : ArrayCodecs.NONE;
+            arrays.putIfAbsent(arrayKey, codecs);
+        }
+        return codecs;
+    }
+
+    /**
+     * @param encoded the encoded inner chunk or {@code null} for an empty chunk
+     */
+    private void putInnerChunk(String arrayKey, String chunkKey, ShardLayout sharding, byte[] encoded) throws IOException {
+        final int[] chunkIndex = ShardLayout.parseKey(chunkKey);
+        if (chunkIndex == null) {
+            throw new IOException("Invalid chunk key '" + chunkKey + "' of sharded array '" + arrayKey + "'.");
+        }
+        final int[] shardIndex = sharding.getShardIndex(chunkIndex);
+        final String shardKey = arrayKey + "/" + ShardLayout.toKey(shardIndex);
+        synchronized (getShardLock(shardKey)) {
+            PendingShard shard = pendingShards.get(shardKey);
+            if (shard == null) {
+                shard = createPendingShard(shardKey, shardIndex, sharding);
+                pendingShards.put(shardKey, shard);
+                pendingShardBytes.addAndGet(shard.getByteCount());
+            }
+            final long byteCount = shard.getByteCount();
+            final boolean complete = shard.put(sharding.getPositionInShard(chunkIndex), encoded);
+            pendingShardBytes.addAndGet(shard.getByteCount() - byteCount);
+            if (complete) {
+                storePendingShard(shardKey, shard);
+            }
+        }
+        if (pendingShardBytes.get() > maxPendingShardBytes) {
+            spillPendingShards();
+        }
+    }
+
+    /**
+     * Stores the largest incomplete shards until the pending inner chunks take half of the limit.
+     */
+    private void spillPendingShards() throws IOException {
+        synchronized (spillLock) {
+            if (pendingShardBytes.get() <= maxPendingShardBytes) {
+                return;
+            }
+            final List<Map.Entry<String, Long>> sizes = new ArrayList<>();
+            pendingShards.forEach((shardKey, shard) -> sizes.add(new AbstractMap.SimpleEntry<>(shardKey, shard.getByteCount())));
+            sizes.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+            for (Map.Entry<String, Long> entry : sizes) {
+                if (pendingShardBytes.get() <= maxPendingShardBytes / 2) {
+                    break;
+                }
+                storePendingShard(entry.getKey());
+            }
+        }
+    }
+
+    private void storePendingShard(String shardKey) throws IOException {
+        synchronized (getShardLock(shardKey)) {
+            final PendingShard shard = pendingShards.get(shardKey);
+            if (shard != null) {
+                storePendingShard(shardKey, shard);
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the lock of the shard. The shard is marked as written before it is removed
+     * from the pending shards, so a concurrent write to the shard continues with the stored inner chunks.
+     */
+    private void storePendingShard(String shardKey, PendingShard shard) throws IOException {
+        final byte[] data = shard.sharding.encodeShard(shard.getChunks());
+        if (data != null) {
+            write(shardKey, data);
+        } else {
+            // don't leave a shard of a previous product behind
+            delegate.delete(shardKey);
+        }
+        writtenShards.put(shardKey, shard.getReceived());
+        shardIndices.remove(shardKey);
+        pendingShards.remove(shardKey);
+        pendingShardBytes.addAndGet(-shard.getByteCount());
+    }
+
+    private Object getShardLock(String shardKey) {
+        return shardLocks.computeIfAbsent(shardKey, k -> new Object());
+    }
+
+    private PendingShard createPendingShard(String shardKey, int[] shardIndex, ShardLayout sharding) throws IOException {
+        final PendingShard shard = new PendingShard(sharding.getChunksPerShard(), sharding.getChunkCount(shardIndex), sharding);
+        final BitSet written = writtenShards.get(shardKey);
+        if (written != null) {
+            // continue with the inner chunks stored before, a complete shard is rewritten by every further write
+            for (int[] chunkIndex : sharding.getChunkIndices(shardIndex)) {
+                final int position = sharding.getPositionInShard(chunkIndex);
+                if (written.get(position)) {
+                    shard.put(position, readStoredInnerChunk(shardKey, position, sharding));
+                }
+            }
+        }
+        return shard;
+    }
+
+    private byte[] readInnerChunk(String arrayKey, String chunkKey, ShardLayout sharding) throws IOException {
+        final int[] chunkIndex = ShardLayout.parseKey(chunkKey);
+        if (chunkIndex == null) {
+            return null;
+        }
+        final String shardKey = arrayKey + "/" + ShardLayout.toKey(sharding.getShardIndex(chunkIndex));
+        final int position = sharding.getPositionInShard(chunkIndex);
+        final PendingShard pending = pendingShards.get(shardKey);
+        if (pending != null) {
+            return pending.get(position);
+        }
+        return readStoredInnerChunk(shardKey, position, sharding);
+    }
+
+    private byte[] readStoredInnerChunk(String shardKey, int position, ShardLayout sharding) throws IOException {
+        final long[] index = getShardIndex(shardKey, sharding);
+        if (index.length == 0 || index[2 * position] == -1L) {
+            return null;
+        }
+        final long offset = index[2 * position];
+        final int length = Math.toIntExact(index[2 * position + 1]);
+        try (InputStream is = delegate.getInputStream(shardKey)) {
+            if (is == null) {
+                return null;
+            }
+            skipFully(is, offset);
+            return readFully(is, length);
+        }
+    }
+
+    /**
+     * @return the offsets and lengths of the inner chunks or an empty array if the shard does not exist
+     */
+    private long[] getShardIndex(String shardKey, ShardLayout sharding) throws IOException {
+        long[] index = shardIndices.get(shardKey);
+        if (index == null) {
+            final byte[] indexBytes;
+            try (InputStream is = delegate.getInputStream(shardKey)) {
+                if (is == null) {
+                    indexBytes = null;
+                } else if (sharding.isIndexAtStart()) {
+                    indexBytes = readFully(is, sharding.getIndexSize());
+                } else {
+                    // the size of an entry is not known to the store interface, the index is found at the end
+                    final byte[] shard = readAll(is);
+                    final int indexSize = sharding.getIndexSize();
+                    if (shard.length < indexSize) {
+                        throw new IOException("Shard '" + shardKey + "' is too small.");
+                    }
+                    indexBytes = new byte[indexSize];
+                    System.arraycopy(shard, shard.length - indexSize, indexBytes, 0, indexSize);
+                }
+            }
+            index = indexBytes != null ? sharding.decodeIndex(indexBytes) : new long[0];
+            shardIndices.putIfAbsent(shardKey, index);
+        }
+        return index;
+    }
+
+    private Map<String, Object> readHeader(String key) throws IOException {
+        try (InputStream is = delegate.getInputStream(key)) {
+            if (is == null) {
+                return null;
+            }
+            return cast(MAPPER.readValue(is, Map.class));
+        }
+    }
+
+    private static boolean isArrayHeader(String key) {
+        return normalize(key).endsWith("/" + FILENAME_DOT_ZARRAY);
+    }
+
+    private static boolean isChunk(String key) {
+        final String normalized = normalize(key);
+        final int idx = normalized.lastIndexOf('/');
+        return idx > 0 && !normalized.startsWith(".", idx + 1);
+    }
+
+    private static String getName(String key) {
+        final String normalized = normalize(key);
+        return normalized.substring(normalized.lastIndexOf('/') + 1);
+    }
+
+    private static String getParentKey(String key) {
+        final String normalized = normalize(key);
+        return normalized.substring(0, normalized.lastIndexOf('/'));
+    }
+
+    private static String normalize(String key) {
+        String normalized = key.replace('\\', '/');
+        while (normalized.startsWith("/")) {
+            normalized = normalized.substring(1);
+        }
+        return normalized;
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ((n = is.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void skipFully(InputStream is, long n) throws IOException {
+        long remaining = n;
+        while (remaining > 0) {
+            final long skipped = is.skip(remaining);
+            if (skipped <= 0) {
+                if (is.read() < 0) {
+                    throw new IOException("Unexpected end of shard.");
+                }
+                remaining--;
+            } else {
+                remaining -= skipped;
+            }
+        }
+    }
+
+    private static byte[] readFully(InputStream is, int length) throws IOException {
+        final byte[] data = new byte[length];
+        int pos = 0;
+        while (pos < length) {
+            final int n = is.read(data, pos, length - pos);
+            if (n < 0) {
+                throw new IOException("Unexpected end of shard.");
+            }
+            pos += n;
+        }
+        return data;
+    }
+
+    private static List<Integer> toList(int[] values) {
+        final List<Integer> list = new ArrayList<>();
+        for (int value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    /**
+     * The codecs applied by this store to the chunks of an array.
+     */
+    private static final class ArrayCodecs {
+
+        static final ArrayCodecs NONE = new ArrayCodecs(null, null);
+
+        final CodecPipeline pipeline;
+        final ShardLayout sharding;
+
+        private ArrayCodecs(CodecPipeline pipeline, ShardLayout sharding) {
+            this.pipeline = pipeline;
+            this.sharding = sharding;
+        }
+
+        static ArrayCodecs of(CodecPipeline pipeline, ShardLayout sharding) {
+            return pipeline == null && sharding == null ? NONE : new ArrayCodecs(pipeline, sharding);
+        }
+    }
+
+    /**
+     * Collects the encoded inner chunks of a shard until all inner chunks intersecting the array are written.
+     */
+    private static final class PendingShard {
+
+        private final ShardLayout sharding;
+        private final byte[][] chunks;
+        private final BitSet received;
+        private final int expectedCount;
+        private long byteCount;
+
+        PendingShard(int chunksPerShard, int expectedCount, ShardLayout sharding) {
+            this.sharding = sharding;
+            this.chunks = new byte[chunksPerShard][];
+            this.received = new BitSet(chunksPerShard);
+            this.expectedCount = expectedCount;
+        }
+
+        /**
+         * @return {@code true} if the shard is complete
+         */
+        synchronized boolean put(int position, byte[] encoded) {
+            byteCount += (encoded != null ? encoded.length : 0) - (chunks[position] != null ? chunks[position].length : 0);
+            chunks[position] = encoded;
+            received.set(position);
+            return received.cardinality() == expectedCount;
+        }
+
+        synchronized byte[] get(int position) {
+            return chunks[position];
+        }
+
+        synchronized byte[][] getChunks() {
+            return chunks.clone();
+        }
+
+        synchronized BitSet getReceived() {
+            return (BitSet) received.clone();
+        }
+
+        synchronized long getByteCount() {
+            return byteCount;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.zarr.DataType;
+import com.bc.zarr.storage.Store;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static com.bc.zarr.ZarrConstants.FILENAME_DOT_ZARRAY;
+import static com.bc.zarr.ZarrConstants.FILENAME_DOT_ZATTRS;
+import static com.bc.zarr.ZarrConstants.FILENAME_DOT_ZGROUP;
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.FILENAME_DOT_ZMETADATA;
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.cast;
+
+/**
+ * Consolidated metadata of a zarr group as written by xarray and zarr-python
+ * ({@code zarr.consolidate_metadata}). The document {@code .zmetadata} in the root of the
+ * store contains the content of all {@code .zgroup}, {@code .zarray} and {@code .zattrs}
+ * documents, so a product can be opened with a single read.
+ */
+final class ConsolidatedMetadata {
+
+    private static final String KEY_METADATA = "metadata";
+    private static final String KEY_FORMAT = "zarr_consolidated_format";
+    private static final int FORMAT_VERSION = 1;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .enable(JsonParser.Feature.ALLOW_NON_NUMERIC_NUMBERS)
+            .disable(JsonGenerator.Feature.QUOTE_NON_NUMERIC_NUMBERS);
+
+    private final Map<String, Object> metadata;
+
+    private ConsolidatedMetadata(Map<String, Object> metadata) {
+        this.metadata = metadata;
+    }
+
+    /**
+     * Collects all zarr metadata documents of the store and writes them into {@code .zmetadata}.
+     */
+    static void write(Store store) throws IOException {
+        final Map<String, Object> metadata = new TreeMap<>();
+        for (String suffix : new String[]{FILENAME_DOT_ZGROUP, FILENAME_DOT_ZARRAY, FILENAME_DOT_ZATTRS}) {
+            for (String key : store.getKeysEndingWith(suffix)) {
+                final String normalizedKey = normalizeKey(key);
+                if (!normalizedKey.equals(suffix) && !normalizedKey.endsWith("/" + suffix)) {
+                    continue;
+                }
+                try (InputStream is = store.getInputStream(key)) {
+                    if (is != null) {
+                        metadata.put(normalizedKey, MAPPER.readValue(is, Map.class));
+                    }
+                }
+            }
+        }
+        final Map<String, Object> document = new LinkedHashMap<>();
+        document.put(KEY_METADATA, metadata);
+        document.put(KEY_FORMAT, FORMAT_VERSION);
+        try (OutputStream os = store.getOutputStream(FILENAME_DOT_ZMETADATA)) {
+            MAPPER.writerWithDefaultPrettyPrinter().writeValue(os, document);
+        }
+    }
+
+    /**
+     * @return the consolidated metadata of the store or {@code null} if the store does not contain any
+     */
+    static ConsolidatedMetadata read(Store store) throws IOException {
+        final Map<String, Object> document;
+        try (InputStream is = store.getInputStream(FILENAME_DOT_ZMETADATA)) {
+            if (is == null) {
+                return null;
+            }
+            document = cast(MAPPER.readValue(is, Map.class));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        final Number format = cast(document.get(KEY_FORMAT));
+        if (format == null || format.intValue() != FORMAT_VERSION || !(document.get(KEY_METADATA) instanceof Map)) {
+            return null;
+        }
+        return new ConsolidatedMetadata(cast(document.get(KEY_METADATA)));
+    }
+
+    Map<String, Object> getGroupAttributes() {
+        return getDocument(FILENAME_DOT_ZATTRS);
+    }
+
+    TreeSet<String> getArrayKeys() {
+        final TreeSet<String> arrayKeys = new TreeSet<>();
+        final String suffix = "/" + FILENAME_DOT_ZARRAY;
+        for (String key : metadata.keySet()) {
+            if (key.endsWith(suffix)) {
+                arrayKeys.add(key.substring(0, key.length() - suffix.length()));
+            }
+        }
+        return arrayKeys;
+    }
+
+    Map<String, Object> getArrayAttributes(String arrayKey) {
+        return getDocument(arrayKey + "/" + FILENAME_DOT_ZATTRS);
+    }
+
+    int[] getShape(String arrayKey) {
+        return toIntArray(getArrayHeader(arrayKey).get("shape"));
+    }
+
+    /**
+     * @return the chunk shape, for sharded arrays the shape of the inner chunks
+     */
+    int[] getChunks(String arrayKey) {
+        final Map<String, Object> header = getArrayHeader(arrayKey);
+        final ShardLayout sharding = ShardLayout.fromHeader(header);
+        return sharding != null ? sharding.getChunks() : toIntArray(header.get("chunks"));
+    }
+
+    DataType getDataType(String arrayKey) {
+        final String dtype = cast(getArrayHeader(arrayKey).get("dtype"));
+        // e.g. "<f4", ">i2" or "|u1"
+        return DataType.valueOf(dtype.substring(1));
+    }
+
+    private Map<String, Object> getArrayHeader(String arrayKey) {
+        final Map<String, Object> header = getDocument(arrayKey + "/" + FILENAME_DOT_ZARRAY);
+        if (header.isEmpty()) {
+            throw new IllegalArgumentException("No consolidated array header for '" + arrayKey + "'.");
+        }
+        return header;
+    }
+
+    private Map<String, Object> getDocument(String key) {
+        final Map<String, Object> document = cast(metadata.get(key));
+        return document != null ? document : Collections.emptyMap();
+    }
+
+    private static int[] toIntArray(Object list) {
+        final List<Number> numbers = cast(list);
+        final int[] ints = new int[numbers.size()];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = numbers.get(i).intValue();
+        }
+        return ints;
+    }
+
+    private static String normalizeKey(String key) {
+        String normalized = key.replace('\\', '/');
+        while (normalized.startsWith("/")) {
+            normalized = normalized.substring(1);
+        }
+        return normalized;
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.zarr.storage.Store;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static com.bc.zarr.ZarrConstants.FILENAME_DOT_ZARRAY;
+import static com.bc.zarr.ZarrConstants.FILENAME_DOT_ZGROUP;
+
+/**
+ * A read only {@link Store} for zip archives which is optimized for concurrent chunk reads.
+ * The central directory of the archive is read once into an index of entry name, offset, size
+ * and compression method. Entries are read with positional reads on a single {@link FileChannel},
+ * which do not modify the channel position and therefore need no synchronisation between the
+ * tile computing threads.
+ */
+final class IndexedZipStore implements Store {
+
+    private static final int SIG_LOCAL_HEADER = 0x04034b50;
+    private static final int SIG_CENTRAL_HEADER = 0x02014b50;
+    private static final int SIG_END_OF_CENTRAL_DIR = 0x06054b50;
+    private static final int SIG_ZIP64_END_OF_CENTRAL_DIR = 0x06064b50;
+    private static final int SIG_ZIP64_LOCATOR = 0x07064b50;
+
+    private static final int END_OF_CENTRAL_DIR_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_OF_CENTRAL_DIR_SIZE = 56;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private final Path zipPath;
+    private final FileChannel channel;
+    private final Map<String, Entry> entries;
+
+    IndexedZipStore(Path zipPath) throws IOException {
+        this.zipPath = zipPath;
+        channel = FileChannel.open(zipPath, StandardOpenOption.READ);
+        try {
+            entries = Collections.unmodifiableMap(readCentralDirectory());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream(String key) throws IOException {
+        final Entry entry = entries.get(normalizeKey(key));
+        if (entry == null) {
+            return null;
+        }
+        final InputStream rawStream = new EntryInputStream(getDataOffset(entry), entry.compressedSize);
+        if (entry.method == METHOD_STORED) {
+            return rawStream;
+        }
+        return new EntryInflaterInputStream(rawStream, entry.size);
+    }
+
+    @Override
+    public OutputStream getOutputStream(String key) {
+        throw new UnsupportedOperationException("The indexed zip store is read only.");
+    }
+
+    @Override
+    public void delete(String key) {
+        throw new UnsupportedOperationException("The indexed zip store is read only.");
+    }
+
+    @Override
+    public TreeSet<String> getArrayKeys() {
+        return getParentKeys(FILENAME_DOT_ZARRAY);
+    }
+
+    @Override
+    public TreeSet<String> getGroupKeys() {
+        return getParentKeys(FILENAME_DOT_ZGROUP);
+    }
+
+    @Override
+    public TreeSet<String> getKeysEndingWith(String suffix) {
+        final TreeSet<String> keys = new TreeSet<>();
+        for (String name : entries.keySet()) {
+            if (name.endsWith(suffix)) {
+                keys.add(name);
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public Stream<String> getRelativeLeafKeys(String key) {
+        final String normalizedKey = normalizeKey(key);
+        final String prefix = normalizedKey.isEmpty() ? "" : normalizedKey + "/";
+        return entries.keySet().stream()
+                .filter(name -> name.startsWith(prefix))
+                .map(name -> name.substring(prefix.length()))
+                .sorted();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    int getEntryCount() {
+        return entries.size();
+    }
+
+    private TreeSet<String> getParentKeys(String fileName) {
+        final TreeSet<String> keys = new TreeSet<>();
+        final String suffix = "/" + fileName;
+        for (String name : entries.keySet()) {
+            if (name.endsWith(suffix)) {
+                keys.add(name.substring(0, name.length() - suffix.length()));
+            } else if (name.equals(fileName)) {
+                keys.add("");
+            }
+        }
+        return keys;
+    }
+
+    private long getDataOffset(Entry entry) throws IOException {
+        long dataOffset = entry.dataOffset;
+        if (dataOffset < 0) {
+            // the extra field of the local header may differ from the one in the central directory
+            final ByteBuffer header = read(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+            if (header.getInt(0) != SIG_LOCAL_HEADER) {
+                throw new IOException("Invalid local header of zip entry '" + entry.name + "' in " + zipPath);
+            }
+            final int nameLength = Short.toUnsignedInt(header.getShort(26));
+            final int extraLength = Short.toUnsignedInt(header.getShort(28));
+            dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+            entry.dataOffset = dataOffset;
+        }
+        return dataOffset;
+    }
+
+    private Map<String, Entry> readCentralDirectory() throws IOException {
+        final long fileSize = channel.size();
+        if (fileSize < END_OF_CENTRAL_DIR_SIZE) {
+            throw new IOException("Not a zip archive: " + zipPath);
+        }
+        final int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIR_SIZE + MAX_COMMENT_SIZE);
+        final long tailOffset = fileSize - tailSize;
+        final ByteBuffer tail = read(tailOffset, tailSize);
+        int eocdPos = -1;
+        for (int pos = tailSize - END_OF_CENTRAL_DIR_SIZE; pos >= 0; pos--) {
+            if (tail.getInt(pos) == SIG_END_OF_CENTRAL_DIR) {
+                eocdPos = pos;
+                break;
+            }
+        }
+        if (eocdPos < 0) {
+            throw new IOException("End of central directory not found in " + zipPath);
+        }
+        long entryCount = Short.toUnsignedInt(tail.getShort(eocdPos + 10));
+        long cdSize = Integer.toUnsignedLong(tail.getInt(eocdPos + 12));
+        long cdOffset = Integer.toUnsignedLong(tail.getInt(eocdPos + 16));
+        final long locatorOffset = tailOffset + eocdPos - ZIP64_LOCATOR_SIZE;
+        if (locatorOffset >= 0) {
+            final ByteBuffer locator = read(locatorOffset, ZIP64_LOCATOR_SIZE);
+            if (locator.getInt(0) == SIG_ZIP64_LOCATOR) {
+                final ByteBuffer eocd64 = read(locator.getLong(8), ZIP64_END_OF_CENTRAL_DIR_SIZE);
+                if (eocd64.getInt(0) != SIG_ZIP64_END_OF_CENTRAL_DIR) {
+                    throw new IOException("Invalid zip64 end of central directory in " + zipPath);
+                }
+                entryCount = eocd64.getLong(32);
+                cdSize = eocd64.getLong(40);
+                cdOffset = eocd64.getLong(48);
+            }
+        }
+        if (cdSize > Integer.MAX_VALUE) {
+            throw new IOException("Central directory too large in " + zipPath);
+        }
+
+        final ByteBuffer cd = read(cdOffset, (int) cdSize);
+        final Map<String, Entry> index = new HashMap<>((int) Math.min(entryCount * 4 / 3 + 1, Integer.MAX_VALUE));
+        int pos = 0;
+        for (long i = 0; i < entryCount; i++) {
+            if (cd.getInt(pos) != SIG_CENTRAL_HEADER) {
+                throw new IOException("Invalid central directory header in " + zipPath);
+            }
+            final int method = Short.toUnsignedInt(cd.getShort(pos + 10));
+            long compressedSize = Integer.toUnsignedLong(cd.getInt(pos + 20));
+            long size = Integer.toUnsignedLong(cd.getInt(pos + 24));
+            final int nameLength = Short.toUnsignedInt(cd.getShort(pos + 28));
+            final int extraLength = Short.toUnsignedInt(cd.getShort(pos + 30));
+            final int commentLength = Short.toUnsignedInt(cd.getShort(pos + 32));
+            long localHeaderOffset = Integer.toUnsignedLong(cd.getInt(pos + 42));
+
+            final byte[] nameBytes = new byte[nameLength];
+            cd.position(pos + CENTRAL_HEADER_SIZE);
+            cd.get(nameBytes);
+            final String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            // zip64 extended information, present only for the values which do not fit into 32 bits
+            int extraPos = pos + CENTRAL_HEADER_SIZE + nameLength;
+            final int extraEnd = extraPos + extraLength;
+            while (extraPos + 4 <= extraEnd) {
+                final int id = Short.toUnsignedInt(cd.getShort(extraPos));
+                final int length = Short.toUnsignedInt(cd.getShort(extraPos + 2));
+                if (id == ZIP64_EXTRA_ID) {
+                    int valuePos = extraPos + 4;
+                    if (size == ZIP64_MAGIC) {
+                        size = cd.getLong(valuePos);
+                        valuePos += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC) {
+                        compressedSize = cd.getLong(valuePos);
+                        valuePos += 8;
+                    }
+                    if (localHeaderOffset == ZIP64_MAGIC) {
+                        localHeaderOffset = cd.getLong(valuePos);
+                    }
+                    break;
+                }
+                extraPos += 4 + length;
+            }
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+
+            if (name.endsWith("/")) {
+                continue; // directory entry
+            }
+            if (method != METHOD_STORED && method != METHOD_DEFLATED) {
+                throw new IOException("Unsupported compression method " + method + " of zip entry '" + name + "' in " + zipPath);
+            }
+            final String key = normalizeKey(name);
+            index.put(key, new Entry(key, method, compressedSize, size, localHeaderOffset));
+        }
+        return index;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            final int n = channel.read(buffer, pos);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of zip archive " + zipPath);
+            }
+            pos += n;
+        }
+    }
+
+    private static String normalizeKey(String key) {
+        String normalized = key.replace('\\', '/');
+        while (normalized.startsWith("/")) {
+            normalized = normalized.substring(1);
+        }
+        return normalized;
+    }
+
+    private static final class Entry {
+
+        final String name;
+        final int method;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+        volatile long dataOffset = -1;
+
+        Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    /**
+     * Reads the raw bytes of an entry with positional reads.
+     */
+    private final class EntryInputStream extends InputStream {
+
+        private long position;
+        private long remaining;
+
+        EntryInputStream(long position, long length) {
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? Byte.toUnsignedInt(b[0]) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining <= 0) {
+                return -1;
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+            readFully(buffer, position);
+            final int n = buffer.position() - off;
+            position += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            final long skipped = Math.max(0, Math.min(n, remaining));
+            position += skipped;
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Inflates a deflated entry and releases the native inflater on close.
+     */
+    private static final class EntryInflaterInputStream extends InflaterInputStream {
+
+        private static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+        private long remaining;
+        private boolean eof;
+        private boolean closed;
+
+        EntryInflaterInputStream(InputStream in, long size) {
+            super(in, new Inflater(true), (int) Math.max(512, Math.min(size, MAX_BUFFER_SIZE)));
+            remaining = size;
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of deflated zip entry");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                // the inflater in nowrap mode needs a dummy byte at the end of the input
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (closed) {
+                return 0;
+            }
+            return (int) Math.min(Math.max(remaining, 0), Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                inf.end();
+                super.close();
+            }
+        }
+    }
+}
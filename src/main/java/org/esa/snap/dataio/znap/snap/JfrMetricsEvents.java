@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The Flight Recorder events of the read and write metrics. Only referenced reflectively by
+ * {@link MetricsEvents}, this class must not be used directly.
+ */
+final class JfrMetricsEvents implements MetricsEvents.Sink {
+
+    private static final String CATEGORY = "SNAP Zarr";
+
+    @Override
+    public void tileRead(String arrayKey, long nanos) {
+        final TileReadEvent event = new TileReadEvent();
+        if (event.isEnabled()) {
+            event.arrayKey = arrayKey;
+            event.elapsed = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void chunksRead(String arrayKey, int numChunks, long numBytes, long nanos) {
+        final ChunksReadEvent event = new ChunksReadEvent();
+        if (event.isEnabled()) {
+            event.arrayKey = arrayKey;
+            event.numChunks = numChunks;
+            event.decodedBytes = numBytes;
+            event.elapsed = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void chunkWritten(String arrayKey, long numBytes, long nanos, boolean skipped) {
+        final ChunkWrittenEvent event = new ChunkWrittenEvent();
+        if (event.isEnabled()) {
+            event.arrayKey = arrayKey;
+            event.rawBytes = numBytes;
+            event.skipped = skipped;
+            event.elapsed = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void shardFlushed(String arrayKey, long numBytes, long nanos) {
+        final ShardFlushedEvent event = new ShardFlushedEvent();
+        if (event.isEnabled()) {
+            event.arrayKey = arrayKey;
+            event.storedBytes = numBytes;
+            event.elapsed = nanos;
+            event.commit();
+        }
+    }
+
+    @Name("org.esa.snap.dataio.znap.TileRead")
+    @Label("Tile Read")
+    @Description("A tile of a band computed from its zarr chunks")
+    @Category(CATEGORY)
+    static final class TileReadEvent extends Event {
+
+        @Label("Array")
+        String arrayKey;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    @Name("org.esa.snap.dataio.znap.ChunksRead")
+    @Label("Chunks Read")
+    @Description("Chunks of a band read and decoded at once")
+    @Category(CATEGORY)
+    static final class ChunksReadEvent extends Event {
+
+        @Label("Array")
+        String arrayKey;
+
+        @Label("Chunks")
+        int numChunks;
+
+        @Label("Decoded Bytes")
+        @DataAmount
+        long decodedBytes;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    @Name("org.esa.snap.dataio.znap.ChunkWritten")
+    @Label("Chunk Written")
+    @Description("A chunk of a band encoded and stored, or skipped because it consists of fill values only")
+    @Category(CATEGORY)
+    static final class ChunkWrittenEvent extends Event {
+
+        @Label("Array")
+        String arrayKey;
+
+        @Label("Raw Bytes")
+        @DataAmount
+        long rawBytes;
+
+        @Label("Skipped")
+        boolean skipped;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    @Name("org.esa.snap.dataio.znap.ShardFlushed")
+    @Label("Shard Flushed")
+    @Description("An incomplete shard stored when the writer is closed")
+    @Category(CATEGORY)
+    static final class ShardFlushedEvent extends Event {
+
+        @Label("Array")
+        String arrayKey;
+
+        @Label("Stored Bytes")
+        @DataAmount
+        long storedBytes;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+}
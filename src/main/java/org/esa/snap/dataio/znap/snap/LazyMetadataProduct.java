@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.esa.snap.core.dataio.ProductReader;
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.core.datamodel.Product;
+
+import java.io.IOException;
+import java.util.logging.Level;
+
+import static org.esa.snap.core.util.SystemUtils.LOG;
+
+/**
+ * A product which reads its metadata elements on the first access to the metadata root. Products opened
+ * for their raster data only do not parse the metadata and do not hold it in memory.
+ */
+final class LazyMetadataProduct extends Product {
+
+    interface MetadataLoader {
+
+        MetadataElement[] load() throws IOException;
+    }
+
+    private final Object loadLock = new Object();
+    private volatile MetadataLoader metadataLoader;
+    // false while the super constructor runs and the lock is not yet initialised
+    private volatile boolean metadataPending;
+    // the thread loading the metadata or changing the modified state, which must not wait for itself
+    private volatile Thread lockingThread;
+    private volatile Exception loadFailure;
+
+    LazyMetadataProduct(String name, String type, int sceneRasterWidth, int sceneRasterHeight, ProductReader reader) {
+        super(name, type, sceneRasterWidth, sceneRasterHeight, reader);
+    }
+
+    void setMetadataLoader(MetadataLoader metadataLoader) {
+        synchronized (loadLock) {
+            this.metadataLoader = metadataLoader;
+            metadataPending = metadataLoader != null;
+        }
+    }
+
+    boolean isMetadataLoaded() {
+        return !metadataPending;
+    }
+
+    /**
+     * @return the exception thrown while loading the metadata or {@code null} if it has been loaded successfully
+     */
+    Exception getMetadataLoadFailure() {
+        return loadFailure;
+    }
+
+    @Override
+    public MetadataElement getMetadataRoot() {
+        final MetadataElement metadataRoot = super.getMetadataRoot();
+        if (lockingThread == Thread.currentThread()) {
+            // e.g. listeners of the elements added while loading, they see the partly filled metadata root
+            return metadataRoot;
+        }
+        if (metadataPending) {
+            synchronized (loadLock) {
+                if (metadataPending) {
+                    lockingThread = Thread.currentThread();
+                    try {
+                        addMetadataElements(metadataRoot, metadataLoader);
+                    } finally {
+                        metadataLoader = null;
+                        metadataPending = false;
+                        lockingThread = null;
+                    }
+                }
+            }
+        }
+        return metadataRoot;
+    }
+
+    @Override
+    public void setModified(boolean modified) {
+        if (!metadataPending || lockingThread == Thread.currentThread()) {
+            super.setModified(modified);
+            return;
+        }
+        // changing the modified state may visit the metadata root, which does not need to be loaded for it
+        synchronized (loadLock) {
+            lockingThread = Thread.currentThread();
+            try {
+                super.setModified(modified);
+            } finally {
+                lockingThread = null;
+            }
+        }
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (loadLock) {
+            metadataLoader = null;
+            metadataPending = false;
+        }
+        super.dispose();
+    }
+
+    private void addMetadataElements(MetadataElement metadataRoot, MetadataLoader loader) {
+        final boolean modified = isModified();
+        try {
+            for (MetadataElement element : loader.load()) {
+                metadataRoot.addElement(element);
+            }
+        } catch (IOException | RuntimeException e) {
+            // logged once, later accesses return the metadata root without the missing elements
+            loadFailure = e;
+            LOG.log(Level.WARNING, "The metadata of product '" + getName() + "' is missing, it could not be read.", e);
+        } finally {
+            // loading the metadata is not a modification of the product
+            if (!modified) {
+                setModified(false);
+            }
+        }
+    }
+}
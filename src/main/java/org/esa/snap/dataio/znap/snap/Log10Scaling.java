@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.esa.snap.core.datamodel.ProductData;
+
+/**
+ * Converts the raw data of a log10 scaled band into linear geophysical values,
+ * {@code 10^(raw * scalingFactor + scalingOffset)}, as float values.
+ * <p>
+ * The conversion runs in a type specific loop over the primitive arrays. The power of ten is computed as
+ * {@code exp(raw * a + b)} with the factors pre-multiplied by {@code ln(10)}, and 8 bit data is converted
+ * by a lookup table of all 256 possible values.
+ */
+final class Log10Scaling {
+
+    private static final double LN_10 = Math.log(10.0);
+
+    private final double a;
+    private final double b;
+
+    Log10Scaling(double scalingFactor, double scalingOffset) {
+        this.a = scalingFactor * LN_10;
+        this.b = scalingOffset * LN_10;
+    }
+
+    /**
+     * @param raw  the raw data
+     * @param dest the destination array, at least as long as the raw data
+     */
+    void apply(ProductData raw, float[] dest) {
+        final Object elems = raw.getElems();
+        final int n = raw.getNumElems();
+        switch (raw.getType()) {
+            case ProductData.TYPE_INT8: {
+                final float[] table = createTable(true);
+                final byte[] src = (byte[]) elems;
+                for (int i = 0; i < n; i++) {
+                    dest[i] = table[src[i] + 128];
+                }
+                break;
+            }
+            case ProductData.TYPE_UINT8: {
+                final float[] table = createTable(false);
+                final byte[] src = (byte[]) elems;
+                for (int i = 0; i < n; i++) {
+                    dest[i] = table[src[i] & 0xff];
+                }
+                break;
+            }
+            case ProductData.TYPE_INT16: {
+                final short[] src = (short[]) elems;
+                for (int i = 0; i < n; i++) {
+                    dest[i] = (float) Math.exp(src[i] * a + b);
+                }
+                break;
+            }
+            case ProductData.TYPE_UINT16: {
+                final short[] src = (short[]) elems;
+                for (int i = 0; i < n; i++) {
+                    dest[i] = (float) Math.exp((src[i] & 0xffff) * a + b);
+                }
+                break;
+            }
+            case ProductData.TYPE_INT32: {
+                final int[] src = (int[]) elems;
+                for (int i = 0; i < n; i++) {
+                    dest[i] = (float) Math.exp(src[i] * a + b);
+                }
+                break;
+            }
+            case ProductData.TYPE_UINT32: {
+                final int[] src = (int[]) elems;
+                for (int i = 0; i < n; i++) {
+                    dest[i] = (float) Math.exp((src[i] & 0xffffffffL) * a + b);
+                }
+                break;
+            }
+            case ProductData.TYPE_FLOAT32: {
+                final float[] src = (float[]) elems;
+                for (int i = 0; i < n; i++) {
+                    dest[i] = (float) Math.exp(src[i] * a + b);
+                }
+                break;
+            }
+            case ProductData.TYPE_FLOAT64: {
+                final double[] src = (double[]) elems;
+                for (int i = 0; i < n; i++) {
+                    dest[i] = (float) Math.exp(src[i] * a + b);
+                }
+                break;
+            }
+            default:
+                for (int i = 0; i < n; i++) {
+                    dest[i] = (float) Math.exp(raw.getElemDoubleAt(i) * a + b);
+                }
+        }
+    }
+
+    /**
+     * @return the linear values of all 8 bit raw values, for signed data starting at -128
+     */
+    private float[] createTable(boolean signed) {
+        final float[] table = new float[256];
+        final int first = signed ? -128 : 0;
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (float) Math.exp((first + i) * a + b);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.bc.zarr.ZarrConstants.FILENAME_DOT_ZARRAY;
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.cast;
+
+/**
+ * Reads uncompressed chunks of a zarr array stored in a file system directory by mapping the chunk
+ * files into memory. The pixels are copied from the mapped file directly into the destination
+ * array, without intermediate stream buffers. Byte order conversion is done by the typed views
+ * of the mapped buffer.
+ * <p>
+ * Mapping a file is comparatively expensive, therefore the mappings of the most recently read chunks
+ * are kept in a small LRU cache and reused by subsequent reads of the same chunk. Chunks smaller than
+ * {@link #MIN_MAPPED_CHUNK_SIZE} are not mapped at all but read into a heap buffer with a plain
+ * {@link FileChannel#read(ByteBuffer, long)}, which is cheaper than setting up a mapping.
+ */
+final class MappedChunkReader {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(JsonParser.Feature.ALLOW_NON_NUMERIC_NUMBERS);
+
+    /**
+     * Chunks with less bytes are read with a plain file channel read instead of being mapped.
+     */
+    static final long MIN_MAPPED_CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * The maximum number of chunk mappings kept for reuse.
+     */
+    static final int MAX_CACHED_MAPPINGS = 32;
+
+    private final Path arrayDir;
+    private final int chunkWidth;
+    private final int chunkHeight;
+    private final ByteOrder byteOrder;
+    private final int elemSize;
+    private final Number fillValue;
+    private final String separator;
+    private final Map<Path, MappedByteBuffer> mappings;
+
+    private MappedChunkReader(Path arrayDir, int[] chunks, ByteOrder byteOrder, int elemSize, Number fillValue, String separator) {
+        this.arrayDir = arrayDir;
+        this.chunkHeight = chunks[0];
+        this.chunkWidth = chunks[1];
+        this.byteOrder = byteOrder;
+        this.elemSize = elemSize;
+        this.fillValue = fillValue;
+        this.separator = separator;
+        this.mappings = new LinkedHashMap<Path, MappedByteBuffer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, MappedByteBuffer> eldest) {
+                return size() > MAX_CACHED_MAPPINGS;
+            }
+        };
+    }
+
+    /**
+     * @param arrayDir the directory of the zarr array
+     *
+     * @return a reader or {@code null} if the chunks of the array are compressed, filtered or not stored in C order
+     */
+    static MappedChunkReader create(Path arrayDir) throws IOException {
+        final Path headerPath = arrayDir.resolve(FILENAME_DOT_ZARRAY);
+        if (!Files.isRegularFile(headerPath)) {
+            return null;
+        }
+        final Map<String, Object> header;
+        try (InputStream is = Files.newInputStream(headerPath)) {
+            header = cast(MAPPER.readValue(is, Map.class));
+        }
+        if (header.get("compressor") != null) {
+            return null;
+        }
+        final List<?> filters = cast(header.get("filters"));
+        if (filters != null && !filters.isEmpty()) {
+            return null;
+        }
+        if (header.containsKey("order") && !"C".equals(header.get("order"))) {
+            return null;
+        }
+        final String dtype = cast(header.get("dtype"));
+        final ByteOrder byteOrder = dtype.charAt(0) == '>' ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        final int elemSize = Integer.parseInt(dtype.substring(2));
+        final List<Number> chunkList = cast(header.get("chunks"));
+        final int[] chunks = {chunkList.get(0).intValue(), chunkList.get(1).intValue()};
+        final Object fill = header.get("fill_value");
+        final Number fillValue = fill instanceof String ? Double.valueOf((String) fill) : (Number) fill;
+        final String separator = header.get("dimension_separator") != null ? cast(header.get("dimension_separator")) : ".";
+        return new MappedChunkReader(arrayDir, chunks, byteOrder, elemSize, fillValue, separator);
+    }
+
+    /**
+     * Copies the part of a chunk which intersects the destination rectangle into the destination array.
+     * Pixels of chunks which do not exist are set to the fill value.
+     *
+     * @param chunkIdxY the chunk index in y direction
+     * @param chunkIdxX the chunk index in x direction
+     * @param chunkRect the chunk rectangle clipped to the array bounds
+     * @param dest      the destination primitive array
+     * @param destRect  the rectangle covered by the destination array
+     */
+    void read(int chunkIdxY, int chunkIdxX, Rectangle chunkRect, Object dest, Rectangle destRect) throws IOException {
+        read(chunkIdxY, chunkIdxX, chunkRect, dest, 0, destRect.width, destRect);
+    }
+
+    /**
+     * Like {@link #read(int, int, Rectangle, Object, Rectangle)}, but the destination rectangle may be
+     * a part of a larger destination array, e.g. the backing array of a raster.
+     *
+     * @param destOffset the index of the upper left pixel of the destination rectangle within the destination array
+     * @param destStride the number of array elements between two lines of the destination array
+     */
+    void read(int chunkIdxY, int chunkIdxX, Rectangle chunkRect, Object dest, int destOffset, int destStride,
+              Rectangle destRect) throws IOException {
+        final Rectangle intersection = chunkRect.intersection(destRect);
+        if (intersection.isEmpty()) {
+            return;
+        }
+        final Path chunkPath = arrayDir.resolve(chunkIdxY + separator + chunkIdxX);
+        if (!Files.isRegularFile(chunkPath)) {
+            fill(dest, destOffset, destStride, destRect, intersection);
+            return;
+        }
+        final ByteBuffer chunkBuffer = getChunkBuffer(chunkPath);
+        chunkBuffer.order(byteOrder);
+        final Buffer view = createView(chunkBuffer, dest);
+        // the chunk file always contains the full chunk, also at the array borders
+        for (int y = intersection.y; y < intersection.y + intersection.height; y++) {
+            final int srcPos = (y - chunkRect.y) * chunkWidth + intersection.x - chunkRect.x;
+            final int destPos = destOffset + (y - destRect.y) * destStride + intersection.x - destRect.x;
+            get(view, srcPos, dest, destPos, intersection.width);
+        }
+    }
+
+    /**
+     * @return the number of chunk mappings currently kept for reuse
+     */
+    int getCachedMappingCount() {
+        synchronized (mappings) {
+            return mappings.size();
+        }
+    }
+
+    /**
+     * Returns a buffer with the content of the chunk file, positioned at zero. Each call returns a new
+     * buffer instance, so concurrent readers of the same chunk do not share position or byte order.
+     */
+    private ByteBuffer getChunkBuffer(Path chunkPath) throws IOException {
+        final long expectedSize = (long) chunkWidth * chunkHeight * elemSize;
+        if (expectedSize >= MIN_MAPPED_CHUNK_SIZE) {
+            synchronized (mappings) {
+                final MappedByteBuffer mapped = mappings.get(chunkPath);
+                if (mapped != null) {
+                    return mapped.duplicate();
+                }
+            }
+        }
+        try (FileChannel channel = FileChannel.open(chunkPath, StandardOpenOption.READ)) {
+            if (channel.size() < expectedSize) {
+                throw new IOException("Uncompressed chunk '" + chunkPath + "' is too small. Expected " + expectedSize + " bytes.");
+            }
+            if (expectedSize < MIN_MAPPED_CHUNK_SIZE) {
+                final ByteBuffer buffer = ByteBuffer.allocate((int) expectedSize);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, buffer.position()) < 0) {
+                        throw new IOException("Unexpected end of chunk '" + chunkPath + "'.");
+                    }
+                }
+                buffer.flip();
+                return buffer;
+            }
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, expectedSize);
+            synchronized (mappings) {
+                mappings.put(chunkPath, mapped);
+            }
+            return mapped.duplicate();
+        }
+    }
+
+    private static Buffer createView(ByteBuffer mapped, Object dest) {
+        if (dest instanceof byte[]) {
+            return mapped;
+        } else if (dest instanceof short[]) {
+            return mapped.asShortBuffer();
+        } else if (dest instanceof int[]) {
+            return mapped.asIntBuffer();
+        } else if (dest instanceof float[]) {
+            return mapped.asFloatBuffer();
+        } else if (dest instanceof double[]) {
+            return mapped.asDoubleBuffer();
+        }
+        throw new IllegalArgumentException("Unsupported array type: " + dest.getClass().getName());
+    }
+
+    private static void get(Buffer view, int srcPos, Object dest, int destPos, int length) {
+        view.position(srcPos);
+        if (view instanceof ByteBuffer) {
+            ((ByteBuffer) view).get((byte[]) dest, destPos, length);
+        } else if (view instanceof ShortBuffer) {
+            ((ShortBuffer) view).get((short[]) dest, destPos, length);
+        } else if (view instanceof IntBuffer) {
+            ((IntBuffer) view).get((int[]) dest, destPos, length);
+        } else if (view instanceof FloatBuffer) {
+            ((FloatBuffer) view).get((float[]) dest, destPos, length);
+        } else {
+            ((DoubleBuffer) view).get((double[]) dest, destPos, length);
+        }
+    }
+
+    private void fill(Object dest, int destOffset, int destStride, Rectangle destRect, Rectangle intersection) {
+        final double value = fillValue != null ? fillValue.doubleValue() : 0.0;
+        for (int y = intersection.y; y < intersection.y + intersection.height; y++) {
+            final int from = destOffset + (y - destRect.y) * destStride + intersection.x - destRect.x;
+            final int to = from + intersection.width;
+            if (dest instanceof byte[]) {
+                Arrays.fill((byte[]) dest, from, to, (byte) (long) value);
+            } else if (dest instanceof short[]) {
+                Arrays.fill((short[]) dest, from, to, (short) (long) value);
+            } else if (dest instanceof int[]) {
+                Arrays.fill((int[]) dest, from, to, (int) (long) value);
+            } else if (dest instanceof float[]) {
+                Arrays.fill((float[]) dest, from, to, (float) value);
+            } else if (dest instanceof double[]) {
+                Arrays.fill((double[]) dest, from, to, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.zarr.storage.Store;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * A {@link Store} decorator counting the bytes of chunks read from or written to the store, i.e. the compressed
+ * bytes if the chunks are compressed. The bytes are recorded to the read or write metrics of the array the chunk
+ * belongs to. Chunks of arrays without metrics and metadata documents are not counted.
+ */
+final class MeteredStore implements Store {
+
+    private final Store delegate;
+    private final Function<String, ReadMetrics> readMetricsByArrayKey;
+    private final Function<String, WriteMetrics> writeMetricsByArrayKey;
+    private volatile boolean flushing;
+
+    /**
+     * @param readMetricsByArrayKey  provides the read metrics of an array, or {@code null} if the array is not metered.
+     *                               May be {@code null} if reads are not metered at all.
+     * @param writeMetricsByArrayKey provides the write metrics of an array, or {@code null} if the array is not metered.
+     *                               May be {@code null} if writes are not metered at all.
+     */
+    MeteredStore(Store delegate, Function<String, ReadMetrics> readMetricsByArrayKey,
+                 Function<String, WriteMetrics> writeMetricsByArrayKey) {
+        this.delegate = delegate;
+        this.readMetricsByArrayKey = readMetricsByArrayKey;
+        this.writeMetricsByArrayKey = writeMetricsByArrayKey;
+    }
+
+    /**
+     * While flushing, bytes written are recorded as flushed shard bytes instead of chunk store writes,
+     * see {@link WriteMetrics#recordFlushedBytes(long, long)}.
+     *
+     * @param flushing whether the chunks are no longer written but the incomplete shards are stored
+     */
+    void setFlushing(boolean flushing) {
+        this.flushing = flushing;
+    }
+
+    @Override
+    public InputStream getInputStream(String key) throws IOException {
+        final InputStream is = delegate.getInputStream(key);
+        final String arrayKey = getChunkArrayKey(key);
+        if (is == null || arrayKey == null || readMetricsByArrayKey == null) {
+            return is;
+        }
+        final ReadMetrics metrics = readMetricsByArrayKey.apply(arrayKey);
+        return metrics != null ? new CountingInputStream(is, metrics) : is;
+    }
+
+    @Override
+    public OutputStream getOutputStream(String key) throws IOException {
+        final String arrayKey = getChunkArrayKey(key);
+        final WriteMetrics metrics = arrayKey != null && writeMetricsByArrayKey != null ? writeMetricsByArrayKey.apply(arrayKey) : null;
+        if (metrics == null) {
+            return delegate.getOutputStream(key);
+        }
+        final long start = System.nanoTime();
+        final OutputStream os = delegate.getOutputStream(key);
+        return new CountingOutputStream(os, metrics, System.nanoTime() - start);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        delegate.delete(key);
+    }
+
+    @Override
+    public TreeSet<String> getArrayKeys() throws IOException {
+        return delegate.getArrayKeys();
+    }
+
+    @Override
+    public TreeSet<String> getGroupKeys() throws IOException {
+        return delegate.getGroupKeys();
+    }
+
+    @Override
+    public TreeSet<String> getKeysEndingWith(String suffix) throws IOException {
+        return delegate.getKeysEndingWith(suffix);
+    }
+
+    @Override
+    public Stream<String> getRelativeLeafKeys(String key) throws IOException {
+        return delegate.getRelativeLeafKeys(key);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    /**
+     * @return the key of the array the chunk with the given key belongs to, or {@code null} if the key
+     *         does not denote a chunk
+     */
+    private static String getChunkArrayKey(String key) {
+        String normalized = key.replace('\\', '/');
+        while (normalized.startsWith("/")) {
+            normalized = normalized.substring(1);
+        }
+        final int idx = normalized.lastIndexOf('/');
+        if (idx <= 0 || normalized.startsWith(".", idx + 1)) {
+            return null;
+        }
+        return normalized.substring(0, idx);
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final ReadMetrics metrics;
+
+        private CountingInputStream(InputStream in, ReadMetrics metrics) {
+            super(in);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                metrics.recordStoredBytes(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                metrics.recordStoredBytes(n);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Counts the bytes written and the time spent in the delegate, including closing it, because some stores
+     * write their entries on close.
+     */
+    private final class CountingOutputStream extends FilterOutputStream {
+
+        private final WriteMetrics metrics;
+        private long numBytes;
+        private long nanos;
+        private boolean closed;
+
+        private CountingOutputStream(OutputStream out, WriteMetrics metrics, long openNanos) {
+            super(out);
+            this.metrics = metrics;
+            this.nanos = openNanos;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            final long start = System.nanoTime();
+            out.write(b);
+            nanos += System.nanoTime() - start;
+            numBytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            final long start = System.nanoTime();
+            out.write(b, off, len);
+            nanos += System.nanoTime() - start;
+            numBytes += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            final long start = System.nanoTime();
+            try {
+                out.close();
+            } finally {
+                nanos += System.nanoTime() - start;
+                if (flushing) {
+                    metrics.recordFlushedBytes(numBytes, nanos);
+                } else {
+                    metrics.recordStoredBytes(numBytes, nanos);
+                }
+            }
+        }
+    }
+}
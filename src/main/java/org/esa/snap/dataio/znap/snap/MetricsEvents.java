@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import java.util.logging.Level;
+
+import static org.esa.snap.core.util.SystemUtils.LOG;
+
+/**
+ * Emits the read and write metrics additionally as JDK Flight Recorder events. The event classes are defined in
+ * {@code JfrMetricsEvents}, which is only loaded if the runtime provides {@code jdk.jfr.Event} (Java 8u262 and
+ * later, Java 11), otherwise the events are silently dropped. Like the metrics, the events are only emitted if
+ * the reader or writer metrics are enabled.
+ */
+final class MetricsEvents {
+
+    /**
+     * Receives the events, implemented by {@code JfrMetricsEvents}.
+     */
+    interface Sink {
+
+        void tileRead(String arrayKey, long nanos);
+
+        void chunksRead(String arrayKey, int numChunks, long numBytes, long nanos);
+
+        void chunkWritten(String arrayKey, long numBytes, long nanos, boolean skipped);
+
+        void shardFlushed(String arrayKey, long numBytes, long nanos);
+    }
+
+    private static final Sink SINK = createSink();
+
+    private MetricsEvents() {
+    }
+
+    /**
+     * @return whether the runtime supports Flight Recorder events
+     */
+    static boolean isAvailable() {
+        return SINK != null;
+    }
+
+    static void tileRead(String arrayKey, long nanos) {
+        if (SINK != null) {
+            SINK.tileRead(arrayKey, nanos);
+        }
+    }
+
+    static void chunksRead(String arrayKey, int numChunks, long numBytes, long nanos) {
+        if (SINK != null) {
+            SINK.chunksRead(arrayKey, numChunks, numBytes, nanos);
+        }
+    }
+
+    static void chunkWritten(String arrayKey, long numBytes, long nanos, boolean skipped) {
+        if (SINK != null) {
+            SINK.chunkWritten(arrayKey, numBytes, nanos, skipped);
+        }
+    }
+
+    static void shardFlushed(String arrayKey, long numBytes, long nanos) {
+        if (SINK != null) {
+            SINK.shardFlushed(arrayKey, numBytes, nanos);
+        }
+    }
+
+    private static Sink createSink() {
+        try {
+            Class.forName("jdk.jfr.Event");
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        try {
+            // loaded reflectively, so that the event classes are never resolved on runtimes without jdk.jfr
+            final Class<?> sinkClass = Class.forName(MetricsEvents.class.getPackage().getName() + ".JfrMetricsEvents");
+            return (Sink) sinkClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOG.log(Level.FINE, "Unable to create the flight recorder events of the znap metrics.", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import static org.esa.snap.core.util.SystemUtils.LOG;
+
+/**
+ * Registers the read and write metrics of products and bands with the platform MBean server.
+ */
+final class MetricsMBeans {
+
+    static final String DOMAIN = "org.esa.snap.dataio.znap";
+
+    private static final AtomicInteger PRODUCT_IDS = new AtomicInteger();
+
+    private MetricsMBeans() {
+    }
+
+    /**
+     * @return a new id distinguishing the MBeans of products with equal names
+     */
+    static int nextProductId() {
+        return PRODUCT_IDS.incrementAndGet();
+    }
+
+    /**
+     * Registers metrics as MBean named {@code org.esa.snap.dataio.znap:type=<type>,id=<id>,product=<name>[,band=<name>]}.
+     *
+     * @param metrics        the metrics implementing the MBean interface
+     * @param mbeanInterface the MBean interface
+     * @param type           the type of the metrics, e.g. {@code ReadMetrics}
+     * @param productId      the id of the product, see {@link #nextProductId()}
+     * @param productName    the name of the product
+     * @param bandName       the name of the band or {@code null} for the product metrics
+     *
+     * @return the object name of the registered MBean or {@code null} if the registration failed
+     */
+    static <T> ObjectName register(T metrics, Class<T> mbeanInterface, String type, int productId,
+                                   String productName, String bandName) {
+        try {
+            String name = DOMAIN + ":type=" + type + ",id=" + productId + ",product=" + ObjectName.quote(productName);
+            if (bandName != null) {
+                name += ",band=" + ObjectName.quote(bandName);
+            }
+            final ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(metrics, mbeanInterface), objectName);
+            return objectName;
+        } catch (JMException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Unable to register the " + type + " of '" + productName + "'.", e);
+            return null;
+        }
+    }
+
+    static void unregister(ObjectName objectName) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            LOG.log(Level.FINE, "Unable to unregister '" + objectName + "'.", e);
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrArray;
+import ucar.ma2.InvalidRangeException;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the overview arrays of a band incrementally while the full resolution chunks
+ * are written. Each level is computed from the previous level by aggregating blocks
+ * of 2 x 2 pixels. The offsets of the written tiles must be multiples of
+ * 2<sup>levels</sup>, so that no block of any level crosses a tile border and each
+ * overview pixel is computed from exactly one tile. The aggregated pixels are buffered
+ * until an overview chunk is complete and each chunk is written at once. Chunks which
+ * are incomplete when {@link #flush()} is called are merged with the stored chunks.
+ */
+class OverviewWriter {
+
+    enum Aggregation {
+        MEAN, NEAREST, MODE;
+
+        static Aggregation parse(String value) {
+            return valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    private final ZarrArray[] overviewArrays;
+    private final Rectangle[] levelBounds;
+    private final List<Map<Point, PendingChunk>> pendingChunks;
+    private final DataType dataType;
+    private final Aggregation aggregation;
+    private final Double noDataValue;
+    private WriteMetrics[] levelMetrics;
+
+    /**
+     * @param overviewArrays the overview arrays. The array at index {@code i} holds resolution level {@code i + 1}.
+     * @param fullShape      the shape of the full resolution array in common data model manner { y, x }
+     * @param dataType       the zarr data type of the full resolution and the overview arrays
+     * @param aggregation    the aggregation method
+     * @param noDataValue    a value which shall be ignored during aggregation or {@code null}
+     */
+    OverviewWriter(ZarrArray[] overviewArrays, int[] fullShape, DataType dataType, Aggregation aggregation, Number noDataValue) {
+        this.overviewArrays = overviewArrays;
+        this.dataType = dataType;
+        this.aggregation = aggregation;
+        this.noDataValue = noDataValue != null ? noDataValue.doubleValue() : null;
+        levelBounds = new Rectangle[overviewArrays.length + 1];
+        levelBounds[0] = new Rectangle(fullShape[1], fullShape[0]);
+        pendingChunks = new ArrayList<>();
+        for (int i = 0; i < overviewArrays.length; i++) {
+            final int[] shape = overviewArrays[i].getShape();
+            levelBounds[i + 1] = new Rectangle(shape[1], shape[0]);
+            pendingChunks.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * @param levelMetrics the metrics to record the chunk writes of each overview level to. The metrics at index
+     *                     {@code i} belong to resolution level {@code i + 1}.
+     */
+    void recordTo(WriteMetrics[] levelMetrics) {
+        this.levelMetrics = levelMetrics;
+    }
+
+    int getNumLevels() {
+        return overviewArrays.length;
+    }
+
+    /**
+     * Aggregates the given full resolution tile into all overview levels and writes the overview chunks
+     * completed by the tile.
+     *
+     * @param data      the primitive data array of the tile
+     * @param dataShape the tile shape in common data model manner { y, x }
+     * @param offset    the tile offset in common data model manner { y, x }. Both values must be multiples
+     *                  of 2<sup>levels</sup>.
+     */
+    void write(Object data, int[] dataShape, int[] offset) throws IOException, InvalidRangeException {
+        final int blockSize = 1 << overviewArrays.length;
+        if (offset[0] % blockSize != 0 || offset[1] % blockSize != 0) {
+            throw new IllegalArgumentException("The tile offset " + offset[1] + "," + offset[0]
+                                               + " is not a multiple of " + blockSize + ".");
+        }
+        Rectangle rect = new Rectangle(offset[1], offset[0], dataShape[1], dataShape[0]);
+        double[] values = toDouble(data, dataType);
+        for (int level = 1; level <= overviewArrays.length; level++) {
+            final Rectangle levelRect = getLevelRect(rect).intersection(levelBounds[level]);
+            if (levelRect.isEmpty()) {
+                return;
+            }
+            values = aggregate(values, rect, levelRect);
+            rect = levelRect;
+            for (PendingChunk chunk : store(level, values, rect)) {
+                writeChunk(level, chunk.rect, chunk.values);
+            }
+        }
+    }
+
+    /**
+     * Writes the overview chunks which are still incomplete. Their missing pixels are taken from the stored
+     * chunks or are the fill value, if no chunk has been stored yet.
+     */
+    void flush() throws IOException, InvalidRangeException {
+        for (int level = 1; level <= overviewArrays.length; level++) {
+            final Map<Point, PendingChunk> pending = pendingChunks.get(level - 1);
+            final List<PendingChunk> chunks;
+            synchronized (pending) {
+                chunks = new ArrayList<>(pending.values());
+                pending.clear();
+            }
+            for (PendingChunk chunk : chunks) {
+                final Rectangle r = chunk.rect;
+                final Object stored = overviewArrays[level - 1].read(new int[]{r.height, r.width}, new int[]{r.y, r.x});
+                final double[] storedValues = toDouble(stored, dataType);
+                for (int i = chunk.covered.nextClearBit(0); i < storedValues.length; i = chunk.covered.nextClearBit(i + 1)) {
+                    chunk.values[i] = storedValues[i];
+                }
+                writeChunk(level, r, chunk.values);
+            }
+        }
+    }
+
+    private List<PendingChunk> store(int level, double[] values, Rectangle rect) {
+        final Rectangle bounds = levelBounds[level];
+        final int[] chunks = overviewArrays[level - 1].getChunks();
+        final int chunkHeight = chunks[0];
+        final int chunkWidth = chunks[1];
+        final Map<Point, PendingChunk> pending = pendingChunks.get(level - 1);
+        final List<PendingChunk> completed = new ArrayList<>();
+        synchronized (pending) {
+            for (int cy = rect.y / chunkHeight; cy <= (rect.y + rect.height - 1) / chunkHeight; cy++) {
+                for (int cx = rect.x / chunkWidth; cx <= (rect.x + rect.width - 1) / chunkWidth; cx++) {
+                    final Point key = new Point(cx, cy);
+                    PendingChunk chunk = pending.get(key);
+                    if (chunk == null) {
+                        chunk = new PendingChunk(new Rectangle(cx * chunkWidth, cy * chunkHeight, chunkWidth, chunkHeight).intersection(bounds));
+                        pending.put(key, chunk);
+                    }
+                    chunk.copy(values, rect);
+                    if (chunk.isComplete()) {
+                        pending.remove(key);
+                        completed.add(chunk);
+                    }
+                }
+            }
+        }
+        return completed;
+    }
+
+    private void writeChunk(int level, Rectangle rect, double[] values) throws IOException, InvalidRangeException {
+        final Object levelData = fromDouble(values, dataType);
+        final long start = levelMetrics != null ? System.nanoTime() : 0L;
+        overviewArrays[level - 1].write(levelData, new int[]{rect.height, rect.width}, new int[]{rect.y, rect.x});
+        if (levelMetrics != null) {
+            levelMetrics[level - 1].recordChunk(ChunkCache.sizeOf(levelData), System.nanoTime() - start, false);
+        }
+    }
+
+    /**
+     * The aggregated pixels of an overview chunk which has not been written yet.
+     */
+    private static class PendingChunk {
+
+        private final Rectangle rect;
+        private final double[] values;
+        private final BitSet covered;
+        private int numCovered;
+
+        PendingChunk(Rectangle rect) {
+            this.rect = rect;
+            values = new double[rect.width * rect.height];
+            covered = new BitSet(values.length);
+        }
+
+        void copy(double[] src, Rectangle srcRect) {
+            final Rectangle r = srcRect.intersection(rect);
+            for (int y = r.y; y < r.y + r.height; y++) {
+                final int srcPos = (y - srcRect.y) * srcRect.width + r.x - srcRect.x;
+                final int destPos = (y - rect.y) * rect.width + r.x - rect.x;
+                System.arraycopy(src, srcPos, values, destPos, r.width);
+                numCovered += r.width - covered.get(destPos, destPos + r.width).cardinality();
+                covered.set(destPos, destPos + r.width);
+            }
+        }
+
+        boolean isComplete() {
+            return numCovered == values.length;
+        }
+    }
+
+    private static Rectangle getLevelRect(Rectangle rect) {
+        final int x1 = rect.x / 2;
+        final int y1 = rect.y / 2;
+        final int x2 = (rect.x + rect.width + 1) / 2;
+        final int y2 = (rect.y + rect.height + 1) / 2;
+        return new Rectangle(x1, y1, x2 - x1, y2 - y1);
+    }
+
+    private double[] aggregate(double[] src, Rectangle srcRect, Rectangle destRect) {
+        final double[] dest = new double[destRect.width * destRect.height];
+        final double[] block = new double[4];
+        final Map<Double, Integer> counts = aggregation == Aggregation.MODE ? new HashMap<>() : null;
+        final double fill = noDataValue != null ? noDataValue : Double.NaN;
+        for (int y = 0; y < destRect.height; y++) {
+            final int srcY0 = Math.max(2 * (destRect.y + y), srcRect.y);
+            final int srcY1 = Math.min(2 * (destRect.y + y) + 2, srcRect.y + srcRect.height);
+            for (int x = 0; x < destRect.width; x++) {
+                final int srcX0 = Math.max(2 * (destRect.x + x), srcRect.x);
+                final int srcX1 = Math.min(2 * (destRect.x + x) + 2, srcRect.x + srcRect.width);
+                int n = 0;
+                for (int sy = srcY0; sy < srcY1; sy++) {
+                    for (int sx = srcX0; sx < srcX1; sx++) {
+                        final double v = src[(sy - srcRect.y) * srcRect.width + sx - srcRect.x];
+                        if (aggregation == Aggregation.NEAREST || isValid(v)) {
+                            block[n++] = v;
+                        }
+                    }
+                }
+                dest[y * destRect.width + x] = n == 0 ? fill : aggregate(block, n, counts);
+            }
+        }
+        return dest;
+    }
+
+    private double aggregate(double[] block, int n, Map<Double, Integer> counts) {
+        switch (aggregation) {
+            case NEAREST:
+                return block[0];
+            case MODE:
+                counts.clear();
+                double mode = block[0];
+                int maxCount = 0;
+                for (int i = 0; i < n; i++) {
+                    final int count = counts.merge(block[i], 1, Integer::sum);
+                    if (count > maxCount) {
+                        maxCount = count;
+                        mode = block[i];
+                    }
+                }
+                return mode;
+            default:
+                double sum = 0;
+                for (int i = 0; i < n; i++) {
+                    sum += block[i];
+                }
+                final double mean = sum / n;
+                return isFloatingPoint(dataType) ? mean : Math.round(mean);
+        }
+    }
+
+    private boolean isValid(double v) {
+        return !Double.isNaN(v) && (noDataValue == null || v != noDataValue);
+    }
+
+    private static boolean isFloatingPoint(DataType dataType) {
+        return dataType == DataType.f4 || dataType == DataType.f8;
+    }
+
+    static double[] toDouble(Object data, DataType dataType) {
+        final boolean unsigned = dataType == DataType.u1 || dataType == DataType.u2 || dataType == DataType.u4;
+        if (data instanceof byte[]) {
+            final byte[] a = (byte[]) data;
+            final double[] d = new double[a.length];
+            for (int i = 0; i < a.length; i++) {
+                d[i] = unsigned ? a[i] & 0xff : a[i];
+            }
+            return d;
+        } else if (data instanceof short[]) {
+            final short[] a = (short[]) data;
+            final double[] d = new double[a.length];
+            for (int i = 0; i < a.length; i++) {
+                d[i] = unsigned ? a[i] & 0xffff : a[i];
+            }
+            return d;
+        } else if (data instanceof int[]) {
+            final int[] a = (int[]) data;
+            final double[] d = new double[a.length];
+            for (int i = 0; i < a.length; i++) {
+                d[i] = unsigned ? a[i] & 0xffffffffL : a[i];
+            }
+            return d;
+        } else if (data instanceof float[]) {
+            final float[] a = (float[]) data;
+            final double[] d = new double[a.length];
+            for (int i = 0; i < a.length; i++) {
+                d[i] = a[i];
+            }
+            return d;
+        } else if (data instanceof double[]) {
+            return ((double[]) data).clone();
+        }
+        throw new IllegalArgumentException("Unsupported array type: " + data.getClass().getName());
+    }
+
+    static Object fromDouble(double[] values, DataType dataType) {
+        switch (dataType) {
+            case i1:
+            case u1: {
+                final byte[] a = new byte[values.length];
+                for (int i = 0; i < a.length; i++) {
+                    a[i] = (byte) (long) values[i];
+                }
+                return a;
+            }
+            case i2:
+            case u2: {
+                final short[] a = new short[values.length];
+                for (int i = 0; i < a.length; i++) {
+                    a[i] = (short) (long) values[i];
+                }
+                return a;
+            }
+            case i4:
+            case u4: {
+                final int[] a = new int[values.length];
+                for (int i = 0; i < a.length; i++) {
+                    a[i] = (int) (long) values[i];
+                }
+                return a;
+            }
+            case f4: {
+                final float[] a = new float[values.length];
+                for (int i = 0; i < a.length; i++) {
+                    a[i] = (float) values[i];
+                }
+                return a;
+            }
+            case f8:
+                return values;
+            default:
+                throw new IllegalArgumentException("Unsupported data type: " + dataType);
+        }
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.zarr.storage.Store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static com.bc.zarr.ZarrConstants.FILENAME_DOT_ZARRAY;
+import static com.bc.zarr.ZarrConstants.FILENAME_DOT_ZGROUP;
+
+/**
+ * A {@link Store} writing a zip archive from many threads at once. Each entry is collected in memory
+ * and checksummed and, if requested, deflated on the thread which closes the entry output stream,
+ * so the chunk writer threads compress their entries in parallel. The finished entries are appended
+ * to the archive in the order they are completed by a single synchronized sequencer. The central
+ * directory is written when the store is closed.
+ * <p>
+ * Because zarr chunks are usually already compressed by the zarr compressor, entries can be stored
+ * uncompressed ({@code STORED}) to avoid compressing the data twice. Entries which would not become
+ * smaller by deflating are always stored.
+ * <p>
+ * Writing an entry a second time appends the new content and replaces the central directory record,
+ * the bytes of the former content remain unreferenced in the archive.
+ */
+final class ParallelZipStore implements Store {
+
+    private static final int SIG_LOCAL_HEADER = 0x04034b50;
+    private static final int SIG_CENTRAL_HEADER = 0x02014b50;
+    private static final int SIG_END_OF_CENTRAL_DIR = 0x06054b50;
+    private static final int SIG_ZIP64_END_OF_CENTRAL_DIR = 0x06064b50;
+    private static final int SIG_ZIP64_LOCATOR = 0x07064b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIR_SIZE = 22;
+    private static final int ZIP64_END_OF_CENTRAL_DIR_SIZE = 56;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private final Path zipPath;
+    private final boolean deflate;
+    private final FileChannel channel;
+    private final int dosTime;
+    private final int dosDate;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private long position;
+    private boolean closed;
+
+    /**
+     * @param zipPath the zip archive to be created, an existing file is overwritten
+     * @param deflate whether entries shall be deflated or stored uncompressed
+     */
+    ParallelZipStore(Path zipPath, boolean deflate) throws IOException {
+        this.zipPath = zipPath;
+        this.deflate = deflate;
+        channel = FileChannel.open(zipPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                   StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final LocalDateTime now = LocalDateTime.now();
+        dosTime = now.getHour() << 11 | now.getMinute() << 5 | now.getSecond() >> 1;
+        dosDate = Math.max(now.getYear() - 1980, 0) << 9 | now.getMonthValue() << 5 | now.getDayOfMonth();
+    }
+
+    @Override
+    public InputStream getInputStream(String key) throws IOException {
+        final Entry entry;
+        synchronized (this) {
+            ensureOpen();
+            entry = entries.get(normalizeKey(key));
+        }
+        if (entry == null) {
+            return null;
+        }
+        // one additional zero byte as the inflater in nowrap mode needs a dummy byte at the end of the input
+        final byte[] data = new byte[Math.toIntExact(entry.compressedSize) + 1];
+        readFully(ByteBuffer.wrap(data, 0, data.length - 1), entry.dataOffset);
+        if (entry.method == METHOD_STORED) {
+            return new ByteArrayInputStream(data, 0, data.length - 1);
+        }
+        return new InflaterInputStream(new ByteArrayInputStream(data), new Inflater(true)) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inf.end();
+            }
+        };
+    }
+
+    @Override
+    public OutputStream getOutputStream(String key) throws IOException {
+        synchronized (this) {
+            ensureOpen();
+        }
+        return new EntryOutputStream(normalizeKey(key));
+    }
+
+    @Override
+    public synchronized void delete(String key) {
+        final String normalizedKey = normalizeKey(key);
+        final String prefix = normalizedKey + "/";
+        entries.keySet().removeIf(name -> name.equals(normalizedKey) || name.startsWith(prefix));
+    }
+
+    @Override
+    public TreeSet<String> getArrayKeys() {
+        return getParentKeys(FILENAME_DOT_ZARRAY);
+    }
+
+    @Override
+    public TreeSet<String> getGroupKeys() {
+        return getParentKeys(FILENAME_DOT_ZGROUP);
+    }
+
+    @Override
+    public synchronized TreeSet<String> getKeysEndingWith(String suffix) {
+        final TreeSet<String> keys = new TreeSet<>();
+        for (String name : entries.keySet()) {
+            if (name.endsWith(suffix)) {
+                keys.add(name);
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public synchronized Stream<String> getRelativeLeafKeys(String key) {
+        final String normalizedKey = normalizeKey(key);
+        final String prefix = normalizedKey.isEmpty() ? "" : normalizedKey + "/";
+        final List<String> keys = new ArrayList<>();
+        for (String name : entries.keySet()) {
+            if (name.startsWith(prefix)) {
+                keys.add(name.substring(prefix.length()));
+            }
+        }
+        return keys.stream().sorted();
+    }
+
+    /**
+     * Writes the central directory and closes the archive file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writeCentralDirectory();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private synchronized TreeSet<String> getParentKeys(String fileName) {
+        final TreeSet<String> keys = new TreeSet<>();
+        final String suffix = "/" + fileName;
+        for (String name : entries.keySet()) {
+            if (name.endsWith(suffix)) {
+                keys.add(name.substring(0, name.length() - suffix.length()));
+            } else if (name.equals(fileName)) {
+                keys.add("");
+            }
+        }
+        return keys;
+    }
+
+    private void addEntry(String name, byte[] content, int length) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(content, 0, length);
+        byte[] data = content;
+        int dataLength = length;
+        int method = METHOD_STORED;
+        if (deflate && length > 0) {
+            final byte[] deflated = deflate(content, length);
+            if (deflated != null) {
+                data = deflated;
+                dataLength = deflated.length;
+                method = METHOD_DEFLATED;
+            }
+        }
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(SIG_LOCAL_HEADER)
+                .putShort((short) VERSION_DEFAULT)
+                .putShort((short) FLAG_UTF8)
+                .putShort((short) method)
+                .putShort((short) dosTime)
+                .putShort((short) dosDate)
+                .putInt((int) crc.getValue())
+                .putInt(dataLength)
+                .putInt(length)
+                .putShort((short) nameBytes.length)
+                .putShort((short) 0)
+                .put(nameBytes);
+        header.flip();
+
+        synchronized (this) {
+            ensureOpen();
+            final long headerOffset = position;
+            writeFully(header, headerOffset);
+            final long dataOffset = headerOffset + header.limit();
+            writeFully(ByteBuffer.wrap(data, 0, dataLength), dataOffset);
+            position = dataOffset + dataLength;
+            entries.remove(name);
+            entries.put(name, new Entry(nameBytes, method, crc.getValue(), dataLength, length, headerOffset, dataOffset));
+        }
+    }
+
+    /**
+     * @return the deflated content or {@code null} if deflating does not reduce the size
+     */
+    private static byte[] deflate(byte[] content, int length) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(content, 0, length);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(length / 2, 64));
+            final byte[] buffer = new byte[Math.min(Math.max(length, 64), 64 * 1024)];
+            while (!deflater.finished()) {
+                final int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+                if (out.size() >= length) {
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        final long cdOffset = position;
+        long cdPosition = cdOffset;
+        for (Entry entry : entries.values()) {
+            final boolean zip64 = entry.headerOffset >= ZIP64_MAGIC;
+            final int extraLength = zip64 ? 12 : 0;
+            final ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + entry.name.length + extraLength)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(SIG_CENTRAL_HEADER)
+                    .putShort((short) (zip64 ? VERSION_ZIP64 : VERSION_DEFAULT))
+                    .putShort((short) (zip64 ? VERSION_ZIP64 : VERSION_DEFAULT))
+                    .putShort((short) FLAG_UTF8)
+                    .putShort((short) entry.method)
+                    .putShort((short) dosTime)
+                    .putShort((short) dosDate)
+                    .putInt((int) entry.crc)
+                    .putInt((int) entry.compressedSize)
+                    .putInt((int) entry.size)
+                    .putShort((short) entry.name.length)
+                    .putShort((short) extraLength)
+                    .putShort((short) 0)  // comment length
+                    .putShort((short) 0)  // disk number
+                    .putShort((short) 0)  // internal attributes
+                    .putInt(0)            // external attributes
+                    .putInt((int) (zip64 ? ZIP64_MAGIC : entry.headerOffset))
+                    .put(entry.name);
+            if (zip64) {
+                header.putShort((short) ZIP64_EXTRA_ID).putShort((short) 8).putLong(entry.headerOffset);
+            }
+            header.flip();
+            writeFully(header, cdPosition);
+            cdPosition += header.limit();
+        }
+        final long cdSize = cdPosition - cdOffset;
+        final int entryCount = entries.size();
+        final boolean zip64 = entryCount >= ZIP64_MAGIC_COUNT || cdOffset >= ZIP64_MAGIC || cdSize >= ZIP64_MAGIC;
+
+        final ByteBuffer end = ByteBuffer.allocate(ZIP64_END_OF_CENTRAL_DIR_SIZE + ZIP64_LOCATOR_SIZE + END_OF_CENTRAL_DIR_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if (zip64) {
+            end.putInt(SIG_ZIP64_END_OF_CENTRAL_DIR)
+                    .putLong(ZIP64_END_OF_CENTRAL_DIR_SIZE - 12)
+                    .putShort((short) VERSION_ZIP64)
+                    .putShort((short) VERSION_ZIP64)
+                    .putInt(0)
+                    .putInt(0)
+                    .putLong(entryCount)
+                    .putLong(entryCount)
+                    .putLong(cdSize)
+                    .putLong(cdOffset);
+            end.putInt(SIG_ZIP64_LOCATOR)
+                    .putInt(0)
+                    .putLong(cdPosition)
+                    .putInt(1);
+        }
+        end.putInt(SIG_END_OF_CENTRAL_DIR)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) (zip64 ? ZIP64_MAGIC_COUNT : entryCount))
+                .putShort((short) (zip64 ? ZIP64_MAGIC_COUNT : entryCount))
+                .putInt((int) (zip64 ? ZIP64_MAGIC : cdSize))
+                .putInt((int) (zip64 ? ZIP64_MAGIC : cdOffset))
+                .putShort((short) 0);
+        end.flip();
+        writeFully(end, cdPosition);
+        channel.truncate(cdPosition + end.limit());
+    }
+
+    private void writeFully(ByteBuffer buffer, long offset) throws IOException {
+        long pos = offset;
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        long pos = offset;
+        while (buffer.hasRemaining()) {
+            final int n = channel.read(buffer, pos);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of zip archive " + zipPath);
+            }
+            pos += n;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Zip archive already closed: " + zipPath);
+        }
+    }
+
+    private static String normalizeKey(String key) {
+        String normalized = key.replace('\\', '/');
+        while (normalized.startsWith("/")) {
+            normalized = normalized.substring(1);
+        }
+        return normalized;
+    }
+
+    private static final class Entry {
+
+        final byte[] name;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long headerOffset;
+        final long dataOffset;
+
+        Entry(byte[] name, int method, long crc, long compressedSize, long size, long headerOffset, long dataOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.headerOffset = headerOffset;
+            this.dataOffset = dataOffset;
+        }
+    }
+
+    /**
+     * Collects the content of an entry in memory and adds the entry to the archive on close.
+     */
+    private final class EntryOutputStream extends ByteArrayOutputStream {
+
+        private final String name;
+        private boolean entryClosed;
+
+        EntryOutputStream(String name) {
+            super(1024);
+            this.name = name;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!entryClosed) {
+                entryClosed = true;
+                addEntry(name, buf, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.zarr.DataType;
+import org.esa.snap.core.datamodel.ProductData;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.ATT_NAME_QUANTIZATION;
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.NO_DATA_VALUE_USED;
+import static ucar.nc2.constants.CDM.FILL_VALUE;
+import static ucar.nc2.constants.CF.ADD_OFFSET;
+import static ucar.nc2.constants.CF.SCALE_FACTOR;
+
+/**
+ * Lossy quantization of float bands which makes chunks compress considerably better.
+ * <ul>
+ * <li>{@code bitround(keepbits=N)} keeps N significant mantissa bits, rounding half to even like the
+ * numcodecs BitRound codec. The data type of the band is not changed.</li>
+ * <li>{@code int16(scale=S;offset=O)} packs the values into 16 bit integers with the CF attributes
+ * {@code scale_factor} and {@code add_offset}. Values out of range, NaN and no-data are written as
+ * {@code -32768}, which becomes the no-data value of the band.</li>
+ * </ul>
+ * The specification is recorded in the band attribute {@code quantization}.
+ */
+abstract class Quantization {
+
+    static final String BITROUND = "bitround";
+    static final String INT16 = "int16";
+
+    // attribute name used by the netCDF-C library for bit rounded variables
+    static final String ATT_NAME_BITROUND_BITS = "_QuantizeBitRoundNumberOfSignificantBits";
+
+    private final String spec;
+
+    private Quantization(String spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * @param spec the quantization specification, {@code null}, empty or {@code "none"} for no quantization
+     */
+    static Quantization parse(String spec) {
+        if (spec == null || spec.trim().isEmpty() || "none".equalsIgnoreCase(spec.trim())) {
+            return null;
+        }
+        final String trimmed = spec.trim();
+        final int paramsStart = trimmed.indexOf('(');
+        if (paramsStart < 0 || !trimmed.endsWith(")")) {
+            throw new IllegalArgumentException("Invalid quantization specification '" + spec + "'.");
+        }
+        final String type = trimmed.substring(0, paramsStart).trim();
+        final Map<String, Double> params = new LinkedHashMap<>();
+        for (String param : trimmed.substring(paramsStart + 1, trimmed.length() - 1).split(";")) {
+            final String[] keyValue = param.split("=", 2);
+            if (keyValue.length != 2) {
+                throw new IllegalArgumentException("Invalid quantization parameter '" + param + "'.");
+            }
+            params.put(keyValue[0].trim(), Double.valueOf(keyValue[1].trim()));
+        }
+        if (BITROUND.equals(type) && params.containsKey("keepbits")) {
+            return new BitRound(trimmed, params.get("keepbits").intValue());
+        } else if (INT16.equals(type) && params.containsKey("scale")) {
+            return new Int16Packing(trimmed, params.get("scale"), params.getOrDefault("offset", 0.0));
+        }
+        throw new IllegalArgumentException("Invalid quantization specification '" + spec + "'.");
+    }
+
+    /**
+     * @return whether the quantization changes the data type and the scaling of the band
+     */
+    abstract boolean isPacking();
+
+    abstract DataType getDataType(DataType dataType);
+
+    abstract Number getFillValue(Number fillValue);
+
+    /**
+     * @param data        float or double data
+     * @param noDataValue the no-data value of the data or {@code null} if no-data is not used
+     *
+     * @return the quantized data in a new buffer
+     */
+    abstract ProductData apply(ProductData data, Double noDataValue);
+
+    void collectAttributes(Map<String, Object> attributes) {
+        attributes.put(ATT_NAME_QUANTIZATION, spec);
+    }
+
+    static final class BitRound extends Quantization {
+
+        private final int keepBits;
+
+        BitRound(String spec, int keepBits) {
+            super(spec);
+            if (keepBits < 0) {
+                throw new IllegalArgumentException("The number of bits to keep must not be negative.");
+            }
+            this.keepBits = keepBits;
+        }
+
+        @Override
+        boolean isPacking() {
+            return false;
+        }
+
+        @Override
+        DataType getDataType(DataType dataType) {
+            return dataType;
+        }
+
+        @Override
+        Number getFillValue(Number fillValue) {
+            return fillValue;
+        }
+
+        @Override
+        ProductData apply(ProductData data, Double noDataValue) {
+            // NaN is passed through by round(), the no-data value must not be rounded either
+            final Object elems = data.getElems();
+            if (elems instanceof float[]) {
+                final float[] values = ((float[]) elems).clone();
+                final boolean noDataUsed = noDataValue != null;
+                final float noData = noDataUsed ? noDataValue.floatValue() : Float.NaN;
+                for (int i = 0; i < values.length; i++) {
+                    if (!noDataUsed || values[i] != noData) {
+                        values[i] = round(values[i], keepBits);
+                    }
+                }
+                return ProductData.createInstance(values);
+            } else if (elems instanceof double[]) {
+                final double[] values = ((double[]) elems).clone();
+                for (int i = 0; i < values.length; i++) {
+                    if (noDataValue == null || values[i] != noDataValue) {
+                        values[i] = round(values[i], keepBits);
+                    }
+                }
+                return ProductData.createInstance(values);
+            }
+            throw new IllegalArgumentException("Bit rounding requires float data.");
+        }
+
+        @Override
+        void collectAttributes(Map<String, Object> attributes) {
+            super.collectAttributes(attributes);
+            attributes.put(ATT_NAME_BITROUND_BITS, keepBits);
+        }
+
+        static float round(float value, int keepBits) {
+            final int maskBits = 23 - keepBits;
+            if (maskBits <= 0 || !Float.isFinite(value)) {
+                return value;
+            }
+            int bits = Float.floatToRawIntBits(value);
+            final int mask = (0xFFFFFFFF >>> maskBits) << maskBits;
+            final int halfQuantum = (1 << (maskBits - 1)) - 1;
+            bits += ((bits >>> maskBits) & 1) + halfQuantum;
+            return Float.intBitsToFloat(bits & mask);
+        }
+
+        static double round(double value, int keepBits) {
+            final int maskBits = 52 - keepBits;
+            if (maskBits <= 0 || !Double.isFinite(value)) {
+                return value;
+            }
+            long bits = Double.doubleToRawLongBits(value);
+            final long mask = (0xFFFFFFFFFFFFFFFFL >>> maskBits) << maskBits;
+            final long halfQuantum = (1L << (maskBits - 1)) - 1;
+            bits += ((bits >>> maskBits) & 1) + halfQuantum;
+            return Double.longBitsToDouble(bits & mask);
+        }
+    }
+
+    static final class Int16Packing extends Quantization {
+
+        static final short FILL_VALUE_INT16 = Short.MIN_VALUE;
+
+        private final double scale;
+        private final double offset;
+
+        Int16Packing(String spec, double scale, double offset) {
+            super(spec);
+            if (!(scale > 0)) {
+                throw new IllegalArgumentException("The scale of int16 packing must be positive.");
+            }
+            this.scale = scale;
+            this.offset = offset;
+        }
+
+        @Override
+        boolean isPacking() {
+            return true;
+        }
+
+        @Override
+        DataType getDataType(DataType dataType) {
+            return DataType.i2;
+        }
+
+        @Override
+        Number getFillValue(Number fillValue) {
+            return FILL_VALUE_INT16;
+        }
+
+        @Override
+        ProductData apply(ProductData data, Double noDataValue) {
+            final int numElems = data.getNumElems();
+            final short[] packed = new short[numElems];
+            for (int i = 0; i < numElems; i++) {
+                packed[i] = pack(data.getElemDoubleAt(i), noDataValue);
+            }
+            return ProductData.createInstance(packed);
+        }
+
+        @Override
+        void collectAttributes(Map<String, Object> attributes) {
+            super.collectAttributes(attributes);
+            attributes.put(SCALE_FACTOR, scale);
+            if (offset != 0.0) {
+                attributes.put(ADD_OFFSET, offset);
+            } else {
+                attributes.remove(ADD_OFFSET);
+            }
+            attributes.put(FILL_VALUE, (long) FILL_VALUE_INT16);
+            attributes.put(NO_DATA_VALUE_USED, true);
+        }
+
+        short pack(double value, Double noDataValue) {
+            if (Double.isNaN(value) || noDataValue != null && value == noDataValue) {
+                return FILL_VALUE_INT16;
+            }
+            final long packed = Math.round((value - offset) / scale);
+            if (packed <= FILL_VALUE_INT16 || packed > Short.MAX_VALUE) {
+                return FILL_VALUE_INT16;
+            }
+            return (short) packed;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the read path. A reader creates one instance per product and one per band,
+ * the band metrics also record into the product metrics. Readers do not create metrics at all if they are
+ * disabled, so the read path only pays for a {@code null} check then. Tile and chunk reads are also emitted
+ * as Flight Recorder events, see {@link MetricsEvents}.
+ */
+final class ReadMetrics implements ReadMetricsMBean {
+
+    private final ReadMetrics parent;
+    private final String arrayKey;
+    private final LongAdder tilesComputed = new LongAdder();
+    private final LongAdder chunksRead = new LongAdder();
+    private final LongAdder storedBytesRead = new LongAdder();
+    private final LongAdder decodedBytes = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LatencyHistogram tileLatencies = new LatencyHistogram();
+    private final LatencyHistogram chunkLatencies = new LatencyHistogram();
+
+    ReadMetrics(ReadMetrics parent) {
+        this(parent, null);
+    }
+
+    /**
+     * @param parent   the product metrics or {@code null}
+     * @param arrayKey the key of the band array, used to label the flight recorder events
+     */
+    ReadMetrics(ReadMetrics parent, String arrayKey) {
+        this.parent = parent;
+        this.arrayKey = arrayKey;
+    }
+
+    void recordTile(long nanos) {
+        addTile(nanos);
+        MetricsEvents.tileRead(arrayKey, nanos);
+    }
+
+    private void addTile(long nanos) {
+        tilesComputed.increment();
+        tileLatencies.record(nanos);
+        if (parent != null) {
+            parent.addTile(nanos);
+        }
+    }
+
+    /**
+     * @param numChunks the number of chunks read and decoded at once
+     * @param numBytes  the number of decoded bytes
+     * @param nanos     the time needed to read and decode the chunks
+     */
+    void recordChunks(int numChunks, long numBytes, long nanos) {
+        addChunks(numChunks, numBytes, nanos);
+        MetricsEvents.chunksRead(arrayKey, numChunks, numBytes, nanos);
+    }
+
+    private void addChunks(int numChunks, long numBytes, long nanos) {
+        chunksRead.add(numChunks);
+        decodedBytes.add(numBytes);
+        decodeNanos.add(nanos);
+        chunkLatencies.record(nanos / numChunks);
+        if (parent != null) {
+            parent.addChunks(numChunks, numBytes, nanos);
+        }
+    }
+
+    void recordStoredBytes(long numBytes) {
+        storedBytesRead.add(numBytes);
+        if (parent != null) {
+            parent.recordStoredBytes(numBytes);
+        }
+    }
+
+    void recordCacheAccess(boolean hit) {
+        if (hit) {
+            cacheHits.increment();
+        } else {
+            cacheMisses.increment();
+        }
+        if (parent != null) {
+            parent.recordCacheAccess(hit);
+        }
+    }
+
+    @Override
+    public long getTilesComputed() {
+        return tilesComputed.sum();
+    }
+
+    @Override
+    public long getChunksRead() {
+        return chunksRead.sum();
+    }
+
+    @Override
+    public long getStoredBytesRead() {
+        return storedBytesRead.sum();
+    }
+
+    @Override
+    public long getDecodedBytes() {
+        return decodedBytes.sum();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        final long stored = getStoredBytesRead();
+        return stored > 0 ? (double) getDecodedBytes() / stored : Double.NaN;
+    }
+
+    @Override
+    public long getDecodeTimeMillis() {
+        return decodeNanos.sum() / 1000000;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public double getTileLatencyMillisP50() {
+        return tileLatencies.getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getTileLatencyMillisP99() {
+        return tileLatencies.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public long[] getTileLatencyHistogram() {
+        return tileLatencies.getCounts();
+    }
+
+    @Override
+    public double getChunkLatencyMillisP50() {
+        return chunkLatencies.getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getChunkLatencyMillisP99() {
+        return chunkLatencies.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public long[] getChunkLatencyHistogram() {
+        return chunkLatencies.getCounts();
+    }
+
+    @Override
+    public void reset() {
+        tilesComputed.reset();
+        chunksRead.reset();
+        storedBytesRead.reset();
+        decodedBytes.reset();
+        decodeNanos.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+        tileLatencies.reset();
+        chunkLatencies.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("tiles=%d, chunks=%d, stored bytes=%d, decoded bytes=%d, decode time=%d ms, " +
+                             "cache hits=%d, cache misses=%d, tile latency p50=%.3f ms, p99=%.3f ms",
+                             getTilesComputed(), getChunksRead(), getStoredBytesRead(), getDecodedBytes(),
+                             getDecodeTimeMillis(), getCacheHits(), getCacheMisses(),
+                             getTileLatencyMillisP50(), getTileLatencyMillisP99());
+    }
+
+    /**
+     * Counts latencies in buckets of powers of two microseconds.
+     */
+    static final class LatencyHistogram {
+
+        static final int NUM_BUCKETS = 32;
+
+        private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+        void record(long nanos) {
+            final long micros = nanos / 1000;
+            final int bucket = micros <= 1 ? 0 : Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+            counts.incrementAndGet(bucket);
+        }
+
+        long[] getCounts() {
+            final long[] result = new long[NUM_BUCKETS];
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                result[i] = counts.get(i);
+            }
+            return result;
+        }
+
+        /**
+         * @return the upper bound of the bucket containing the given percentile or {@code NaN} if nothing was recorded
+         */
+        double getPercentileMillis(double percentile) {
+            final long[] bucketCounts = getCounts();
+            long total = 0;
+            for (long count : bucketCounts) {
+                total += count;
+            }
+            if (total == 0) {
+                return Double.NaN;
+            }
+            final long rank = (long) Math.ceil(percentile * total);
+            long sum = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                sum += bucketCounts[i];
+                if (sum >= rank) {
+                    return (1L << i) / 1000.0;
+                }
+            }
+            return (1L << (NUM_BUCKETS - 1)) / 1000.0;
+        }
+
+        void reset() {
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+/**
+ * The management interface of the read metrics of a product or of a single band, registered
+ * with the platform MBean server under {@value MetricsMBeans#DOMAIN} if the reader metrics are enabled
+ * by the preference {@code znap.reader.metrics}.
+ * Latencies are given in milliseconds, the histograms count the latencies in buckets whose upper bound
+ * in microseconds is 2 to the power of the bucket index.
+ */
+public interface ReadMetricsMBean {
+
+    long getTilesComputed();
+
+    long getChunksRead();
+
+    /**
+     * @return the number of bytes read from the store, i.e. compressed bytes if the chunks are compressed
+     */
+    long getStoredBytesRead();
+
+    /**
+     * @return the number of decoded bytes of the chunks read
+     */
+    long getDecodedBytes();
+
+    double getCompressionRatio();
+
+    long getDecodeTimeMillis();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    double getTileLatencyMillisP50();
+
+    double getTileLatencyMillisP99();
+
+    long[] getTileLatencyHistogram();
+
+    double getChunkLatencyMillisP50();
+
+    double getChunkLatencyMillisP99();
+
+    long[] getChunkLatencyHistogram();
+
+    void reset();
+}
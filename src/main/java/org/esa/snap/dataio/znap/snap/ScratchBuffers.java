@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.esa.snap.core.datamodel.ProductData;
+
+import java.lang.reflect.Array;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A thread local pool of primitive arrays used as scratch buffers when reading tiles and chunks
+ * and when scaling tiles before they are written.
+ * Buffers are keyed by their array type and number of elements. An acquired buffer is removed from
+ * the pool until it is released, so that nested use on the same thread always gets distinct buffers.
+ * The content of an acquired buffer is undefined. The pool of each thread is bounded by a number of
+ * buffers and a number of bytes, buffers larger than {@link #MAX_POOLED_BUFFER_BYTES} are not pooled at all.
+ */
+final class ScratchBuffers {
+
+    /**
+     * The number of buffers kept per thread. The least recently used buffer is dropped if exceeded.
+     */
+    static final int MAX_BUFFERS_PER_THREAD = 8;
+
+    /**
+     * The number of bytes of the buffers kept per thread. The least recently used buffers are dropped if exceeded.
+     */
+    static final long MAX_BYTES_PER_THREAD = 16L * 1024 * 1024;
+
+    /**
+     * Released buffers larger than this are left to the garbage collector, so that long living pool threads
+     * do not pin them.
+     */
+    static final long MAX_POOLED_BUFFER_BYTES = 4L * 1024 * 1024;
+
+    private static final Class<?>[] ARRAY_TYPES = {byte[].class, short[].class, int[].class, float[].class, double[].class};
+
+    private static final ThreadLocal<Pool> POOLS = ThreadLocal.withInitial(Pool::new);
+
+    private ScratchBuffers() {
+    }
+
+    /**
+     * @param productDataType the product data type, e.g. {@link ProductData#TYPE_INT16}
+     * @param numElems        the number of elements
+     *
+     * @return a pooled or newly created primitive array of the given type and size
+     */
+    static Object acquire(int productDataType, int numElems) {
+        final int typeIndex = getTypeIndex(productDataType);
+        if (typeIndex >= 0) {
+            final Object buffer = POOLS.get().remove(key(typeIndex, numElems));
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return ProductData.createInstance(productDataType, numElems).getElems();
+    }
+
+    /**
+     * Returns a buffer to the pool of the current thread. The buffer must not be used by the caller afterwards.
+     *
+     * @param buffer a primitive array, usually obtained by {@link #acquire(int, int)}
+     */
+    static void release(Object buffer) {
+        final int typeIndex = indexOf(buffer.getClass());
+        if (typeIndex >= 0 && ChunkCache.sizeOf(buffer) <= MAX_POOLED_BUFFER_BYTES) {
+            POOLS.get().put(key(typeIndex, Array.getLength(buffer)), buffer);
+        }
+    }
+
+    /**
+     * @return the number of bytes of the buffers pooled for the current thread
+     */
+    static long getPooledBytes() {
+        return POOLS.get().sizeInBytes;
+    }
+
+    private static int getTypeIndex(int productDataType) {
+        switch (productDataType) {
+            case ProductData.TYPE_INT8:
+            case ProductData.TYPE_UINT8:
+                return 0;
+            case ProductData.TYPE_INT16:
+            case ProductData.TYPE_UINT16:
+                return 1;
+            case ProductData.TYPE_INT32:
+            case ProductData.TYPE_UINT32:
+                return 2;
+            case ProductData.TYPE_FLOAT32:
+                return 3;
+            case ProductData.TYPE_FLOAT64:
+                return 4;
+            default:
+                return -1;
+        }
+    }
+
+    private static int indexOf(Class<?> arrayType) {
+        for (int i = 0; i < ARRAY_TYPES.length; i++) {
+            if (ARRAY_TYPES[i] == arrayType) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Long key(int typeIndex, int numElems) {
+        return ((long) typeIndex << 32) | numElems;
+    }
+
+    private static final class Pool {
+
+        private final LinkedHashMap<Long, Object> buffers = new LinkedHashMap<>(16, 0.75f, true);
+        private long sizeInBytes;
+
+        Object remove(Long key) {
+            final Object buffer = buffers.remove(key);
+            if (buffer != null) {
+                sizeInBytes -= ChunkCache.sizeOf(buffer);
+            }
+            return buffer;
+        }
+
+        void put(Long key, Object buffer) {
+            final Object replaced = buffers.put(key, buffer);
+            if (replaced != null) {
+                sizeInBytes -= ChunkCache.sizeOf(replaced);
+            }
+            sizeInBytes += ChunkCache.sizeOf(buffer);
+            final Iterator<Object> eldest = buffers.values().iterator();
+            while (buffers.size() > MAX_BUFFERS_PER_THREAD || sizeInBytes > MAX_BYTES_PER_THREAD) {
+                sizeInBytes -= ChunkCache.sizeOf(eldest.next());
+                eldest.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.cast;
+
+/**
+ * The layout of a sharded zarr array. A shard is a single store entry holding a block of inner
+ * chunks followed by or preceded by an index. The binary layout follows the Zarr v3
+ * {@code sharding_indexed} codec: the index contains an offset and a length, both unsigned 64 bit
+ * little endian integers, for every inner chunk in C order, followed by the CRC32C checksum of the
+ * index. Empty inner chunks have both values set to {@code 2^64 - 1}.
+ * <p>
+ * In a Zarr v2 array header the sharding is recorded as compressor with the id {@code sharding_indexed},
+ * so that readers without sharding support fail instead of reading shards as chunks. The {@code chunks}
+ * of the header are the shard shape, the inner chunk shape and the codecs of the inner chunks are
+ * part of the compressor configuration.
+ */
+final class ShardLayout {
+
+    static final String CODEC_ID = "sharding_indexed";
+    static final String INDEX_LOCATION_START = "start";
+    static final String INDEX_LOCATION_END = "end";
+
+    private static final long EMPTY = -1L;
+    private static final int CHECKSUM_SIZE = 4;
+    private static final int[] CRC32C_TABLE = new int[256];
+
+    static {
+        // reflected Castagnoli polynomial
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? (c >>> 1) ^ 0x82F63B78 : c >>> 1;
+            }
+            CRC32C_TABLE[n] = c;
+        }
+    }
+
+    private final int[] shape;
+    private final int[] chunks;
+    private final int[] chunksPerShard;
+    private final int[] shardGrid;
+    private final boolean indexAtStart;
+
+    /**
+     * @param shape          the array shape
+     * @param chunks         the inner chunk shape
+     * @param chunksPerShard the number of inner chunks per shard in every dimension
+     * @param indexLocation  {@link #INDEX_LOCATION_START} or {@link #INDEX_LOCATION_END}
+     */
+    ShardLayout(int[] shape, int[] chunks, int[] chunksPerShard, String indexLocation) {
+        if (shape.length != chunks.length || shape.length != chunksPerShard.length) {
+            throw new IllegalArgumentException("Shape, chunks and shard dimensions differ.");
+        }
+        this.shape = shape.clone();
+        this.chunks = chunks.clone();
+        this.chunksPerShard = chunksPerShard.clone();
+        shardGrid = new int[shape.length];
+        for (int i = 0; i < shape.length; i++) {
+            final int chunkCount = (shape[i] + chunks[i] - 1) / chunks[i];
+            shardGrid[i] = (chunkCount + chunksPerShard[i] - 1) / chunksPerShard[i];
+        }
+        if (INDEX_LOCATION_START.equals(indexLocation)) {
+            indexAtStart = true;
+        } else if (INDEX_LOCATION_END.equals(indexLocation)) {
+            indexAtStart = false;
+        } else {
+            throw new IllegalArgumentException("Unknown shard index location '" + indexLocation + "'.");
+        }
+    }
+
+    /**
+     * @param header a zarr v2 array header
+     *
+     * @return the layout or {@code null} if the array is not sharded
+     */
+    static ShardLayout fromHeader(Map<String, Object> header) {
+        final Object compressor = header.get("compressor");
+        if (!(compressor instanceof Map)) {
+            return null;
+        }
+        final Map<String, Object> config = cast(compressor);
+        if (!CODEC_ID.equals(config.get("id"))) {
+            return null;
+        }
+        final int[] shape = toIntArray(header.get("shape"));
+        final int[] shardShape = toIntArray(header.get("chunks"));
+        final int[] chunks = toIntArray(config.get("chunk_shape"));
+        final int[] chunksPerShard = new int[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            if (shardShape[i] % chunks[i] != 0) {
+                throw new IllegalArgumentException("The shard shape must be a multiple of the inner chunk shape.");
+            }
+            chunksPerShard[i] = shardShape[i] / chunks[i];
+        }
+        final Object location = config.get("index_location");
+        return new ShardLayout(shape, chunks, chunksPerShard, location != null ? (String) location : INDEX_LOCATION_END);
+    }
+
+    /**
+     * @param innerCompressor the compressor configuration of the inner chunks or {@code null}
+     * @param innerFilters    the filter configurations of the inner chunks or {@code null}
+     *
+     * @return the compressor configuration recorded in a zarr v2 array header
+     */
+    Map<String, Object> toConfig(Object innerCompressor, Object innerFilters) {
+        final Map<String, Object> config = new LinkedHashMap<>();
+        config.put("id", CODEC_ID);
+        config.put("chunk_shape", toList(chunks));
+        config.put("compressor", innerCompressor);
+        config.put("filters", innerFilters);
+        config.put("index_location", indexAtStart ? INDEX_LOCATION_START : INDEX_LOCATION_END);
+        return config;
+    }
+
+    int[] getChunks() {
+        return chunks.clone();
+    }
+
+    int[] getShardShape() {
+        final int[] shardShape = new int[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            shardShape[i] = chunks[i] * chunksPerShard[i];
+        }
+        return shardShape;
+    }
+
+    int getChunksPerShard() {
+        int count = 1;
+        for (int n : chunksPerShard) {
+            count *= n;
+        }
+        return count;
+    }
+
+    /**
+     * @param chunkIndex the index of an inner chunk in the chunk grid of the array
+     *
+     * @return the index of the shard containing the chunk in the shard grid
+     */
+    int[] getShardIndex(int[] chunkIndex) {
+        final int[] shardIndex = new int[chunkIndex.length];
+        for (int i = 0; i < chunkIndex.length; i++) {
+            shardIndex[i] = chunkIndex[i] / chunksPerShard[i];
+        }
+        return shardIndex;
+    }
+
+    /**
+     * @return the C order position of the chunk within its shard
+     */
+    int getPositionInShard(int[] chunkIndex) {
+        int position = 0;
+        for (int i = 0; i < chunkIndex.length; i++) {
+            position = position * chunksPerShard[i] + chunkIndex[i] % chunksPerShard[i];
+        }
+        return position;
+    }
+
+    /**
+     * @return the number of inner chunks of the shard which intersect the array
+     */
+    int getChunkCount(int[] shardIndex) {
+        int count = 1;
+        for (int i = 0; i < shardIndex.length; i++) {
+            final int chunkCount = (shape[i] + chunks[i] - 1) / chunks[i];
+            count *= Math.min(chunksPerShard[i], chunkCount - shardIndex[i] * chunksPerShard[i]);
+        }
+        return count;
+    }
+
+    /**
+     * @return the indices of the inner chunks of the shard which intersect the array
+     */
+    List<int[]> getChunkIndices(int[] shardIndex) {
+        final List<int[]> indices = new ArrayList<>();
+        final int[] first = new int[shardIndex.length];
+        final int[] end = new int[shardIndex.length];
+        for (int i = 0; i < shardIndex.length; i++) {
+            final int chunkCount = (shape[i] + chunks[i] - 1) / chunks[i];
+            first[i] = shardIndex[i] * chunksPerShard[i];
+            end[i] = Math.min(first[i] + chunksPerShard[i], chunkCount);
+        }
+        final int[] index = first.clone();
+        while (true) {
+            indices.add(index.clone());
+            int dim = index.length - 1;
+            while (dim >= 0 && ++index[dim] >= end[dim]) {
+                index[dim] = first[dim];
+                dim--;
+            }
+            if (dim < 0) {
+                return indices;
+            }
+        }
+    }
+
+    boolean isInShardGrid(int[] shardIndex) {
+        if (shardIndex.length != shardGrid.length) {
+            return false;
+        }
+        for (int i = 0; i < shardIndex.length; i++) {
+            if (shardIndex[i] < 0 || shardIndex[i] >= shardGrid[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean isIndexAtStart() {
+        return indexAtStart;
+    }
+
+    int getIndexSize() {
+        return getChunksPerShard() * 16 + CHECKSUM_SIZE;
+    }
+
+    /**
+     * @param encodedChunks the encoded inner chunks in C order, {@code null} for empty chunks
+     *
+     * @return the shard or {@code null} if all inner chunks are empty
+     */
+    byte[] encodeShard(byte[][] encodedChunks) {
+        long dataSize = 0;
+        boolean empty = true;
+        for (byte[] chunk : encodedChunks) {
+            if (chunk != null) {
+                dataSize += chunk.length;
+                empty = false;
+            }
+        }
+        if (empty) {
+            return null;
+        }
+        final int indexSize = getIndexSize();
+        final ByteBuffer shard = ByteBuffer.allocate(Math.toIntExact(dataSize + indexSize)).order(ByteOrder.LITTLE_ENDIAN);
+        final ByteBuffer index = ByteBuffer.allocate(indexSize - CHECKSUM_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long offset = indexAtStart ? indexSize : 0;
+        for (byte[] chunk : encodedChunks) {
+            if (chunk == null) {
+                index.putLong(EMPTY).putLong(EMPTY);
+            } else {
+                index.putLong(offset).putLong(chunk.length);
+                offset += chunk.length;
+            }
+        }
+        final byte[] indexBytes = index.array();
+        if (indexAtStart) {
+            shard.put(indexBytes).putInt(crc32c(indexBytes));
+        }
+        for (byte[] chunk : encodedChunks) {
+            if (chunk != null) {
+                shard.put(chunk);
+            }
+        }
+        if (!indexAtStart) {
+            shard.put(indexBytes).putInt(crc32c(indexBytes));
+        }
+        return shard.array();
+    }
+
+    /**
+     * @param indexBytes the index as stored in a shard, including the checksum
+     *
+     * @return the offsets and lengths of the inner chunks, {@code -1} for empty chunks
+     */
+    long[] decodeIndex(byte[] indexBytes) throws IOException {
+        if (indexBytes.length != getIndexSize()) {
+            throw new IOException("Invalid shard index size " + indexBytes.length + ", expected " + getIndexSize() + ".");
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(indexBytes).order(ByteOrder.LITTLE_ENDIAN);
+        final int checksum = buffer.getInt(indexBytes.length - CHECKSUM_SIZE);
+        if (checksum != crc32c(indexBytes, indexBytes.length - CHECKSUM_SIZE)) {
+            throw new IOException("Shard index checksum mismatch.");
+        }
+        final long[] index = new long[getChunksPerShard() * 2];
+        for (int i = 0; i < index.length; i++) {
+            index[i] = buffer.getLong();
+        }
+        return index;
+    }
+
+    static String toKey(int[] index) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < index.length; i++) {
+            if (i > 0) {
+                sb.append('.');
+            }
+            sb.append(index[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the parsed index or {@code null} if the key is not a chunk key like {@code 3.4}
+     */
+    static int[] parseKey(String key) {
+        final String[] parts = key.split("\\.", -1);
+        final int[] index = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i].isEmpty()) {
+                return null;
+            }
+            for (int c = 0; c < parts[i].length(); c++) {
+                if (!Character.isDigit(parts[i].charAt(c))) {
+                    return null;
+                }
+            }
+            index[i] = Integer.parseInt(parts[i]);
+        }
+        return index;
+    }
+
+    static int crc32c(byte[] data) {
+        return crc32c(data, data.length);
+    }
+
+    private static int crc32c(byte[] data, int length) {
+        int crc = 0xFFFFFFFF;
+        for (int i = 0; i < length; i++) {
+            crc = (crc >>> 8) ^ CRC32C_TABLE[(crc ^ data[i]) & 0xFF];
+        }
+        return ~crc;
+    }
+
+    private static List<Integer> toList(int[] values) {
+        final List<Integer> list = new ArrayList<>();
+        for (int value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static int[] toIntArray(Object list) {
+        final List<Number> numbers = cast(list);
+        final int[] ints = new int[numbers.size()];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = numbers.get(i).intValue();
+        }
+        return ints;
+    }
+}
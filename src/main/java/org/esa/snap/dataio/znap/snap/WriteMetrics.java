@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the write path. A writer creates one instance per product and one per band,
+ * the band metrics also record into the product metrics. The overview arrays of a band are metered by an
+ * instance per resolution level. Writers do not create metrics at all if they are disabled, so the write path
+ * only pays for a {@code null} check then. Chunk writes and shard flushes are also emitted as Flight Recorder
+ * events, see {@link MetricsEvents}.
+ */
+final class WriteMetrics implements WriteMetricsMBean {
+
+    private static final long MB = 1024 * 1024;
+
+    private final WriteMetrics parent;
+    private final String arrayKey;
+    private final LongAdder tilesWritten = new LongAdder();
+    private final LongAdder chunksWritten = new LongAdder();
+    private final LongAdder fillChunksSkipped = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder storedBytesWritten = new LongAdder();
+    private final LongAdder chunkWriteNanos = new LongAdder();
+    private final LongAdder storeWriteNanos = new LongAdder();
+    private final LongAdder shardFlushNanos = new LongAdder();
+    private final LongAdder queueWaits = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+
+    WriteMetrics(WriteMetrics parent) {
+        this(parent, null);
+    }
+
+    /**
+     * @param parent   the product metrics or {@code null}
+     * @param arrayKey the key of the metered array, used to label the flight recorder events
+     */
+    WriteMetrics(WriteMetrics parent, String arrayKey) {
+        this.parent = parent;
+        this.arrayKey = arrayKey;
+    }
+
+    void recordTile() {
+        tilesWritten.increment();
+        if (parent != null) {
+            parent.recordTile();
+        }
+    }
+
+    /**
+     * @param numBytes the number of uncompressed bytes of the chunk
+     * @param nanos    the time needed to encode and store the chunk
+     * @param skipped  whether the chunk was not stored because it consists of fill values only
+     */
+    void recordChunk(long numBytes, long nanos, boolean skipped) {
+        addChunk(numBytes, nanos, skipped);
+        MetricsEvents.chunkWritten(arrayKey, numBytes, nanos, skipped);
+    }
+
+    private void addChunk(long numBytes, long nanos, boolean skipped) {
+        if (skipped) {
+            fillChunksSkipped.increment();
+        } else {
+            chunksWritten.increment();
+            rawBytes.add(numBytes);
+        }
+        chunkWriteNanos.add(nanos);
+        if (parent != null) {
+            parent.addChunk(numBytes, nanos, skipped);
+        }
+    }
+
+    void recordStoredBytes(long numBytes, long nanos) {
+        storedBytesWritten.add(numBytes);
+        storeWriteNanos.add(nanos);
+        if (parent != null) {
+            parent.recordStoredBytes(numBytes, nanos);
+        }
+    }
+
+    /**
+     * Records the bytes of shards stored when the writer is flushed. The time is not part of the store write time,
+     * because shards are stored outside of the chunk writes then.
+     *
+     * @param numBytes the number of bytes written to the store
+     * @param nanos    the time spent in writing to the store
+     */
+    void recordFlushedBytes(long numBytes, long nanos) {
+        addFlushedBytes(numBytes, nanos);
+        MetricsEvents.shardFlushed(arrayKey, numBytes, nanos);
+    }
+
+    private void addFlushedBytes(long numBytes, long nanos) {
+        storedBytesWritten.add(numBytes);
+        shardFlushNanos.add(nanos);
+        if (parent != null) {
+            parent.addFlushedBytes(numBytes, nanos);
+        }
+    }
+
+    void recordQueueWait(long nanos) {
+        queueWaits.increment();
+        queueWaitNanos.add(nanos);
+        if (parent != null) {
+            parent.recordQueueWait(nanos);
+        }
+    }
+
+    @Override
+    public long getTilesWritten() {
+        return tilesWritten.sum();
+    }
+
+    @Override
+    public long getChunksWritten() {
+        return chunksWritten.sum();
+    }
+
+    @Override
+    public long getFillChunksSkipped() {
+        return fillChunksSkipped.sum();
+    }
+
+    @Override
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    @Override
+    public long getStoredBytesWritten() {
+        return storedBytesWritten.sum();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        final long stored = getStoredBytesWritten();
+        return stored > 0 ? (double) getRawBytes() / stored : Double.NaN;
+    }
+
+    @Override
+    public long getChunkWriteTimeMillis() {
+        return chunkWriteNanos.sum() / 1000000;
+    }
+
+    @Override
+    public long getStoreWriteTimeMillis() {
+        return storeWriteNanos.sum() / 1000000;
+    }
+
+    @Override
+    public long getShardFlushTimeMillis() {
+        return shardFlushNanos.sum() / 1000000;
+    }
+
+    @Override
+    public long getCompressionTimeMillis() {
+        return Math.max(0, getChunkWriteTimeMillis() - getStoreWriteTimeMillis());
+    }
+
+    @Override
+    public long getQueueWaits() {
+        return queueWaits.sum();
+    }
+
+    @Override
+    public long getQueueWaitTimeMillis() {
+        return queueWaitNanos.sum() / 1000000;
+    }
+
+    @Override
+    public void reset() {
+        tilesWritten.reset();
+        chunksWritten.reset();
+        fillChunksSkipped.reset();
+        rawBytes.reset();
+        storedBytesWritten.reset();
+        chunkWriteNanos.reset();
+        storeWriteNanos.reset();
+        shardFlushNanos.reset();
+        queueWaits.reset();
+        queueWaitNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("tiles=%d, chunks=%d, skipped fill chunks=%d, raw=%d MB, stored=%d MB, " +
+                             "compression ratio=%.2f, chunk write time=%d ms (compression %d ms, store %d ms), " +
+                             "shard flush time=%d ms, queue waits=%d (%d ms)",
+                             getTilesWritten(), getChunksWritten(), getFillChunksSkipped(), getRawBytes() / MB,
+                             getStoredBytesWritten() / MB, getCompressionRatio(), getChunkWriteTimeMillis(),
+                             getCompressionTimeMillis(), getStoreWriteTimeMillis(), getShardFlushTimeMillis(),
+                             getQueueWaits(), getQueueWaitTimeMillis());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+/**
+ * The management interface of the write metrics of a product or of a single band, registered
+ * with the platform MBean server under {@value MetricsMBeans#DOMAIN} if the writer metrics are enabled
+ * by the preference {@code znap.writer.metrics}.
+ */
+public interface WriteMetricsMBean {
+
+    long getTilesWritten();
+
+    /**
+     * @return the number of chunks passed to the store, without the skipped fill chunks
+     */
+    long getChunksWritten();
+
+    long getFillChunksSkipped();
+
+    /**
+     * @return the number of uncompressed bytes of the chunks written, without the skipped fill chunks
+     */
+    long getRawBytes();
+
+    /**
+     * @return the number of bytes written to the store, i.e. compressed bytes if the chunks are compressed
+     */
+    long getStoredBytesWritten();
+
+    double getCompressionRatio();
+
+    /**
+     * @return the time needed to encode and store the chunks, summed over all writer threads
+     */
+    long getChunkWriteTimeMillis();
+
+    /**
+     * @return the time spent in writing to the store while writing chunks
+     */
+    long getStoreWriteTimeMillis();
+
+    /**
+     * @return the time spent in storing incomplete shards when the writer is closed, which is not part of the chunk write time
+     */
+    long getShardFlushTimeMillis();
+
+    /**
+     * @return the chunk write time not spent in writing to the store, which is dominated by the compression
+     */
+    long getCompressionTimeMillis();
+
+    /**
+     * @return the number of times the writer was blocked because the chunk write queue was full
+     */
+    long getQueueWaits();
+
+    long getQueueWaitTimeMillis();
+
+    void reset();
+}
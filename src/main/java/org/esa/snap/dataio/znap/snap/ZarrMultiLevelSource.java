@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.ceres.glevel.MultiLevelModel;
+import com.bc.ceres.glevel.support.AbstractMultiLevelSource;
+import com.bc.zarr.ZarrArray;
+import com.bc.zarr.storage.Store;
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.image.ResolutionLevel;
+
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.logging.Level;
+
+import static org.esa.snap.core.util.SystemUtils.LOG;
+
+/**
+ * A multi level source for zarr arrays. Level zero is read from the full resolution array.
+ * Lower resolution levels are read from pre-computed overview arrays if the product contains
+ * them (see {@link ZnapConstantsAndUtils#getOverviewArrayKey(String, int)}). Levels without
+ * an overview array are computed by chunk aware decimation of the full resolution array.
+ * <p>
+ * The arrays are opened on first access to their data.
+ */
+class ZarrMultiLevelSource extends AbstractMultiLevelSource {
+
+    private final RasterDataNode rasterDataNode;
+    private final ArrayOpener arrayOpener;
+    private final int[] shape;
+    private final int[] chunks;
+    private final Store store;
+    private final Path storeRoot;
+    private final String arrayKey;
+    private final int numOverviewLevels;
+    private final ReadMetrics readMetrics;
+    private ZarrArray zarrArray;
+
+    interface ArrayOpener {
+        ZarrArray openArray(String arrayKey) throws IOException;
+    }
+
+    /**
+     * @param zarrArray the already opened full resolution array, or {@code null} if it shall be opened on demand
+     *                  by the given array opener
+     * @param storeRoot the root directory of a file system store if uncompressed chunks shall be read by memory
+     *                  mapping, otherwise {@code null}
+     * @param readMetrics the read metrics of the raster data node or {@code null} if the reader metrics are disabled
+     */
+    ZarrMultiLevelSource(RasterDataNode rasterDataNode, MultiLevelModel model, ArrayOpener arrayOpener,
+                         ZarrArray zarrArray, int[] shape, int[] chunks,
+                         Store store, Path storeRoot, String arrayKey, int numOverviewLevels, ReadMetrics readMetrics) {
+        super(model);
+        this.rasterDataNode = rasterDataNode;
+        this.arrayOpener = arrayOpener;
+        this.zarrArray = zarrArray;
+        this.shape = shape;
+        this.chunks = chunks;
+        this.store = store;
+        this.storeRoot = storeRoot;
+        this.arrayKey = arrayKey;
+        this.numOverviewLevels = numOverviewLevels;
+        this.readMetrics = readMetrics;
+    }
+
+    @Override
+    public RenderedImage createImage(int level) {
+        final ResolutionLevel resolutionLevel = ResolutionLevel.create(getModel(), level);
+        if (level > 0 && level <= numOverviewLevels) {
+            final String overviewKey = ZnapConstantsAndUtils.getOverviewArrayKey(arrayKey, level);
+            try {
+                final ZarrArray overview = arrayOpener.openArray(overviewKey);
+                final int[] overviewShape = overview.getShape();
+                final ZarrOpImage image = new ZarrOpImage(rasterDataNode, overviewShape, overview.getChunks(), () -> overview,
+                                                          store, overviewKey, getArrayDir(overviewKey), readMetrics,
+                                                          resolutionLevel);
+                if (image.getWidth() == overviewShape[1] && image.getHeight() == overviewShape[0]) {
+                    return image;
+                }
+                LOG.warning("Shape of overview array '" + overviewKey + "' does not fit the level image. Falling back to decimation.");
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Unable to open overview array '" + overviewKey + "'. Falling back to decimation.", e);
+            }
+        }
+        return new ZarrOpImage(rasterDataNode, shape, chunks, this::getZarrArray, store, arrayKey,
+                               getArrayDir(arrayKey), readMetrics, resolutionLevel);
+    }
+
+    private Path getArrayDir(String key) {
+        return storeRoot != null ? storeRoot.resolve(key) : null;
+    }
+
+    private synchronized ZarrArray getZarrArray() throws IOException {
+        if (zarrArray == null) {
+            zarrArray = arrayOpener.openArray(arrayKey);
+        }
+        return zarrArray;
+    }
+}
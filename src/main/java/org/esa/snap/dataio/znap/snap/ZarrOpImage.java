@@ -17,6 +17,7 @@
 package org.esa.snap.dataio.znap.snap;
 
 import com.bc.zarr.ZarrArray;
+import com.bc.zarr.storage.Store;
 import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.datamodel.RasterDataNode;
 import org.esa.snap.core.image.ImageManager;
@@ -28,8 +29,20 @@ import ucar.ma2.InvalidRangeException;
 import javax.media.jai.PlanarImage;
 import java.awt.Dimension;
 import java.awt.Rectangle;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.bc.zarr.ZarrConstants.FILENAME_DOT_ZARRAY;
+import static org.esa.snap.core.util.SystemUtils.LOG;
 
 /**
  * A base class for {@code OpImage}s acting as source image for
@@ -43,7 +56,29 @@ import java.io.IOException;
 public class ZarrOpImage extends SingleBandedOpImage {
 
     private final RasterDataNode rasterDataNode;
-    private final ZarrArray arrayDataReader;
+    private final ArrayProvider arrayProvider;
+    private final int[] shape;
+    private final int[] chunks;
+    private final Store store;
+    private final String arrayKey;
+    private final ChunkCache chunkCache;
+    private final double scale;
+    private final boolean decimate;
+    private final Path arrayDir;
+    private final ReadMetrics readMetrics;
+    private ZarrArray arrayDataReader;
+    private MappedChunkReader mappedChunkReader;
+    private boolean mappedChunkReaderInitialized;
+    private Set<String> storedChunkKeys;
+    private boolean storedChunkKeysInitialized;
+    private volatile Object fillChunk;
+
+    /**
+     * Provides the zarr array on first access, so that arrays of a product are not opened before their data is needed.
+     */
+    interface ArrayProvider {
+        ZarrArray getArray() throws IOException;
+    }
 
     /**
      * Constructor.
@@ -54,12 +89,56 @@ public class ZarrOpImage extends SingleBandedOpImage {
      * @see ResolutionLevel#create(com.bc.ceres.glevel.MultiLevelModel, int)
      */
     public ZarrOpImage(RasterDataNode rasterDataNode, int[] shape, int[] chunks, ZarrArray reader, ResolutionLevel level) {
+        this(rasterDataNode, shape, chunks, reader, null, null, level);
+    }
+
+    /**
+     * Constructor. Decoded chunks are shared via the process wide {@link ChunkCache}
+     * if a store and an array key are given.
+     * <p>
+     * The given array can either be the full resolution array of the raster data node or an overview
+     * array which already has the size of the requested resolution level. If a full resolution array
+     * is given for a resolution level greater than zero, the level image is computed by nearest
+     * neighbour decimation which only touches chunks that contain sampled pixels.
+     *
+     * @param rasterDataNode The target raster data node.
+     * @param shape          The shape of the array to read from in common data model manner { y, x }.
+     * @param chunks         The chunk shape of the array to read from in common data model manner { y, x }.
+     * @param reader         The zarr array to read from.
+     * @param store          The store the zarr array belongs to. May be {@code null} to disable chunk caching.
+     * @param arrayKey       The key of the zarr array within the store. May be {@code null} to disable chunk caching.
+     * @param level          The resolution level.
+     */
+    public ZarrOpImage(RasterDataNode rasterDataNode, int[] shape, int[] chunks, ZarrArray reader,
+                       Store store, String arrayKey, ResolutionLevel level) {
+        this(rasterDataNode, shape, chunks, () -> reader, store, arrayKey, null, null, level);
+    }
+
+    /**
+     * @param arrayDir the directory of the array if the store is a file system store and uncompressed chunks
+     *                 shall be read by memory mapping, otherwise {@code null}
+     * @param readMetrics the metrics to record the reads to, or {@code null} if the reader metrics are disabled
+     */
+    ZarrOpImage(RasterDataNode rasterDataNode, int[] shape, int[] chunks, ArrayProvider arrayProvider,
+                Store store, String arrayKey, Path arrayDir, ReadMetrics readMetrics, ResolutionLevel level) {
         super(ImageManager.getDataBufferType(rasterDataNode.getDataType()),
-              shape[1], shape[0],
+              rasterDataNode.getRasterWidth(), rasterDataNode.getRasterHeight(),
               new Dimension(chunks[1], chunks[0]),
               null, level);
         this.rasterDataNode = rasterDataNode;
-        arrayDataReader = reader;
+        this.arrayProvider = arrayProvider;
+        this.arrayDir = arrayDir;
+        this.readMetrics = readMetrics;
+        this.shape = shape.clone();
+        this.chunks = chunks.clone();
+        this.store = store;
+        this.arrayKey = arrayKey;
+        final ChunkCache cache = ChunkCache.getInstance();
+        this.chunkCache = store != null && arrayKey != null && cache.isEnabled() ? cache : null;
+        this.scale = level.getScale();
+        this.decimate = level.getIndex() > 0
+                        && shape[0] == rasterDataNode.getRasterHeight()
+                        && shape[1] == rasterDataNode.getRasterWidth();
     }
 
     @Override
@@ -75,24 +154,33 @@ public class ZarrOpImage extends SingleBandedOpImage {
 
     @Override
     protected void computeRect(PlanarImage[] sourceImages, WritableRaster tile, Rectangle destRect) {
-        ProductData productData;
-        boolean directMode = tile.getDataBuffer().getSize() == destRect.width * destRect.height;
-        if (directMode) {
-            productData = ProductData.createInstance(rasterDataNode.getDataType(),
-                                                     ImageUtils.getPrimitiveArray(tile.getDataBuffer()));
-        } else {
-            productData = ProductData.createInstance(rasterDataNode.getDataType(),
-                                                     destRect.width * destRect.height);
-        }
-
+        final long start = readMetrics != null ? System.nanoTime() : 0L;
+        final SampleModel sampleModel = tile.getSampleModel();
+        final DataBuffer dataBuffer = tile.getDataBuffer();
         try {
-            computeProductData(productData, destRect);
+            if (sampleModel instanceof ComponentSampleModel && sampleModel.getNumBands() == 1
+                && ((ComponentSampleModel) sampleModel).getPixelStride() == 1 && dataBuffer.getNumBanks() == 1) {
+                // decode directly into the backing array of the tile, which may be larger than the rectangle
+                final ComponentSampleModel componentSampleModel = (ComponentSampleModel) sampleModel;
+                final int stride = componentSampleModel.getScanlineStride();
+                final int offset = dataBuffer.getOffset() + componentSampleModel.getBandOffsets()[0]
+                                   + (destRect.y - tile.getSampleModelTranslateY()) * stride
+                                   + destRect.x - tile.getSampleModelTranslateX();
+                compute(ImageUtils.getPrimitiveArray(dataBuffer), offset, stride, destRect);
+            } else {
+                final Object buffer = ScratchBuffers.acquire(rasterDataNode.getDataType(), destRect.width * destRect.height);
+                try {
+                    compute(buffer, 0, destRect.width, destRect);
+                    tile.setDataElements(destRect.x, destRect.y, destRect.width, destRect.height, buffer);
+                } finally {
+                    ScratchBuffers.release(buffer);
+                }
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-
-        if (!directMode) {
-            tile.setDataElements(destRect.x, destRect.y, destRect.width, destRect.height, productData.getElems());
+        if (readMetrics != null) {
+            readMetrics.recordTile(System.nanoTime() - start);
         }
     }
 
@@ -106,10 +194,314 @@ public class ZarrOpImage extends SingleBandedOpImage {
      * @throws IOException May be thrown if an I/O error occurs during the computation.
      */
     protected void computeProductData(ProductData productData, Rectangle region) throws IOException {
+        compute(productData.getElems(), 0, region.width, region);
+    }
+
+    /**
+     * @param dest       the destination primitive array
+     * @param destOffset the index of the upper left pixel of the region within the destination array
+     * @param destStride the number of array elements between two lines of the destination array
+     * @param region     the target region in pixel coordinates valid for this image level
+     */
+    private void compute(Object dest, int destOffset, int destStride, Rectangle region) throws IOException {
+        if (decimate) {
+            computeDecimated(dest, destOffset, destStride, region);
+            return;
+        }
+        final boolean insideArray = region.x + region.width <= shape[1] && region.y + region.height <= shape[0];
+        final MappedChunkReader mappedReader = getMappedChunkReader();
+        final int chunkHeight = chunks[0];
+        final int chunkWidth = chunks[1];
+        final int firstChunkY = region.y / chunkHeight;
+        final int lastChunkY = (Math.min(region.y + region.height, shape[0]) - 1) / chunkHeight;
+        final int firstChunkX = region.x / chunkWidth;
+        final int lastChunkX = (Math.min(region.x + region.width, shape[1]) - 1) / chunkWidth;
+        if (chunkCache == null && insideArray && mappedReader == null
+            && !isAnyChunkMissing(firstChunkY, lastChunkY, firstChunkX, lastChunkX)) {
+            final long start = readMetrics != null ? System.nanoTime() : 0L;
+            final int[] bufferShape = {region.height, region.width};
+            final int[] offset = {region.y, region.x};
+            if (destOffset == 0 && destStride == region.width && Array.getLength(dest) == region.width * region.height) {
+                read(dest, bufferShape, offset);
+            } else {
+                final Object buffer = ScratchBuffers.acquire(rasterDataNode.getDataType(), region.width * region.height);
+                try {
+                    read(buffer, bufferShape, offset);
+                    copyIntersection(buffer, region, dest, destOffset, destStride, region);
+                } finally {
+                    ScratchBuffers.release(buffer);
+                }
+            }
+            if (readMetrics != null) {
+                final int numChunks = (lastChunkY - firstChunkY + 1) * (lastChunkX - firstChunkX + 1);
+                readMetrics.recordChunks(numChunks, getByteCount(region.width * region.height), System.nanoTime() - start);
+            }
+            return;
+        }
+        for (int chunkIdxY = firstChunkY; chunkIdxY <= lastChunkY; chunkIdxY++) {
+            for (int chunkIdxX = firstChunkX; chunkIdxX <= lastChunkX; chunkIdxX++) {
+                final Rectangle chunkRect = getChunkRect(chunkIdxY, chunkIdxX);
+                if (mappedReader != null && !isChunkMissing(chunkIdxY, chunkIdxX)) {
+                    // copy from the mapped chunk file directly into the tile, the chunk cache would only add
+                    // another copy of the data which is already held by the page cache
+                    final long start = readMetrics != null ? System.nanoTime() : 0L;
+                    mappedReader.read(chunkIdxY, chunkIdxX, chunkRect, dest, destOffset, destStride, region);
+                    if (readMetrics != null) {
+                        final Rectangle intersection = chunkRect.intersection(region);
+                        final long numBytes = getByteCount(intersection.width * intersection.height);
+                        readMetrics.recordStoredBytes(numBytes);
+                        readMetrics.recordChunks(1, numBytes, System.nanoTime() - start);
+                    }
+                } else {
+                    final Object chunkData = getChunk(chunkIdxY, chunkIdxX, chunkRect);
+                    try {
+                        copyIntersection(chunkData, chunkRect, dest, destOffset, destStride, region);
+                    } finally {
+                        releaseChunk(chunkData);
+                    }
+                }
+            }
+        }
+    }
+
+    private void computeDecimated(Object dest, int destOffset, int destStride, Rectangle region) throws IOException {
+        final int[] srcX = new int[region.width];
+        for (int i = 0; i < srcX.length; i++) {
+            srcX[i] = Math.min((int) ((region.x + i) * scale), shape[1] - 1);
+        }
+        final int[] srcY = new int[region.height];
+        for (int i = 0; i < srcY.length; i++) {
+            srcY[i] = Math.min((int) ((region.y + i) * scale), shape[0] - 1);
+        }
+        final int chunkHeight = chunks[0];
+        final int chunkWidth = chunks[1];
+        int row = 0;
+        while (row < srcY.length) {
+            final int chunkIdxY = srcY[row] / chunkHeight;
+            int rowEnd = row + 1;
+            while (rowEnd < srcY.length && srcY[rowEnd] / chunkHeight == chunkIdxY) {
+                rowEnd++;
+            }
+            int col = 0;
+            while (col < srcX.length) {
+                final int chunkIdxX = srcX[col] / chunkWidth;
+                int colEnd = col + 1;
+                while (colEnd < srcX.length && srcX[colEnd] / chunkWidth == chunkIdxX) {
+                    colEnd++;
+                }
+                final Rectangle chunkRect = getChunkRect(chunkIdxY, chunkIdxX);
+                final Object chunkData = getChunk(chunkIdxY, chunkIdxX, chunkRect);
+                try {
+                    for (int r = row; r < rowEnd; r++) {
+                        final int srcLineOffset = (srcY[r] - chunkRect.y) * chunkRect.width - chunkRect.x;
+                        gather(chunkData, srcLineOffset, srcX, col, dest, destOffset + r * destStride + col, colEnd - col);
+                    }
+                } finally {
+                    releaseChunk(chunkData);
+                }
+                col = colEnd;
+            }
+            row = rowEnd;
+        }
+    }
+
+    private Rectangle getChunkRect(int chunkIdxY, int chunkIdxX) {
+        final int x = chunkIdxX * chunks[1];
+        final int y = chunkIdxY * chunks[0];
+        return new Rectangle(x, y, Math.min(chunks[1], shape[1] - x), Math.min(chunks[0], shape[0] - y));
+    }
+
+    private Object getChunk(int chunkIdxY, int chunkIdxX, Rectangle chunkRect) throws IOException {
+        if (isChunkMissing(chunkIdxY, chunkIdxX)) {
+            // the shared fill chunk has the full chunk size, which is large enough for the clipped chunks at the borders
+            return getFillChunk();
+        }
+        final int numElems = chunkRect.width * chunkRect.height;
+        if (chunkCache == null) {
+            // the chunk is only needed until it is copied into the tile, see releaseChunk()
+            final Object buffer = ScratchBuffers.acquire(rasterDataNode.getDataType(), numElems);
+            try {
+                return readChunk(chunkRect, buffer);
+            } catch (IOException | RuntimeException e) {
+                ScratchBuffers.release(buffer);
+                throw e;
+            }
+        }
+        final boolean[] loaded = {false};
+        final Object chunkData = chunkCache.get(store, arrayKey, new int[]{chunkIdxY, chunkIdxX}, () -> {
+            loaded[0] = true;
+            return readChunk(chunkRect, ProductData.createInstance(rasterDataNode.getDataType(), numElems).getElems());
+        });
+        if (readMetrics != null) {
+            readMetrics.recordCacheAccess(!loaded[0]);
+        }
+        return chunkData;
+    }
+
+    /**
+     * Returns a chunk obtained by {@link #getChunk(int, int, Rectangle)} to the scratch buffer pool if it is
+     * neither cached nor the shared fill chunk.
+     */
+    private void releaseChunk(Object chunkData) {
+        if (chunkCache == null && chunkData != fillChunk) {
+            ScratchBuffers.release(chunkData);
+        }
+    }
+
+    private Object readChunk(Rectangle chunkRect, Object buffer) throws IOException {
+        final long start = readMetrics != null ? System.nanoTime() : 0L;
+        final MappedChunkReader mappedReader = getMappedChunkReader();
+        if (mappedReader != null) {
+            mappedReader.read(chunkRect.y / chunks[0], chunkRect.x / chunks[1], chunkRect, buffer, chunkRect);
+        } else {
+            read(buffer, new int[]{chunkRect.height, chunkRect.width}, new int[]{chunkRect.y, chunkRect.x});
+        }
+        if (readMetrics != null) {
+            final long numBytes = getByteCount(chunkRect.width * chunkRect.height);
+            if (mappedReader != null) {
+                // mapped chunks are not read through the store
+                readMetrics.recordStoredBytes(numBytes);
+            }
+            readMetrics.recordChunks(1, numBytes, System.nanoTime() - start);
+        }
+        return buffer;
+    }
+
+    private long getByteCount(int numElems) {
+        return (long) numElems * ProductData.getElemSize(rasterDataNode.getDataType());
+    }
+
+    private boolean isAnyChunkMissing(int firstChunkY, int lastChunkY, int firstChunkX, int lastChunkX) {
+        if (getStoredChunkKeys() == null) {
+            return false;
+        }
+        for (int chunkIdxY = firstChunkY; chunkIdxY <= lastChunkY; chunkIdxY++) {
+            for (int chunkIdxX = firstChunkX; chunkIdxX <= lastChunkX; chunkIdxX++) {
+                if (isChunkMissing(chunkIdxY, chunkIdxX)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Chunks consisting of fill values only may be omitted by the writer. Missing chunks are detected
+     * by the key listing of the array, so that reading them does not need any I/O.
+     */
+    private boolean isChunkMissing(int chunkIdxY, int chunkIdxX) {
+        final Set<String> keys = getStoredChunkKeys();
+        return keys != null
+               && !keys.contains(chunkIdxY + "." + chunkIdxX)
+               && !keys.contains(chunkIdxY + "/" + chunkIdxX);
+    }
+
+    private synchronized Set<String> getStoredChunkKeys() {
+        if (!storedChunkKeysInitialized) {
+            storedChunkKeysInitialized = true;
+            if (store != null && arrayKey != null) {
+                try (Stream<String> keys = store.getRelativeLeafKeys(arrayKey)) {
+                    final Set<String> keySet = keys.collect(Collectors.toSet());
+                    // without the array header the listing is not relative to the array, don't trust it
+                    storedChunkKeys = keySet.contains(FILENAME_DOT_ZARRAY) ? keySet : null;
+                } catch (IOException | RuntimeException e) {
+                    LOG.log(Level.FINE, "Unable to list the chunks of '" + arrayKey + "'.", e);
+                }
+            }
+        }
+        return storedChunkKeys;
+    }
+
+    private synchronized Object getFillChunk() throws IOException {
+        if (fillChunk == null) {
+            final Object chunk = ProductData.createInstance(rasterDataNode.getDataType(), chunks[0] * chunks[1]).getElems();
+            final Number fillValue = getArrayDataReader().getFillValue();
+            if (fillValue != null) {
+                ChunkAssembler.fillArray(chunk, fillValue);
+            }
+            fillChunk = chunk;
+        }
+        return fillChunk;
+    }
+
+    private synchronized MappedChunkReader getMappedChunkReader() {
+        if (!mappedChunkReaderInitialized) {
+            mappedChunkReaderInitialized = true;
+            if (arrayDir != null) {
+                try {
+                    mappedChunkReader = MappedChunkReader.create(arrayDir);
+                } catch (IOException | RuntimeException e) {
+                    LOG.log(Level.WARNING, "Unable to read chunks of '" + arrayDir + "' by memory mapping.", e);
+                }
+            }
+        }
+        return mappedChunkReader;
+    }
+
+    private void read(Object buffer, int[] bufferShape, int[] offset) throws IOException {
         try {
-            arrayDataReader.read(productData.getElems(), new int[]{region.height, region.width}, new int[]{region.y, region.x});
+            getArrayDataReader().read(buffer, bufferShape, offset);
         } catch (InvalidRangeException e) {
             throw new IOException(e);
         }
     }
+
+    private synchronized ZarrArray getArrayDataReader() throws IOException {
+        if (arrayDataReader == null) {
+            arrayDataReader = arrayProvider.getArray();
+        }
+        return arrayDataReader;
+    }
+
+    static void copyIntersection(Object src, Rectangle srcRect, Object dest, Rectangle destRect) {
+        copyIntersection(src, srcRect, dest, 0, destRect.width, destRect);
+    }
+
+    static void copyIntersection(Object src, Rectangle srcRect, Object dest, int destOffset, int destStride, Rectangle destRect) {
+        final Rectangle intersection = srcRect.intersection(destRect);
+        if (intersection.isEmpty()) {
+            return;
+        }
+        for (int y = intersection.y; y < intersection.y + intersection.height; y++) {
+            final int srcPos = (y - srcRect.y) * srcRect.width + intersection.x - srcRect.x;
+            final int destPos = destOffset + (y - destRect.y) * destStride + intersection.x - destRect.x;
+            System.arraycopy(src, srcPos, dest, destPos, intersection.width);
+        }
+    }
+
+    static void gather(Object src, int srcOffset, int[] srcIndices, int indicesOffset, Object dest, int destOffset, int count) {
+        if (src instanceof byte[]) {
+            final byte[] s = (byte[]) src;
+            final byte[] d = (byte[]) dest;
+            for (int i = 0; i < count; i++) {
+                d[destOffset + i] = s[srcOffset + srcIndices[indicesOffset + i]];
+            }
+        } else if (src instanceof short[]) {
+            final short[] s = (short[]) src;
+            final short[] d = (short[]) dest;
+            for (int i = 0; i < count; i++) {
+                d[destOffset + i] = s[srcOffset + srcIndices[indicesOffset + i]];
+            }
+        } else if (src instanceof int[]) {
+            final int[] s = (int[]) src;
+            final int[] d = (int[]) dest;
+            for (int i = 0; i < count; i++) {
+                d[destOffset + i] = s[srcOffset + srcIndices[indicesOffset + i]];
+            }
+        } else if (src instanceof float[]) {
+            final float[] s = (float[]) src;
+            final float[] d = (float[]) dest;
+            for (int i = 0; i < count; i++) {
+                d[destOffset + i] = s[srcOffset + srcIndices[indicesOffset + i]];
+            }
+        } else if (src instanceof double[]) {
+            final double[] s = (double[]) src;
+            final double[] d = (double[]) dest;
+            for (int i = 0; i < count; i++) {
+                d[destOffset + i] = s[srcOffset + srcIndices[indicesOffset + i]];
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported array type: " + src.getClass().getName());
+        }
+    }
 }
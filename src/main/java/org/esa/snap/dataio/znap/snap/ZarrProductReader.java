@@ -17,12 +17,12 @@
 package org.esa.snap.dataio.znap.snap;
 
 import com.bc.ceres.core.ProgressMonitor;
+import com.bc.ceres.glevel.support.DefaultMultiLevelImage;
 import com.bc.zarr.DataType;
 import com.bc.zarr.ZarrArray;
 import com.bc.zarr.ZarrGroup;
 import com.bc.zarr.storage.FileSystemStore;
 import com.bc.zarr.storage.Store;
-import com.bc.zarr.storage.ZipStore;
 import org.esa.snap.core.dataio.AbstractProductReader;
 import org.esa.snap.core.dataio.ProductIO;
 import org.esa.snap.core.dataio.ProductReader;
@@ -58,10 +58,10 @@ import org.esa.snap.core.datamodel.StxFactory;
 import org.esa.snap.core.datamodel.TiePointGrid;
 import org.esa.snap.core.datamodel.VectorDataNode;
 import org.esa.snap.core.datamodel.VirtualBand;
-import org.esa.snap.core.image.ResolutionLevel;
 import org.esa.snap.core.util.FeatureUtils;
 import org.esa.snap.core.util.StringUtils;
 import org.esa.snap.core.util.SystemUtils;
+import org.esa.snap.runtime.Config;
 import org.geotools.referencing.CRS;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.FactoryException;
@@ -69,9 +69,11 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.TransformException;
 import ucar.ma2.InvalidRangeException;
 
+import javax.management.ObjectName;
 import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.Reader;
@@ -85,12 +87,18 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
+import java.util.prefs.Preferences;
 import java.util.stream.Collectors;
 
 import static org.esa.snap.core.util.Guardian.assertNotNull;
 import static org.esa.snap.core.util.Guardian.assertNotNullOrEmpty;
 import static org.esa.snap.core.util.SystemUtils.LOG;
+import static org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants.DEFAULT_READER_METRICS;
+import static org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants.DEFAULT_USE_MEMORY_MAPPING;
+import static org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants.PROPERTY_NAME_READER_METRICS;
+import static org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants.PROPERTY_NAME_USE_MEMORY_MAPPING;
 import static org.esa.snap.dataio.znap.snap.CFConstantsAndUtils.FLAG_MASKS;
 import static org.esa.snap.dataio.znap.snap.CFConstantsAndUtils.FLAG_MEANINGS;
 import static org.esa.snap.dataio.znap.snap.CFConstantsAndUtils.FLAG_VALUES;
@@ -99,14 +107,17 @@ import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.ATT_NAME_GEOCO
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.ATT_NAME_OFFSET_X;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.ATT_NAME_OFFSET_Y;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.ATT_NAME_ORIGINAL_RASTER_DATA_NODE_ORDER;
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.ATT_NAME_OVERVIEW_LEVELS;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.ATT_NAME_PRODUCT_DESC;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.ATT_NAME_PRODUCT_METADATA;
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.ATT_NAME_PRODUCT_METADATA_KEY;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.ATT_NAME_PRODUCT_NAME;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.ATT_NAME_PRODUCT_SCENE_HEIGHT;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.ATT_NAME_PRODUCT_SCENE_WIDTH;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.ATT_NAME_PRODUCT_TYPE;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.ATT_NAME_SUBSAMPLING_X;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.ATT_NAME_SUBSAMPLING_Y;
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.ATT_NAME_VECTOR_DATA_KEYS;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.BANDWIDTH;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.COLOR_PALETTE_AUTO_DISTRIBUTE;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.COLOR_PALETTE_DISCRETE;
@@ -136,7 +147,10 @@ import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.VIRTUAL_BAND_E
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.WAVELENGTH;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.cast;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.convertToPath;
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.getOverviewArrayKey;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.getSnapDataType;
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.isOverviewArrayKey;
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.jsonToMetadata;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.listToMetadata;
 import static ucar.nc2.constants.ACDD.TIME_END;
 import static ucar.nc2.constants.ACDD.TIME_START;
@@ -156,11 +170,17 @@ public class ZarrProductReader extends AbstractProductReader {
     private HashMap<DataNode, Product> binaryProducts;
     private final Map<ProductNode, Map<String, Object>> nodeAttributes = new HashMap<>();
     private final Map<Map<String, Object>, GeoCoding> sharedGeoCodings = new HashMap<>();
+    private final Map<TiePointGrid, String> tiePointGridArrayKeys = new HashMap<>();
 
     private final Persistence persistence = new Persistence();
     private final JsonLanguageSupport languageSupport = new JsonLanguageSupport();
-    private Store store;
+    private Path rootPath;
+    private CodecStore store;
+    private ZarrGroup rootGroup;
     private Product product;
+    private ReadMetrics readMetrics;
+    private final Map<String, ReadMetrics> arrayReadMetrics = new ConcurrentHashMap<>();
+    private final List<ObjectName> readMetricsNames = new ArrayList<>();
 
     protected ZarrProductReader(ProductReaderPlugIn readerPlugIn) {
         super(readerPlugIn);
@@ -171,6 +191,39 @@ public class ZarrProductReader extends AbstractProductReader {
         throw new IllegalStateException("Data is provided by images");
     }
 
+    @Override
+    public void readTiePointGridRasterData(TiePointGrid tpg, int destOffsetX, int destOffsetY, int destWidth, int destHeight, ProductData destBuffer, ProgressMonitor pm) throws IOException {
+        final String arrayKey = tiePointGridArrayKeys.get(tpg);
+        final Map<String, Object> attributes = nodeAttributes.get(tpg);
+        if (arrayKey == null || attributes == null) {
+            throw new IOException("Tie point grid '" + tpg.getName() + "' is not provided by this reader.");
+        }
+        final String rasterName = getRasterName(arrayKey);
+        if (attributes.containsKey(ATT_NAME_BINARY_FORMAT)) {
+            final Product binaryProduct;
+            synchronized (this) {
+                initBinaryReaderPlugin(attributes);
+                final Path srcPath = rootPath.resolve(rasterName).resolve(rasterName + binaryFileExtension);
+                final ProductReader reader = binaryReaderPlugIn.createReaderInstance();
+                binaryProduct = reader.readProductNodes(srcPath.toFile(), null);
+                binaryProduct.setProductReader(reader);
+            }
+            try {
+                final Band dataBand = binaryProduct.getBand("data");
+                dataBand.readPixels(destOffsetX, destOffsetY, destWidth, destHeight, (float[]) destBuffer.getElems());
+            } finally {
+                binaryProduct.dispose();
+            }
+        } else {
+            try {
+                getRootGroup().openArray(arrayKey).read(destBuffer.getElems(), new int[]{destHeight, destWidth},
+                                                        new int[]{destOffsetY, destOffsetX});
+            } catch (InvalidRangeException e) {
+                throw new IOException("InvalidRangeException while reading tie point raster '" + rasterName + "'", e);
+            }
+        }
+    }
+
     @Override
     public void close() throws IOException {
         if (binaryProducts != null) {
@@ -180,35 +233,63 @@ public class ZarrProductReader extends AbstractProductReader {
             binaryProducts.clear();
             binaryProducts = null;
         }
+        tiePointGridArrayKeys.clear();
+        if (readMetrics != null) {
+            LOG.fine("Read metrics of '" + rootPath + "': " + readMetrics);
+            readMetricsNames.forEach(MetricsMBeans::unregister);
+            readMetricsNames.clear();
+            arrayReadMetrics.clear();
+        }
         super.close();
         if (store != null) {
+            ChunkCache.getInstance().invalidate(store);
             store.close();
         }
     }
 
     @Override
     protected Product readProductNodesImpl() throws IOException {
-        final Path rootPath = convertToPath(getInput());
+        rootPath = convertToPath(getInput());
         assert rootPath != null;
+        final Store physicalStore;
         if (Files.isRegularFile(rootPath)) {
-            store = new ZipStore(rootPath);
+            physicalStore = new IndexedZipStore(rootPath);
+        } else {
+            physicalStore = new FileSystemStore(rootPath);
+        }
+        final Store layoutStore = ZarrV3Store.isV3(physicalStore) ? new ZarrV3Store(physicalStore) : physicalStore;
+        readMetrics = getUseReadMetrics() ? new ReadMetrics(null) : null;
+        store = new CodecStore(readMetrics != null ? new MeteredStore(layoutStore, arrayReadMetrics::get, null) : layoutStore);
+        final ConsolidatedMetadata consolidatedMetadata = ConsolidatedMetadata.read(store);
+        final Map<String, Object> productAttributes;
+        if (consolidatedMetadata != null) {
+            productAttributes = consolidatedMetadata.getGroupAttributes();
         } else {
-            store = new FileSystemStore(rootPath);
+            productAttributes = getRootGroup().getAttributes();
         }
-        final ZarrGroup rootGroup = ZarrGroup.open(store);
-        final Map<String, Object> productAttributes = rootGroup.getAttributes();
 
         final String productName = cast(productAttributes.get(ATT_NAME_PRODUCT_NAME));
         final String productType = cast(productAttributes.get(ATT_NAME_PRODUCT_TYPE));
         final String productDesc = cast(productAttributes.get(ATT_NAME_PRODUCT_DESC));
         final ProductData.UTC sensingStart = getTime(productAttributes, TIME_START, rootPath); // "time_coverage_start"
         final ProductData.UTC sensingStop = getTime(productAttributes, TIME_END, rootPath); // "time_coverage_end"
-        final List<?> product_metadata = cast(productAttributes.get(ATT_NAME_PRODUCT_METADATA));
-        final MetadataElement[] metadataElements = listToMetadata(product_metadata);
         final int sceneRasterWidth = ((Number) productAttributes.get(ATT_NAME_PRODUCT_SCENE_WIDTH)).intValue();
         final int sceneRasterHeight = ((Number) productAttributes.get(ATT_NAME_PRODUCT_SCENE_HEIGHT)).intValue();
-        product = new Product(productName, productType, sceneRasterWidth, sceneRasterHeight, this);
+        final LazyMetadataProduct lazyMetadataProduct = new LazyMetadataProduct(productName, productType, sceneRasterWidth, sceneRasterHeight, this);
+        final String productMetadataKey = cast(productAttributes.get(ATT_NAME_PRODUCT_METADATA_KEY));
+        final List<?> productMetadata = cast(productAttributes.get(ATT_NAME_PRODUCT_METADATA));
+        if (productMetadataKey != null) {
+            lazyMetadataProduct.setMetadataLoader(() -> readProductMetadata(productMetadataKey));
+        } else if (productMetadata != null) {
+            // products written before the metadata was stored in a separate document
+            lazyMetadataProduct.setMetadataLoader(() -> listToMetadata(productMetadata));
+        }
+        product = lazyMetadataProduct;
         product.setDescription(productDesc);
+        final int productId = MetricsMBeans.nextProductId();
+        if (readMetrics != null) {
+            registerReadMetrics(readMetrics, productId, null);
+        }
         product.setStartTime(sensingStart);
         product.setEndTime(sensingStop);
         if (productAttributes.get(DATASET_AUTO_GROUPING) != null) {
@@ -217,58 +298,58 @@ public class ZarrProductReader extends AbstractProductReader {
         if (productAttributes.get(QUICKLOOK_BAND_NAME) != null) {
             product.setQuicklookBandName(((String) productAttributes.get(QUICKLOOK_BAND_NAME)).trim());
         }
-        for (MetadataElement metadataElement : metadataElements) {
-            product.getMetadataRoot().addElement(metadataElement);
-        }
-
+        // with consolidated metadata the arrays are opened on first access to their data
         final HashMap<String, ZarrArray> zarrArrays = new HashMap<>();
-        final Set<String> arrayKeys = rootGroup.getArrayKeys();
+        final HashMap<String, String> zarrArrayKeys = new HashMap<>();
+        final Set<String> arrayKeys = consolidatedMetadata != null ? consolidatedMetadata.getArrayKeys() : getRootGroup().getArrayKeys();
         for (String arrayKey : arrayKeys) {
-            final ZarrArray zarrArray = rootGroup.openArray(arrayKey);
+            if (isOverviewArrayKey(arrayKey, arrayKeys)) {
+                continue;
+            }
             final String rasterName = getRasterName(arrayKey);
-            zarrArrays.put(rasterName, zarrArray);
+            if (consolidatedMetadata == null) {
+                zarrArrays.put(rasterName, getRootGroup().openArray(arrayKey));
+            }
+            zarrArrayKeys.put(rasterName, arrayKey);
         }
 
+        final Path mappingRoot = layoutStore instanceof FileSystemStore && getUseMemoryMapping() ? rootPath : null;
         final List<?> rasterDataNodeOrder = cast(productAttributes.get(ATT_NAME_ORIGINAL_RASTER_DATA_NODE_ORDER));
         for (Object rasterNameObj : rasterDataNodeOrder) {
             String rasterName = cast(rasterNameObj);
-            if (!zarrArrays.containsKey(rasterName)) {
+            if (!zarrArrayKeys.containsKey(rasterName)) {
                 continue;
             }
+            final String arrayKey = zarrArrayKeys.get(rasterName);
             final ZarrArray zarrArray = zarrArrays.get(rasterName);
-            final int[] shape = zarrArray.getShape();
-            final int[] chunks = zarrArray.getChunks();
-            final DataType zarrDataType = zarrArray.getDataType();
+            final int[] shape;
+            final int[] chunks;
+            final DataType zarrDataType;
+            final Map<String, Object> attributes;
+            if (zarrArray != null) {
+                shape = zarrArray.getShape();
+                chunks = zarrArray.getChunks();
+                zarrDataType = zarrArray.getDataType();
+                attributes = zarrArray.getAttributes();
+            } else {
+                shape = consolidatedMetadata.getShape(arrayKey);
+                chunks = consolidatedMetadata.getChunks(arrayKey);
+                zarrDataType = consolidatedMetadata.getDataType(arrayKey);
+                attributes = consolidatedMetadata.getArrayAttributes(arrayKey);
+            }
 
             final SnapDataType snapDataType = getSnapDataType(zarrDataType);
             final int width = shape[1];
             final int height = shape[0];
 
-            final Map<String, Object> attributes = zarrArray.getAttributes();
-
             if (attributes.containsKey(ATT_NAME_OFFSET_X)) {
                 final double offsetX = cast(attributes.get(ATT_NAME_OFFSET_X));
                 final double offsetY = cast(attributes.get(ATT_NAME_OFFSET_Y));
                 final double subSamplingX = cast(attributes.get(ATT_NAME_SUBSAMPLING_X));
                 final double subSamplingY = cast(attributes.get(ATT_NAME_SUBSAMPLING_Y));
-                final float[] dataBuffer = new float[width * height];
-                if (attributes.containsKey(ATT_NAME_BINARY_FORMAT)) {
-                    initBinaryReaderPlugin(attributes);
-                    final Path srcPath = rootPath.resolve(rasterName).resolve(rasterName + binaryFileExtension);
-                    final ProductReader reader = binaryReaderPlugIn.createReaderInstance();
-                    final Product binaryProduct = reader.readProductNodes(srcPath.toFile(), null);
-                    binaryProduct.setProductReader(reader);
-                    final Band dataBand = binaryProduct.getBand("data");
-                    dataBand.readPixels(0, 0, width, height, dataBuffer);
-                    binaryProduct.dispose();
-                } else {
-                    try {
-                        zarrArray.read(dataBuffer, shape, new int[]{0, 0});
-                    } catch (InvalidRangeException e) {
-                        throw new IOException("InvalidRangeException while reading tie point raster '" + rasterName + "'", e);
-                    }
-                }
-                final TiePointGrid tiePointGrid = new TiePointGrid(rasterName, width, height, offsetX, offsetY, subSamplingX, subSamplingY, dataBuffer);
+                // the grid data is read on first access by readTiePointGridRasterData()
+                final TiePointGrid tiePointGrid = new TiePointGrid(rasterName, width, height, offsetX, offsetY, subSamplingX, subSamplingY);
+                tiePointGridArrayKeys.put(tiePointGrid, arrayKey);
                 if (attributes.containsKey(DISCONTINUITY)) {
                     final Number num = cast(attributes.get(DISCONTINUITY));
                     tiePointGrid.setDiscontinuity(num.intValue());
@@ -300,8 +381,20 @@ public class ZarrProductReader extends AbstractProductReader {
                     final Band dataBand = binaryProduct.getBand("data");
                     band.setSourceImage(dataBand.getSourceImage());
                 } else {
-                    final ZarrOpImage zarrOpImage = new ZarrOpImage(band, shape, chunks, zarrArray, ResolutionLevel.MAXRES);
-                    band.setSourceImage(zarrOpImage);
+                    final int numOverviewLevels = getNumOverviewLevels(attributes);
+                    ReadMetrics bandReadMetrics = null;
+                    if (readMetrics != null) {
+                        bandReadMetrics = new ReadMetrics(readMetrics, arrayKey);
+                        arrayReadMetrics.put(arrayKey, bandReadMetrics);
+                        for (int level = 1; level <= numOverviewLevels; level++) {
+                            arrayReadMetrics.put(getOverviewArrayKey(arrayKey, level), bandReadMetrics);
+                        }
+                        registerReadMetrics(bandReadMetrics, productId, rasterName);
+                    }
+                    final ZarrMultiLevelSource multiLevelSource = new ZarrMultiLevelSource(
+                            band, band.getMultiLevelModel(), key -> getRootGroup().openArray(key), zarrArray,
+                            shape, chunks, store, mappingRoot, arrayKey, numOverviewLevels, bandReadMetrics);
+                    band.setSourceImage(new DefaultMultiLevelImage(multiLevelSource));
                 }
             }
         }
@@ -339,12 +432,29 @@ public class ZarrProductReader extends AbstractProductReader {
         product.setProductReader(this);
         product.setModified(false);
         addGeocodings(productAttributes);
-        readVectorData();
+        readVectorData(cast(productAttributes.get(ATT_NAME_VECTOR_DATA_KEYS)));
         return product;
     }
 
-    private void readVectorData() throws IOException {
-        final List<String> keys = store.getKeysEndingWith(VectorDataNodeIO.FILENAME_EXTENSION).stream()
+    private synchronized ZarrGroup getRootGroup() throws IOException {
+        if (rootGroup == null) {
+            rootGroup = ZarrGroup.open(store);
+        }
+        return rootGroup;
+    }
+
+    private MetadataElement[] readProductMetadata(String key) throws IOException {
+        try (InputStream is = store.getInputStream(key)) {
+            if (is == null) {
+                throw new IOException("Missing product metadata document '" + key + "'.");
+            }
+            return jsonToMetadata(is);
+        }
+    }
+
+    private void readVectorData(List<String> knownKeys) throws IOException {
+        // products written before the vector data keys were recorded require a scan of the store
+        final List<String> keys = knownKeys != null ? knownKeys : store.getKeysEndingWith(VectorDataNodeIO.FILENAME_EXTENSION).stream()
                 .filter(s -> s.startsWith(VECTOR_DATA_DIR)).collect(Collectors.toList());
         for (String key : keys) {
             addVectorDataToProduct(key);
@@ -517,6 +627,36 @@ public class ZarrProductReader extends AbstractProductReader {
         }
     }
 
+    private static boolean getUseMemoryMapping() {
+        final Preferences preferences = Config.instance("snap").load().preferences();
+        return preferences.getBoolean(PROPERTY_NAME_USE_MEMORY_MAPPING, DEFAULT_USE_MEMORY_MAPPING);
+    }
+
+    private static boolean getUseReadMetrics() {
+        final Preferences preferences = Config.instance("snap").load().preferences();
+        return preferences.getBoolean(PROPERTY_NAME_READER_METRICS, DEFAULT_READER_METRICS);
+    }
+
+    private void registerReadMetrics(ReadMetrics metrics, int productId, String bandName) {
+        final ObjectName name = MetricsMBeans.register(metrics, ReadMetricsMBean.class, "ReadMetrics", productId,
+                                                       product.getName(), bandName);
+        if (name != null) {
+            readMetricsNames.add(name);
+        }
+    }
+
+    /**
+     * @return the read metrics of the product or {@code null} if the reader metrics are disabled
+     */
+    ReadMetrics getReadMetrics() {
+        return readMetrics;
+    }
+
+    private static int getNumOverviewLevels(Map<String, Object> attributes) {
+        final Number numLevels = cast(attributes.get(ATT_NAME_OVERVIEW_LEVELS));
+        return numLevels != null ? numLevels.intValue() : 0;
+    }
+
     private String getRasterName(String arrayKey) {
         return arrayKey.contains("/") ? arrayKey.substring(arrayKey.lastIndexOf("/") + 1) : arrayKey;
     }
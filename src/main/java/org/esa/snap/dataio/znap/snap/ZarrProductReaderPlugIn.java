@@ -19,7 +19,6 @@ package org.esa.snap.dataio.znap.snap;
 import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.*;
 import static com.bc.zarr.ZarrConstants.*;
 
-import com.bc.zarr.storage.ZipStore;
 import org.esa.snap.core.dataio.DecodeQualification;
 import org.esa.snap.core.dataio.ProductReader;
 import org.esa.snap.core.dataio.ProductReaderPlugIn;
@@ -48,14 +47,20 @@ public class ZarrProductReaderPlugIn implements ProductReaderPlugIn {
         final boolean isValidRootDirName = productRoot.getFileName().toString().toLowerCase().endsWith(SNAP_ZARR_CONTAINER_EXTENSION);
         if (isValidRootDirName) {
             final boolean productRootIsDirectory = Files.isDirectory(productRoot);
-            final Path productHeader = productRoot.resolve(FILENAME_DOT_ZGROUP);
+            final boolean v3Layout = Files.isRegularFile(productRoot.resolve(ZarrV3Store.FILENAME_ZARR_JSON));
+            final Path productHeader = productRoot.resolve(v3Layout ? ZarrV3Store.FILENAME_ZARR_JSON : FILENAME_DOT_ZGROUP);
             final boolean productHeaderExist = Files.exists(productHeader);
             final boolean productHeaderIsFile = Files.isRegularFile(productHeader);
 
             if (productRootIsDirectory && productHeaderExist && productHeaderIsFile) {
+                if (Files.isRegularFile(productRoot.resolve(FILENAME_DOT_ZMETADATA))) {
+                    return DecodeQualification.INTENDED;
+                }
                 try {
+                    final String arrayHeaderName = v3Layout ? ZarrV3Store.FILENAME_ZARR_JSON : FILENAME_DOT_ZARRAY;
                     final Stream<Path> stream = Files.find(productRoot, 3,
-                                                           (path, basicFileAttributes) -> Files.isRegularFile(path) && path.endsWith(FILENAME_DOT_ZARRAY),
+                                                           (path, basicFileAttributes) -> Files.isRegularFile(path) && path.endsWith(arrayHeaderName)
+                                                                                          && !path.getParent().equals(productRoot),
                                                            FileVisitOption.FOLLOW_LINKS);
                     final List<Path> pathList = stream.collect(Collectors.toList());
                     if (pathList.size() > 0) {
@@ -69,11 +74,16 @@ public class ZarrProductReaderPlugIn implements ProductReaderPlugIn {
         }
         final boolean isValidZnapZipArchiveName = productRoot.getFileName().toString().toLowerCase().endsWith(SNAP_ZARR_ZIP_CONTAINER_EXTENSION);
         if (isValidZnapZipArchiveName) {
-            try (ZipStore zipStore = new ZipStore(productRoot)) {
-                final InputStream productHeaderStream = zipStore.getInputStream(FILENAME_DOT_ZGROUP);
+            try (IndexedZipStore zipStore = new IndexedZipStore(productRoot)) {
+                final boolean v3Layout = ZarrV3Store.isV3(zipStore);
+                final InputStream productHeaderStream = zipStore.getInputStream(v3Layout ? ZarrV3Store.FILENAME_ZARR_JSON : FILENAME_DOT_ZGROUP);
                 final boolean productHeaderExist = productHeaderStream != null;
                 if (productHeaderExist) {
-                    final TreeSet<String> arrayKeys = zipStore.getArrayKeys();
+                    productHeaderStream.close();
+                    if (hasConsolidatedMetadata(zipStore)) {
+                        return DecodeQualification.INTENDED;
+                    }
+                    final TreeSet<String> arrayKeys = v3Layout ? new ZarrV3Store(zipStore).getArrayKeys() : zipStore.getArrayKeys();
                     if (arrayKeys.size() > 0) {
                         return DecodeQualification.INTENDED;
                     }
@@ -85,6 +95,14 @@ public class ZarrProductReaderPlugIn implements ProductReaderPlugIn {
         return DecodeQualification.UNABLE;
     }
 
+    private static boolean hasConsolidatedMetadata(IndexedZipStore zipStore) {
+        try (InputStream stream = zipStore.getInputStream(FILENAME_DOT_ZMETADATA)) {
+            return stream != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     @Override
     public Class<?>[] getInputTypes() {
         return IO_TYPES;
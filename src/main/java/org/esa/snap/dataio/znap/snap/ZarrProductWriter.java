@@ -18,6 +18,7 @@ package org.esa.snap.dataio.znap.snap;
 
 import com.bc.ceres.core.ProgressMonitor;
 import com.bc.ceres.glevel.MultiLevelImage;
+import com.bc.ceres.glevel.support.DefaultMultiLevelModel;
 import com.bc.zarr.ArrayParams;
 import com.bc.zarr.Compressor;
 import com.bc.zarr.CompressorFactory;
@@ -26,7 +27,6 @@ import com.bc.zarr.ZarrArray;
 import com.bc.zarr.ZarrGroup;
 import com.bc.zarr.storage.FileSystemStore;
 import com.bc.zarr.storage.Store;
-import com.bc.zarr.storage.ZipStore;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import org.esa.snap.core.dataio.AbstractProductWriter;
 import org.esa.snap.core.dataio.ProductIO;
@@ -43,8 +43,11 @@ import org.esa.snap.core.util.SystemUtils;
 import org.esa.snap.runtime.Config;
 import ucar.ma2.InvalidRangeException;
 
+import javax.management.ObjectName;
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
+import java.awt.image.Raster;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -55,11 +58,21 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.prefs.Preferences;
 
@@ -79,9 +92,30 @@ import static ucar.nc2.constants.CF.UNITS;
 
 public class ZarrProductWriter extends AbstractProductWriter {
 
-    private final HashMap<Band, BinaryWriter> zarrWriters = new HashMap<>();
+    private static final int MIN_OVERVIEW_CHUNK_SIZE = 64;
+    private static final long MAX_ASSEMBLY_HEAP_BYTES = 32L * 1024 * 1024;
+    private static final long MAX_ASSEMBLY_OFF_HEAP_BYTES = 256L * 1024 * 1024;
+
+    // accessed concurrently by writeBandRasterData
+    private final Map<Band, BinaryWriter> zarrWriters = new ConcurrentHashMap<>();
+    private final Map<Band, OverviewWriter> overviewWriters = new ConcurrentHashMap<>();
+    private final Map<Band, Quantization> quantizations = new ConcurrentHashMap<>();
+    private final List<String> vectorDataKeys = new ArrayList<>();
     private final Compressor compressor;
+    private final ChunkCodec codecCompressor;
+    private final Map<String, String> filterSpecs;
     private final ProductWriterPlugIn binaryWriterPlugIn;
+    private final int overviewLevels;
+    private final String overviewAggregation;
+    private final int writerThreads;
+    private final int writerQueueSizeMB;
+    private final boolean deflateZipEntries;
+    private final boolean skipFillChunks;
+    private final ChunkShapePlanner chunkShapePlanner;
+    private final int shardChunks;
+    private final int zarrFormat;
+    private final boolean useWriteMetrics;
+    private final boolean separateMetadata;
 
     private final Persistence persistence = new Persistence();
     private final JsonLanguageSupport languageSupport = new JsonLanguageSupport();
@@ -89,41 +123,268 @@ public class ZarrProductWriter extends AbstractProductWriter {
     private ZarrGroup zarrGroup;
     private Path outputRoot;
     private Store zarrStore;
+    private String productMetadataKey;
+    private boolean useZipArchive;
+    private CodecStore codecStore;
+    private MeteredStore meteredStore;
     private DimensionNameGenerator dimensionNameGenerator;
+    private ChunkWritePipeline writePipeline;
+    private WriteMetrics writeMetrics;
+    private int metricsProductId;
+    private final Map<String, WriteMetrics> arrayWriteMetrics = new ConcurrentHashMap<>();
+    private final List<ObjectName> writeMetricsNames = new ArrayList<>();
 
     public ZarrProductWriter(final ZarrProductWriterPlugIn productWriterPlugIn) {
         super(productWriterPlugIn);
-        compressor = CompressorFactory.create(getCompressorId(), "level", getCompressionLevel());
+        final String compressorId = getCompressorId();
+        final int compressionLevel = getCompressionLevel();
+        final Map<String, String> configuredFilterSpecs = getFilterSpecs();
+        if (ChunkCodecs.isSupportedCompressor(compressorId) && compressionLevel != DEFAULT_COMPRESSION_LEVEL) {
+            LOG.warning("Znap format product writer ignores the compression level, '" + compressorId + "' compresses with fixed parameters.");
+        }
+        if (ChunkCodecs.isSupportedCompressor(compressorId)
+            || COMPRESSOR_ID_ZLIB.equals(compressorId) && !configuredFilterSpecs.isEmpty()) {
+            // jzarr writes uncompressed chunks, the codec store filters and compresses them
+            compressor = CompressorFactory.create(DEFAULT_COMPRESSOR_ID);
+            codecCompressor = ChunkCodecs.createCompressor(compressorId, compressionLevel);
+            filterSpecs = configuredFilterSpecs;
+        } else if (COMPRESSOR_ID_BLOSC.equals(compressorId)) {
+            compressor = CompressorFactory.create(compressorId, "cname", getBloscCompressorName(),
+                                                  "clevel", compressionLevel, "shuffle", getBloscShuffle());
+            codecCompressor = null;
+            if (!configuredFilterSpecs.isEmpty()) {
+                LOG.warning("Znap format product writer ignores the configured filters, blosc applies its own shuffle filter.");
+            }
+            filterSpecs = Collections.emptyMap();
+        } else {
+            compressor = CompressorFactory.create(compressorId, "level", compressionLevel);
+            codecCompressor = null;
+            filterSpecs = configuredFilterSpecs;
+        }
         binaryWriterPlugIn = getBinaryWriterPlugin(productWriterPlugIn);
+        overviewLevels = getOverviewLevels();
+        overviewAggregation = getOverviewAggregation();
+        writerThreads = getWriterThreads();
+        writerQueueSizeMB = getWriterQueueSizeMB();
+        shardChunks = getShardChunks();
+        zarrFormat = getZarrFormat();
+        deflateZipEntries = getDeflateZipEntries(compressorId);
+        skipFillChunks = getSkipFillChunks();
+        chunkShapePlanner = getChunkShapePlanner();
+        useWriteMetrics = getUseWriteMetrics();
+        separateMetadata = getSeparateMetadata();
     }
 
     @Override
     public void writeBandRasterData(Band sourceBand, int sourceOffsetX, int sourceOffsetY, int sourceWidth, int sourceHeight, ProductData sourceBuffer, ProgressMonitor pm) throws IOException {
+        writeRasterData(sourceBand, sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight, sourceBuffer);
+        pm.done();
+    }
+
+    private void writeRasterData(Band sourceBand, int sourceOffsetX, int sourceOffsetY, int sourceWidth, int sourceHeight, ProductData sourceBuffer) throws IOException {
         final BinaryWriter binaryWriter = zarrWriters.get(sourceBand);
         final int[] to = {sourceOffsetY, sourceOffsetX}; // common data model manner { y, x }
         final int[] shape = {sourceHeight, sourceWidth};  // common data model manner { y, x }
+        final ProductData data = ensureNotLogarithmicData(sourceBand, sourceBuffer);
         try {
-            binaryWriter.write(ensureNotLogarithmicData(sourceBand, sourceBuffer), shape, to);
+            binaryWriter.write(quantize(sourceBand, data), shape, to);
         } catch (InvalidRangeException e) {
             throw new IOException("Invalid range while writing raster '" + sourceBand.getName() + "'", e);
+        } finally {
+            // the zarr chunk writers copy the data, so the scaled buffer can be reused by the next tile of the thread
+            if (data != sourceBuffer && binaryWriterPlugIn == null) {
+                ScratchBuffers.release(data.getElems());
+            }
         }
-        pm.done();
     }
 
-    @Override
-    public void flush() {
+    /**
+     * Writes the raster data of all bands by pulling the tiles of their source images on a fork join pool,
+     * instead of waiting for the tiles being pushed band by band through {@link #writeBandRasterData}.
+     * The tiles are pulled row by row across all bands, so that chunks are completed early and only few
+     * partial chunks are held in memory. Must be called after {@link #writeProductNodes}. The tiles of the
+     * bands must not be pushed through {@link #writeBandRasterData} in addition, see {@link #writeProduct}.
+     *
+     * @param parallelism the number of threads computing and writing tiles, a value below one means one
+     *                    thread per available processor
+     * @param pm          the progress monitor
+     */
+    public void writeAllBandsInParallel(int parallelism, ProgressMonitor pm) throws IOException {
+        final List<TileRequest> requests = createTileRequests();
+        final int numThreads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        final AtomicInteger nextRequest = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+        final ForkJoinPool pool = new ForkJoinPool(numThreads);
+        pm.beginTask("Writing bands of product '" + getSourceProduct().getName() + "'...", requests.size());
+        try {
+            final List<ForkJoinTask<Object>> workers = new ArrayList<>();
+            for (int i = 0; i < Math.min(numThreads, requests.size()); i++) {
+                workers.add(pool.submit(() -> {
+                    int index;
+                    while ((index = nextRequest.getAndIncrement()) < requests.size() && !failed.get() && !pm.isCanceled()) {
+                        try {
+                            writeTile(requests.get(index));
+                        } catch (IOException | RuntimeException e) {
+                            failed.set(true);
+                            throw e;
+                        }
+                        synchronized (pm) {
+                            pm.worked(1);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            Throwable firstError = null;
+            for (ForkJoinTask<Object> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    firstError = firstError == null ? e.getCause() : firstError;
+                }
+            }
+            if (firstError instanceof IOException) {
+                throw (IOException) firstError;
+            } else if (firstError != null) {
+                throw new IOException("Unable to write the bands of product '" + getSourceProduct().getName() + "'.", firstError);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the bands of product '" + getSourceProduct().getName() + "'.", e);
+        } finally {
+            pool.shutdownNow();
+            pm.done();
+        }
+    }
+
+    /**
+     * Writes the given product in the znap format. In contrast to {@code ProductIO.writeProduct}, which pushes the
+     * tiles band by band, the tiles of all bands are pulled from their source images in parallel by
+     * {@link #writeAllBandsInParallel}.
+     *
+     * @param product     the product to write
+     * @param outputPath  the path of the product to write
+     * @param parallelism the number of threads computing and writing tiles, a value below one means one
+     *                    thread per available processor
+     * @param pm          the progress monitor
+     */
+    public static void writeProduct(Product product, Path outputPath, int parallelism, ProgressMonitor pm) throws IOException {
+        final ZarrProductWriter writer = new ZarrProductWriter(new ZarrProductWriterPlugIn());
+        writer.writeProductNodes(product, outputPath);
+        try {
+            writer.writeAllBandsInParallel(parallelism, pm);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private List<TileRequest> createTileRequests() {
+        final List<Band> bands = new ArrayList<>();
+        for (Band band : getSourceProduct().getBands()) {
+            if (zarrWriters.containsKey(band)) {
+                bands.add(band);
+            }
+        }
+        final List<TileRequest> requests = new ArrayList<>();
+        boolean moreRows = true;
+        for (int row = 0; moreRows; row++) {
+            moreRows = false;
+            for (Band band : bands) {
+                final MultiLevelImage image = band.getSourceImage();
+                if (row < image.getNumYTiles()) {
+                    moreRows = true;
+                    for (int col = 0; col < image.getNumXTiles(); col++) {
+                        requests.add(new TileRequest(band, image.getMinTileX() + col, image.getMinTileY() + row));
+                    }
+                }
+            }
+        }
+        return requests;
+    }
+
+    private void writeTile(TileRequest request) throws IOException {
+        final MultiLevelImage image = request.band.getSourceImage();
+        final Raster tile = image.getTile(request.tileX, request.tileY);
+        final Rectangle rect = tile.getBounds().intersection(new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight()));
+        final ProductData data = request.band.createCompatibleRasterData(rect.width, rect.height);
+        tile.getDataElements(rect.x, rect.y, rect.width, rect.height, data.getElems());
+        writeRasterData(request.band, rect.x, rect.y, rect.width, rect.height, data);
     }
 
     @Override
-    public void close() {
-        for (BinaryWriter value : zarrWriters.values()) {
-            value.dispose();
+    public void flush() throws IOException {
+        if (writePipeline != null) {
+            writePipeline.flush();
         }
-        zarrWriters.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        boolean written = false;
+        IOException storeCloseFailure = null;
         try {
-            zarrStore.close();
-        } catch (IOException e) {
-            LOG.log(Level.WARNING, "Unable to close the zarr product writer store.", e);
+            for (BinaryWriter value : zarrWriters.values()) {
+                value.finish();
+            }
+            if (writePipeline != null) {
+                writePipeline.close();
+            }
+            if (codecStore != null) {
+                if (meteredStore != null) {
+                    meteredStore.setFlushing(true);
+                }
+                codecStore.flush();
+            }
+            written = true;
+        } finally {
+            if (writePipeline != null) {
+                // releases the worker threads if a writer or the pipeline failed before the pipeline was closed
+                writePipeline.abort();
+                writePipeline = null;
+            }
+            for (BinaryWriter value : zarrWriters.values()) {
+                value.dispose();
+            }
+            zarrWriters.clear();
+            overviewWriters.clear();
+            quantizations.clear();
+            try {
+                zarrStore.close();
+            } catch (IOException e) {
+                // e.g. the central directory of a zip archive could not be written, the product is unreadable then
+                if (written) {
+                    storeCloseFailure = e;
+                } else {
+                    LOG.log(Level.WARNING, "Unable to close the zarr product writer store.", e);
+                }
+            }
+            if (writeMetrics != null) {
+                LOG.info("Znap format product writer metrics of '" + outputRoot + "': " + writeMetrics);
+                arrayWriteMetrics.forEach((arrayKey, metrics) -> LOG.fine("Znap format product writer metrics of '" + arrayKey + "': " + metrics));
+                writeMetricsNames.forEach(MetricsMBeans::unregister);
+                writeMetricsNames.clear();
+                arrayWriteMetrics.clear();
+                writeMetrics = null;
+                meteredStore = null;
+            }
+        }
+        if (storeCloseFailure != null) {
+            throw storeCloseFailure;
+        }
+    }
+
+    /**
+     * @return the write metrics of the product or {@code null} if the writer metrics are disabled or the writer is closed
+     */
+    WriteMetrics getWriteMetrics() {
+        return writeMetrics;
+    }
+
+    private void registerWriteMetrics(WriteMetrics metrics, String bandName) {
+        final ObjectName name = MetricsMBeans.register(metrics, WriteMetricsMBean.class, "WriteMetrics", metricsProductId,
+                                                       getSourceProduct().getName(), bandName);
+        if (name != null) {
+            writeMetricsNames.add(name);
         }
     }
 
@@ -141,27 +402,47 @@ public class ZarrProductWriter extends AbstractProductWriter {
         final Product product = getSourceProduct();
         dimensionNameGenerator.getDimensionNameFor("x", product.getSceneRasterWidth());
         dimensionNameGenerator.getDimensionNameFor("y", product.getSceneRasterHeight());
-        final boolean useZipArchive = getUseZipArchive();
+        useZipArchive = getUseZipArchive();
         if (useZipArchive) {
             if (!outputRoot.toString().endsWith(".zip")) {
                 outputRoot = parentDir.resolve(outputRoot.getFileName().toString() + ".zip");
             }
-            zarrStore = new ZipStore(outputRoot);
+            zarrStore = new ParallelZipStore(outputRoot, deflateZipEntries);
         } else {
             zarrStore = new FileSystemStore(outputRoot);
         }
-        zarrGroup = ZarrGroup.create(zarrStore);
+        if (zarrFormat == ZARR_FORMAT_V3) {
+            zarrStore = new ZarrV3Store(zarrStore);
+        }
+        if (useWriteMetrics) {
+            writeMetrics = new WriteMetrics(null);
+            metricsProductId = MetricsMBeans.nextProductId();
+            registerWriteMetrics(writeMetrics, null);
+        }
+        meteredStore = writeMetrics != null ? new MeteredStore(zarrStore, null, arrayWriteMetrics::get) : null;
+        final Store chunkStore = meteredStore != null ? meteredStore : zarrStore;
+        final long writerQueueSizeBytes = (long) writerQueueSizeMB * 1024 * 1024;
+        // incomplete shards are held in memory like queued chunks and share their limit
+        codecStore = new CodecStore(chunkStore, this::createCodecPipeline, this::createShardLayout, writerQueueSizeBytes);
+        zarrGroup = ZarrGroup.create(codecStore);
+        writePipeline = new ChunkWritePipeline(writerThreads, writerQueueSizeBytes, writeMetrics);
         writeVectorData();
+        writeProductMetadata();
         for (TiePointGrid tiePointGrid : product.getTiePointGrids()) {
             writeTiePointGrid(tiePointGrid);
         }
         for (Band band : product.getBands()) {
+            initializeQuantization(band);
             initializeZarrArrayForBand(band);
             if (shouldWrite(band)) {
                 initializeZarrBandWriter(band);
             }
         }
         zarrGroup.writeAttributes(collectProductAttributes());
+        if (zarrFormat == ZARR_FORMAT_V2) {
+            // .zmetadata is a zarr v2 convention, readers of v3 stores read the zarr.json documents
+            ConsolidatedMetadata.write(zarrStore);
+        }
     }
 
     private void writeVectorData() throws IOException {
@@ -177,6 +458,18 @@ public class ZarrProductWriter extends AbstractProductWriter {
         }
     }
 
+    private void writeProductMetadata() throws IOException {
+        final MetadataElement[] metadataElements = getSourceProduct().getMetadataRoot().getElements();
+        zarrStore.delete(FILENAME_DOT_PRODUCT_METADATA);
+        if (!separateMetadata || metadataElements.length == 0) {
+            return;
+        }
+        try (OutputStream os = zarrStore.getOutputStream(FILENAME_DOT_PRODUCT_METADATA)) {
+            metadataToJson(metadataElements, os);
+        }
+        productMetadataKey = FILENAME_DOT_PRODUCT_METADATA;
+    }
+
     void writeVectorData(VectorDataNode vectorDataNode) {
         try {
             WriterBasedVectorDataNodeWriter vectorDataNodeWriter = new WriterBasedVectorDataNodeWriter();
@@ -187,6 +480,7 @@ public class ZarrProductWriter extends AbstractProductWriter {
             ) {
                 vectorDataNodeWriter.write(vectorDataNode, writer);
             }
+            vectorDataKeys.add(filePath.toString().replace('\\', '/'));
         } catch (IOException e) {
             SystemUtils.LOG.throwing("ZarrProductWriter", "writeVectorData", e);
         }
@@ -209,6 +503,7 @@ public class ZarrProductWriter extends AbstractProductWriter {
         collectMaskAttrs(attributes);
         collectOriginalRasterDataNodeOrder(attributes);
         collectProductMetadata(attributes);
+        attributes.put(ATT_NAME_VECTOR_DATA_KEYS, new ArrayList<>(vectorDataKeys));
         return attributes;
     }
 
@@ -269,6 +564,10 @@ public class ZarrProductWriter extends AbstractProductWriter {
     }
 
     private void collectProductMetadata(Map<String, Object> attributes) {
+        if (productMetadataKey != null) {
+            attributes.put(ATT_NAME_PRODUCT_METADATA_KEY, productMetadataKey);
+            return;
+        }
         final Product product = getSourceProduct();
         try {
             final MetadataElement[] metadataElements = product.getMetadataRoot().getElements();
@@ -350,6 +649,11 @@ public class ZarrProductWriter extends AbstractProductWriter {
             attributes.put(VALID_PIXEL_EXPRESSION, rdNode.getValidPixelExpression());
         }
 
+        final Quantization quantization = quantizations.get(rdNode);
+        if (quantization != null) {
+            quantization.collectAttributes(attributes);
+        }
+
         collectAncillaryElements(rdNode, attributes);
 
         AffineTransform imageToModelTransform = rdNode.getImageToModelTransform();
@@ -453,14 +757,26 @@ public class ZarrProductWriter extends AbstractProductWriter {
         if (!log10Scaled) {
             return data;
         }
-        final ProductData scaledData = ProductData.createInstance(ProductData.TYPE_FLOAT32, data.getNumElems());
-        for (int i = 0; i < data.getNumElems(); i++) {
-            // TODO: 09.06.2021 SE -- really scale each value step by step ?
-            scaledData.setElemDoubleAt(i, sourceBand.scale(data.getElemDoubleAt(i)));
+        final int numElems = data.getNumElems();
+        final ProductData scaledData;
+        if (binaryWriterPlugIn == null) {
+            scaledData = ProductData.createInstance((float[]) ScratchBuffers.acquire(ProductData.TYPE_FLOAT32, numElems));
+        } else {
+            scaledData = ProductData.createInstance(ProductData.TYPE_FLOAT32, numElems);
         }
+        new Log10Scaling(sourceBand.getScalingFactor(), sourceBand.getScalingOffset()).apply(data, (float[]) scaledData.getElems());
         return scaledData;
     }
 
+    private ProductData quantize(Band sourceBand, ProductData data) {
+        final Quantization quantization = quantizations.get(sourceBand);
+        if (quantization == null) {
+            return data;
+        }
+        final Double noDataValue = sourceBand.isNoDataValueUsed() ? sourceBand.getGeophysicalNoDataValue() : null;
+        return quantization.apply(data, noDataValue);
+    }
+
     static void collectSampleCodingAttributes(Band band, Map<String, Object> attributes) {
         final SampleCoding sampleCoding = band.getSampleCoding();
         if (sampleCoding == null) {
@@ -584,6 +900,68 @@ public class ZarrProductWriter extends AbstractProductWriter {
         return compressorID;
     }
 
+    private CodecPipeline createCodecPipeline(Map<String, Object> arrayHeader) {
+        final String dtype = cast(arrayHeader.get("dtype"));
+        final List<ChunkCodec> filters = ChunkCodecs.createFilters(filterSpecs.get(dtype.substring(1)), dtype);
+        for (ChunkCodec filter : filters) {
+            if (filter instanceof ChunkCodecs.FixedScaleOffsetFilter) {
+                final Object fill = arrayHeader.get("fill_value");
+                ((ChunkCodecs.FixedScaleOffsetFilter) filter).setFillValue(
+                        fill instanceof String ? Double.valueOf((String) fill) : (Number) fill);
+            }
+        }
+        if (filters.isEmpty() && codecCompressor == null) {
+            return null;
+        }
+        return new CodecPipeline(filters, codecCompressor, CodecPipeline.getChunkByteSize(arrayHeader));
+    }
+
+    private ShardLayout createShardLayout(Map<String, Object> arrayHeader) {
+        if (shardChunks <= 1) {
+            return null;
+        }
+        final List<Number> shapeList = cast(arrayHeader.get("shape"));
+        final List<Number> chunkList = cast(arrayHeader.get("chunks"));
+        final int[] shape = new int[shapeList.size()];
+        final int[] chunks = new int[shape.length];
+        final int[] chunksPerShard = new int[shape.length];
+        int chunksPerShardCount = 1;
+        for (int i = 0; i < shape.length; i++) {
+            shape[i] = shapeList.get(i).intValue();
+            chunks[i] = chunkList.get(i).intValue();
+            final int chunkCount = (shape[i] + chunks[i] - 1) / chunks[i];
+            chunksPerShard[i] = Math.min(shardChunks, chunkCount);
+            chunksPerShardCount *= chunksPerShard[i];
+        }
+        if (chunksPerShardCount <= 1) {
+            // e.g. tie point grids or small overview levels
+            return null;
+        }
+        return new ShardLayout(shape, chunks, chunksPerShard, ShardLayout.INDEX_LOCATION_START);
+    }
+
+    private Map<String, String> getFilterSpecs() {
+        final Map<String, String> specs = new HashMap<>();
+        for (DataType dataType : DataType.values()) {
+            final String spec = getPreference(PROPERTY_NAME_FILTERS_PREFIX + dataType.name(), "").trim();
+            if (!spec.isEmpty()) {
+                // fail early on invalid specifications
+                ChunkCodecs.createFilters(spec, ">" + dataType.name());
+                LOG.info("Znap format product writer will apply the filters '" + spec + "' to '" + dataType.name() + "' arrays.");
+                specs.put(dataType.name(), spec);
+            }
+        }
+        return specs;
+    }
+
+    private String getBloscCompressorName() {
+        return getPreference(PROPERTY_NAME_BLOSC_CNAME, DEFAULT_BLOSC_CNAME).trim();
+    }
+
+    private int getBloscShuffle() {
+        return Integer.parseInt(getPreference(PROPERTY_NAME_BLOSC_SHUFFLE, "" + DEFAULT_BLOSC_SHUFFLE).trim());
+    }
+
     private int getCompressionLevel() {
         final String value = getPreference(PROPERTY_NAME_COMPRESSION_LEVEL, "" + DEFAULT_COMPRESSION_LEVEL);
         final int compressionLevel = Integer.parseInt(value);
@@ -593,6 +971,42 @@ public class ZarrProductWriter extends AbstractProductWriter {
         return compressionLevel;
     }
 
+    private int getOverviewLevels() {
+        final String value = getPreference(PROPERTY_NAME_OVERVIEW_LEVELS, "" + DEFAULT_OVERVIEW_LEVELS);
+        final int levels = Integer.parseInt(value.trim());
+        if (levels != DEFAULT_OVERVIEW_LEVELS) {
+            LOG.info("Znap format product writer will write " + levels + " overview levels.");
+        }
+        return levels;
+    }
+
+    private String getOverviewAggregation() {
+        final String value = getPreference(PROPERTY_NAME_OVERVIEW_AGGREGATION, DEFAULT_OVERVIEW_AGGREGATION).trim();
+        if (!DEFAULT_OVERVIEW_AGGREGATION.equals(value)) {
+            LOG.info("Znap format product writer will use '" + value + "' overview aggregation.");
+        }
+        return value;
+    }
+
+    private int getWriterThreads() {
+        final String value = getPreference(PROPERTY_NAME_WRITER_THREADS, "" + DEFAULT_WRITER_THREADS);
+        final int threads = Integer.parseInt(value.trim());
+        if (threads < 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        LOG.info("Znap format product writer will use " + threads + " writer threads.");
+        return threads;
+    }
+
+    private int getWriterQueueSizeMB() {
+        final String value = getPreference(PROPERTY_NAME_WRITER_QUEUE_SIZE_MB, "" + DEFAULT_WRITER_QUEUE_SIZE_MB);
+        final int sizeMB = Integer.parseInt(value.trim());
+        if (sizeMB != DEFAULT_WRITER_QUEUE_SIZE_MB) {
+            LOG.info("Znap format product writer will queue up to " + sizeMB + " MB of chunk data.");
+        }
+        return sizeMB;
+    }
+
     private boolean getUseZipArchive() {
         String value = getPreference(PROPERTY_NAME_USE_ZIP_ARCHIVE, "" + DEFAULT_USE_ZIP_ARCHIVE);
         value = value != null ? value.trim() : null;
@@ -604,6 +1018,83 @@ public class ZarrProductWriter extends AbstractProductWriter {
         return useZipArchive;
     }
 
+    private boolean getDeflateZipEntries(String compressorId) {
+        final String method = getPreference(PROPERTY_NAME_ZIP_ENTRY_METHOD, DEFAULT_ZIP_ENTRY_METHOD).trim();
+        if (ZIP_ENTRY_METHOD_AUTO.equals(method)) {
+            // chunks already compressed by a zarr compressor are not compressed a second time,
+            // shards are stored, so that their inner chunks can be read by skipping to them
+            return DEFAULT_COMPRESSOR_ID.equals(compressorId) && shardChunks <= 1;
+        }
+        LOG.info("Znap format product writer will write '" + method + "' zip archive entries.");
+        if (ZIP_ENTRY_METHOD_STORED.equals(method)) {
+            return false;
+        } else if (ZIP_ENTRY_METHOD_DEFLATED.equals(method)) {
+            return true;
+        }
+        throw new IllegalArgumentException("Unknown zip entry method '" + method + "'.");
+    }
+
+    private ChunkShapePlanner getChunkShapePlanner() {
+        final String mode = getPreference(PROPERTY_NAME_CHUNK_SHAPE, DEFAULT_CHUNK_SHAPE).trim();
+        final String targetKB = getPreference(PROPERTY_NAME_CHUNK_TARGET_SIZE_KB, "" + DEFAULT_CHUNK_TARGET_SIZE_KB).trim();
+        final String accessPattern = getPreference(PROPERTY_NAME_CHUNK_ACCESS_PATTERN, DEFAULT_CHUNK_ACCESS_PATTERN).trim();
+        if (!DEFAULT_CHUNK_SHAPE.equalsIgnoreCase(mode)) {
+            LOG.info("Znap format product writer will use the chunk shape '" + mode + "'.");
+        } else if (!("" + DEFAULT_CHUNK_TARGET_SIZE_KB).equals(targetKB) || !DEFAULT_CHUNK_ACCESS_PATTERN.equalsIgnoreCase(accessPattern)) {
+            LOG.info("Znap format product writer will plan chunks of " + targetKB + " KB for '" + accessPattern + "' access.");
+        }
+        return ChunkShapePlanner.create(mode, Long.parseLong(targetKB) * 1024,
+                                        ChunkShapePlanner.AccessPattern.parse(accessPattern));
+    }
+
+    private int getShardChunks() {
+        final String value = getPreference(PROPERTY_NAME_SHARD_CHUNKS, "" + DEFAULT_SHARD_CHUNKS);
+        final int chunks = Integer.parseInt(value.trim());
+        if (chunks > 1) {
+            LOG.info("Znap format product writer will store " + chunks + " x " + chunks + " chunks per shard.");
+        }
+        return chunks;
+    }
+
+    private int getZarrFormat() {
+        final String value = getPreference(PROPERTY_NAME_ZARR_FORMAT, "" + DEFAULT_ZARR_FORMAT);
+        final int format = Integer.parseInt(value.trim());
+        if (format != ZARR_FORMAT_V2 && format != ZARR_FORMAT_V3) {
+            throw new IllegalArgumentException("Unsupported zarr format '" + value + "'.");
+        }
+        if (format != DEFAULT_ZARR_FORMAT) {
+            LOG.info("Znap format product writer will write the zarr v" + format + " layout.");
+        }
+        return format;
+    }
+
+    private boolean getUseWriteMetrics() {
+        final String value = getPreference(PROPERTY_NAME_WRITER_METRICS, "" + DEFAULT_WRITER_METRICS);
+        final boolean useMetrics = Boolean.parseBoolean(value.trim());
+        if (useMetrics != DEFAULT_WRITER_METRICS) {
+            LOG.info("Znap format product writer will " + (useMetrics ? "" : "not ") + "record write metrics.");
+        }
+        return useMetrics;
+    }
+
+    private boolean getSeparateMetadata() {
+        final String value = getPreference(PROPERTY_NAME_WRITER_SEPARATE_METADATA, "" + DEFAULT_WRITER_SEPARATE_METADATA);
+        final boolean separate = Boolean.parseBoolean(value.trim());
+        if (separate != DEFAULT_WRITER_SEPARATE_METADATA) {
+            LOG.info("Znap format product writer will " + (separate ? "" : "not ") + "write the product metadata into a separate document.");
+        }
+        return separate;
+    }
+
+    private boolean getSkipFillChunks() {
+        final String value = getPreference(PROPERTY_NAME_SKIP_FILL_CHUNKS, "" + DEFAULT_SKIP_FILL_CHUNKS);
+        final boolean skip = Boolean.parseBoolean(value.trim());
+        if (skip != DEFAULT_SKIP_FILL_CHUNKS) {
+            LOG.info("Znap format product writer will " + (skip ? "not " : "") + "store chunks consisting of fill values only.");
+        }
+        return skip;
+    }
+
     private ProductWriterPlugIn getBinaryWriterPlugin(ZarrProductWriterPlugIn productWriterPlugIn) {
         String defaultBinaryFormatName = productWriterPlugIn.getFormatNames()[0];
         final String binaryFormatName = getPreference(PROPERTY_NAME_BINARY_FORMAT, defaultBinaryFormatName);
@@ -701,24 +1192,135 @@ public class ZarrProductWriter extends AbstractProductWriter {
         }
     }
 
+    private void initializeQuantization(Band band) {
+        if (binaryWriterPlugIn != null || !shouldWrite(band)) {
+            return;
+        }
+        final DataType dataType = getZarrDataType(band);
+        if (dataType != DataType.f4 && dataType != DataType.f8) {
+            return;
+        }
+        String spec = getPreference(PROPERTY_NAME_QUANTIZATION + "." + band.getName(), null);
+        if (spec == null) {
+            spec = getPreference(PROPERTY_NAME_QUANTIZATION, "");
+        }
+        final Quantization quantization = Quantization.parse(spec);
+        if (quantization == null) {
+            return;
+        }
+        if (quantization.isPacking() && !band.isLog10Scaled() && band.isScalingApplied()) {
+            LOG.warning("Znap format product writer does not pack the scaled float band '" + band.getName() + "'.");
+            return;
+        }
+        LOG.info("Znap format product writer will quantize band '" + band.getName() + "' with '" + spec.trim() + "'.");
+        quantizations.put(band, quantization);
+    }
+
+    private DataType getArrayDataType(Band band) {
+        final Quantization quantization = quantizations.get(band);
+        final DataType dataType = getZarrDataType(band);
+        return quantization != null ? quantization.getDataType(dataType) : dataType;
+    }
+
+    private Number getArrayFillValue(Band band) {
+        final Quantization quantization = quantizations.get(band);
+        final Number fillValue = getZarrFillValue(band);
+        return quantization != null ? quantization.getFillValue(fillValue) : fillValue;
+    }
+
+    private boolean isArrayNoDataValueUsed(Band band) {
+        final Quantization quantization = quantizations.get(band);
+        return band.isNoDataValueUsed() || quantization != null && quantization.isPacking();
+    }
+
     private void initializeZarrArrayForBand(Band band) throws IOException {
         final int[] shape = getShape(band); // common data model manner { y, x }
         final String name = band.getName();
         final ArrayParams arrayParams = new ArrayParams()
-                .dataType(getZarrDataType(band))
+                .dataType(getArrayDataType(band))
                 .shape(shape)
-                .fillValue(getZarrFillValue(band))
+                .fillValue(getArrayFillValue(band))
                 .compressor(compressor);
+        final Map<String, Object> attributes = collectBandAttributes(band);
         if (binaryWriterPlugIn == null) {
-            int[] chunks;
             MultiLevelImage sourceImage = band.getSourceImage();
-            chunks = new int[]{sourceImage.getTileHeight(), sourceImage.getTileWidth()}; // common data model manner { y, x }
-            trimChunks(chunks, shape);
+            final int[] tileShape = {sourceImage.getTileHeight(), sourceImage.getTileWidth()}; // common data model manner { y, x }
+            final int elemSize = ProductData.getElemSize(getSnapDataType(getArrayDataType(band)).getValue());
+            final int[] chunks = chunkShapePlanner.plan(shape, tileShape, elemSize);
+            final int numOverviewLevels = shouldWrite(band) ? getNumOverviewLevels(sourceImage) : 0;
+            if (numOverviewLevels > 0) {
+                alignChunks(chunks, shape, 1 << numOverviewLevels);
+            }
             arrayParams.chunks(chunks);
+            if (numOverviewLevels > 0) {
+                attributes.put(ATT_NAME_OVERVIEW_LEVELS, numOverviewLevels);
+                zarrGroup.createArray(name, arrayParams, attributes);
+                initializeOverviewWriter(band, shape, chunks, numOverviewLevels);
+                return;
+            }
         } else {
             arrayParams.chunked(false);
         }
-        zarrGroup.createArray(name, arrayParams, collectBandAttributes(band));
+        zarrGroup.createArray(name, arrayParams, attributes);
+    }
+
+    /**
+     * Enlarges the chunks to multiples of the given block size, so that no overview pixel is aggregated from
+     * pixels of more than one chunk.
+     */
+    private static void alignChunks(int[] chunks, int[] shape, int blockSize) {
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i] < shape[i] && chunks[i] % blockSize != 0) {
+                chunks[i] = Math.min((chunks[i] / blockSize + 1) * blockSize, shape[i]);
+            }
+        }
+    }
+
+    private int getNumOverviewLevels(MultiLevelImage sourceImage) {
+        return Math.max(0, Math.min(overviewLevels, sourceImage.getModel().getLevelCount() - 1));
+    }
+
+    private void initializeOverviewWriter(Band band, int[] shape, int[] chunks, int numOverviewLevels) throws IOException {
+        final String name = band.getName();
+        final DataType dataType = getArrayDataType(band);
+        final OverviewWriter.Aggregation aggregation = getAggregation(band);
+        final ZarrArray[] overviewArrays = new ZarrArray[numOverviewLevels];
+        for (int level = 1; level <= numOverviewLevels; level++) {
+            final Rectangle levelBounds = DefaultMultiLevelModel.getLevelImageBounds(
+                    new Rectangle(shape[IDX_WIDTH], shape[IDX_HEIGHT]), 1 << level);
+            final int[] levelShape = {Math.max(1, levelBounds.height), Math.max(1, levelBounds.width)};
+            // halve the chunk size per level, so that the overview of an aligned tile is exactly one chunk
+            final int[] levelChunks = {
+                    Math.max(chunks[IDX_HEIGHT] >> level, Math.min(chunks[IDX_HEIGHT], MIN_OVERVIEW_CHUNK_SIZE)),
+                    Math.max(chunks[IDX_WIDTH] >> level, Math.min(chunks[IDX_WIDTH], MIN_OVERVIEW_CHUNK_SIZE))
+            };
+            trimChunks(levelChunks, levelShape);
+            final ArrayParams levelParams = new ArrayParams()
+                    .dataType(dataType)
+                    .shape(levelShape)
+                    .chunks(levelChunks)
+                    .fillValue(getArrayFillValue(band))
+                    .compressor(compressor);
+            final Map<String, Object> levelAttributes = new LinkedHashMap<>();
+            levelAttributes.put("overview_level", level);
+            levelAttributes.put("overview_aggregation", aggregation.toString().toLowerCase());
+            overviewArrays[level - 1] = zarrGroup.createArray(getOverviewArrayKey(name, level), levelParams, levelAttributes);
+        }
+        final Number noDataValue = isArrayNoDataValueUsed(band) ? getArrayFillValue(band) : null;
+        overviewWriters.put(band, new OverviewWriter(overviewArrays, shape, dataType, aggregation, noDataValue));
+    }
+
+    private OverviewWriter.Aggregation getAggregation(Band band) {
+        if (!OVERVIEW_AGGREGATION_AUTO.equalsIgnoreCase(overviewAggregation)) {
+            return OverviewWriter.Aggregation.parse(overviewAggregation);
+        }
+        if (band.isFlagBand()) {
+            return OverviewWriter.Aggregation.NEAREST;
+        }
+        if (band.isIndexBand()) {
+            return OverviewWriter.Aggregation.MODE;
+        }
+        return OverviewWriter.Aggregation.MEAN;
     }
 
     private void initializeZarrBandWriter(Band band) throws IOException {
@@ -727,7 +1329,33 @@ public class ZarrProductWriter extends AbstractProductWriter {
         ZarrArray zarrArray = zarrGroup.openArray(name);
         final BinaryWriter binaryWriter;
         if (binaryWriterPlugIn == null) {
-            binaryWriter = new StandardZarrChunksWriter(zarrArray);
+            final Number fillValue = getArrayFillValue(band);
+            final ChunkAssembler assembler = new ChunkAssembler(shape, zarrArray.getChunks(), getElemType(zarrArray.getDataType()),
+                                                                fillValue, MAX_ASSEMBLY_HEAP_BYTES, MAX_ASSEMBLY_OFF_HEAP_BYTES);
+            binaryWriter = new StandardZarrChunksWriter(zarrArray, overviewWriters.get(band), writePipeline, assembler);
+            if (skipFillChunks) {
+                // a zip archive is always written from scratch, a directory may still contain chunks of a previous product,
+                // in shards the skipped chunks must be marked as empty
+                final Store staleChunkStore = !useZipArchive || shardChunks > 1 ? codecStore : null;
+                ((StandardZarrChunksWriter) binaryWriter).skipFillChunks(fillValue, staleChunkStore, name);
+            }
+            if (writeMetrics != null) {
+                final WriteMetrics bandMetrics = new WriteMetrics(writeMetrics, name);
+                arrayWriteMetrics.put(name, bandMetrics);
+                registerWriteMetrics(bandMetrics, name);
+                ((StandardZarrChunksWriter) binaryWriter).recordTo(bandMetrics);
+                final OverviewWriter overviewWriter = overviewWriters.get(band);
+                if (overviewWriter != null) {
+                    final WriteMetrics[] levelMetrics = new WriteMetrics[overviewWriter.getNumLevels()];
+                    for (int level = 1; level <= levelMetrics.length; level++) {
+                        final String overviewKey = getOverviewArrayKey(name, level);
+                        levelMetrics[level - 1] = new WriteMetrics(writeMetrics, overviewKey);
+                        arrayWriteMetrics.put(overviewKey, levelMetrics[level - 1]);
+                        registerWriteMetrics(levelMetrics[level - 1], overviewKey);
+                    }
+                    overviewWriter.recordTo(levelMetrics);
+                }
+            }
         } else {
             final ProductWriter writer = createBinaryProductWriter();
             final Product binaryProduct = new Product("_" + name + "_", "binary", shape[IDX_WIDTH], shape[IDX_HEIGHT]);
@@ -745,6 +1373,26 @@ public class ZarrProductWriter extends AbstractProductWriter {
         zarrWriters.put(band, binaryWriter);
     }
 
+    private static Class<?> getElemType(DataType dataType) {
+        switch (dataType) {
+            case f8:
+                return double.class;
+            case f4:
+                return float.class;
+            case i1:
+            case u1:
+                return byte.class;
+            case i2:
+            case u2:
+                return short.class;
+            case i4:
+            case u4:
+                return int.class;
+            default:
+                throw new IllegalStateException("Unsupported data type: " + dataType);
+        }
+    }
+
     private int[] getShape(Band band) {
         return new int[]{band.getRasterHeight(), band.getRasterWidth()};
     }
@@ -796,22 +1444,154 @@ public class ZarrProductWriter extends AbstractProductWriter {
         return productData;
     }
 
+    private static final class TileRequest {
+        private final Band band;
+        private final int tileX;
+        private final int tileY;
+
+        TileRequest(Band band, int tileX, int tileY) {
+            this.band = band;
+            this.tileX = tileX;
+            this.tileY = tileY;
+        }
+    }
+
     private interface BinaryWriter {
         void write(ProductData data, int[] dataShape, int[] offset) throws IOException, InvalidRangeException;
 
+        void finish() throws IOException;
+
         void dispose();
     }
 
     private static class StandardZarrChunksWriter implements BinaryWriter {
         private final ZarrArray zarrArray;
-
-        public StandardZarrChunksWriter(ZarrArray zarrArray) {
+        private final OverviewWriter overviewWriter;
+        private final ChunkWritePipeline pipeline;
+        private final ChunkAssembler assembler;
+        // chunks are merged with the stored ones exclusively, after all chunks handed out before have been submitted
+        private final ReadWriteLock mergeLock = new ReentrantReadWriteLock();
+        private Number skippedFillValue;
+        private Store staleChunkStore;
+        private String arrayKey;
+        private WriteMetrics writeMetrics;
+
+        public StandardZarrChunksWriter(ZarrArray zarrArray, OverviewWriter overviewWriter, ChunkWritePipeline pipeline,
+                                        ChunkAssembler assembler) {
             this.zarrArray = zarrArray;
+            this.overviewWriter = overviewWriter;
+            this.pipeline = pipeline;
+            this.assembler = assembler;
+        }
+
+        /**
+         * Chunks consisting of the fill value only are not stored. Chunks with the same key remaining in the
+         * given store are deleted instead.
+         *
+         * @param fillValue       the fill value of the array
+         * @param staleChunkStore the store to delete stale chunks from or {@code null}
+         * @param arrayKey        the key of the array within the store
+         */
+        void skipFillChunks(Number fillValue, Store staleChunkStore, String arrayKey) {
+            this.skippedFillValue = fillValue;
+            this.staleChunkStore = staleChunkStore;
+            this.arrayKey = arrayKey;
+        }
+
+        /**
+         * @param writeMetrics the metrics to record the written tiles and chunks to
+         */
+        void recordTo(WriteMetrics writeMetrics) {
+            this.writeMetrics = writeMetrics;
+        }
+
+        @Override
+        public void write(ProductData data, int[] dataShape, int[] offset) throws IOException {
+            if (writeMetrics != null) {
+                writeMetrics.recordTile();
+            }
+            // the assembler copies the data, so the caller may reuse the buffer as soon as this method returns
+            final List<ChunkAssembler.Chunk> toMerge = new ArrayList<>();
+            mergeLock.readLock().lock();
+            try {
+                for (ChunkAssembler.Chunk chunk : assembler.write(data.getElems(), dataShape, offset)) {
+                    if (chunk.written != null) {
+                        toMerge.add(chunk);
+                    } else {
+                        submit(chunk);
+                    }
+                }
+            } finally {
+                mergeLock.readLock().unlock();
+            }
+            if (!toMerge.isEmpty()) {
+                // incomplete chunks flushed by the assembler because its off-heap memory is exhausted
+                mergeAndSubmit(toMerge);
+            }
         }
 
         @Override
-        public void write(ProductData data, int[] dataShape, int[] offset) throws IOException, InvalidRangeException {
-            zarrArray.write(data.getElems(), dataShape, offset);
+        public void finish() throws IOException {
+            mergeAndSubmit(assembler.drain());
+            if (overviewWriter != null) {
+                pipeline.flush();
+                try {
+                    overviewWriter.flush();
+                } catch (InvalidRangeException e) {
+                    throw new IOException("Unable to write the overview chunks.", e);
+                }
+            }
+        }
+
+        private void mergeAndSubmit(List<ChunkAssembler.Chunk> chunks) throws IOException {
+            mergeLock.writeLock().lock();
+            try {
+                boolean flushed = false;
+                for (ChunkAssembler.Chunk chunk : chunks) {
+                    if (chunk.written != null) {
+                        // the chunk has been stored before, only the pixels written since then replace the stored ones
+                        if (!flushed) {
+                            pipeline.flush();
+                            flushed = true;
+                        }
+                        try {
+                            chunk.mergeWith(zarrArray.read(chunk.shape, chunk.offset));
+                        } catch (InvalidRangeException e) {
+                            throw new IOException("Unable to merge the chunk at " + Arrays.toString(chunk.offset) + " with the stored chunk.", e);
+                        }
+                    }
+                }
+                for (ChunkAssembler.Chunk chunk : chunks) {
+                    submit(chunk);
+                }
+            } finally {
+                mergeLock.writeLock().unlock();
+            }
+        }
+
+        private void submit(ChunkAssembler.Chunk chunk) throws IOException {
+            pipeline.submit(ChunkCache.sizeOf(chunk.data), () -> {
+                final long start = writeMetrics != null ? System.nanoTime() : 0L;
+                final boolean skipped = ChunkAssembler.isFilledWith(chunk.data, skippedFillValue);
+                if (skipped) {
+                    deleteStaleChunk(chunk.offset);
+                } else {
+                    zarrArray.write(chunk.data, chunk.shape, chunk.offset);
+                }
+                if (writeMetrics != null) {
+                    writeMetrics.recordChunk(ChunkCache.sizeOf(chunk.data), System.nanoTime() - start, skipped);
+                }
+                if (overviewWriter != null) {
+                    overviewWriter.write(chunk.data, chunk.shape, chunk.offset);
+                }
+            });
+        }
+
+        private void deleteStaleChunk(int[] offset) throws IOException {
+            if (staleChunkStore != null) {
+                final int[] chunks = zarrArray.getChunks();
+                staleChunkStore.delete(arrayKey + "/" + offset[IDX_Y] / chunks[IDX_Y] + "." + offset[IDX_X] / chunks[IDX_X]);
+            }
         }
 
         @Override
@@ -827,10 +1607,15 @@ public class ZarrProductWriter extends AbstractProductWriter {
         }
 
         @Override
-        public void write(ProductData data, int[] dataShape, int[] offset) throws IOException, InvalidRangeException {
+        public synchronized void write(ProductData data, int[] dataShape, int[] offset) throws IOException, InvalidRangeException {
+            // the product writers of other formats are not required to support concurrent writes
             binaryBand.writeRasterData(offset[IDX_X], offset[IDX_Y], dataShape[IDX_WIDTH], dataShape[IDX_HEIGHT], data);
         }
 
+        @Override
+        public void finish() {
+        }
+
         @Override
         public void dispose() {
             final Product product = binaryBand.getProduct();
@@ -0,0 +1,733 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.zarr.storage.Store;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static com.bc.zarr.ZarrConstants.FILENAME_DOT_ZARRAY;
+import static com.bc.zarr.ZarrConstants.FILENAME_DOT_ZATTRS;
+import static com.bc.zarr.ZarrConstants.FILENAME_DOT_ZGROUP;
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.cast;
+
+/**
+ * A {@link Store} decorator which stores a zarr hierarchy in the Zarr v3 layout, while jzarr and the
+ * other stores of this module keep working with the Zarr v2 layout.
+ * <p>
+ * Every group and array is described by a single {@code zarr.json} document. The v2 documents
+ * {@code .zgroup}, {@code .zarray} and {@code .zattrs} written to this store are merged into it, and are
+ * derived from it on reading. The dimension names recorded by xarray in the attribute
+ * {@code _ARRAY_DIMENSIONS} become the {@code dimension_names} of the array.
+ * <p>
+ * The compressor and the filters of a v2 array header are translated into the v3 codec chain: the array
+ * to array filters, the {@code bytes} codec, the byte filters and the compressor. zstd, blosc and gzip map
+ * to the v3 core codecs, all other codecs are recorded with their numcodecs name, e.g.
+ * {@code numcodecs.zlib}, as registered by zarr-python. Sharded arrays (see {@link ShardLayout}) get the
+ * {@code sharding_indexed} codec, the shards written by the {@link CodecStore} already have the v3 layout.
+ * <p>
+ * Chunk keys like {@code band/3.4} are stored with the default v3 chunk key encoding as {@code band/c/3/4}.
+ * All other keys, e.g. the consolidated metadata and the vector data, are passed to the delegate unchanged.
+ */
+final class ZarrV3Store implements Store {
+
+    static final String FILENAME_ZARR_JSON = "zarr.json";
+
+    private static final String NODE_TYPE_GROUP = "group";
+    private static final String NODE_TYPE_ARRAY = "array";
+    private static final String ATT_NAME_ARRAY_DIMENSIONS = "_ARRAY_DIMENSIONS";
+    private static final String CODEC_BYTES = "bytes";
+    private static final String CODEC_CRC32C = "crc32c";
+    private static final String NUMCODECS_PREFIX = "numcodecs.";
+    private static final Set<String> ARRAY_TO_ARRAY_FILTERS = new HashSet<>(Arrays.asList(
+            ChunkCodecs.ID_DELTA, ChunkCodecs.ID_FIXED_SCALE_OFFSET, "quantize", "bitround", "astype"));
+    private static final Set<String> BYTE_FILTERS = new HashSet<>(Arrays.asList(
+            ChunkCodecs.ID_SHUFFLE, ChunkCodecs.ID_BITSHUFFLE));
+    private static final String[] BLOSC_SHUFFLE_NAMES = {"noshuffle", "shuffle", "bitshuffle"};
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .enable(JsonParser.Feature.ALLOW_NON_NUMERIC_NUMBERS)
+            .disable(JsonGenerator.Feature.QUOTE_NON_NUMERIC_NUMBERS);
+
+    private final Store delegate;
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+
+    ZarrV3Store(Store delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return whether the root of the store is described by a {@code zarr.json} document
+     */
+    static boolean isV3(Store store) throws IOException {
+        try (InputStream is = store.getInputStream(FILENAME_ZARR_JSON)) {
+            return is != null;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream(String key) throws IOException {
+        final String normalized = normalize(key);
+        final String name = getName(normalized);
+        if (isV2MetadataName(name)) {
+            final Map<String, Object> document = getNode(getParentKey(normalized)).getV2Document(name);
+            return document != null ? new ByteArrayInputStream(MAPPER.writeValueAsBytes(document)) : null;
+        }
+        return delegate.getInputStream(toStoreKey(normalized));
+    }
+
+    @Override
+    public OutputStream getOutputStream(String key) throws IOException {
+        final String normalized = normalize(key);
+        final String name = getName(normalized);
+        if (isV2MetadataName(name)) {
+            return new BufferedEntryOutputStream(data -> writeMetadata(getParentKey(normalized), name, data));
+        }
+        return delegate.getOutputStream(toStoreKey(normalized));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        final String normalized = normalize(key);
+        final String name = getName(normalized);
+        if (isV2MetadataName(name)) {
+            deleteMetadata(getParentKey(normalized), name);
+            return;
+        }
+        final String storeKey = toStoreKey(normalized);
+        if (storeKey.equals(normalized)) {
+            // the key may denote a whole subtree
+            nodes.keySet().removeIf(nodeKey -> nodeKey.equals(normalized) || nodeKey.startsWith(normalized + "/"));
+        }
+        delegate.delete(storeKey);
+    }
+
+    @Override
+    public TreeSet<String> getArrayKeys() throws IOException {
+        final TreeSet<String> keys = new TreeSet<>();
+        for (String nodeKey : scanNodeKeys()) {
+            if (getNode(nodeKey).isArray()) {
+                keys.add(nodeKey);
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public TreeSet<String> getGroupKeys() throws IOException {
+        final TreeSet<String> keys = new TreeSet<>();
+        for (String nodeKey : scanNodeKeys()) {
+            if (getNode(nodeKey).isGroup()) {
+                keys.add(nodeKey);
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public TreeSet<String> getKeysEndingWith(String suffix) throws IOException {
+        if (!isV2MetadataName(suffix)) {
+            return delegate.getKeysEndingWith(suffix);
+        }
+        final TreeSet<String> keys = new TreeSet<>();
+        for (String nodeKey : scanNodeKeys()) {
+            if (getNode(nodeKey).getV2Document(suffix) != null) {
+                keys.add(nodeKey.isEmpty() ? suffix : nodeKey + "/" + suffix);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * {@code zarr.json} documents are listed as the v2 documents derived from them, the chunks of an array
+     * with their v2 keys.
+     */
+    @Override
+    public Stream<String> getRelativeLeafKeys(String key) throws IOException {
+        final String normalized = normalize(key);
+        final Node node = getNode(normalized);
+        final List<String> leafKeys = new ArrayList<>();
+        try (Stream<String> keys = delegate.getRelativeLeafKeys(key)) {
+            for (String leafKey : (Iterable<String>) keys::iterator) {
+                final String normalizedLeafKey = normalize(leafKey);
+                final String name = getName(normalizedLeafKey);
+                final String chunkKey = node.fromStoreChunkKey(normalizedLeafKey);
+                if (chunkKey != null) {
+                    leafKeys.add(chunkKey);
+                } else if (FILENAME_ZARR_JSON.equals(name)) {
+                    final String relativeNodeKey = getParentKey(normalizedLeafKey);
+                    final String prefix = relativeNodeKey.isEmpty() ? "" : relativeNodeKey + "/";
+                    final Node leafNode = getNode(relativeNodeKey.isEmpty() ? normalized : resolve(normalized, relativeNodeKey));
+                    for (String v2Name : new String[]{FILENAME_DOT_ZGROUP, FILENAME_DOT_ZARRAY, FILENAME_DOT_ZATTRS}) {
+                        if (leafNode.getV2Document(v2Name) != null) {
+                            leafKeys.add(prefix + v2Name);
+                        }
+                    }
+                } else {
+                    leafKeys.add(leafKey);
+                }
+            }
+        }
+        return leafKeys.stream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        nodes.clear();
+        delegate.close();
+    }
+
+    private synchronized void writeMetadata(String nodeKey, String name, byte[] data) throws IOException {
+        final Map<String, Object> document = cast(MAPPER.readValue(data, Map.class));
+        final Node node = getNode(nodeKey);
+        if (FILENAME_DOT_ZGROUP.equals(name)) {
+            node.type = NODE_TYPE_GROUP;
+            node.header = null;
+        } else if (FILENAME_DOT_ZARRAY.equals(name)) {
+            node.type = NODE_TYPE_ARRAY;
+            node.header = document;
+            node.defaultChunkKeyEncoding = true;
+            node.separator = "/";
+        } else {
+            node.attributes = document;
+        }
+        writeNode(nodeKey, node);
+    }
+
+    private synchronized void deleteMetadata(String nodeKey, String name) throws IOException {
+        final Node node = getNode(nodeKey);
+        if (FILENAME_DOT_ZATTRS.equals(name)) {
+            node.attributes = new LinkedHashMap<>();
+            writeNode(nodeKey, node);
+        } else if (node.type != null) {
+            node.type = null;
+            node.header = null;
+            delegate.delete(resolve(nodeKey, FILENAME_ZARR_JSON));
+        }
+    }
+
+    private void writeNode(String nodeKey, Node node) throws IOException {
+        if (node.type == null) {
+            // attributes written before the node itself are kept until the node is written
+            return;
+        }
+        try (OutputStream os = delegate.getOutputStream(resolve(nodeKey, FILENAME_ZARR_JSON))) {
+            MAPPER.writerWithDefaultPrettyPrinter().writeValue(os, toV3Document(node));
+        }
+    }
+
+    private Node getNode(String nodeKey) throws IOException {
+        Node node = nodes.get(nodeKey);
+        if (node == null) {
+            node = loadNode(nodeKey);
+        }
+        return node;
+    }
+
+    private synchronized Node loadNode(String nodeKey) throws IOException {
+        Node node = nodes.get(nodeKey);
+        if (node == null) {
+            final Map<String, Object> document = readDocument(resolve(nodeKey, FILENAME_ZARR_JSON));
+            node = document != null ? fromV3Document(nodeKey, document) : new Node();
+            nodes.put(nodeKey, node);
+        }
+        return node;
+    }
+
+    private Map<String, Object> readDocument(String key) throws IOException {
+        try (InputStream is = delegate.getInputStream(key)) {
+            return is != null ? cast(MAPPER.readValue(is, Map.class)) : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private Set<String> scanNodeKeys() throws IOException {
+        final Set<String> nodeKeys = new TreeSet<>();
+        for (String key : delegate.getKeysEndingWith(FILENAME_ZARR_JSON)) {
+            final String normalized = normalize(key);
+            if (FILENAME_ZARR_JSON.equals(getName(normalized))) {
+                nodeKeys.add(getParentKey(normalized));
+            }
+        }
+        return nodeKeys;
+    }
+
+    /**
+     * @return the key of a chunk in the v3 layout, or the key itself if it does not denote a chunk
+     */
+    private String toStoreKey(String normalized) throws IOException {
+        final int idx = normalized.lastIndexOf('/');
+        if (idx <= 0) {
+            return normalized;
+        }
+        final int[] chunkIndex = ShardLayout.parseKey(normalized.substring(idx + 1));
+        if (chunkIndex == null) {
+            return normalized;
+        }
+        final Node node = getNode(normalized.substring(0, idx));
+        if (!node.isArray() || chunkIndex.length != node.getRank()) {
+            return normalized;
+        }
+        return normalized.substring(0, idx + 1) + node.toStoreChunkKey(chunkIndex);
+    }
+
+    private static Map<String, Object> toV3Document(Node node) throws IOException {
+        final Map<String, Object> document = new LinkedHashMap<>();
+        document.put("zarr_format", 3);
+        document.put("node_type", node.type);
+        final Map<String, Object> attributes = new LinkedHashMap<>(node.attributes);
+        if (node.isArray()) {
+            final Map<String, Object> header = node.header;
+            final String dtype = cast(header.get("dtype"));
+            document.put("shape", header.get("shape"));
+            document.put("data_type", toV3DataType(dtype));
+            document.put("chunk_grid", codec("regular", "chunk_shape", header.get("chunks")));
+            document.put("chunk_key_encoding", codec("default", "separator", "/"));
+            document.put("fill_value", toV3FillValue(header.get("fill_value"), dtype));
+            document.put("codecs", toV3Codecs(header.get("compressor"), header.get("filters"), dtype));
+            final Object dimensionNames = attributes.remove(ATT_NAME_ARRAY_DIMENSIONS);
+            if (dimensionNames != null) {
+                document.put("dimension_names", dimensionNames);
+            }
+        }
+        document.put("attributes", attributes);
+        return document;
+    }
+
+    private static Node fromV3Document(String nodeKey, Map<String, Object> document) throws IOException {
+        final Node node = new Node();
+        final Object format = document.get("zarr_format");
+        if (!(format instanceof Number) || ((Number) format).intValue() != 3) {
+            throw new IOException("Unsupported zarr format of '" + resolve(nodeKey, FILENAME_ZARR_JSON) + "'.");
+        }
+        node.type = cast(document.get("node_type"));
+        final Map<String, Object> attributes = cast(document.get("attributes"));
+        node.attributes = attributes != null ? new LinkedHashMap<>(attributes) : new LinkedHashMap<>();
+        if (!NODE_TYPE_ARRAY.equals(node.type)) {
+            return node;
+        }
+        final Map<String, Object> chunkGrid = cast(document.get("chunk_grid"));
+        if (!"regular".equals(chunkGrid.get("name"))) {
+            throw new IOException("Unsupported chunk grid '" + chunkGrid.get("name") + "' of array '" + nodeKey + "'.");
+        }
+        final Map<String, Object> keyEncoding = cast(document.get("chunk_key_encoding"));
+        final String encodingName = keyEncoding != null ? cast(keyEncoding.get("name")) : "default";
+        final Map<String, Object> encodingConfig = keyEncoding != null ? cast(keyEncoding.get("configuration")) : null;
+        final Object separator = encodingConfig != null ? encodingConfig.get("separator") : null;
+        node.defaultChunkKeyEncoding = !"v2".equals(encodingName);
+        node.separator = separator != null ? (String) separator : node.defaultChunkKeyEncoding ? "/" : ".";
+
+        final List<Map<String, Object>> codecs = cast(document.get("codecs"));
+        final V2Codecs v2Codecs;
+        final Map<String, Object> gridConfig = cast(chunkGrid.get("configuration"));
+        final List<?> chunks = cast(gridConfig.get("chunk_shape"));
+        Map<String, Object> shardingConfig = null;
+        if (codecs.size() == 1 && ShardLayout.CODEC_ID.equals(codecs.get(0).get("name"))) {
+            final Map<String, Object> config = cast(codecs.get(0).get("configuration"));
+            checkShardIndexCodecs(cast(config.get("index_codecs")), nodeKey);
+            v2Codecs = toV2Codecs(cast(config.get("codecs")), nodeKey);
+            final Object location = config.get("index_location");
+            shardingConfig = new LinkedHashMap<>();
+            shardingConfig.put("id", ShardLayout.CODEC_ID);
+            shardingConfig.put("chunk_shape", config.get("chunk_shape"));
+            shardingConfig.put("compressor", v2Codecs.compressor);
+            shardingConfig.put("filters", v2Codecs.getFilters());
+            shardingConfig.put("index_location", location != null ? location : ShardLayout.INDEX_LOCATION_END);
+        } else {
+            v2Codecs = toV2Codecs(codecs, nodeKey);
+        }
+        final String dtype = toV2DataType(cast(document.get("data_type")), v2Codecs.endian, nodeKey);
+        final Map<String, Object> header = new LinkedHashMap<>();
+        header.put("zarr_format", 2);
+        header.put("shape", document.get("shape"));
+        header.put("chunks", chunks);
+        header.put("dtype", dtype);
+        header.put("fill_value", toV2FillValue(document.get("fill_value"), dtype));
+        header.put("order", "C");
+        header.put("compressor", shardingConfig != null ? shardingConfig : v2Codecs.compressor);
+        header.put("filters", shardingConfig != null ? null : v2Codecs.getFilters());
+        node.header = header;
+        final List<?> dimensionNames = cast(document.get("dimension_names"));
+        if (dimensionNames != null && !dimensionNames.contains(null)) {
+            node.attributes.put(ATT_NAME_ARRAY_DIMENSIONS, dimensionNames);
+        }
+        return node;
+    }
+
+    private static List<Map<String, Object>> toV3Codecs(Object compressor, Object filters, String dtype) throws IOException {
+        final Map<String, Object> compressorConfig = cast(compressor);
+        if (compressorConfig != null && ShardLayout.CODEC_ID.equals(compressorConfig.get("id"))) {
+            final Map<String, Object> config = new LinkedHashMap<>();
+            config.put("chunk_shape", compressorConfig.get("chunk_shape"));
+            config.put("codecs", toV3Codecs(compressorConfig.get("compressor"), compressorConfig.get("filters"), dtype));
+            config.put("index_codecs", Arrays.asList(codec(CODEC_BYTES, "endian", "little"), codec(CODEC_CRC32C)));
+            config.put("index_location", compressorConfig.get("index_location"));
+            return Collections.singletonList(codec(ShardLayout.CODEC_ID, config));
+        }
+        final List<Map<String, Object>> codecs = new ArrayList<>();
+        boolean bytesAdded = false;
+        final List<Map<String, Object>> filterConfigs = cast(filters);
+        if (filterConfigs != null) {
+            for (Map<String, Object> filterConfig : filterConfigs) {
+                final String id = cast(filterConfig.get("id"));
+                if (ARRAY_TO_ARRAY_FILTERS.contains(id)) {
+                    if (bytesAdded) {
+                        throw new IOException("The filter '" + id + "' can not follow a byte filter in a zarr v3 array.");
+                    }
+                } else if (!bytesAdded) {
+                    codecs.add(createBytesCodec(dtype));
+                    bytesAdded = true;
+                }
+                codecs.add(toNumcodecsCodec(filterConfig));
+            }
+        }
+        if (!bytesAdded) {
+            codecs.add(createBytesCodec(dtype));
+        }
+        if (compressorConfig != null) {
+            codecs.add(toV3Compressor(compressorConfig, getElemSize(dtype)));
+        }
+        return codecs;
+    }
+
+    private static Map<String, Object> toV3Compressor(Map<String, Object> config, int elemSize) {
+        final Object id = config.get("id");
+        if ("zstd".equals(id)) {
+            return codec("zstd", "level", getNumber(config, "level", 0), "checksum", false);
+        } else if ("gzip".equals(id)) {
+            return codec("gzip", "level", getNumber(config, "level", 1));
+        } else if ("blosc".equals(id)) {
+            int shuffle = getNumber(config, "shuffle", 1).intValue();
+            if (shuffle < 0) {
+                // numcodecs auto shuffle
+                shuffle = elemSize == 1 ? 2 : 1;
+            }
+            return codec("blosc", "cname", config.get("cname"), "clevel", getNumber(config, "clevel", 5),
+                         "shuffle", BLOSC_SHUFFLE_NAMES[Math.min(shuffle, 2)], "typesize", elemSize,
+                         "blocksize", getNumber(config, "blocksize", 0));
+        }
+        return toNumcodecsCodec(config);
+    }
+
+    private static V2Codecs toV2Codecs(List<Map<String, Object>> codecs, String arrayKey) throws IOException {
+        final V2Codecs v2Codecs = new V2Codecs();
+        boolean bytesFound = false;
+        for (int i = 0; i < codecs.size(); i++) {
+            final Map<String, Object> codec = codecs.get(i);
+            final String name = cast(codec.get("name"));
+            final Map<String, Object> config = codec.get("configuration") != null ? cast(codec.get("configuration")) : Collections.emptyMap();
+            if (CODEC_BYTES.equals(name)) {
+                v2Codecs.endian = cast(config.get("endian"));
+                bytesFound = true;
+            } else if (!bytesFound) {
+                final String id = name.startsWith(NUMCODECS_PREFIX) ? name.substring(NUMCODECS_PREFIX.length()) : name;
+                if (!ARRAY_TO_ARRAY_FILTERS.contains(id)) {
+                    throw new IOException("Unsupported codec '" + name + "' of array '" + arrayKey + "'.");
+                }
+                v2Codecs.filters.add(toV2Config(id, config));
+            } else if (i == codecs.size() - 1 && !BYTE_FILTERS.contains(stripPrefix(name))) {
+                v2Codecs.compressor = toV2Compressor(name, config, arrayKey);
+            } else if (name.startsWith(NUMCODECS_PREFIX)) {
+                v2Codecs.filters.add(toV2Config(stripPrefix(name), config));
+            } else {
+                throw new IOException("Unsupported codec '" + name + "' of array '" + arrayKey + "'.");
+            }
+        }
+        if (!bytesFound) {
+            throw new IOException("Missing bytes codec of array '" + arrayKey + "'.");
+        }
+        return v2Codecs;
+    }
+
+    private static Map<String, Object> toV2Compressor(String name, Map<String, Object> config, String arrayKey) throws IOException {
+        if ("zstd".equals(name)) {
+            return toV2Config("zstd", Collections.<String, Object>singletonMap("level", getNumber(config, "level", 0)));
+        } else if ("gzip".equals(name)) {
+            return toV2Config("gzip", config);
+        } else if ("blosc".equals(name)) {
+            final Map<String, Object> v2Config = new LinkedHashMap<>();
+            v2Config.put("cname", config.get("cname"));
+            v2Config.put("clevel", getNumber(config, "clevel", 5));
+            v2Config.put("shuffle", Math.max(0, Arrays.asList(BLOSC_SHUFFLE_NAMES).indexOf(config.get("shuffle"))));
+            v2Config.put("blocksize", getNumber(config, "blocksize", 0));
+            return toV2Config("blosc", v2Config);
+        } else if (name.startsWith(NUMCODECS_PREFIX)) {
+            return toV2Config(stripPrefix(name), config);
+        }
+        throw new IOException("Unsupported codec '" + name + "' of array '" + arrayKey + "'.");
+    }
+
+    private static void checkShardIndexCodecs(List<Map<String, Object>> indexCodecs, String arrayKey) throws IOException {
+        boolean littleEndian = false;
+        boolean checksum = false;
+        if (indexCodecs != null) {
+            for (Map<String, Object> codec : indexCodecs) {
+                final Map<String, Object> config = cast(codec.get("configuration"));
+                if (CODEC_BYTES.equals(codec.get("name"))) {
+                    littleEndian = config == null || !"big".equals(config.get("endian"));
+                } else if (CODEC_CRC32C.equals(codec.get("name"))) {
+                    checksum = true;
+                }
+            }
+        }
+        if (!littleEndian || !checksum || indexCodecs.size() != 2) {
+            throw new IOException("Unsupported shard index codecs of array '" + arrayKey + "', " +
+                                  "only a little endian index with CRC32C checksum is supported.");
+        }
+    }
+
+    private static Map<String, Object> createBytesCodec(String dtype) {
+        if (getElemSize(dtype) == 1) {
+            return codec(CODEC_BYTES);
+        }
+        return codec(CODEC_BYTES, "endian", dtype.charAt(0) == '>' ? "big" : "little");
+    }
+
+    private static Map<String, Object> toNumcodecsCodec(Map<String, Object> v2Config) {
+        final Map<String, Object> config = new LinkedHashMap<>(v2Config);
+        final Object id = config.remove("id");
+        return codec(NUMCODECS_PREFIX + id, config);
+    }
+
+    private static Map<String, Object> toV2Config(String id, Map<String, Object> v3Config) {
+        final Map<String, Object> config = new LinkedHashMap<>();
+        config.put("id", id);
+        config.putAll(v3Config);
+        return config;
+    }
+
+    /**
+     * @param dtype a numpy data type like {@code "<f4"}
+     */
+    private static String toV3DataType(String dtype) throws IOException {
+        final char kind = dtype.charAt(1);
+        final int bits = getElemSize(dtype) * 8;
+        if (kind == 'i') {
+            return "int" + bits;
+        } else if (kind == 'u') {
+            return "uint" + bits;
+        } else if (kind == 'f') {
+            return "float" + bits;
+        } else if (kind == 'b') {
+            return "bool";
+        }
+        throw new IOException("Unsupported data type '" + dtype + "'.");
+    }
+
+    private static String toV2DataType(String dataType, String endian, String arrayKey) throws IOException {
+        final String byteOrder = "big".equals(endian) ? ">" : "<";
+        if ("bool".equals(dataType)) {
+            return "|b1";
+        } else if ("int8".equals(dataType) || "uint8".equals(dataType)) {
+            return "|" + dataType.charAt(0) + "1";
+        } else if (dataType.matches("(u?int|float)(16|32|64)")) {
+            final String kind = dataType.startsWith("u") ? "u" : dataType.startsWith("i") ? "i" : "f";
+            return byteOrder + kind + Integer.parseInt(dataType.replaceAll("\\D", "")) / 8;
+        }
+        throw new IOException("Unsupported data type '" + dataType + "' of array '" + arrayKey + "'.");
+    }
+
+    private static Object toV3FillValue(Object fillValue, String dtype) {
+        final char kind = dtype.charAt(1);
+        if (fillValue == null) {
+            return kind == 'b' ? (Object) false : (Object) 0;
+        }
+        final double value = fillValue instanceof String ? Double.parseDouble((String) fillValue) : ((Number) fillValue).doubleValue();
+        if (Double.isNaN(value)) {
+            return "NaN";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "Infinity" : "-Infinity";
+        } else if (kind == 'b') {
+            return value != 0;
+        }
+        return kind == 'f' ? (Object) value : (Object) ((long) value);
+    }
+
+    private static Object toV2FillValue(Object fillValue, String dtype) {
+        if (fillValue instanceof Boolean) {
+            return (Boolean) fillValue ? 1 : 0;
+        } else if (fillValue instanceof String) {
+            final String value = (String) fillValue;
+            if (value.startsWith("0x")) {
+                // the bits of a float value
+                final long bits = Long.parseUnsignedLong(value.substring(2), 16);
+                return getElemSize(dtype) == 4 ? (double) Float.intBitsToFloat((int) bits) : Double.longBitsToDouble(bits);
+            }
+            return Double.valueOf(value);
+        }
+        return fillValue;
+    }
+
+    private static int getElemSize(String dtype) {
+        return Integer.parseInt(dtype.substring(2));
+    }
+
+    private static Number getNumber(Map<String, Object> config, String key, Number defaultValue) {
+        final Object value = config.get(key);
+        return value instanceof Number ? (Number) value : defaultValue;
+    }
+
+    private static Map<String, Object> codec(String name, Object... keyValuePairs) {
+        final Map<String, Object> config = new LinkedHashMap<>();
+        for (int i = 0; i < keyValuePairs.length; i += 2) {
+            config.put((String) keyValuePairs[i], keyValuePairs[i + 1]);
+        }
+        return codec(name, config);
+    }
+
+    private static Map<String, Object> codec(String name, Map<String, Object> config) {
+        final Map<String, Object> codec = new LinkedHashMap<>();
+        codec.put("name", name);
+        if (!config.isEmpty()) {
+            codec.put("configuration", config);
+        }
+        return codec;
+    }
+
+    private static String stripPrefix(String name) {
+        return name.startsWith(NUMCODECS_PREFIX) ? name.substring(NUMCODECS_PREFIX.length()) : name;
+    }
+
+    private static boolean isV2MetadataName(String name) {
+        return FILENAME_DOT_ZGROUP.equals(name) || FILENAME_DOT_ZARRAY.equals(name) || FILENAME_DOT_ZATTRS.equals(name);
+    }
+
+    private static String resolve(String nodeKey, String name) {
+        return nodeKey.isEmpty() ? name : nodeKey + "/" + name;
+    }
+
+    private static String getName(String normalized) {
+        return normalized.substring(normalized.lastIndexOf('/') + 1);
+    }
+
+    private static String getParentKey(String normalized) {
+        final int idx = normalized.lastIndexOf('/');
+        return idx > 0 ? normalized.substring(0, idx) : "";
+    }
+
+    private static String normalize(String key) {
+        String normalized = key.replace('\\', '/');
+        while (normalized.startsWith("/")) {
+            normalized = normalized.substring(1);
+        }
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    /**
+     * A group or an array, described by its v2 documents. The type is {@code null} if the node does not exist.
+     */
+    private static final class Node {
+
+        String type;
+        Map<String, Object> header;
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        boolean defaultChunkKeyEncoding = true;
+        String separator = "/";
+
+        boolean isGroup() {
+            return NODE_TYPE_GROUP.equals(type);
+        }
+
+        boolean isArray() {
+            return NODE_TYPE_ARRAY.equals(type) && header != null;
+        }
+
+        int getRank() {
+            return ((List<?>) header.get("shape")).size();
+        }
+
+        /**
+         * @return the document or {@code null} if the node has no such document
+         */
+        Map<String, Object> getV2Document(String name) {
+            if (FILENAME_DOT_ZGROUP.equals(name)) {
+                return isGroup() ? Collections.singletonMap("zarr_format", 2) : null;
+            } else if (FILENAME_DOT_ZARRAY.equals(name)) {
+                return isArray() ? header : null;
+            }
+            return type != null && !attributes.isEmpty() ? attributes : null;
+        }
+
+        String toStoreChunkKey(int[] chunkIndex) {
+            final StringBuilder sb = new StringBuilder(defaultChunkKeyEncoding ? "c" : "");
+            for (int i = 0; i < chunkIndex.length; i++) {
+                if (i > 0 || defaultChunkKeyEncoding) {
+                    sb.append(separator);
+                }
+                sb.append(chunkIndex[i]);
+            }
+            return sb.toString();
+        }
+
+        /**
+         * @param relativeKey a key relative to the array
+         *
+         * @return the v2 chunk key or {@code null} if the key does not denote a chunk of the array
+         */
+        String fromStoreChunkKey(String relativeKey) {
+            if (!isArray()) {
+                return null;
+            }
+            String indices = relativeKey;
+            if (defaultChunkKeyEncoding) {
+                if (!relativeKey.startsWith("c" + separator)) {
+                    return null;
+                }
+                indices = relativeKey.substring(1 + separator.length());
+            }
+            final int[] chunkIndex = ShardLayout.parseKey(indices.replace(separator, "."));
+            return chunkIndex != null && chunkIndex.length == getRank() ? ShardLayout.toKey(chunkIndex) : null;
+        }
+    }
+
+    /**
+     * The v2 compressor and filters derived from a v3 codec chain.
+     */
+    private static final class V2Codecs {
+
+        final List<Map<String, Object>> filters = new ArrayList<>();
+        Map<String, Object> compressor;
+        String endian;
+
+        List<Map<String, Object>> getFilters() {
+            return filters.isEmpty() ? null : filters;
+        }
+    }
+}
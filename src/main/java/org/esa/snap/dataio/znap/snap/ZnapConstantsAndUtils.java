@@ -17,14 +17,15 @@
 package org.esa.snap.dataio.znap.snap;
 
 import com.bc.zarr.DataType;
+import com.fasterxml.jackson.core.Base64Variants;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.ObjectCodec;
 import com.fasterxml.jackson.core.Version;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -40,10 +41,14 @@ import org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -57,6 +62,8 @@ final class ZnapConstantsAndUtils {
     static final String FORMAT_NAME = "SNAP-Zarr";
     static final String SNAP_ZARR_CONTAINER_EXTENSION = ".znap";
     static final String SNAP_ZARR_ZIP_CONTAINER_EXTENSION = ".znap.zip";
+    static final String FILENAME_DOT_ZMETADATA = ".zmetadata";
+    static final String FILENAME_DOT_PRODUCT_METADATA = ".product_metadata.json";
 
     public static final String UNIT_EXTENSION = "_unit";
     public static final String BANDWIDTH = "bandwidth";
@@ -105,6 +112,8 @@ final class ZnapConstantsAndUtils {
     public static final String ATT_NAME_GEOCODING = "geocoding";
     public static final String ATT_NAME_ORIGINAL_RASTER_DATA_NODE_ORDER = "original_raster_data_node_order";
     public static final String ATT_NAME_PRODUCT_METADATA = "product_metadata";
+    public static final String ATT_NAME_PRODUCT_METADATA_KEY = "product_metadata_key";
+    public static final String ATT_NAME_VECTOR_DATA_KEYS = "vector_data_keys";
 
     // Tie point grid attribute names
     public static final String ATT_NAME_OFFSET_X = "offset_x";
@@ -115,6 +124,12 @@ final class ZnapConstantsAndUtils {
     // Sample Coding
     public static final String NAME_SAMPLE_CODING = "name_sample_coding";
 
+    // Band attribute containing the number of overview levels stored below the band array
+    public static final String ATT_NAME_OVERVIEW_LEVELS = "overview_levels";
+
+    // Band attribute containing the lossy quantization applied by the writer, see Quantization
+    public static final String ATT_NAME_QUANTIZATION = "quantization";
+
     static final Class<?>[] IO_TYPES = new Class[]{
             Path.class,
             File.class,
@@ -137,6 +152,33 @@ final class ZnapConstantsAndUtils {
         return null;
     }
 
+    /**
+     * Returns the key of the overview array for the given resolution level.
+     * Overview arrays are stored below the full resolution array, e.g. "band/1", "band/2", ...
+     *
+     * @param arrayKey the key of the full resolution array
+     * @param level    the resolution level, must be greater than zero
+     *
+     * @return the overview array key
+     */
+    static String getOverviewArrayKey(String arrayKey, int level) {
+        return arrayKey + "/" + level;
+    }
+
+    static boolean isOverviewArrayKey(String key, Collection<String> arrayKeys) {
+        final int idx = key.lastIndexOf("/");
+        if (idx < 1 || idx == key.length() - 1) {
+            return false;
+        }
+        final String levelString = key.substring(idx + 1);
+        for (int i = 0; i < levelString.length(); i++) {
+            if (!Character.isDigit(levelString.charAt(i))) {
+                return false;
+            }
+        }
+        return arrayKeys.contains(key.substring(0, idx));
+    }
+
     private interface OutputConverter {
 
         Path convertOutput(Object output);
@@ -166,6 +208,9 @@ final class ZnapConstantsAndUtils {
 
     static final SimpleModule metadataModule;
 
+    // configured once, object mappers are thread safe
+    private static final ObjectMapper METADATA_MAPPER;
+
     static {
 
         final StdSerializer<MetadataElement> metadataElementStdSerializer = new StdSerializer<MetadataElement>(MetadataElement.class) {
@@ -333,35 +378,235 @@ final class ZnapConstantsAndUtils {
         serializers.add(metadataAttributeStdSerializer);
         serializers.add(productDataStdSerializer);
         metadataModule = new SimpleModule("Metadata", new Version(1, 0, 0, null, null, null), deserializers, serializers);
+        METADATA_MAPPER = new ObjectMapper().registerModule(metadataModule)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
     }
 
     public static MetadataElement[] jsonToMetadata(String jsonMetadataString) throws JsonProcessingException {
-        final ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.registerModule(metadataModule);
-        return objectMapper.readValue(jsonMetadataString, MetadataElement[].class);
+        return METADATA_MAPPER.readValue(jsonMetadataString, MetadataElement[].class);
     }
 
     public static String metadataToJson(MetadataElement[] metadata) throws JsonProcessingException {
-        final ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.registerModule(metadataModule);
-//        return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(metadata);
-        return objectMapper.writeValueAsString(metadata);
+        return METADATA_MAPPER.writeValueAsString(metadata);
+    }
+
+    /**
+     * Reads metadata elements from a JSON document without buffering it as a string. The stream is not closed.
+     */
+    public static MetadataElement[] jsonToMetadata(InputStream inputStream) throws IOException {
+        return METADATA_MAPPER.readValue(inputStream, MetadataElement[].class);
     }
 
+    /**
+     * Writes metadata elements as a JSON document without buffering it as a string. The stream is not closed.
+     */
+    public static void metadataToJson(MetadataElement[] metadata, OutputStream outputStream) throws IOException {
+        METADATA_MAPPER.writeValue(outputStream, metadata);
+    }
+
+    /**
+     * Converts the attribute lists created by {@link #metadataToList(MetadataElement[])}, or read back from
+     * the zarr attributes, directly into metadata elements.
+     *
+     * @param metadata the list of element maps, may be {@code null}
+     *
+     * @throws JsonProcessingException if the list does not describe metadata elements
+     */
     public static MetadataElement[] listToMetadata(List<?> metadata) throws JsonProcessingException {
-        final ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.registerModule(metadataModule);
-        final String json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(metadata);
-        return objectMapper.readValue(json, MetadataElement[].class);
+        if (metadata == null) {
+            return new MetadataElement[0];
+        }
+        final MetadataElement[] elements = new MetadataElement[metadata.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = mapToMetadataElement(metadata.get(i));
+        }
+        return elements;
     }
 
+    /**
+     * Converts metadata elements directly into lists and maps which can be written as zarr attributes.
+     * The structure equals the JSON written by {@link #metadataToJson(MetadataElement[])}.
+     */
     public static List<Map<String, Object>> metadataToList(MetadataElement[] metadata) throws JsonProcessingException {
-        final ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.registerModule(metadataModule);
-        final String json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(metadata);
-        TypeReference<List<Map<String, Object>>> typeRef
-                = new TypeReference<List<Map<String, Object>>>() {};
-        return objectMapper.readValue(json, typeRef);
+        final List<Map<String, Object>> list = new ArrayList<>(metadata.length);
+        for (MetadataElement element : metadata) {
+            list.add(metadataElementToMap(element));
+        }
+        return list;
+    }
+
+    private static Map<String, Object> metadataElementToMap(MetadataElement element) {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("name", element.getName());
+        putNonEmptyString(map, "description", element.getDescription());
+        final MetadataAttribute[] attributes = element.getAttributes();
+        if (attributes.length > 0) {
+            final List<Map<String, Object>> attributeList = new ArrayList<>(attributes.length);
+            for (MetadataAttribute attribute : attributes) {
+                final Map<String, Object> attributeMap = new LinkedHashMap<>();
+                attributeMap.put("name", attribute.getName());
+                attributeMap.put("readOnly", attribute.isReadOnly());
+                attributeMap.put("data", productDataToMap(attribute.getData()));
+                putNonEmptyString(attributeMap, "unit", attribute.getUnit());
+                putNonEmptyString(attributeMap, "description", attribute.getDescription());
+                attributeList.add(attributeMap);
+            }
+            map.put("attributes", attributeList);
+        }
+        final MetadataElement[] elements = element.getElements();
+        if (elements.length > 0) {
+            final List<Map<String, Object>> elementList = new ArrayList<>(elements.length);
+            for (MetadataElement child : elements) {
+                elementList.add(metadataElementToMap(child));
+            }
+            map.put("elements", elementList);
+        }
+        return map;
+    }
+
+    private static Map<String, Object> productDataToMap(ProductData data) {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("type", data.getTypeString());
+        switch (data.getType()) {
+            case ProductData.TYPE_ASCII:
+                map.put("elems", data.toString());
+                break;
+            case ProductData.TYPE_INT8:
+            case ProductData.TYPE_UINT8:
+                map.put("elems", Base64Variants.getDefaultVariant().encode((byte[]) data.getElems()));
+                break;
+            default:
+                // primitive arrays are written as JSON arrays, like the lists they are read back as
+                map.put("elems", data.getElems());
+                break;
+        }
+        return map;
+    }
+
+    private static MetadataElement mapToMetadataElement(Object object) throws JsonProcessingException {
+        final Map<String, Object> map = toMap(object, "metadata element");
+        final MetadataElement element = new MetadataElement(String.valueOf(map.get("name")));
+        if (map.get("description") != null) {
+            element.setDescription(String.valueOf(map.get("description")));
+        }
+        if (map.get("attributes") != null) {
+            for (Object attributeObject : toList(map.get("attributes"), "attributes")) {
+                final Map<String, Object> attributeMap = toMap(attributeObject, "metadata attribute");
+                final Object readOnly = attributeMap.get("readOnly");
+                final ProductData data = mapToProductData(toMap(attributeMap.get("data"), "attribute data"));
+                final MetadataAttribute attribute = new MetadataAttribute(String.valueOf(attributeMap.get("name")), data,
+                                                                          Boolean.parseBoolean(String.valueOf(readOnly)));
+                if (attributeMap.get("unit") != null) {
+                    attribute.setUnit(String.valueOf(attributeMap.get("unit")));
+                }
+                if (attributeMap.get("description") != null) {
+                    attribute.setDescription(String.valueOf(attributeMap.get("description")));
+                }
+                element.addAttribute(attribute);
+            }
+        }
+        if (map.get("elements") != null) {
+            for (Object elementObject : toList(map.get("elements"), "elements")) {
+                element.addElement(mapToMetadataElement(elementObject));
+            }
+        }
+        return element;
+    }
+
+    private static ProductData mapToProductData(Map<String, Object> map) throws JsonProcessingException {
+        final int type = ProductData.getType(String.valueOf(map.get("type")));
+        final Object elems = map.get("elems");
+        final Object data;
+        switch (type) {
+            case ProductData.TYPE_ASCII:
+                data = String.valueOf(elems);
+                break;
+            case ProductData.TYPE_INT8:
+            case ProductData.TYPE_UINT8:
+                data = elems instanceof byte[] ? elems : Base64Variants.getDefaultVariant().decode(String.valueOf(elems));
+                break;
+            case ProductData.TYPE_INT16:
+            case ProductData.TYPE_UINT16:
+            case ProductData.TYPE_INT32:
+            case ProductData.TYPE_UINT32:
+            case ProductData.TYPE_UTC:
+            case ProductData.TYPE_INT64:
+            case ProductData.TYPE_FLOAT32:
+            case ProductData.TYPE_FLOAT64:
+                data = elems != null && elems.getClass().isArray() ? elems : toPrimitiveArray(type, toList(elems, "elems"));
+                break;
+            default:
+                data = null;
+        }
+        return ProductData.createInstance(type, data);
+    }
+
+    private static Object toPrimitiveArray(int type, List<?> values) {
+        final int n = values.size();
+        switch (type) {
+            case ProductData.TYPE_INT16:
+            case ProductData.TYPE_UINT16: {
+                final short[] array = new short[n];
+                for (int i = 0; i < n; i++) {
+                    array[i] = (short) toNumber(values.get(i)).longValue();
+                }
+                return array;
+            }
+            case ProductData.TYPE_INT64: {
+                final long[] array = new long[n];
+                for (int i = 0; i < n; i++) {
+                    array[i] = toNumber(values.get(i)).longValue();
+                }
+                return array;
+            }
+            case ProductData.TYPE_FLOAT32: {
+                final float[] array = new float[n];
+                for (int i = 0; i < n; i++) {
+                    array[i] = toNumber(values.get(i)).floatValue();
+                }
+                return array;
+            }
+            case ProductData.TYPE_FLOAT64: {
+                final double[] array = new double[n];
+                for (int i = 0; i < n; i++) {
+                    array[i] = toNumber(values.get(i)).doubleValue();
+                }
+                return array;
+            }
+            default: {
+                final int[] array = new int[n];
+                for (int i = 0; i < n; i++) {
+                    array[i] = (int) toNumber(values.get(i)).longValue();
+                }
+                return array;
+            }
+        }
+    }
+
+    private static Number toNumber(Object value) {
+        // non-numeric floating point values like NaN are written as strings
+        return value instanceof Number ? (Number) value : Double.valueOf(String.valueOf(value));
+    }
+
+    private static Map<String, Object> toMap(Object object, String what) throws JsonProcessingException {
+        if (!(object instanceof Map)) {
+            throw new JsonMappingException(null, "Object expected for " + what + ", but found: " + object);
+        }
+        return cast(object);
+    }
+
+    private static List<?> toList(Object object, String what) throws JsonProcessingException {
+        if (!(object instanceof List)) {
+            throw new JsonMappingException(null, "Array expected for " + what + ", but found: " + object);
+        }
+        return (List<?>) object;
+    }
+
+    private static void putNonEmptyString(Map<String, Object> map, String key, String string) {
+        if (string != null && string.trim().length() > 0) {
+            map.put(key, string.trim());
+        }
     }
 
     private static void writeNonEmptyStringField(JsonGenerator gen, String fieldName, String string) throws IOException {
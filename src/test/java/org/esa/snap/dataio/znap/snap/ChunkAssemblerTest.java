@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChunkAssemblerTest {
+
+    @Test
+    public void testLineStripsAreEmittedAsCompleteChunks() {
+        final ChunkAssembler assembler = new ChunkAssembler(new int[]{4, 4}, new int[]{2, 2}, short.class, null, 1024, 1024);
+
+        final List<ChunkAssembler.Chunk> first = assembler.write(new short[]{0, 1, 2, 3}, new int[]{1, 4}, new int[]{0, 0});
+        final List<ChunkAssembler.Chunk> second = assembler.write(new short[]{4, 5, 6, 7}, new int[]{1, 4}, new int[]{1, 0});
+
+        assertThat(first).isEmpty();
+        assertThat(second).hasSize(2);
+        assertThat(second.get(0).offset).containsExactly(0, 0);
+        assertThat(second.get(0).shape).containsExactly(2, 2);
+        assertThat((short[]) second.get(0).data).containsExactly(new short[]{0, 1, 4, 5});
+        assertThat(second.get(1).offset).containsExactly(0, 2);
+        assertThat((short[]) second.get(1).data).containsExactly(new short[]{2, 3, 6, 7});
+        assertThat(assembler.getPartialChunkCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testAlignedWriteIsEmittedImmediately() {
+        final ChunkAssembler assembler = new ChunkAssembler(new int[]{3, 3}, new int[]{2, 2}, int.class, null, 1024, 1024);
+
+        final List<ChunkAssembler.Chunk> chunks = assembler.write(new int[]{1, 2, 3, 4, 5, 6, 7, 8, 9},
+                                                                  new int[]{3, 3}, new int[]{0, 0});
+
+        assertThat(chunks).hasSize(4);
+        final ChunkAssembler.Chunk lastChunk = chunks.get(3);
+        assertThat(lastChunk.offset).containsExactly(2, 2);
+        assertThat(lastChunk.shape).containsExactly(1, 1);
+        assertThat((int[]) lastChunk.data).containsExactly(9);
+    }
+
+    @Test
+    public void testDrainFillsUnwrittenPixels() {
+        final ChunkAssembler assembler = new ChunkAssembler(new int[]{2, 2}, new int[]{2, 2}, float.class, -1.0f, 1024, 1024);
+
+        assembler.write(new float[]{3, 4}, new int[]{1, 2}, new int[]{1, 0});
+        final List<ChunkAssembler.Chunk> remaining = assembler.drain();
+
+        assertThat(remaining).hasSize(1);
+        assertThat((float[]) remaining.get(0).data).containsExactly(-1, -1, 3, 4);
+    }
+
+    @Test
+    public void testDrainedChunkWhichWasCompletedBeforeIsMergedWithStoredChunk() {
+        final ChunkAssembler assembler = new ChunkAssembler(new int[]{2, 2}, new int[]{2, 2}, short.class, (short) -1, 1024, 1024);
+
+        final List<ChunkAssembler.Chunk> stored = assembler.write(new short[]{1, 2, 3, 4}, new int[]{2, 2}, new int[]{0, 0});
+        assertThat(stored.get(0).written).isNull();
+        // the lower line is written again, the upper line must keep the stored pixels
+        assembler.write(new short[]{7, 8}, new int[]{1, 2}, new int[]{1, 0});
+        final List<ChunkAssembler.Chunk> remaining = assembler.drain();
+
+        assertThat(remaining).hasSize(1);
+        final ChunkAssembler.Chunk chunk = remaining.get(0);
+        assertThat(chunk.written).isNotNull();
+        chunk.mergeWith(stored.get(0).data);
+        assertThat((short[]) chunk.data).containsExactly(new short[]{1, 2, 7, 8});
+    }
+
+    @Test
+    public void testDrainedChunkWhichWasNeverCompletedIsNotMerged() {
+        final ChunkAssembler assembler = new ChunkAssembler(new int[]{2, 2}, new int[]{2, 2}, short.class, (short) -1, 1024, 1024);
+
+        assembler.write(new short[]{7, 8}, new int[]{1, 2}, new int[]{1, 0});
+        final List<ChunkAssembler.Chunk> remaining = assembler.drain();
+
+        assertThat(remaining.get(0).written).isNull();
+        assertThat((short[]) remaining.get(0).data).containsExactly(new short[]{-1, -1, 7, 8});
+    }
+
+    @Test
+    public void testPartialChunksSpillOffHeap() {
+        final ChunkAssembler assembler = new ChunkAssembler(new int[]{2, 8}, new int[]{2, 2}, double.class, 7.0, 32, 1024);
+
+        assembler.write(new double[]{0, 1, 2, 3, 4, 5, 6, 7}, new int[]{1, 8}, new int[]{0, 0});
+
+        assertThat(assembler.getPartialChunkCount()).isEqualTo(4);
+        assertThat(assembler.getOffHeapChunkCount()).isEqualTo(3);
+        final List<ChunkAssembler.Chunk> chunks = assembler.write(new double[]{10, 11, 12, 13, 14, 15, 16, 17},
+                                                                  new int[]{1, 8}, new int[]{1, 0});
+        assertThat(chunks).hasSize(4);
+        assertThat((double[]) chunks.get(3).data).containsExactly(6, 7, 16, 17);
+        assertThat(assembler.getOffHeapChunkCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testFullestOffHeapChunkIsFlushedIfOffHeapMemoryIsExhausted() {
+        // one chunk on the heap, one chunk off-heap
+        final ChunkAssembler assembler = new ChunkAssembler(new int[]{2, 6}, new int[]{2, 2}, short.class, (short) -1, 8, 8);
+
+        assertThat(assembler.write(new short[]{0, 1, 2}, new int[]{1, 3}, new int[]{0, 0})).isEmpty();
+        assertThat(assembler.getOffHeapChunkCount()).isEqualTo(1);
+
+        final List<ChunkAssembler.Chunk> flushed = assembler.write(new short[]{4, 5}, new int[]{1, 2}, new int[]{0, 4});
+        assertThat(flushed).hasSize(1);
+        assertThat(flushed.get(0).offset).containsExactly(0, 2);
+        assertThat(flushed.get(0).written).isNull();
+        assertThat((short[]) flushed.get(0).data).containsExactly(2, -1, -1, -1);
+        assertThat(assembler.getPartialChunkCount()).isEqualTo(2);
+        assertThat(assembler.getOffHeapChunkCount()).isEqualTo(1);
+
+        final List<ChunkAssembler.Chunk> next = assembler.write(new short[]{13}, new int[]{1, 1}, new int[]{1, 3});
+        assertThat(next).hasSize(1);
+        assertThat(next.get(0).offset).containsExactly(0, 4);
+        final List<ChunkAssembler.Chunk> remaining = assembler.drain();
+        final ChunkAssembler.Chunk merged = remaining.stream().filter(c -> c.offset[1] == 2).findFirst().get();
+        assertThat(merged.written).isNotNull();
+        merged.mergeWith(flushed.get(0).data);
+        assertThat((short[]) merged.data).containsExactly(2, -1, -1, 13);
+    }
+
+    @Test
+    public void testIsFilledWith() {
+        assertThat(ChunkAssembler.isFilledWith(new short[]{-1, -1}, -1L)).isTrue();
+        assertThat(ChunkAssembler.isFilledWith(new short[]{-1, 0}, -1L)).isFalse();
+        assertThat(ChunkAssembler.isFilledWith(new byte[]{(byte) 255}, 255L)).isTrue();
+        assertThat(ChunkAssembler.isFilledWith(new float[]{Float.NaN, Float.NaN}, Float.NaN)).isTrue();
+        assertThat(ChunkAssembler.isFilledWith(new float[]{Float.NaN, 0}, Float.NaN)).isFalse();
+        assertThat(ChunkAssembler.isFilledWith(new double[]{-0.0}, 0.0)).isFalse();
+        assertThat(ChunkAssembler.isFilledWith(new int[]{0}, null)).isFalse();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChunkCacheTest {
+
+    private ChunkCache cache;
+    private AtomicInteger loadCount;
+    private Object store;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new ChunkCache(100);
+        loadCount = new AtomicInteger();
+        store = new Object();
+    }
+
+    @Test
+    public void testThatCachedChunksAreNotLoadedTwice() throws IOException {
+        final Object first = cache.get(store, "band", new int[]{0, 0}, () -> load(10));
+        final Object second = cache.get(store, "band", new int[]{0, 0}, () -> load(10));
+
+        assertThat(second).isSameAs(first);
+        assertThat(loadCount.get()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getSizeInBytes()).isEqualTo(40);
+    }
+
+    @Test
+    public void testThatKeysDistinguishStoreArrayAndChunkIndex() throws IOException {
+        cache.get(store, "band", new int[]{0, 0}, () -> load(1));
+        cache.get(store, "band", new int[]{0, 1}, () -> load(1));
+        cache.get(store, "other", new int[]{0, 0}, () -> load(1));
+        cache.get(new Object(), "band", new int[]{0, 0}, () -> load(1));
+
+        assertThat(loadCount.get()).isEqualTo(4);
+        assertThat(cache.getChunkCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void testThatLeastRecentlyUsedChunksAreEvicted() throws IOException {
+        cache.get(store, "band", new int[]{0, 0}, () -> load(10)); // 40 bytes
+        cache.get(store, "band", new int[]{0, 1}, () -> load(10)); // 40 bytes
+        cache.get(store, "band", new int[]{0, 0}, () -> load(10)); // touch first chunk
+        cache.get(store, "band", new int[]{0, 2}, () -> load(10)); // exceeds budget
+
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+        assertThat(cache.getSizeInBytes()).isEqualTo(80);
+        assertThat(loadCount.get()).isEqualTo(3);
+
+        cache.get(store, "band", new int[]{0, 0}, () -> load(10));
+        assertThat(loadCount.get()).isEqualTo(3);
+        cache.get(store, "band", new int[]{0, 1}, () -> load(10));
+        assertThat(loadCount.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void testThatChunksLargerThanBudgetAreNotCached() throws IOException {
+        cache.get(store, "band", new int[]{0, 0}, () -> load(30));
+
+        assertThat(cache.getChunkCount()).isEqualTo(0);
+        assertThat(cache.getSizeInBytes()).isEqualTo(0);
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+        final Object otherStore = new Object();
+        cache.get(store, "band", new int[]{0, 0}, () -> load(5));
+        cache.get(otherStore, "band", new int[]{0, 0}, () -> load(5));
+
+        cache.invalidate(store);
+
+        assertThat(cache.getChunkCount()).isEqualTo(1);
+        assertThat(cache.getSizeInBytes()).isEqualTo(20);
+    }
+
+    @Test
+    public void testThatDisabledCacheAlwaysLoads() throws IOException {
+        final ChunkCache disabled = new ChunkCache(0);
+        disabled.get(store, "band", new int[]{0, 0}, () -> load(1));
+        disabled.get(store, "band", new int[]{0, 0}, () -> load(1));
+
+        assertThat(disabled.isEnabled()).isFalse();
+        assertThat(loadCount.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testCopyIntersection() {
+        final short[] chunk = {
+                0, 1, 2,
+                3, 4, 5
+        };
+        final short[] dest = new short[4];
+
+        ZarrOpImage.copyIntersection(chunk, new Rectangle(3, 2, 3, 2), dest, new Rectangle(4, 1, 2, 2));
+
+        assertThat(dest).containsExactly(new short[]{0, 0, 1, 2});
+    }
+
+    private Object load(int numElems) {
+        loadCount.incrementAndGet();
+        return new float[numElems];
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.offset;
+
+public class ChunkCodecsTest {
+
+    @Test
+    public void testBitshuffleRoundTrip() throws Exception {
+        final Map<String, Object> config = new LinkedHashMap<>();
+        config.put("id", ChunkCodecs.ID_BITSHUFFLE);
+        config.put("elementsize", 2);
+        final ChunkCodec filter = ChunkCodecs.filterFromConfig(config, "<i2");
+        // 19 elements, the last three do not fill a group of eight
+        final byte[] data = new byte[38];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 37 + 11);
+        }
+
+        final byte[] encoded = filter.encode(data);
+
+        assertThat(encoded).isNotEqualTo(data);
+        assertThat(encoded).endsWith(data[32], data[33], data[34], data[35], data[36], data[37]);
+        assertThat(filter.decode(encoded, data.length)).isEqualTo(data);
+    }
+
+    @Test
+    public void testBitshuffleGroupsBitsOfAllElements() throws Exception {
+        final Map<String, Object> config = new LinkedHashMap<>();
+        config.put("id", ChunkCodecs.ID_BITSHUFFLE);
+        final ChunkCodec filter = ChunkCodecs.filterFromConfig(config, "|u1");
+
+        final byte[] encoded = filter.encode(new byte[]{1, 1, 1, 1, 1, 1, 1, 1, 2, 0, 0, 0, 0, 0, 0, 0});
+
+        // the lowest bits of all 16 elements come first, followed by the second bits
+        assertThat(encoded).startsWith((byte) 0xff, (byte) 0x00, (byte) 0x00, (byte) 0x01);
+    }
+
+    @Test
+    public void testBitshuffleIsNotOfferedForWriting() {
+        assertThatThrownBy(() -> ChunkCodecs.createFilters("shuffle,bitshuffle", "<i2"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testFixedScaleOffsetRoundTrip() throws Exception {
+        final List<ChunkCodec> filters = ChunkCodecs.createFilters("fixedscaleoffset(scale=100;offset=20;astype=i2)", "<f4");
+        assertThat(filters).hasSize(1);
+        final ChunkCodec filter = filters.get(0);
+        final float[] values = {20.0f, 21.234f, -3.456f, 347.67f, 20.005f};
+        final ByteBuffer data = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (float value : values) {
+            data.putFloat(value);
+        }
+
+        final byte[] encoded = filter.encode(data.array());
+        final ByteBuffer decoded = ByteBuffer.wrap(filter.decode(encoded, data.capacity())).order(ByteOrder.LITTLE_ENDIAN);
+
+        assertThat(encoded).hasSize(values.length * 2);
+        assertThat(ByteBuffer.wrap(encoded).order(ByteOrder.LITTLE_ENDIAN).getShort(2)).isEqualTo((short) 123);
+        for (int i = 0; i < values.length; i++) {
+            assertThat(decoded.getFloat(i * 4)).isCloseTo(values[i], offset(0.005f));
+        }
+    }
+
+    @Test
+    public void testFixedScaleOffsetClampsToStorageRange() throws Exception {
+        final ChunkCodec filter = ChunkCodecs.createFilters("fixedscaleoffset(scale=10;offset=0;astype=u1)", "<f4").get(0);
+        final ByteBuffer data = ByteBuffer.allocate(3 * 4).order(ByteOrder.LITTLE_ENDIAN);
+        data.putFloat(-5.0f).putFloat(12.3f).putFloat(1000.0f);
+
+        final byte[] encoded = filter.encode(data.array());
+
+        assertThat(Byte.toUnsignedInt(encoded[0])).isEqualTo(0);
+        assertThat(Byte.toUnsignedInt(encoded[1])).isEqualTo(123);
+        assertThat(Byte.toUnsignedInt(encoded[2])).isEqualTo(255);
+        final ByteBuffer decoded = ByteBuffer.wrap(filter.decode(encoded, data.capacity())).order(ByteOrder.LITTLE_ENDIAN);
+        assertThat(decoded.getFloat(8)).isEqualTo(25.5f);
+    }
+
+    @Test
+    public void testFixedScaleOffsetRoundsHalfToEven() throws Exception {
+        final ChunkCodec filter = ChunkCodecs.createFilters("fixedscaleoffset(scale=1;offset=0;astype=i2)", "<f4").get(0);
+        final ByteBuffer data = ByteBuffer.allocate(3 * 4).order(ByteOrder.LITTLE_ENDIAN);
+        data.putFloat(0.5f).putFloat(1.5f).putFloat(-2.5f);
+
+        final ByteBuffer encoded = ByteBuffer.wrap(filter.encode(data.array())).order(ByteOrder.LITTLE_ENDIAN);
+
+        // numpy.around rounds half to even
+        assertThat(encoded.getShort(0)).isEqualTo((short) 0);
+        assertThat(encoded.getShort(2)).isEqualTo((short) 2);
+        assertThat(encoded.getShort(4)).isEqualTo((short) -2);
+    }
+
+    @Test
+    public void testFixedScaleOffsetEncodesNaNAsFillValue() throws Exception {
+        final ChunkCodecs.FixedScaleOffsetFilter filter = (ChunkCodecs.FixedScaleOffsetFilter)
+                ChunkCodecs.createFilters("fixedscaleoffset(scale=10;offset=0;astype=i2)", "<f4").get(0);
+        final ByteBuffer data = ByteBuffer.allocate(2 * 4).order(ByteOrder.LITTLE_ENDIAN);
+        data.putFloat(Float.NaN).putFloat(1.2f);
+
+        assertThatThrownBy(() -> filter.encode(data.array())).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> filter.setFillValue(Float.NaN)).isInstanceOf(IllegalArgumentException.class);
+
+        filter.setFillValue(-999.0f);
+        final ByteBuffer encoded = ByteBuffer.wrap(filter.encode(data.array())).order(ByteOrder.LITTLE_ENDIAN);
+
+        assertThat(encoded.getShort(0)).isEqualTo((short) -9990);
+        assertThat(encoded.getShort(2)).isEqualTo((short) 12);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ChunkShapePlannerTest {
+
+    private static final long TARGET_BYTES = 4L * 1024 * 1024;
+
+    @Test
+    public void testSmallTilesAreGrownInMultiplesOfTheTileSize() {
+        final ChunkShapePlanner planner = ChunkShapePlanner.create("auto", TARGET_BYTES, ChunkShapePlanner.AccessPattern.TILE);
+
+        assertThat(planner.plan(new int[]{10980, 10980}, new int[]{512, 512}, 4)).containsExactly(1024, 1024);
+        assertThat(planner.plan(new int[]{10980, 10980}, new int[]{512, 512}, 1)).containsExactly(2048, 2048);
+    }
+
+    @Test
+    public void testStripTilesBecomeBlocksOfFullWidth() {
+        final ChunkShapePlanner planner = ChunkShapePlanner.create("auto", TARGET_BYTES, ChunkShapePlanner.AccessPattern.TILE);
+
+        assertThat(planner.plan(new int[]{10980, 10980}, new int[]{16, 10980}, 2)).containsExactly(128, 10980);
+    }
+
+    @Test
+    public void testOversizedTilesAreShrunk() {
+        final ChunkShapePlanner planner = ChunkShapePlanner.create("auto", TARGET_BYTES, ChunkShapePlanner.AccessPattern.TILE);
+
+        final int[] chunks = planner.plan(new int[]{10980, 10980}, new int[]{10980, 10980}, 4);
+
+        assertThat((long) chunks[0] * chunks[1] * 4).isLessThanOrEqualTo(TARGET_BYTES);
+        assertThat(chunks).containsExactly(1373, 687);
+    }
+
+    @Test
+    public void testChunksNeverExceedTheArrayShape() {
+        final ChunkShapePlanner planner = ChunkShapePlanner.create("auto", TARGET_BYTES, ChunkShapePlanner.AccessPattern.TILE);
+
+        assertThat(planner.plan(new int[]{100, 300}, new int[]{512, 512}, 4)).containsExactly(100, 300);
+    }
+
+    @Test
+    public void testPixelAccessPlansSmallerChunks() {
+        final ChunkShapePlanner planner = ChunkShapePlanner.create("auto", TARGET_BYTES, ChunkShapePlanner.AccessPattern.PIXEL);
+
+        assertThat(planner.plan(new int[]{10980, 10980}, new int[]{512, 512}, 4)).containsExactly(256, 256);
+    }
+
+    @Test
+    public void testTileAndFixedModes() {
+        final ChunkShapePlanner tile = ChunkShapePlanner.create("tile", TARGET_BYTES, ChunkShapePlanner.AccessPattern.TILE);
+        final ChunkShapePlanner fixed = ChunkShapePlanner.create("2048x1024", TARGET_BYTES, ChunkShapePlanner.AccessPattern.TILE);
+
+        assertThat(tile.plan(new int[]{10980, 10980}, new int[]{512, 256}, 4)).containsExactly(512, 256);
+        assertThat(fixed.plan(new int[]{10980, 10980}, new int[]{512, 512}, 4)).containsExactly(1024, 2048);
+        assertThat(fixed.plan(new int[]{500, 10980}, new int[]{512, 512}, 4)).containsExactly(500, 2048);
+        assertThatThrownBy(() -> ChunkShapePlanner.create("large", TARGET_BYTES, ChunkShapePlanner.AccessPattern.TILE))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ChunkWritePipelineTest {
+
+    @Test
+    public void testFlushWaitsForAllTasks() throws Exception {
+        final ChunkWritePipeline pipeline = new ChunkWritePipeline(4, 8 * 1024);
+        final AtomicInteger count = new AtomicInteger();
+
+        for (int i = 0; i < 100; i++) {
+            pipeline.submit(1024, () -> {
+                sleep(1);
+                count.incrementAndGet();
+            });
+        }
+        pipeline.flush();
+
+        assertThat(count.get()).isEqualTo(100);
+        pipeline.close();
+    }
+
+    @Test
+    public void testErrorIsSurfacedOnFlush() throws Exception {
+        final ChunkWritePipeline pipeline = new ChunkWritePipeline(2, 1024 * 1024);
+
+        pipeline.submit(10, () -> {
+            throw new IOException("disk full");
+        });
+
+        assertThatThrownBy(pipeline::flush).isInstanceOf(IOException.class).hasMessage("disk full");
+        assertThatThrownBy(() -> pipeline.submit(10, () -> {
+        })).isInstanceOf(IOException.class);
+        assertThatThrownBy(pipeline::close).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void testSynchronousMode() throws Exception {
+        final ChunkWritePipeline pipeline = new ChunkWritePipeline(0, 1024);
+        final Thread caller = Thread.currentThread();
+        final Thread[] executing = new Thread[1];
+
+        pipeline.submit(4096, () -> executing[0] = Thread.currentThread());
+
+        assertThat(pipeline.isAsynchronous()).isFalse();
+        assertThat(executing[0]).isSameAs(caller);
+        pipeline.close();
+    }
+
+    @Test
+    public void testAbortStopsRunningAndQueuedTasks() throws Exception {
+        final ChunkWritePipeline pipeline = new ChunkWritePipeline(1, 1024 * 1024);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final AtomicBoolean queuedTaskRun = new AtomicBoolean();
+        pipeline.submit(10, () -> {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        pipeline.submit(10, () -> queuedTaskRun.set(true));
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+
+        pipeline.abort();
+
+        assertThat(interrupted.get()).isTrue();
+        assertThat(queuedTaskRun.get()).isFalse();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.zarr.ArrayParams;
+import com.bc.zarr.CompressorFactory;
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrArray;
+import com.bc.zarr.ZarrGroup;
+import com.bc.zarr.storage.FileSystemStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.esa.snap.core.util.io.TreeDeleter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CodecStoreTest {
+
+    private Path testPath;
+    private Path rootPath;
+
+    @Before
+    public void setUp() throws Exception {
+        testPath = Files.createTempDirectory("codec-store-test");
+        rootPath = testPath.resolve("product.znap");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TreeDeleter.deleteDir(testPath);
+    }
+
+    @Test
+    public void testWriteAndReadZstd() throws Exception {
+        assertRoundTrip(ChunkCodecs.ID_ZSTD);
+    }
+
+    @Test
+    public void testWriteAndReadLz4() throws Exception {
+        assertRoundTrip(ChunkCodecs.ID_LZ4);
+    }
+
+    @Test
+    public void testWriteAndReadWithFilters() throws Exception {
+        final Map<?, ?> header = assertRoundTrip(arrayHeader -> new CodecPipeline(
+                ChunkCodecs.createFilters("delta,shuffle", (String) arrayHeader.get("dtype")),
+                ChunkCodecs.createCompressor(ChunkCodecs.ID_ZLIB, 5), CodecPipeline.getChunkByteSize(arrayHeader)));
+
+        final List<?> filters = (List<?>) header.get("filters");
+        assertThat(filters).hasSize(2);
+        assertThat(((Map<?, ?>) filters.get(0)).get("id")).isEqualTo("delta");
+        assertThat(((Map<?, ?>) filters.get(1)).get("id")).isEqualTo("shuffle");
+        assertThat(((Map<?, ?>) header.get("compressor")).get("id")).isEqualTo("zlib");
+    }
+
+    @Test
+    public void testWriteAndReadSharded() throws Exception {
+        final CodecStore writeStore = new CodecStore(new FileSystemStore(rootPath), header -> null, header -> new ShardLayout(
+                new int[]{50, 60}, new int[]{10, 10}, new int[]{2, 4}, ShardLayout.INDEX_LOCATION_START));
+        final ZarrArray array = ZarrGroup.create(writeStore).createArray("band", new ArrayParams()
+                .shape(50, 60).chunks(10, 10).dataType(DataType.i2).fillValue(-1)
+                .compressor(CompressorFactory.create("zlib", "level", 1)));
+        final short[] data = new short[50 * 50];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short) (i % 100);
+        }
+        // leaves the last chunk column unwritten
+        array.write(data, new int[]{50, 50}, new int[]{0, 0});
+        writeStore.delete("band/4.5");
+        assertThat(rootPath.resolve("band").resolve("0.0")).exists();
+        assertThat(rootPath.resolve("band").resolve("2.1")).exists();
+        assertThat(rootPath.resolve("band").resolve("0.1")).doesNotExist();
+        writeStore.flush();
+
+        final Map<?, ?> header = new ObjectMapper().readValue(rootPath.resolve("band").resolve(".zarray").toFile(), Map.class);
+        assertThat((List<?>) header.get("chunks")).containsExactly(20, 40);
+        assertThat(((Map<?, ?>) header.get("compressor")).get("id")).isEqualTo(ShardLayout.CODEC_ID);
+        try (Stream<Path> files = Files.list(rootPath.resolve("band"))) {
+            assertThat(files.map(f -> f.getFileName().toString()).filter(f -> !f.startsWith(".")).collect(Collectors.toList()))
+                    .containsExactlyInAnyOrder("0.0", "0.1", "1.0", "1.1", "2.0", "2.1");
+        }
+
+        final CodecStore readStore = new CodecStore(new FileSystemStore(rootPath));
+        final ZarrArray readArray = ZarrGroup.open(readStore).openArray("band");
+        assertThat(readArray.getChunks()).containsExactly(10, 10);
+        final short[] read = (short[]) readArray.read(new int[]{50, 60}, new int[]{0, 0});
+        for (int y = 0; y < 50; y++) {
+            for (int x = 0; x < 50; x++) {
+                assertThat(read[y * 60 + x]).isEqualTo(data[y * 50 + x]);
+            }
+            assertThat(read[y * 60 + 55]).isEqualTo((short) -1);
+        }
+        try (Stream<String> keys = readStore.getRelativeLeafKeys("band")) {
+            final List<String> keyList = keys.collect(Collectors.toList());
+            assertThat(keyList).contains(".zarray", "0.0", "0.5", "4.5");
+            assertThat(keyList.stream().filter(k -> !k.startsWith("."))).hasSize(30);
+        }
+    }
+
+    @Test
+    public void testIncompleteShardsAreStoredWhenExceedingLimit() throws Exception {
+        final CodecStore writeStore = new CodecStore(new FileSystemStore(rootPath), header -> null, header -> new ShardLayout(
+                new int[]{50, 60}, new int[]{10, 10}, new int[]{5, 2}, ShardLayout.INDEX_LOCATION_END), 1000);
+        final ZarrArray array = ZarrGroup.create(writeStore).createArray("band", new ArrayParams()
+                .shape(50, 60).chunks(10, 10).dataType(DataType.i2).fillValue(-1)
+                .compressor(CompressorFactory.create("null")));
+        final short[] data = new short[50 * 60];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short) i;
+        }
+        // row by row, every chunk row adds to all three shards
+        for (int y = 0; y < 50; y += 10) {
+            final short[] row = new short[10 * 60];
+            System.arraycopy(data, y * 60, row, 0, row.length);
+            array.write(row, new int[]{10, 60}, new int[]{y, 0});
+            assertThat(writeStore.getPendingShardBytes()).isLessThanOrEqualTo(1000);
+        }
+        writeStore.flush();
+        assertThat(writeStore.getPendingShardBytes()).isEqualTo(0);
+
+        final ZarrArray readArray = ZarrGroup.open(new CodecStore(new FileSystemStore(rootPath))).openArray("band");
+        final short[] read = (short[]) readArray.read(new int[]{50, 60}, new int[]{0, 0});
+        assertThat(read).containsExactly(data);
+    }
+
+    private void assertRoundTrip(String compressorId) throws Exception {
+        final Map<?, ?> header = assertRoundTrip(arrayHeader -> new CodecPipeline(
+                Collections.emptyList(), ChunkCodecs.createCompressor(compressorId), CodecPipeline.getChunkByteSize(arrayHeader)));
+        assertThat(((Map<?, ?>) header.get("compressor")).get("id")).isEqualTo(compressorId);
+    }
+
+    private Map<?, ?> assertRoundTrip(Function<Map<String, Object>, CodecPipeline> pipelineFactory) throws Exception {
+        final CodecStore writeStore = new CodecStore(new FileSystemStore(rootPath), pipelineFactory);
+        final ZarrArray array = ZarrGroup.create(writeStore).createArray("band", new ArrayParams()
+                .shape(40, 60).chunks(20, 30).dataType(DataType.i2).fillValue(0)
+                .compressor(CompressorFactory.create("null")));
+        final short[] data = new short[40 * 60];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short) (i % 100);
+        }
+        array.write(data, new int[]{40, 60}, new int[]{0, 0});
+
+        final Map<?, ?> header = new ObjectMapper().readValue(rootPath.resolve("band").resolve(".zarray").toFile(), Map.class);
+        assertThat(Files.size(rootPath.resolve("band").resolve("0.0"))).isLessThan(20 * 30 * 2);
+
+        final ZarrArray readArray = ZarrGroup.open(new CodecStore(new FileSystemStore(rootPath))).openArray("band");
+        final short[] read = (short[]) readArray.read(new int[]{40, 60}, new int[]{0, 0});
+        assertThat(read).containsExactly(data);
+        return header;
+    }
+}
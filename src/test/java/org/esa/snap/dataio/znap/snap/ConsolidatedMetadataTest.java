@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.zarr.ArrayParams;
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrGroup;
+import com.bc.zarr.storage.FileSystemStore;
+import org.esa.snap.core.util.io.TreeDeleter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConsolidatedMetadataTest {
+
+    private Path testPath;
+    private FileSystemStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        testPath = Files.createTempDirectory("consolidated-metadata-test");
+        store = new FileSystemStore(testPath.resolve("product.znap"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+        TreeDeleter.deleteDir(testPath);
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        final ZarrGroup group = ZarrGroup.create(store);
+        final Map<String, Object> bandAttributes = new HashMap<>();
+        bandAttributes.put("units", "mW");
+        group.createArray("band_1", new ArrayParams().shape(20, 30).chunks(10, 15).dataType(DataType.i2), bandAttributes);
+        group.createArray("band_1/1", new ArrayParams().shape(10, 15).chunks(10, 15).dataType(DataType.i2));
+        group.writeAttributes(Collections.singletonMap("product_name", "test"));
+
+        ConsolidatedMetadata.write(store);
+        final ConsolidatedMetadata metadata = ConsolidatedMetadata.read(store);
+
+        assertThat(metadata).isNotNull();
+        assertThat(metadata.getGroupAttributes()).containsEntry("product_name", "test");
+        assertThat(metadata.getArrayKeys()).containsExactly("band_1", "band_1/1");
+        assertThat(metadata.getShape("band_1")).containsExactly(20, 30);
+        assertThat(metadata.getChunks("band_1")).containsExactly(10, 15);
+        assertThat(metadata.getDataType("band_1")).isEqualTo(DataType.i2);
+        assertThat(metadata.getArrayAttributes("band_1")).containsEntry("units", "mW");
+    }
+
+    @Test
+    public void testReadWithoutConsolidatedMetadata() throws Exception {
+        ZarrGroup.create(store);
+
+        assertThat(ConsolidatedMetadata.read(store)).isNull();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.zarr.ArrayParams;
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrArray;
+import com.bc.zarr.ZarrGroup;
+import com.bc.zarr.storage.ZipStore;
+import org.esa.snap.core.util.io.TreeDeleter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IndexedZipStoreTest {
+
+    private Path testPath;
+
+    @Before
+    public void setUp() throws Exception {
+        testPath = Files.createTempDirectory("indexed-zip-store-test");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TreeDeleter.deleteDir(testPath);
+    }
+
+    @Test
+    public void testReadArrayWrittenByZipStore() throws Exception {
+        final Path zipPath = testPath.resolve("product.znap.zip");
+        try (ZipStore zipStore = new ZipStore(zipPath)) {
+            final ZarrGroup group = ZarrGroup.create(zipStore);
+            final ZarrArray array = group.createArray("band", new ArrayParams().shape(4, 6).chunks(2, 3).dataType(DataType.i2));
+            final short[] data = new short[24];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (short) i;
+            }
+            array.write(data, new int[]{4, 6}, new int[]{0, 0});
+        }
+
+        try (IndexedZipStore store = new IndexedZipStore(zipPath)) {
+            assertThat(store.getArrayKeys()).containsExactly("band");
+            assertThat(store.getInputStream("band/not_existing")).isNull();
+
+            final ZarrArray array = ZarrGroup.open(store).openArray("band");
+            final short[] read = (short[]) array.read(new int[]{2, 3}, new int[]{1, 2});
+            assertThat(read).containsExactly(new short[]{8, 9, 10, 14, 15, 16});
+        }
+    }
+
+    @Test
+    public void testReadStoredAndDeflatedEntries() throws Exception {
+        final byte[] content = new byte[100000];
+        new Random(42).nextBytes(content);
+        final Path zipPath = testPath.resolve("entries.zip");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zipPath))) {
+            final ZipEntry stored = new ZipEntry("stored/0.0");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(content.length);
+            final CRC32 crc = new CRC32();
+            crc.update(content);
+            stored.setCrc(crc.getValue());
+            zos.putNextEntry(stored);
+            zos.write(content);
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry("deflated/0.0"));
+            zos.write(content);
+            zos.closeEntry();
+            zos.setComment("archive comment");
+        }
+
+        try (IndexedZipStore store = new IndexedZipStore(zipPath)) {
+            assertThat(store.getKeysEndingWith("0.0")).containsExactly("deflated/0.0", "stored/0.0");
+            assertThat(readFully(store.getInputStream("stored/0.0"), content.length)).isEqualTo(content);
+            assertThat(readFully(store.getInputStream("/deflated/0.0"), content.length)).isEqualTo(content);
+        }
+    }
+
+    private static byte[] readFully(InputStream inputStream, int length) throws Exception {
+        try (DataInputStream dis = new DataInputStream(inputStream)) {
+            final byte[] bytes = new byte[length];
+            dis.readFully(bytes);
+            assertThat(dis.read()).isEqualTo(-1);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.zarr.storage.FileSystemStore;
+import org.esa.snap.core.datamodel.MetadataAttribute;
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.util.io.TreeDeleter;
+import org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants;
+import org.esa.snap.runtime.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.prefs.Preferences;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LazyMetadataProductTest {
+
+    private Path testPath;
+
+    @Before
+    public void setUp() throws Exception {
+        Config.instance("snap").load().preferences().put(ZnapPreferencesConstants.PROPERTY_NAME_USE_ZIP_ARCHIVE, "false");
+        testPath = Files.createTempDirectory("lazy-metadata");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TreeDeleter.deleteDir(testPath);
+    }
+
+    @Test
+    public void testMetadataIsLoadedOnceOnFirstAccess() {
+        final LazyMetadataProduct product = new LazyMetadataProduct("test", "type", 10, 10, null);
+        product.setModified(false);
+        final AtomicInteger loads = new AtomicInteger();
+        product.setMetadataLoader(() -> {
+            loads.incrementAndGet();
+            return new MetadataElement[]{new MetadataElement("header")};
+        });
+        assertThat(product.isMetadataLoaded()).isFalse();
+        assertThat(loads.get()).isEqualTo(0);
+
+        assertThat(product.getMetadataRoot().getElement("header")).isNotNull();
+        assertThat(product.getMetadataRoot().getNumElements()).isEqualTo(1);
+
+        assertThat(product.isMetadataLoaded()).isTrue();
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(product.isModified()).isFalse();
+    }
+
+    @Test
+    public void testFailingLoaderIsRemembered() {
+        final LazyMetadataProduct product = new LazyMetadataProduct("test", "type", 10, 10, null);
+        final AtomicInteger loads = new AtomicInteger();
+        product.setMetadataLoader(() -> {
+            loads.incrementAndGet();
+            throw new IOException("store closed");
+        });
+
+        assertThat(product.getMetadataRoot().getNumElements()).isEqualTo(0);
+        assertThat(product.getMetadataRoot().getNumElements()).isEqualTo(0);
+
+        assertThat(product.isMetadataLoaded()).isTrue();
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(product.getMetadataLoadFailure()).hasMessage("store closed");
+    }
+
+    @Test
+    public void testConcurrentAccessWaitsForCompleteMetadata() throws Exception {
+        final LazyMetadataProduct product = new LazyMetadataProduct("test", "type", 10, 10, null);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        product.setMetadataLoader(() -> {
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return new MetadataElement[]{new MetadataElement("a"), new MetadataElement("b")};
+        });
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<Integer> first = executor.submit(() -> product.getMetadataRoot().getNumElements());
+            assertThat(loading.await(10, TimeUnit.SECONDS)).isTrue();
+            final Future<Integer> second = executor.submit(() -> product.getMetadataRoot().getNumElements());
+            Thread.sleep(100);
+            assertThat(second.isDone()).isFalse();
+
+            release.countDown();
+
+            assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo(2);
+            assertThat(second.get(10, TimeUnit.SECONDS)).isEqualTo(2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMetadataIsWrittenSeparatelyAndReadOnFirstAccess() throws Exception {
+        final Preferences preferences = Config.instance("snap").load().preferences();
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_WRITER_SEPARATE_METADATA, "true");
+        try {
+            final Path rootPath = testPath.resolve("product.znap");
+            new ZarrProductWriter(new ZarrProductWriterPlugIn()).writeProductNodes(createProduct(), rootPath);
+
+            assertThat(rootPath.resolve(ZnapConstantsAndUtils.FILENAME_DOT_PRODUCT_METADATA)).exists();
+            final Map<String, Object> attributes = ConsolidatedMetadata.read(new FileSystemStore(rootPath)).getGroupAttributes();
+            assertThat(attributes).doesNotContainKey(ZnapConstantsAndUtils.ATT_NAME_PRODUCT_METADATA);
+            assertThat(attributes).containsEntry(ZnapConstantsAndUtils.ATT_NAME_PRODUCT_METADATA_KEY,
+                                                 ZnapConstantsAndUtils.FILENAME_DOT_PRODUCT_METADATA);
+            assertReadMetadata(rootPath);
+        } finally {
+            preferences.remove(ZnapPreferencesConstants.PROPERTY_NAME_WRITER_SEPARATE_METADATA);
+        }
+    }
+
+    @Test
+    public void testMetadataInGroupAttributesIsReadOnFirstAccess() throws Exception {
+        // the metadata is written into the group attributes by default
+        final Path rootPath = testPath.resolve("product.znap");
+        new ZarrProductWriter(new ZarrProductWriterPlugIn()).writeProductNodes(createProduct(), rootPath);
+
+        assertThat(rootPath.resolve(ZnapConstantsAndUtils.FILENAME_DOT_PRODUCT_METADATA)).doesNotExist();
+        assertReadMetadata(rootPath);
+    }
+
+    private static Product createProduct() {
+        final Product product = new Product("test", "type", 10, 10);
+        final MetadataElement header = new MetadataElement("header");
+        header.addAttribute(new MetadataAttribute("orbit", ProductData.createInstance(new int[]{4711}), true));
+        product.getMetadataRoot().addElement(header);
+        return product;
+    }
+
+    private static void assertReadMetadata(Path rootPath) throws IOException {
+        final Product readProduct = new ZarrProductReader(new ZarrProductReaderPlugIn()).readProductNodes(rootPath, null);
+        try {
+            assertThat(readProduct).isInstanceOf(LazyMetadataProduct.class);
+            assertThat(((LazyMetadataProduct) readProduct).isMetadataLoaded()).isFalse();
+
+            final MetadataElement header = readProduct.getMetadataRoot().getElement("header");
+            assertThat(header).isNotNull();
+            assertThat(header.getAttributeInt("orbit")).isEqualTo(4711);
+            assertThat(readProduct.isModified()).isFalse();
+        } finally {
+            readProduct.dispose();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.esa.snap.core.datamodel.ProductData;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class Log10ScalingTest {
+
+    @Test
+    public void testApply() {
+        final Log10Scaling scaling = new Log10Scaling(0.1, -2.0);
+        assertApply(scaling, ProductData.createInstance(new float[]{0.0f, 10.0f, 25.0f}));
+        assertApply(scaling, ProductData.createInstance(new double[]{0.0, 10.0, 25.0}));
+        assertApply(scaling, ProductData.createInstance(new short[]{-20, 0, 25}));
+        assertApply(scaling, ProductData.createInstance(new int[]{-20, 0, 25}));
+        assertApply(scaling, ProductData.createUnsignedInstance(new short[]{(short) 40000, 0, 25}));
+        assertApply(scaling, ProductData.createInstance(new byte[]{-128, 0, 127}));
+        assertApply(scaling, ProductData.createUnsignedInstance(new byte[]{(byte) 200, 0, 25}));
+    }
+
+    private static void assertApply(Log10Scaling scaling, ProductData raw) {
+        final float[] dest = new float[raw.getNumElems()];
+        scaling.apply(raw, dest);
+        for (int i = 0; i < dest.length; i++) {
+            final double expected = Math.pow(10.0, raw.getElemDoubleAt(i) * 0.1 - 2.0);
+            assertThat((double) dest[i]).isCloseTo(expected, within(expected * 1e-6));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.zarr.ArrayParams;
+import com.bc.zarr.CompressorFactory;
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrArray;
+import com.bc.zarr.ZarrGroup;
+import com.bc.zarr.storage.FileSystemStore;
+import org.esa.snap.core.util.io.TreeDeleter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MappedChunkReaderTest {
+
+    private Path testPath;
+    private Path rootPath;
+    private ZarrGroup group;
+
+    @Before
+    public void setUp() throws Exception {
+        testPath = Files.createTempDirectory("mapped-chunk-reader-test");
+        rootPath = testPath.resolve("product.znap");
+        group = ZarrGroup.create(new FileSystemStore(rootPath));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TreeDeleter.deleteDir(testPath);
+    }
+
+    @Test
+    public void testReadUncompressedChunks() throws Exception {
+        final ZarrArray array = group.createArray("band", new ArrayParams()
+                .shape(3, 4).chunks(2, 2).dataType(DataType.i4).fillValue(-1)
+                .compressor(CompressorFactory.create("null")));
+        // only the upper chunk row is written
+        array.write(new int[]{0, 1, 2, 3, 4, 5, 6, 7}, new int[]{2, 4}, new int[]{0, 0});
+
+        final MappedChunkReader reader = MappedChunkReader.create(rootPath.resolve("band"));
+        assertThat(reader).isNotNull();
+
+        final int[] dest = new int[12];
+        final Rectangle destRect = new Rectangle(0, 0, 4, 3);
+        reader.read(0, 0, new Rectangle(0, 0, 2, 2), dest, destRect);
+        reader.read(0, 1, new Rectangle(2, 0, 2, 2), dest, destRect);
+        reader.read(1, 0, new Rectangle(0, 2, 2, 1), dest, destRect);
+        reader.read(1, 1, new Rectangle(2, 2, 2, 1), dest, destRect);
+
+        assertThat(dest).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, -1, -1, -1, -1);
+    }
+
+    @Test
+    public void testMappingsOfLargeChunksAreReused() throws Exception {
+        final int size = 512;
+        final ZarrArray array = group.createArray("band", new ArrayParams()
+                .shape(size, size).chunks(size, size).dataType(DataType.i4)
+                .compressor(CompressorFactory.create("null")));
+        final int[] data = new int[size * size];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i;
+        }
+        array.write(data, new int[]{size, size}, new int[]{0, 0});
+
+        final MappedChunkReader reader = MappedChunkReader.create(rootPath.resolve("band"));
+        assertThat(reader).isNotNull();
+
+        final Rectangle chunkRect = new Rectangle(0, 0, size, size);
+        final int[] dest1 = new int[4];
+        reader.read(0, 0, chunkRect, dest1, new Rectangle(10, 20, 2, 2));
+        final int[] dest2 = new int[4];
+        reader.read(0, 0, chunkRect, dest2, new Rectangle(100, 200, 2, 2));
+
+        assertThat(reader.getCachedMappingCount()).isEqualTo(1);
+        assertThat(dest1).containsExactly(20 * size + 10, 20 * size + 11, 21 * size + 10, 21 * size + 11);
+        assertThat(dest2).containsExactly(200 * size + 100, 200 * size + 101, 201 * size + 100, 201 * size + 101);
+    }
+
+    @Test
+    public void testSmallChunksAreNotMapped() throws Exception {
+        final ZarrArray array = group.createArray("band", new ArrayParams()
+                .shape(2, 2).chunks(2, 2).dataType(DataType.i2)
+                .compressor(CompressorFactory.create("null")));
+        array.write(new short[]{1, 2, 3, 4}, new int[]{2, 2}, new int[]{0, 0});
+
+        final MappedChunkReader reader = MappedChunkReader.create(rootPath.resolve("band"));
+        final short[] dest = new short[4];
+        reader.read(0, 0, new Rectangle(0, 0, 2, 2), dest, new Rectangle(0, 0, 2, 2));
+
+        assertThat(reader.getCachedMappingCount()).isEqualTo(0);
+        assertThat(dest).containsExactly((short) 1, (short) 2, (short) 3, (short) 4);
+    }
+
+    @Test
+    public void testCompressedArrayIsNotSupported() throws Exception {
+        group.createArray("band", new ArrayParams()
+                .shape(4, 4).chunks(2, 2).dataType(DataType.f4)
+                .compressor(CompressorFactory.create("zlib", "level", 1)));
+
+        assertThat(MappedChunkReader.create(rootPath.resolve("band"))).isNull();
+    }
+}
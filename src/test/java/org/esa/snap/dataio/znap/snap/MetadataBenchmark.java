@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.listToMetadata;
+import static org.esa.snap.dataio.znap.snap.ZnapConstantsAndUtils.metadataToList;
+
+/**
+ * Measures the conversion of the product metadata to the attribute lists stored in the zarr group and back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetadataBenchmark {
+
+    @Param({"10", "1000"})
+    public int numElements;
+
+    @Param({"20"})
+    public int numAttributes;
+
+    private MetadataElement[] elements;
+    private List<Map<String, Object>> list;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        elements = new MetadataElement[numElements];
+        for (int i = 0; i < numElements; i++) {
+            elements[i] = ZarrBenchmarks.createMetadataElement("element_" + i, numAttributes);
+        }
+        list = metadataToList(elements);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> metadataToListBenchmark() throws Exception {
+        return metadataToList(elements);
+    }
+
+    @Benchmark
+    public MetadataElement[] listToMetadataBenchmark() throws Exception {
+        return listToMetadata(list);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.zarr.ArrayParams;
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrArray;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class OverviewWriterTest {
+
+    private ZarrArray level1;
+    private ZarrArray level2;
+
+    @Before
+    public void setUp() throws Exception {
+        level1 = ZarrArray.create(new ArrayParams().shape(2, 2).chunks(2, 2).dataType(DataType.u1));
+        level2 = ZarrArray.create(new ArrayParams().shape(1, 1).chunks(1, 1).dataType(DataType.u1));
+    }
+
+    @Test
+    public void testMean_withUnsignedData() throws Exception {
+        final OverviewWriter writer = createWriter(OverviewWriter.Aggregation.MEAN, null);
+
+        writer.write(new byte[]{
+                (byte) 200, (byte) 202, 10, 10,
+                (byte) 200, (byte) 202, 20, 20,
+                1, 1, 5, 7,
+                3, 3, 5, 7
+        }, new int[]{4, 4}, new int[]{0, 0});
+
+        assertThat((byte[]) level1.read()).containsExactly(new byte[]{(byte) 201, 15, 2, 6});
+        assertThat((byte[]) level2.read()).containsExactly(new byte[]{56});
+    }
+
+    @Test
+    public void testLevelWritesAreRecordedToLevelMetrics() throws Exception {
+        final OverviewWriter writer = createWriter(OverviewWriter.Aggregation.MEAN, null);
+        final WriteMetrics productMetrics = new WriteMetrics(null);
+        final WriteMetrics[] levelMetrics = {new WriteMetrics(productMetrics, "band/1"), new WriteMetrics(productMetrics, "band/2")};
+        writer.recordTo(levelMetrics);
+
+        writer.write(new byte[16], new int[]{4, 4}, new int[]{0, 0});
+
+        assertThat(levelMetrics[0].getChunksWritten()).isEqualTo(1);
+        assertThat(levelMetrics[0].getRawBytes()).isEqualTo(4);
+        assertThat(levelMetrics[1].getChunksWritten()).isEqualTo(1);
+        assertThat(levelMetrics[1].getRawBytes()).isEqualTo(1);
+        assertThat(productMetrics.getChunksWritten()).isEqualTo(2);
+    }
+
+    @Test
+    public void testMean_ignoresNoDataValue() throws Exception {
+        final OverviewWriter writer = createWriter(OverviewWriter.Aggregation.MEAN, 0);
+
+        writer.write(new byte[]{
+                0, 4, 0, 0,
+                0, 0, 0, 0
+        }, new int[]{2, 4}, new int[]{0, 0});
+        writer.flush();
+
+        final byte[] data = (byte[]) level1.read();
+        assertThat(data[0]).isEqualTo((byte) 4);
+        assertThat(data[1]).isEqualTo((byte) 0);
+    }
+
+    @Test
+    public void testNearest() throws Exception {
+        final OverviewWriter writer = createWriter(OverviewWriter.Aggregation.NEAREST, null);
+
+        writer.write(new byte[]{
+                1, 2, 4, 8,
+                16, 32, 64, 1,
+                2, 4, 8, 16,
+                32, 64, 1, 2
+        }, new int[]{4, 4}, new int[]{0, 0});
+
+        assertThat((byte[]) level1.read()).containsExactly(new byte[]{1, 4, 2, 8});
+        assertThat((byte[]) level2.read()).containsExactly(new byte[]{1});
+    }
+
+    @Test
+    public void testMode_withTwoTiles() throws Exception {
+        final OverviewWriter writer = new OverviewWriter(new ZarrArray[]{level1}, new int[]{4, 4}, DataType.u1,
+                                                         OverviewWriter.Aggregation.MODE, null);
+
+        writer.write(new byte[]{
+                3, 3, 5, 6,
+                3, 1, 6, 6
+        }, new int[]{2, 4}, new int[]{0, 0});
+        writer.write(new byte[]{
+                7, 7, 2, 2,
+                7, 9, 2, 4
+        }, new int[]{2, 4}, new int[]{2, 0});
+
+        assertThat((byte[]) level1.read()).containsExactly(new byte[]{3, 6, 7, 2});
+    }
+
+    @Test
+    public void testChunkIsWrittenOnceAllTilesAreAggregated() throws Exception {
+        final OverviewWriter writer = new OverviewWriter(new ZarrArray[]{level1}, new int[]{4, 4}, DataType.u1,
+                                                         OverviewWriter.Aggregation.MEAN, null);
+        final WriteMetrics[] levelMetrics = {new WriteMetrics(null)};
+        writer.recordTo(levelMetrics);
+
+        writer.write(new byte[]{
+                2, 4, 6, 8,
+                2, 4, 6, 8
+        }, new int[]{2, 4}, new int[]{0, 0});
+
+        assertThat(levelMetrics[0].getChunksWritten()).isEqualTo(0);
+        assertThat((byte[]) level1.read()).containsExactly(new byte[]{0, 0, 0, 0});
+
+        writer.write(new byte[]{
+                1, 1, 3, 3,
+                1, 1, 3, 3
+        }, new int[]{2, 4}, new int[]{2, 0});
+
+        assertThat(levelMetrics[0].getChunksWritten()).isEqualTo(1);
+        assertThat((byte[]) level1.read()).containsExactly(new byte[]{3, 7, 1, 3});
+    }
+
+    @Test
+    public void testFlush_mergesIncompleteChunksWithStoredChunks() throws Exception {
+        final OverviewWriter writer = new OverviewWriter(new ZarrArray[]{level1}, new int[]{4, 4}, DataType.u1,
+                                                         OverviewWriter.Aggregation.MEAN, null);
+        level1.write(new byte[]{9, 9, 9, 9}, new int[]{2, 2}, new int[]{0, 0});
+
+        writer.write(new byte[]{
+                2, 4, 6, 8,
+                2, 4, 6, 8
+        }, new int[]{2, 4}, new int[]{0, 0});
+        writer.flush();
+
+        assertThat((byte[]) level1.read()).containsExactly(new byte[]{3, 7, 9, 9});
+    }
+
+    @Test
+    public void testWrite_rejectsUnalignedTiles() {
+        final OverviewWriter writer = createWriter(OverviewWriter.Aggregation.MEAN, null);
+
+        assertThatThrownBy(() -> writer.write(new byte[8], new int[]{2, 4}, new int[]{2, 0}))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private OverviewWriter createWriter(OverviewWriter.Aggregation aggregation, Number noDataValue) {
+        return new OverviewWriter(new ZarrArray[]{level1, level2}, new int[]{4, 4}, DataType.u1, aggregation, noDataValue);
+    }
+}
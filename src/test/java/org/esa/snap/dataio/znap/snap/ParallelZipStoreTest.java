@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.esa.snap.core.util.io.TreeDeleter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ParallelZipStoreTest {
+
+    private Path testPath;
+    private Path zipPath;
+
+    @Before
+    public void setUp() throws Exception {
+        testPath = Files.createTempDirectory("parallel-zip-store-test");
+        zipPath = testPath.resolve("product.znap.zip");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TreeDeleter.deleteDir(testPath);
+    }
+
+    @Test
+    public void testConcurrentlyWrittenEntriesAreValid() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (ParallelZipStore store = new ParallelZipStore(zipPath, true)) {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                final int index = i;
+                futures.add(executor.submit(() -> {
+                    write(store, "band/" + index / 10 + "." + index % 10, createContent(index));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            write(store, ".zgroup", "{}".getBytes(StandardCharsets.UTF_8));
+        } finally {
+            executor.shutdown();
+        }
+
+        // the zip input stream verifies the checksums of all entries
+        int entryCount = 0;
+        try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(zipPath))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.getName().startsWith("band/")) {
+                    final String[] indices = entry.getName().substring(5).split("\\.");
+                    final int index = Integer.parseInt(indices[0]) * 10 + Integer.parseInt(indices[1]);
+                    assertThat(readAll(zis)).isEqualTo(createContent(index));
+                }
+                entryCount++;
+            }
+        }
+        assertThat(entryCount).isEqualTo(41);
+    }
+
+    @Test
+    public void testStoredEntriesAndOverwrite() throws Exception {
+        try (ParallelZipStore store = new ParallelZipStore(zipPath, false)) {
+            write(store, "band/.zattrs", "{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+            write(store, "band/.zarray", "{}".getBytes(StandardCharsets.UTF_8));
+            write(store, "band/.zattrs", "{\"a\":2}".getBytes(StandardCharsets.UTF_8));
+
+            assertThat(store.getArrayKeys()).containsExactly("band");
+            try (InputStream is = store.getInputStream("band/.zattrs")) {
+                assertThat(new String(readAll(is), StandardCharsets.UTF_8)).isEqualTo("{\"a\":2}");
+            }
+        }
+
+        try (ZipFile zipFile = new ZipFile(zipPath.toFile())) {
+            assertThat(zipFile.size()).isEqualTo(2);
+            final ZipEntry entry = zipFile.getEntry("band/.zattrs");
+            assertThat(entry.getMethod()).isEqualTo(ZipEntry.STORED);
+            try (InputStream is = zipFile.getInputStream(entry)) {
+                assertThat(new String(readAll(is), StandardCharsets.UTF_8)).isEqualTo("{\"a\":2}");
+            }
+        }
+    }
+
+    private static byte[] createContent(int index) {
+        final byte[] content = new byte[1000 + index];
+        Arrays.fill(content, (byte) index);
+        return content;
+    }
+
+    private static void write(ParallelZipStore store, String key, byte[] content) throws Exception {
+        try (OutputStream os = store.getOutputStream(key)) {
+            os.write(content);
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int n;
+        while ((n = is.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
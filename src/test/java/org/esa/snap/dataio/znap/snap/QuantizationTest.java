@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.zarr.DataType;
+import org.esa.snap.core.datamodel.ProductData;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+public class QuantizationTest {
+
+    @Test
+    public void testParse() {
+        assertThat(Quantization.parse(null)).isNull();
+        assertThat(Quantization.parse(" none ")).isNull();
+        assertThat(Quantization.parse("bitround(keepbits=7)")).isInstanceOf(Quantization.BitRound.class);
+        assertThat(Quantization.parse("int16(scale=0.01; offset=20)")).isInstanceOf(Quantization.Int16Packing.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalid() {
+        Quantization.parse("int16(offset=20)");
+    }
+
+    @Test
+    public void testBitRound() {
+        // 1.0f + 2^-10 keeps its value with 10 bits and is rounded to even with fewer bits
+        final float value = 1.0f + 1.0f / 1024;
+        assertThat(Quantization.BitRound.round(value, 10)).isEqualTo(value);
+        assertThat(Quantization.BitRound.round(value, 9)).isEqualTo(1.0f);
+        assertThat(Quantization.BitRound.round(1.0f + 3.0f / 1024, 9)).isEqualTo(1.0f + 4.0f / 1024);
+        assertThat(Quantization.BitRound.round(Float.NaN, 3)).isNaN();
+        assertThat(Quantization.BitRound.round(3.14159265358979, 20)).isCloseTo(3.14159265358979, offset(1e-5));
+
+        final Quantization quantization = Quantization.parse("bitround(keepbits=4)");
+        final ProductData data = ProductData.createInstance(new float[]{0.1f, 1234.5678f});
+        final ProductData rounded = quantization.apply(data, null);
+        assertThat(rounded.getElemFloatAt(0)).isEqualTo(0.1015625f);
+        assertThat(rounded.getElemFloatAt(1)).isEqualTo(1216.0f);
+        assertThat(data.getElemFloatAt(0)).isEqualTo(0.1f);
+
+        final ProductData withNoData = quantization.apply(ProductData.createInstance(new float[]{-9999.0f, Float.NaN}), -9999.0);
+        assertThat(withNoData.getElemFloatAt(0)).isEqualTo(-9999.0f);
+        assertThat(withNoData.getElemFloatAt(1)).isNaN();
+
+        final Map<String, Object> attributes = new HashMap<>();
+        quantization.collectAttributes(attributes);
+        assertThat(attributes).containsEntry("quantization", "bitround(keepbits=4)")
+                .containsEntry(Quantization.ATT_NAME_BITROUND_BITS, 4);
+    }
+
+    @Test
+    public void testInt16Packing() {
+        final Quantization quantization = Quantization.parse("int16(scale=0.5;offset=100)");
+        assertThat(quantization.getDataType(DataType.f4)).isEqualTo(DataType.i2);
+        assertThat(quantization.getFillValue(Float.NaN)).isEqualTo(Short.MIN_VALUE);
+
+        final ProductData data = ProductData.createInstance(new float[]{100.0f, 110.26f, Float.NaN, -9999.0f, 1e9f});
+        final ProductData packed = quantization.apply(data, -9999.0);
+
+        assertThat(packed.getType()).isEqualTo(ProductData.TYPE_INT16);
+        assertThat((short[]) packed.getElems()).containsExactly(new short[]{0, 21, Short.MIN_VALUE, Short.MIN_VALUE, Short.MIN_VALUE});
+
+        final Map<String, Object> attributes = new HashMap<>();
+        quantization.collectAttributes(attributes);
+        assertThat(attributes).containsEntry("scale_factor", 0.5)
+                .containsEntry("add_offset", 100.0)
+                .containsEntry("_FillValue", (long) Short.MIN_VALUE);
+    }
+}
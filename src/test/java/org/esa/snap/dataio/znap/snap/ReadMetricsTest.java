@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.ceres.core.ProgressMonitor;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.util.io.TreeDeleter;
+import org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants;
+import org.esa.snap.runtime.Config;
+import org.junit.Assume;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.prefs.Preferences;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReadMetricsTest {
+
+    @Test
+    public void testBandMetricsAreRecordedToProductMetrics() {
+        final ReadMetrics productMetrics = new ReadMetrics(null);
+        final ReadMetrics bandMetrics = new ReadMetrics(productMetrics);
+
+        bandMetrics.recordChunks(2, 800, 3000000);
+        bandMetrics.recordStoredBytes(200);
+        bandMetrics.recordCacheAccess(true);
+        bandMetrics.recordCacheAccess(false);
+        bandMetrics.recordTile(5000000);
+
+        for (ReadMetrics metrics : new ReadMetrics[]{bandMetrics, productMetrics}) {
+            assertThat(metrics.getChunksRead()).isEqualTo(2);
+            assertThat(metrics.getDecodedBytes()).isEqualTo(800);
+            assertThat(metrics.getStoredBytesRead()).isEqualTo(200);
+            assertThat(metrics.getCompressionRatio()).isEqualTo(4.0);
+            assertThat(metrics.getDecodeTimeMillis()).isEqualTo(3);
+            assertThat(metrics.getCacheHits()).isEqualTo(1);
+            assertThat(metrics.getCacheMisses()).isEqualTo(1);
+            assertThat(metrics.getTilesComputed()).isEqualTo(1);
+        }
+
+        bandMetrics.reset();
+        assertThat(bandMetrics.getChunksRead()).isEqualTo(0);
+        assertThat(productMetrics.getChunksRead()).isEqualTo(2);
+    }
+
+    @Test
+    public void testReadsAreEmittedAsFlightRecorderEvents() throws Exception {
+        Assume.assumeTrue(MetricsEvents.isAvailable());
+        final ReadMetrics bandMetrics = new ReadMetrics(new ReadMetrics(null), "band_1");
+        final Path recordingPath = Files.createTempFile("read-metrics", ".jfr");
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable("org.esa.snap.dataio.znap.TileRead");
+                recording.enable("org.esa.snap.dataio.znap.ChunksRead");
+                recording.start();
+                bandMetrics.recordChunks(2, 800, 3000000);
+                bandMetrics.recordTile(5000000);
+                recording.stop();
+                recording.dump(recordingPath);
+            }
+
+            final List<RecordedEvent> events = RecordingFile.readAllEvents(recordingPath);
+            assertThat(events).hasSize(2);
+            final RecordedEvent chunksEvent = events.stream()
+                    .filter(e -> e.getEventType().getName().endsWith("ChunksRead")).findFirst().orElseThrow(AssertionError::new);
+            assertThat(chunksEvent.getString("arrayKey")).isEqualTo("band_1");
+            assertThat(chunksEvent.getInt("numChunks")).isEqualTo(2);
+            assertThat(chunksEvent.getLong("decodedBytes")).isEqualTo(800);
+            assertThat(chunksEvent.getDuration("elapsed").toNanos()).isEqualTo(3000000);
+        } finally {
+            Files.delete(recordingPath);
+        }
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        final ReadMetrics.LatencyHistogram histogram = new ReadMetrics.LatencyHistogram();
+        assertThat(histogram.getPercentileMillis(0.5)).isNaN();
+
+        for (int i = 0; i < 98; i++) {
+            histogram.record(3000); // 3 µs
+        }
+        histogram.record(1000000); // 1000 µs
+        histogram.record(100000000); // 100000 µs
+
+        assertThat(histogram.getCounts()[2]).isEqualTo(98);
+        assertThat(histogram.getCounts()[10]).isEqualTo(1);
+        assertThat(histogram.getCounts()[17]).isEqualTo(1);
+        assertThat(histogram.getPercentileMillis(0.5)).isEqualTo(0.004);
+        assertThat(histogram.getPercentileMillis(0.99)).isEqualTo(1.024);
+        assertThat(histogram.getPercentileMillis(1.0)).isEqualTo(131.072);
+    }
+
+    @Test
+    public void testRegisterAndUnregister() throws Exception {
+        final ReadMetrics metrics = new ReadMetrics(null);
+        metrics.recordChunks(1, 10, 1000);
+
+        final ObjectName name = MetricsMBeans.register(metrics, ReadMetricsMBean.class, "ReadMetrics",
+                                                       MetricsMBeans.nextProductId(), "a product", "band_1");
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertThat(name).isNotNull();
+            assertThat(name.getDomain()).isEqualTo(MetricsMBeans.DOMAIN);
+            assertThat(server.getAttribute(name, "ChunksRead")).isEqualTo(1L);
+        } finally {
+            MetricsMBeans.unregister(name);
+        }
+        assertThat(server.isRegistered(name)).isFalse();
+    }
+
+    @Test
+    public void testReaderRecordsReads() throws Exception {
+        final Preferences preferences = Config.instance("snap").load().preferences();
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_USE_ZIP_ARCHIVE, "false");
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_COMPRESSOR_ID, "zlib");
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_READER_METRICS, "true");
+        final Path testPath = Files.createTempDirectory("read-metrics");
+        try {
+            final Product product = new Product("test", "type", 40, 30);
+            final Band band = product.addBand("band", ProductData.TYPE_INT16);
+            final short[] data = new short[40 * 30];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (short) (i % 7 + 1);
+            }
+            band.setRasterData(ProductData.createInstance(data));
+            final Path rootPath = testPath.resolve("product.znap");
+            final ZarrProductWriter writer = new ZarrProductWriter(new ZarrProductWriterPlugIn());
+            writer.writeProductNodes(product, rootPath);
+            writer.writeBandRasterData(band, 0, 0, 40, 30, band.getRasterData(), ProgressMonitor.NULL);
+            writer.close();
+
+            final ZarrProductReader reader = new ZarrProductReader(new ZarrProductReaderPlugIn());
+            final Product readProduct = reader.readProductNodes(rootPath, null);
+            try {
+                readProduct.getBand("band").getSourceImage().getData();
+
+                final ReadMetrics metrics = reader.getReadMetrics();
+                assertThat(metrics.getTilesComputed()).isGreaterThan(0);
+                assertThat(metrics.getChunksRead()).isGreaterThan(0);
+                assertThat(metrics.getDecodedBytes()).isEqualTo(40 * 30 * 2);
+                assertThat(metrics.getStoredBytesRead()).isGreaterThan(0).isLessThan(40 * 30 * 2);
+            } finally {
+                readProduct.dispose();
+            }
+        } finally {
+            preferences.remove(ZnapPreferencesConstants.PROPERTY_NAME_READER_METRICS);
+            preferences.remove(ZnapPreferencesConstants.PROPERTY_NAME_COMPRESSOR_ID);
+            TreeDeleter.deleteDir(testPath);
+        }
+    }
+}
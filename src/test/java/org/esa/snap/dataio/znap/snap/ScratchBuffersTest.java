@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.esa.snap.core.datamodel.ProductData;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ScratchBuffersTest {
+
+    @Test
+    public void testReleasedBufferIsReused() {
+        final Object buffer = ScratchBuffers.acquire(ProductData.TYPE_UINT16, 12);
+        assertThat(buffer).isInstanceOf(short[].class);
+        assertThat((short[]) buffer).hasSize(12);
+
+        ScratchBuffers.release(buffer);
+
+        assertThat(ScratchBuffers.acquire(ProductData.TYPE_INT16, 12)).isSameAs(buffer);
+    }
+
+    @Test
+    public void testNestedAcquireReturnsDistinctBuffers() {
+        final Object outer = ScratchBuffers.acquire(ProductData.TYPE_FLOAT32, 7);
+        final Object inner = ScratchBuffers.acquire(ProductData.TYPE_FLOAT32, 7);
+
+        assertThat(inner).isNotSameAs(outer);
+        ScratchBuffers.release(inner);
+        ScratchBuffers.release(outer);
+    }
+
+    @Test
+    public void testBuffersAreKeyedByTypeAndSize() {
+        final Object buffer = ScratchBuffers.acquire(ProductData.TYPE_INT32, 5);
+        ScratchBuffers.release(buffer);
+
+        assertThat(ScratchBuffers.acquire(ProductData.TYPE_INT32, 6)).isNotSameAs(buffer);
+        assertThat(ScratchBuffers.acquire(ProductData.TYPE_FLOAT32, 5)).isInstanceOf(float[].class);
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        final Object first = ScratchBuffers.acquire(ProductData.TYPE_FLOAT64, 1);
+        ScratchBuffers.release(first);
+        for (int i = 0; i < ScratchBuffers.MAX_BUFFERS_PER_THREAD; i++) {
+            ScratchBuffers.release(new double[2 + i]);
+        }
+
+        assertThat(ScratchBuffers.acquire(ProductData.TYPE_FLOAT64, 1)).isNotSameAs(first);
+    }
+
+    @Test
+    public void testPooledBytesAreBounded() {
+        final int numElems = (int) (ScratchBuffers.MAX_POOLED_BUFFER_BYTES / 4);
+        for (int i = 0; i < ScratchBuffers.MAX_BUFFERS_PER_THREAD; i++) {
+            ScratchBuffers.release(new int[numElems - i]);
+        }
+
+        assertThat(ScratchBuffers.getPooledBytes()).isLessThanOrEqualTo(ScratchBuffers.MAX_BYTES_PER_THREAD);
+    }
+
+    @Test
+    public void testLargeBuffersAreNotPooled() {
+        final int numElems = (int) (ScratchBuffers.MAX_POOLED_BUFFER_BYTES / 4) + 1;
+        final Object buffer = ScratchBuffers.acquire(ProductData.TYPE_FLOAT32, numElems);
+
+        ScratchBuffers.release(buffer);
+
+        assertThat(ScratchBuffers.acquire(ProductData.TYPE_FLOAT32, numElems)).isNotSameAs(buffer);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ShardLayoutTest {
+
+    @Test
+    public void testCrc32c() {
+        assertThat(ShardLayout.crc32c("123456789".getBytes(StandardCharsets.US_ASCII))).isEqualTo(0xE3069283);
+    }
+
+    @Test
+    public void testShardGeometry() {
+        final ShardLayout layout = new ShardLayout(new int[]{50, 60}, new int[]{10, 10}, new int[]{2, 4},
+                                                   ShardLayout.INDEX_LOCATION_END);
+
+        assertThat(layout.getShardShape()).containsExactly(20, 40);
+        assertThat(layout.getShardIndex(new int[]{3, 5})).containsExactly(1, 1);
+        assertThat(layout.getPositionInShard(new int[]{3, 5})).isEqualTo(5);
+        assertThat(layout.getChunkCount(new int[]{0, 0})).isEqualTo(8);
+        assertThat(layout.getChunkCount(new int[]{2, 1})).isEqualTo(2);
+        assertThat(layout.getChunkIndices(new int[]{2, 1})).containsExactly(new int[]{4, 4}, new int[]{4, 5});
+        assertThat(layout.isInShardGrid(new int[]{3, 0})).isFalse();
+    }
+
+    @Test
+    public void testEncodeAndDecodeIndex() throws IOException {
+        for (String location : new String[]{ShardLayout.INDEX_LOCATION_START, ShardLayout.INDEX_LOCATION_END}) {
+            final ShardLayout layout = new ShardLayout(new int[]{4}, new int[]{2}, new int[]{2}, location);
+            final byte[] shard = layout.encodeShard(new byte[][]{null, {1, 2, 3}});
+
+            assertThat(shard).hasSize(3 + layout.getIndexSize());
+            final byte[] indexBytes = new byte[layout.getIndexSize()];
+            final int indexPos = layout.isIndexAtStart() ? 0 : 3;
+            System.arraycopy(shard, indexPos, indexBytes, 0, indexBytes.length);
+            final long[] index = layout.decodeIndex(indexBytes);
+            assertThat(index[0]).isEqualTo(-1L);
+            assertThat(index[1]).isEqualTo(-1L);
+            assertThat(shard[(int) index[2]]).isEqualTo((byte) 1);
+            assertThat(index[3]).isEqualTo(3);
+            indexBytes[0]++;
+            assertThatThrownBy(() -> layout.decodeIndex(indexBytes)).isInstanceOf(IOException.class);
+        }
+        assertThat(new ShardLayout(new int[]{4}, new int[]{2}, new int[]{2}, ShardLayout.INDEX_LOCATION_END)
+                           .encodeShard(new byte[2][])).isNull();
+    }
+
+    @Test
+    public void testParseKey() {
+        assertThat(ShardLayout.parseKey("3.14")).containsExactly(3, 14);
+        assertThat(ShardLayout.parseKey(".zarray")).isNull();
+        assertThat(ShardLayout.toKey(new int[]{3, 14})).isEqualTo("3.14");
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.ceres.core.ProgressMonitor;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.util.io.TreeDeleter;
+import org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants;
+import org.esa.snap.runtime.Config;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.prefs.Preferences;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WriteMetricsTest {
+
+    @Test
+    public void testBandMetricsAreRecordedToProductMetrics() {
+        final WriteMetrics productMetrics = new WriteMetrics(null);
+        final WriteMetrics bandMetrics = new WriteMetrics(productMetrics);
+
+        bandMetrics.recordTile();
+        bandMetrics.recordChunk(1000, 5000000, false);
+        bandMetrics.recordChunk(1000, 1000000, true);
+        bandMetrics.recordStoredBytes(250, 2000000);
+        bandMetrics.recordQueueWait(3000000);
+
+        for (WriteMetrics metrics : new WriteMetrics[]{bandMetrics, productMetrics}) {
+            assertThat(metrics.getTilesWritten()).isEqualTo(1);
+            assertThat(metrics.getChunksWritten()).isEqualTo(1);
+            assertThat(metrics.getFillChunksSkipped()).isEqualTo(1);
+            assertThat(metrics.getRawBytes()).isEqualTo(1000);
+            assertThat(metrics.getStoredBytesWritten()).isEqualTo(250);
+            assertThat(metrics.getCompressionRatio()).isEqualTo(4.0);
+            assertThat(metrics.getChunkWriteTimeMillis()).isEqualTo(6);
+            assertThat(metrics.getStoreWriteTimeMillis()).isEqualTo(2);
+            assertThat(metrics.getCompressionTimeMillis()).isEqualTo(4);
+            assertThat(metrics.getQueueWaits()).isEqualTo(1);
+            assertThat(metrics.getQueueWaitTimeMillis()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    public void testFlushedShardBytesAreNotPartOfTheStoreWriteTime() {
+        final WriteMetrics productMetrics = new WriteMetrics(null);
+        final WriteMetrics bandMetrics = new WriteMetrics(productMetrics, "band");
+
+        bandMetrics.recordChunk(1000, 5000000, false);
+        bandMetrics.recordStoredBytes(100, 1000000);
+        bandMetrics.recordFlushedBytes(300, 2000000);
+
+        for (WriteMetrics metrics : new WriteMetrics[]{bandMetrics, productMetrics}) {
+            assertThat(metrics.getStoredBytesWritten()).isEqualTo(400);
+            assertThat(metrics.getStoreWriteTimeMillis()).isEqualTo(1);
+            assertThat(metrics.getShardFlushTimeMillis()).isEqualTo(2);
+            assertThat(metrics.getCompressionTimeMillis()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    public void testWritesAreEmittedAsFlightRecorderEvents() throws Exception {
+        Assume.assumeTrue(MetricsEvents.isAvailable());
+        final WriteMetrics bandMetrics = new WriteMetrics(new WriteMetrics(null), "band_1");
+        final Path recordingPath = Files.createTempFile("write-metrics", ".jfr");
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable("org.esa.snap.dataio.znap.ChunkWritten");
+                recording.enable("org.esa.snap.dataio.znap.ShardFlushed");
+                recording.start();
+                bandMetrics.recordChunk(600, 3000000, true);
+                bandMetrics.recordFlushedBytes(200, 2000000);
+                recording.stop();
+                recording.dump(recordingPath);
+            }
+
+            final List<RecordedEvent> events = RecordingFile.readAllEvents(recordingPath);
+            assertThat(events).hasSize(2);
+            final RecordedEvent chunkEvent = events.stream()
+                    .filter(e -> e.getEventType().getName().endsWith("ChunkWritten")).findFirst().orElseThrow(AssertionError::new);
+            assertThat(chunkEvent.getString("arrayKey")).isEqualTo("band_1");
+            assertThat(chunkEvent.getLong("rawBytes")).isEqualTo(600);
+            assertThat(chunkEvent.getBoolean("skipped")).isTrue();
+            final RecordedEvent flushEvent = events.stream()
+                    .filter(e -> e.getEventType().getName().endsWith("ShardFlushed")).findFirst().orElseThrow(AssertionError::new);
+            assertThat(flushEvent.getLong("storedBytes")).isEqualTo(200);
+            assertThat(flushEvent.getDuration("elapsed").toNanos()).isEqualTo(2000000);
+        } finally {
+            Files.delete(recordingPath);
+        }
+    }
+
+    @Test
+    public void testPipelineRecordsQueueWaits() throws Exception {
+        final WriteMetrics metrics = new WriteMetrics(null);
+        final ChunkWritePipeline pipeline = new ChunkWritePipeline(1, 1024, metrics);
+        final CountDownLatch release = new CountDownLatch(1);
+        pipeline.submit(1024, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        final Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            release.countDown();
+        });
+        releaser.start();
+
+        pipeline.submit(1024, () -> {
+        });
+        pipeline.close();
+
+        assertThat(metrics.getQueueWaits()).isEqualTo(1);
+        assertThat(metrics.getQueueWaitTimeMillis()).isGreaterThan(0);
+    }
+
+    @Test
+    public void testWriterRecordsWrites() throws Exception {
+        final Preferences preferences = Config.instance("snap").load().preferences();
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_USE_ZIP_ARCHIVE, "false");
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_COMPRESSOR_ID, "zlib");
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_CHUNK_SHAPE, "20x15");
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_WRITER_METRICS, "true");
+        final Path testPath = Files.createTempDirectory("write-metrics");
+        try {
+            final Product product = new Product("test", "type", 40, 30);
+            final Band band = product.addBand("band", ProductData.TYPE_INT16);
+            final short[] data = new short[40 * 30];
+            for (int i = 0; i < data.length; i++) {
+                // the lower half consists of fill values
+                data[i] = (short) (i < data.length / 2 ? i % 7 + 1 : 0);
+            }
+            band.setRasterData(ProductData.createInstance(data));
+            final ZarrProductWriter writer = new ZarrProductWriter(new ZarrProductWriterPlugIn());
+            writer.writeProductNodes(product, testPath.resolve("product.znap"));
+            writer.writeBandRasterData(band, 0, 0, 40, 15, ProductData.createInstance(Arrays.copyOfRange(data, 0, 600)),
+                                       ProgressMonitor.NULL);
+            writer.writeBandRasterData(band, 0, 15, 40, 15, ProductData.createInstance(Arrays.copyOfRange(data, 600, 1200)),
+                                       ProgressMonitor.NULL);
+            final WriteMetrics metrics = writer.getWriteMetrics();
+            writer.close();
+
+            assertThat(metrics.getTilesWritten()).isEqualTo(2);
+            assertThat(metrics.getChunksWritten()).isEqualTo(2);
+            assertThat(metrics.getFillChunksSkipped()).isEqualTo(2);
+            assertThat(metrics.getRawBytes()).isEqualTo(20 * 15 * 2 * 2);
+            assertThat(metrics.getStoredBytesWritten()).isGreaterThan(0).isLessThan(20 * 15 * 2 * 2);
+        } finally {
+            preferences.remove(ZnapPreferencesConstants.PROPERTY_NAME_WRITER_METRICS);
+            preferences.remove(ZnapPreferencesConstants.PROPERTY_NAME_CHUNK_SHAPE);
+            preferences.remove(ZnapPreferencesConstants.PROPERTY_NAME_COMPRESSOR_ID);
+            TreeDeleter.deleteDir(testPath);
+        }
+    }
+}
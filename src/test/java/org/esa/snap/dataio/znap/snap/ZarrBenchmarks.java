@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.core.datamodel.PinDescriptor;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.esa.snap.core.datamodel.Placemark;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.util.io.TreeDeleter;
+import org.esa.snap.runtime.Config;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.prefs.Preferences;
+
+import static org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants.*;
+
+/**
+ * Synthetic products and writer settings shared by the JMH benchmarks of this package.
+ * The benchmarks are run by the {@code benchmark} maven profile, e.g.
+ * {@code mvn -Pbenchmark test -DskipTests -Dbenchmark.args="ZarrOpImageBenchmark -f 1"}.
+ */
+final class ZarrBenchmarks {
+
+    static final int TILE_SIZE = 512;
+
+    private ZarrBenchmarks() {
+    }
+
+    /**
+     * Sets the writer preferences used by the benchmarks. The products are written to plain directories,
+     * so that the chunks can be read by memory mapping if they are uncompressed.
+     *
+     * @param compressorId the compressor id, e.g. {@code "null"} or {@code "zstd"}
+     * @param chunkShape   the chunk shape, e.g. {@code "256x256"}
+     */
+    static void configureWriter(String compressorId, String chunkShape) {
+        final Preferences preferences = Config.instance("snap").load().preferences();
+        preferences.put(PROPERTY_NAME_USE_ZIP_ARCHIVE, "false");
+        preferences.put(PROPERTY_NAME_COMPRESSOR_ID, compressorId);
+        preferences.put(PROPERTY_NAME_CHUNK_SHAPE, chunkShape);
+    }
+
+    static void setUseZipArchive(boolean useZipArchive) {
+        Config.instance("snap").load().preferences().put(PROPERTY_NAME_USE_ZIP_ARCHIVE, String.valueOf(useZipArchive));
+    }
+
+    /**
+     * Creates a product whose bands hold smooth gradients with pseudo random noise, which compress
+     * similar to real measurements rather than to constant or random data.
+     */
+    static Product createProduct(int width, int height, int numBands, String dataTypeName) {
+        final int dataType = ProductData.getType(dataTypeName);
+        final Product product = new Product("benchmark", "synthetic", width, height);
+        product.setPreferredTileSize(new Dimension(TILE_SIZE, TILE_SIZE));
+        long seed = 42;
+        for (int b = 0; b < numBands; b++) {
+            final Band band = product.addBand("band_" + b, dataType);
+            final ProductData data = ProductData.createInstance(dataType, width * height);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    seed = seed * 6364136223846793005L + 1442695040888963407L;
+                    final int noise = (int) (seed >>> 60);
+                    data.setElemIntAt(y * width + x, ((x + y + b * 100) >> 3) % 1000 + noise);
+                }
+            }
+            band.setRasterData(data);
+        }
+        return product;
+    }
+
+    static void addMetadata(Product product, int numElements, int numAttributes) {
+        final MetadataElement root = product.getMetadataRoot();
+        for (int e = 0; e < numElements; e++) {
+            root.addElement(createMetadataElement("element_" + e, numAttributes));
+        }
+    }
+
+    static MetadataElement createMetadataElement(String name, int numAttributes) {
+        final MetadataElement element = new MetadataElement(name);
+        for (int a = 0; a < numAttributes; a++) {
+            switch (a % 3) {
+                case 0:
+                    element.setAttributeString("string_" + a, "value of attribute " + a);
+                    break;
+                case 1:
+                    element.setAttributeInt("int_" + a, a);
+                    break;
+                default:
+                    element.setAttributeDouble("double_" + a, a * 0.5);
+            }
+        }
+        final MetadataElement child = new MetadataElement("child");
+        child.setAttributeString("parent", name);
+        element.addElement(child);
+        return element;
+    }
+
+    static void addPins(Product product, int numPins) {
+        final PinDescriptor pinDescriptor = PinDescriptor.getInstance();
+        for (int i = 0; i < numPins; i++) {
+            final PixelPos pixelPos = new PixelPos(i % product.getSceneRasterWidth() + 0.5,
+                                                   i / product.getSceneRasterWidth() % product.getSceneRasterHeight() + 0.5);
+            product.getPinGroup().add(Placemark.createPointPlacemark(
+                    pinDescriptor, "pin_" + i, "Pin " + i, "Text of pin " + i, pixelPos, null, null));
+        }
+    }
+
+    /**
+     * A band tile with its pixels already extracted from the raster data, so that the writer benchmarks
+     * do not measure the extraction.
+     */
+    static final class Tile {
+        final Band band;
+        final Rectangle rect;
+        final ProductData data;
+
+        private Tile(Band band, Rectangle rect, ProductData data) {
+            this.band = band;
+            this.rect = rect;
+            this.data = data;
+        }
+    }
+
+    static List<Tile> createTiles(Product product) {
+        final List<Tile> tiles = new ArrayList<>();
+        for (Band band : product.getBands()) {
+            final ProductData raster = band.getRasterData();
+            final int width = band.getRasterWidth();
+            for (int y = 0; y < band.getRasterHeight(); y += TILE_SIZE) {
+                for (int x = 0; x < width; x += TILE_SIZE) {
+                    final Rectangle rect = new Rectangle(x, y, Math.min(TILE_SIZE, width - x),
+                                                         Math.min(TILE_SIZE, band.getRasterHeight() - y));
+                    final ProductData data = ProductData.createInstance(band.getDataType(), rect.width * rect.height);
+                    for (int line = 0; line < rect.height; line++) {
+                        System.arraycopy(raster.getElems(), (rect.y + line) * width + rect.x,
+                                         data.getElems(), line * rect.width, rect.width);
+                    }
+                    tiles.add(new Tile(band, rect, data));
+                }
+            }
+        }
+        return tiles;
+    }
+
+    static void writeProduct(Product product, List<Tile> tiles, Path rootPath) throws IOException {
+        final ZarrProductWriter writer = new ZarrProductWriter(new ZarrProductWriterPlugIn());
+        writer.writeProductNodes(product, rootPath);
+        for (Tile tile : tiles) {
+            writer.writeBandRasterData(tile.band, tile.rect.x, tile.rect.y, tile.rect.width, tile.rect.height,
+                                       tile.data, ProgressMonitor.NULL);
+        }
+        writer.close();
+    }
+
+    static void deleteDir(Path dir) throws IOException {
+        if (dir != null) {
+            TreeDeleter.deleteDir(dir);
+        }
+    }
+}
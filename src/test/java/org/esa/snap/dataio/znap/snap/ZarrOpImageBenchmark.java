@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.esa.snap.core.datamodel.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of computing a single tile of a band image. The cold case clears the chunk cache
+ * before each invocation, so that all chunks of the tile are read and decoded from the store,
+ * the warm case reads the chunks from the chunk cache. The JAI tile cache is bypassed in both cases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZarrOpImageBenchmark {
+
+    @Param({"int16", "float32"})
+    public String dataType;
+
+    @Param({"null", "zlib", "zstd", "blosc"})
+    public String compressor;
+
+    @Param({"256x256", "512x512"})
+    public String chunkShape;
+
+    private Path testPath;
+    private Product product;
+    private ZarrOpImage image;
+    private Rectangle tileRect;
+    private WritableRaster tile;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        ZarrBenchmarks.configureWriter(compressor, chunkShape);
+        testPath = Files.createTempDirectory("op-image-benchmark");
+        final Path rootPath = testPath.resolve("product.znap");
+        final Product source = ZarrBenchmarks.createProduct(2048, 2048, 1, dataType);
+        ZarrBenchmarks.writeProduct(source, ZarrBenchmarks.createTiles(source), rootPath);
+        source.dispose();
+        product = new ZarrProductReader(new ZarrProductReaderPlugIn()).readProductNodes(rootPath, null);
+        image = (ZarrOpImage) product.getBandAt(0).getSourceImage().getImage(0);
+        tileRect = new Rectangle(ZarrBenchmarks.TILE_SIZE, ZarrBenchmarks.TILE_SIZE,
+                                 ZarrBenchmarks.TILE_SIZE, ZarrBenchmarks.TILE_SIZE);
+        tile = Raster.createWritableRaster(image.getSampleModel().createCompatibleSampleModel(tileRect.width, tileRect.height),
+                                           new Point(tileRect.x, tileRect.y));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws Exception {
+        product.dispose();
+        ChunkCache.getInstance().clear();
+        ZarrBenchmarks.deleteDir(testPath);
+    }
+
+    @State(Scope.Thread)
+    public static class ColdCache {
+
+        @Setup(Level.Invocation)
+        public void clearCache() {
+            ChunkCache.getInstance().clear();
+        }
+    }
+
+    @Benchmark
+    public Raster readTileCold(ColdCache coldCache) {
+        image.computeRect(null, tile, tileRect);
+        return tile;
+    }
+
+    @Benchmark
+    public Raster readTileWarm() {
+        image.computeRect(null, tile, tileRect);
+        return tile;
+    }
+}
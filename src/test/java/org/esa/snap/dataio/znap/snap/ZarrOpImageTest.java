@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.ceres.glevel.support.DefaultMultiLevelModel;
+import com.bc.zarr.ArrayParams;
+import com.bc.zarr.CompressorFactory;
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrArray;
+import com.bc.zarr.ZarrGroup;
+import com.bc.zarr.storage.FileSystemStore;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.image.ResolutionLevel;
+import org.esa.snap.core.util.io.TreeDeleter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ZarrOpImageTest {
+
+    private Band band;
+    private ZarrArray zarrArray;
+
+    @Before
+    public void setUp() throws Exception {
+        band = new Band("band", ProductData.TYPE_INT16, 8, 6);
+        zarrArray = ZarrArray.create(new ArrayParams()
+                                             .shape(6, 8)
+                                             .chunks(3, 3)
+                                             .dataType(DataType.i2));
+        final short[] data = new short[6 * 8];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short) i;
+        }
+        zarrArray.write(data, new int[]{6, 8}, new int[]{0, 0});
+    }
+
+    @Test
+    public void testFullResolution() {
+        final ZarrOpImage image = new ZarrOpImage(band, zarrArray.getShape(), zarrArray.getChunks(), zarrArray,
+                                                  ResolutionLevel.MAXRES);
+
+        final Raster data = image.getData(new Rectangle(2, 1, 5, 4));
+
+        assertThat(data.getSample(2, 1, 0)).isEqualTo(10);
+        assertThat(data.getSample(6, 4, 0)).isEqualTo(38);
+    }
+
+    @Test
+    public void testComputeIntoPartOfLargerTile() {
+        final ZarrOpImage image = new ZarrOpImage(band, zarrArray.getShape(), zarrArray.getChunks(), zarrArray,
+                                                  ResolutionLevel.MAXRES);
+        final WritableRaster tile = Raster.createWritableRaster(
+                image.getSampleModel().createCompatibleSampleModel(8, 6), new Point(0, 0));
+
+        image.computeRect(null, tile.createWritableChild(2, 1, 5, 4, 2, 1, null), new Rectangle(2, 1, 5, 4));
+
+        for (int y = 0; y < 6; y++) {
+            for (int x = 0; x < 8; x++) {
+                final boolean inside = x >= 2 && x < 7 && y >= 1 && y < 5;
+                assertThat(tile.getSample(x, y, 0)).isEqualTo(inside ? y * 8 + x : 0);
+            }
+        }
+    }
+
+    @Test
+    public void testDecimatedLevel() {
+        final DefaultMultiLevelModel model = new DefaultMultiLevelModel(2, new AffineTransform(), 8, 6);
+        final ZarrOpImage image = new ZarrOpImage(band, zarrArray.getShape(), zarrArray.getChunks(), zarrArray,
+                                                  ResolutionLevel.create(model, 1));
+
+        assertThat(image.getWidth()).isEqualTo(4);
+        assertThat(image.getHeight()).isEqualTo(3);
+        final Raster data = image.getData();
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 4; x++) {
+                assertThat(data.getSample(x, y, 0)).isEqualTo(2 * y * 8 + 2 * x);
+            }
+        }
+    }
+
+    @Test
+    public void testGather() {
+        final float[] src = {0, 1, 2, 3, 4, 5, 6, 7};
+        final float[] dest = new float[3];
+
+        ZarrOpImage.gather(src, 4, new int[]{0, 1, 3}, 1, dest, 1, 2);
+
+        assertThat(dest).containsExactly(0, 5, 7);
+    }
+
+    @Test
+    public void testMappedChunksBypassTheChunkCache() throws Exception {
+        final Path testPath = Files.createTempDirectory("mapped-chunks");
+        try {
+            final Path rootPath = testPath.resolve("product.znap");
+            final FileSystemStore store = new FileSystemStore(rootPath);
+            final ZarrArray array = ZarrGroup.create(store).createArray("band", new ArrayParams()
+                    .shape(6, 8)
+                    .chunks(3, 3)
+                    .dataType(DataType.i2)
+                    .compressor(CompressorFactory.create("null")));
+            final short[] data = new short[6 * 8];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (short) i;
+            }
+            array.write(data, new int[]{6, 8}, new int[]{0, 0});
+            // the chunk cache is enabled by default
+            assertThat(ChunkCache.getInstance().isEnabled()).isTrue();
+
+            final ReadMetrics metrics = new ReadMetrics(null);
+            final ZarrOpImage image = new ZarrOpImage(band, array.getShape(), array.getChunks(), () -> array,
+                                                      store, "band", rootPath.resolve("band"), metrics,
+                                                      ResolutionLevel.MAXRES);
+            final Raster raster = image.getData(new Rectangle(1, 1, 6, 4));
+
+            assertThat(raster.getSample(2, 1, 0)).isEqualTo(10);
+            assertThat(raster.getSample(6, 4, 0)).isEqualTo(38);
+            assertThat(metrics.getChunksRead()).isGreaterThan(0);
+            assertThat(metrics.getCacheHits() + metrics.getCacheMisses()).isEqualTo(0);
+        } finally {
+            TreeDeleter.deleteDir(testPath);
+        }
+    }
+
+    @Test
+    public void testMissingChunksAreFilled() throws Exception {
+        final Path testPath = Files.createTempDirectory("missing-chunks");
+        try {
+            final FileSystemStore store = new FileSystemStore(testPath.resolve("product.znap"));
+            final ZarrArray array = ZarrGroup.create(store).createArray("band", new ArrayParams()
+                    .shape(6, 8)
+                    .chunks(3, 3)
+                    .fillValue(-1)
+                    .dataType(DataType.i2));
+            array.write(new short[]{1, 2, 3, 4, 5, 6, 7, 8, 9}, new int[]{3, 3}, new int[]{0, 0});
+            assertThat(testPath.resolve("product.znap/band/1.1")).doesNotExist();
+
+            final ZarrOpImage image = new ZarrOpImage(band, array.getShape(), array.getChunks(), array,
+                                                      store, "band", ResolutionLevel.MAXRES);
+            final Raster data = image.getData(new Rectangle(1, 1, 6, 4));
+
+            assertThat(data.getSample(2, 2, 0)).isEqualTo(9);
+            assertThat(data.getSample(3, 2, 0)).isEqualTo(-1);
+            assertThat(data.getSample(6, 4, 0)).isEqualTo(-1);
+        } finally {
+            TreeDeleter.deleteDir(testPath);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.esa.snap.core.datamodel.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures opening a product, i.e. reading the product nodes and metadata without any pixel data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZarrProductReaderBenchmark {
+
+    @Param({"1", "50"})
+    public int numBands;
+
+    @Param({"0", "200"})
+    public int numMetadataElements;
+
+    @Param({"true", "false"})
+    public boolean useZipArchive;
+
+    private Path testPath;
+    private Path rootPath;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        ZarrBenchmarks.configureWriter("zstd", "auto");
+        ZarrBenchmarks.setUseZipArchive(useZipArchive);
+        testPath = Files.createTempDirectory("reader-benchmark");
+        rootPath = testPath.resolve(useZipArchive ? "product.znap.zip" : "product.znap");
+        final Product source = ZarrBenchmarks.createProduct(256, 256, numBands, "int16");
+        ZarrBenchmarks.addMetadata(source, numMetadataElements, 20);
+        ZarrBenchmarks.writeProduct(source, ZarrBenchmarks.createTiles(source), rootPath);
+        source.dispose();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws Exception {
+        ZarrBenchmarks.setUseZipArchive(false);
+        ZarrBenchmarks.deleteDir(testPath);
+    }
+
+    @Benchmark
+    public int openProduct() throws Exception {
+        final Product product = new ZarrProductReader(new ZarrProductReaderPlugIn()).readProductNodes(rootPath, null);
+        try {
+            return product.getNumBands();
+        } finally {
+            product.dispose();
+        }
+    }
+}
@@ -86,6 +86,16 @@ public class ZarrProductReaderPlugInTest_getDecodeQualification {
                    is(equalTo(DecodeQualification.INTENDED)));
     }
 
+    @Test
+    public void decodeQualification_INTENDED_consolidatedMetadataWithoutScanningArrays() throws IOException {
+        Files.createDirectories(productRoot);
+        Files.createFile(zarrRootHeader);
+        Files.createFile(productRoot.resolve(ZnapConstantsAndUtils.FILENAME_DOT_ZMETADATA));
+
+        assertThat(plugIn.getDecodeQualification(productRoot),
+                   is(equalTo(DecodeQualification.INTENDED)));
+    }
+
     @Test
     public void decodeQualification_UNABLE_inputObjectIsNullOrCanNotBeConvertedToPath() throws IOException {
         Files.createDirectories(aRasterDataDir);
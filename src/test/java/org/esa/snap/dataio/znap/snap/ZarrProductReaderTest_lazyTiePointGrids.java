@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.datamodel.TiePointGrid;
+import org.esa.snap.core.util.io.TreeDeleter;
+import org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants;
+import org.esa.snap.runtime.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ZarrProductReaderTest_lazyTiePointGrids {
+
+    private Path testPath;
+
+    @Before
+    public void setUp() throws Exception {
+        Config.instance("snap").load().preferences().put(ZnapPreferencesConstants.PROPERTY_NAME_USE_ZIP_ARCHIVE, "false");
+        testPath = Files.createTempDirectory("lazy-tie-point-grids");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TreeDeleter.deleteDir(testPath);
+    }
+
+    @Test
+    public void testTiePointGridDataIsReadOnFirstAccess() throws Exception {
+        final Product product = new Product("test", "type", 10, 10);
+        final float[] tiePoints = new float[4 * 3];
+        for (int i = 0; i < tiePoints.length; i++) {
+            tiePoints[i] = i * 0.5f;
+        }
+        product.addTiePointGrid(new TiePointGrid("angle", 4, 3, 0.5, 0.5, 3, 4, tiePoints));
+        final Path rootPath = testPath.resolve("product.znap");
+        final ZarrProductWriter writer = new ZarrProductWriter(new ZarrProductWriterPlugIn());
+        writer.writeProductNodes(product, rootPath);
+
+        final ZarrProductReader reader = new ZarrProductReader(new ZarrProductReaderPlugIn());
+        final Product readProduct = reader.readProductNodes(rootPath, null);
+        try {
+            final TiePointGrid grid = readProduct.getTiePointGrid("angle");
+
+            assertThat(grid.getData()).isNull();
+            final ProductData gridData = grid.getGridData();
+            assertThat(gridData.getNumElems()).isEqualTo(12);
+            assertThat(gridData.getElemFloatAt(0)).isEqualTo(0.0f);
+            assertThat(gridData.getElemFloatAt(11)).isEqualTo(5.5f);
+        } finally {
+            readProduct.dispose();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import org.esa.snap.core.datamodel.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing all tiles of a synthetic product, including the compression of the chunks
+ * and closing the writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZarrProductWriterBenchmark {
+
+    @Param({"int16", "float32"})
+    public String dataType;
+
+    @Param({"null", "zlib", "zstd", "blosc"})
+    public String compressor;
+
+    @Param({"256x256", "1024x1024"})
+    public String chunkShape;
+
+    private Product product;
+    private List<ZarrBenchmarks.Tile> tiles;
+    private Path testPath;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        ZarrBenchmarks.configureWriter(compressor, chunkShape);
+        product = ZarrBenchmarks.createProduct(2048, 2048, 2, dataType);
+        tiles = ZarrBenchmarks.createTiles(product);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() throws Exception {
+        testPath = Files.createTempDirectory("writer-benchmark");
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() throws Exception {
+        ZarrBenchmarks.deleteDir(testPath);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        product.dispose();
+    }
+
+    @Benchmark
+    public void writeTiles() throws Exception {
+        ZarrBenchmarks.writeProduct(product, tiles, testPath.resolve("product.znap"));
+    }
+}
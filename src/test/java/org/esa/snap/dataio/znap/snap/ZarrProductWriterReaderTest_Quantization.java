@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.ceres.core.ProgressMonitor;
+import com.bc.zarr.ZarrArray;
+import com.bc.zarr.ZarrGroup;
+import com.bc.zarr.storage.FileSystemStore;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.util.io.TreeDeleter;
+import org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants;
+import org.esa.snap.runtime.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.prefs.Preferences;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+public class ZarrProductWriterReaderTest_Quantization {
+
+    private static final int WIDTH = 30;
+    private static final int HEIGHT = 20;
+    private static final int NAN_INDEX = 17;
+    private static final int NO_DATA_INDEX = 5;
+    private static final double NO_DATA_VALUE = -9999.0;
+
+    private Preferences preferences;
+    private Path testPath;
+    private Path rootPath;
+
+    @Before
+    public void setUp() throws Exception {
+        preferences = Config.instance("snap").load().preferences();
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_USE_ZIP_ARCHIVE, "false");
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_QUANTIZATION + ".rounded", "bitround(keepbits=7)");
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_QUANTIZATION + ".packed", "int16(scale=0.01;offset=20)");
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_QUANTIZATION + ".coarse", "bitround(keepbits=2)");
+        testPath = Files.createTempDirectory("quantization");
+        rootPath = testPath.resolve("product.znap");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        preferences.remove(ZnapPreferencesConstants.PROPERTY_NAME_QUANTIZATION + ".rounded");
+        preferences.remove(ZnapPreferencesConstants.PROPERTY_NAME_QUANTIZATION + ".packed");
+        preferences.remove(ZnapPreferencesConstants.PROPERTY_NAME_QUANTIZATION + ".coarse");
+        TreeDeleter.deleteDir(testPath);
+    }
+
+    @Test
+    public void testBitRoundedBand() throws Exception {
+        final float[] data = createData();
+        write(data);
+
+        final Map<String, Object> attributes = openArray("rounded").getAttributes();
+        assertThat(attributes).containsEntry(ZnapConstantsAndUtils.ATT_NAME_QUANTIZATION, "bitround(keepbits=7)");
+        assertThat(((Number) attributes.get(Quantization.ATT_NAME_BITROUND_BITS)).intValue()).isEqualTo(7);
+
+        final Product readProduct = read();
+        try {
+            final Band band = readProduct.getBand("rounded");
+            assertThat(band.getDataType()).isEqualTo(ProductData.TYPE_FLOAT32);
+            final double[] pixels = band.getSourceImage().getData().getPixels(0, 0, WIDTH, HEIGHT, (double[]) null);
+            for (int i = 0; i < pixels.length; i++) {
+                if (i == NAN_INDEX) {
+                    assertThat(pixels[i]).isNaN();
+                } else {
+                    assertThat((float) pixels[i]).isEqualTo(Quantization.BitRound.round(data[i], 7));
+                    // 7 kept mantissa bits, rounded to nearest
+                    assertThat(pixels[i]).isCloseTo(data[i], offset(Math.abs(data[i]) / 256.0));
+                }
+            }
+        } finally {
+            readProduct.dispose();
+        }
+    }
+
+    @Test
+    public void testBitRoundedBand_keepsNoDataValue() throws Exception {
+        final float[] data = createData();
+        write(data);
+
+        final Product readProduct = read();
+        try {
+            final Band band = readProduct.getBand("coarse");
+            assertThat(band.isNoDataValueUsed()).isTrue();
+            assertThat(band.getNoDataValue()).isEqualTo(NO_DATA_VALUE);
+            final double[] pixels = band.getSourceImage().getData().getPixels(0, 0, WIDTH, HEIGHT, (double[]) null);
+            // with 2 kept mantissa bits the no-data value would be rounded to -10240
+            assertThat(pixels[NO_DATA_INDEX]).isEqualTo(NO_DATA_VALUE);
+            assertThat(pixels[NAN_INDEX]).isNaN();
+            assertThat((float) pixels[0]).isEqualTo(Quantization.BitRound.round(data[0], 2));
+        } finally {
+            readProduct.dispose();
+        }
+    }
+
+    @Test
+    public void testInt16PackedBand() throws Exception {
+        final float[] data = createData();
+        write(data);
+
+        final Map<String, Object> attributes = openArray("packed").getAttributes();
+        assertThat(attributes).containsEntry(ZnapConstantsAndUtils.ATT_NAME_QUANTIZATION, "int16(scale=0.01;offset=20)");
+        assertThat(((Number) attributes.get("scale_factor")).doubleValue()).isEqualTo(0.01);
+        assertThat(((Number) attributes.get("add_offset")).doubleValue()).isEqualTo(20.0);
+        assertThat(((Number) attributes.get("_FillValue")).intValue()).isEqualTo(Short.MIN_VALUE);
+
+        final Product readProduct = read();
+        try {
+            final Band band = readProduct.getBand("packed");
+            assertThat(band.getDataType()).isEqualTo(ProductData.TYPE_INT16);
+            assertThat(band.getScalingFactor()).isEqualTo(0.01);
+            assertThat(band.getScalingOffset()).isEqualTo(20.0);
+            assertThat(band.isNoDataValueUsed()).isTrue();
+            final int[] raw = band.getSourceImage().getData().getPixels(0, 0, WIDTH, HEIGHT, (int[]) null);
+            final double[] pixels = band.getGeophysicalImage().getData().getPixels(0, 0, WIDTH, HEIGHT, (double[]) null);
+            for (int i = 0; i < pixels.length; i++) {
+                if (i == NAN_INDEX) {
+                    assertThat(raw[i]).isEqualTo(Short.MIN_VALUE);
+                } else {
+                    assertThat(pixels[i]).isCloseTo(data[i], offset(0.005 + 1e-5));
+                }
+            }
+        } finally {
+            readProduct.dispose();
+        }
+    }
+
+    private static float[] createData() {
+        final float[] data = new float[WIDTH * HEIGHT];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 20.0f + (float) Math.sin(i * 0.1) * 150.0f + i * 0.0371f;
+        }
+        data[NAN_INDEX] = Float.NaN;
+        return data;
+    }
+
+    private void write(float[] data) throws Exception {
+        final Product product = new Product("test", "type", WIDTH, HEIGHT);
+        final Band rounded = product.addBand("rounded", ProductData.TYPE_FLOAT32);
+        rounded.setRasterData(ProductData.createInstance(data.clone()));
+        final Band packed = product.addBand("packed", ProductData.TYPE_FLOAT32);
+        packed.setRasterData(ProductData.createInstance(data.clone()));
+        final Band coarse = product.addBand("coarse", ProductData.TYPE_FLOAT32);
+        final float[] coarseData = data.clone();
+        coarseData[NO_DATA_INDEX] = (float) NO_DATA_VALUE;
+        coarse.setRasterData(ProductData.createInstance(coarseData));
+        coarse.setNoDataValue(NO_DATA_VALUE);
+        coarse.setNoDataValueUsed(true);
+        final ZarrProductWriter writer = new ZarrProductWriter(new ZarrProductWriterPlugIn());
+        writer.writeProductNodes(product, rootPath);
+        writer.writeBandRasterData(rounded, 0, 0, WIDTH, HEIGHT, rounded.getRasterData(), ProgressMonitor.NULL);
+        writer.writeBandRasterData(packed, 0, 0, WIDTH, HEIGHT, packed.getRasterData(), ProgressMonitor.NULL);
+        writer.writeBandRasterData(coarse, 0, 0, WIDTH, HEIGHT, coarse.getRasterData(), ProgressMonitor.NULL);
+        writer.close();
+    }
+
+    private ZarrArray openArray(String name) throws Exception {
+        return ZarrGroup.open(new CodecStore(new FileSystemStore(rootPath))).openArray(name);
+    }
+
+    private Product read() throws Exception {
+        return new ZarrProductReader(new ZarrProductReaderPlugIn()).readProductNodes(rootPath, null);
+    }
+}
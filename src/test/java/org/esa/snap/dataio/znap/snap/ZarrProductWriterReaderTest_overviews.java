@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.ceres.core.ProgressMonitor;
+import com.bc.zarr.ArrayParams;
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrGroup;
+import com.bc.zarr.storage.FileSystemStore;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.util.io.TreeDeleter;
+import org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants;
+import org.esa.snap.runtime.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Dimension;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.prefs.Preferences;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ZarrProductWriterReaderTest_overviews {
+
+    private static final int WIDTH = 512;
+    private static final int HEIGHT = 512;
+    private static final int NUM_LEVELS = 2;
+    // the mean of each 2 x 2 block is 55, nearest neighbour decimation samples the value 0
+    private static final int MEAN = 55;
+    private static final int DECIMATED = 0;
+
+    private Preferences preferences;
+    private Path testPath;
+    private Path rootPath;
+
+    @Before
+    public void setUp() throws Exception {
+        preferences = Config.instance("snap").load().preferences();
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_USE_ZIP_ARCHIVE, "false");
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_OVERVIEW_LEVELS, "" + NUM_LEVELS);
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_OVERVIEW_AGGREGATION, "mean");
+        testPath = Files.createTempDirectory("overviews");
+        rootPath = testPath.resolve("product.znap");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        preferences.remove(ZnapPreferencesConstants.PROPERTY_NAME_OVERVIEW_LEVELS);
+        preferences.remove(ZnapPreferencesConstants.PROPERTY_NAME_OVERVIEW_AGGREGATION);
+        TreeDeleter.deleteDir(testPath);
+    }
+
+    @Test
+    public void testLevelImagesAreReadFromOverviewArrays() throws Exception {
+        write();
+
+        assertThat(rootPath.resolve("band").resolve("1").resolve(".zarray")).exists();
+        assertThat(rootPath.resolve("band").resolve("2").resolve(".zarray")).exists();
+        final Product readProduct = read();
+        try {
+            final Band band = readProduct.getBand("band");
+            assertThat(band.getSourceImage().getModel().getLevelCount()).isGreaterThan(NUM_LEVELS);
+            final Raster fullResolution = band.getSourceImage().getImage(0).getData();
+            assertThat(fullResolution.getSample(0, 0, 0)).isEqualTo(0);
+            assertThat(fullResolution.getSample(1, 1, 0)).isEqualTo(110);
+            assertLevel(band.getSourceImage().getImage(1), 1, MEAN);
+            assertLevel(band.getSourceImage().getImage(2), 2, MEAN);
+        } finally {
+            readProduct.dispose();
+        }
+    }
+
+    @Test
+    public void testLevelImageIsDecimatedIfOverviewShapeDoesNotFit() throws Exception {
+        write();
+        // replace the first overview level by an array of a wrong shape
+        TreeDeleter.deleteDir(rootPath.resolve("band").resolve("1"));
+        ZarrGroup.open(new FileSystemStore(rootPath)).createArray("band/1", new ArrayParams()
+                .shape(10, 10).chunks(10, 10).dataType(DataType.i2));
+
+        final Product readProduct = read();
+        try {
+            final Band band = readProduct.getBand("band");
+            assertLevel(band.getSourceImage().getImage(1), 1, DECIMATED);
+            assertLevel(band.getSourceImage().getImage(2), 2, MEAN);
+        } finally {
+            readProduct.dispose();
+        }
+    }
+
+    private static void assertLevel(RenderedImage image, int level, int expected) {
+        assertThat(image.getWidth()).isEqualTo(WIDTH >> level);
+        assertThat(image.getHeight()).isEqualTo(HEIGHT >> level);
+        final Raster data = image.getData();
+        for (int y = 0; y < image.getHeight(); y += 17) {
+            for (int x = 0; x < image.getWidth(); x += 13) {
+                assertThat(data.getSample(x, y, 0)).isEqualTo(expected);
+            }
+        }
+    }
+
+    private void write() throws Exception {
+        final Product product = new Product("test", "type", WIDTH, HEIGHT);
+        product.setPreferredTileSize(new Dimension(128, 128));
+        final Band band = product.addBand("band", ProductData.TYPE_INT16);
+        final short[] data = new short[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                data[y * WIDTH + x] = (short) (x % 2 * 100 + y % 2 * 10);
+            }
+        }
+        band.setRasterData(ProductData.createInstance(data));
+        final ZarrProductWriter writer = new ZarrProductWriter(new ZarrProductWriterPlugIn());
+        writer.writeProductNodes(product, rootPath);
+        writer.writeBandRasterData(band, 0, 0, WIDTH, HEIGHT, band.getRasterData(), ProgressMonitor.NULL);
+        writer.close();
+    }
+
+    private Product read() throws Exception {
+        return new ZarrProductReader(new ZarrProductReaderPlugIn()).readProductNodes(rootPath, null);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.util.io.TreeDeleter;
+import org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants;
+import org.esa.snap.runtime.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.prefs.Preferences;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ZarrProductWriterReaderTest_skipFillChunks {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+    private static final short FILL = -1;
+
+    private Preferences preferences;
+    private Path testPath;
+    private Path rootPath;
+
+    @Before
+    public void setUp() throws Exception {
+        preferences = Config.instance("snap").load().preferences();
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_USE_ZIP_ARCHIVE, "false");
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_CHUNK_SHAPE, "20x15");
+        testPath = Files.createTempDirectory("skip-fill-chunks");
+        rootPath = testPath.resolve("product.znap");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        preferences.remove(ZnapPreferencesConstants.PROPERTY_NAME_CHUNK_SHAPE);
+        TreeDeleter.deleteDir(testPath);
+    }
+
+    @Test
+    public void testFillChunksAreNotStored() throws Exception {
+        write(createProduct(true));
+
+        final Path arrayDir = rootPath.resolve("band");
+        assertThat(arrayDir.resolve("0.0")).isRegularFile();
+        assertThat(arrayDir.resolve("0.1")).isRegularFile();
+        assertThat(arrayDir.resolve("1.0")).doesNotExist();
+        assertThat(arrayDir.resolve("1.1")).doesNotExist();
+        assertReadLowerHalfFilled();
+    }
+
+    @Test
+    public void testStaleChunksOfAPreviousProductAreDeleted() throws Exception {
+        write(createProduct(false));
+        assertThat(rootPath.resolve("band").resolve("1.0")).isRegularFile();
+        assertThat(rootPath.resolve("band").resolve("1.1")).isRegularFile();
+
+        // the lower chunks of the second product consist of fill values and replace the chunks of the first one
+        write(createProduct(true));
+
+        assertThat(rootPath.resolve("band").resolve("1.0")).doesNotExist();
+        assertThat(rootPath.resolve("band").resolve("1.1")).doesNotExist();
+        assertReadLowerHalfFilled();
+    }
+
+    private static Product createProduct(boolean lowerHalfFilled) {
+        final Product product = new Product("test", "type", WIDTH, HEIGHT);
+        final Band band = product.addBand("band", ProductData.TYPE_INT16);
+        band.setNoDataValue(FILL);
+        band.setNoDataValueUsed(true);
+        band.setRasterData(ProductData.createInstance(createData(lowerHalfFilled)));
+        return product;
+    }
+
+    private static short[] createData(boolean lowerHalfFilled) {
+        final short[] data = new short[WIDTH * HEIGHT];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = lowerHalfFilled && i >= data.length / 2 ? FILL : (short) (i % 7 + 1);
+        }
+        return data;
+    }
+
+    private void write(Product product) throws Exception {
+        final Band band = product.getBand("band");
+        final ZarrProductWriter writer = new ZarrProductWriter(new ZarrProductWriterPlugIn());
+        writer.writeProductNodes(product, rootPath);
+        writer.writeBandRasterData(band, 0, 0, WIDTH, HEIGHT, band.getRasterData(), ProgressMonitor.NULL);
+        writer.close();
+    }
+
+    private void assertReadLowerHalfFilled() throws Exception {
+        final Product readProduct = new ZarrProductReader(new ZarrProductReaderPlugIn()).readProductNodes(rootPath, null);
+        try {
+            final int[] pixels = readProduct.getBand("band").getSourceImage().getData().getPixels(0, 0, WIDTH, HEIGHT, (int[]) null);
+            final short[] expected = createData(true);
+            for (int i = 0; i < pixels.length; i++) {
+                assertThat(pixels[i]).isEqualTo(expected[i]);
+            }
+        } finally {
+            readProduct.dispose();
+        }
+    }
+}
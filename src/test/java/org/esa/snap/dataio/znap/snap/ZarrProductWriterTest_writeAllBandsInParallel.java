@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.util.io.TreeDeleter;
+import org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants;
+import org.esa.snap.runtime.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ZarrProductWriterTest_writeAllBandsInParallel {
+
+    private static final int WIDTH = 90;
+    private static final int HEIGHT = 70;
+
+    private Path testPath;
+
+    @Before
+    public void setUp() throws Exception {
+        Config.instance("snap").load().preferences().put(ZnapPreferencesConstants.PROPERTY_NAME_USE_ZIP_ARCHIVE, "false");
+        testPath = Files.createTempDirectory("parallel-band-writing");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TreeDeleter.deleteDir(testPath);
+    }
+
+    @Test
+    public void testAllTilesOfAllBandsAreWritten() throws Exception {
+        final Product product = createProduct();
+        final Path rootPath = testPath.resolve("product.znap");
+        final ZarrProductWriter writer = new ZarrProductWriter(new ZarrProductWriterPlugIn());
+        writer.writeProductNodes(product, rootPath);
+        writer.writeAllBandsInParallel(4, ProgressMonitor.NULL);
+        writer.close();
+
+        assertBandsWritten(rootPath);
+    }
+
+    @Test
+    public void testWriteProduct() throws Exception {
+        final Path rootPath = testPath.resolve("product.znap");
+
+        ZarrProductWriter.writeProduct(createProduct(), rootPath, 2, ProgressMonitor.NULL);
+
+        assertBandsWritten(rootPath);
+    }
+
+    private static Product createProduct() {
+        final Product product = new Product("test", "type", WIDTH, HEIGHT);
+        product.setPreferredTileSize(new Dimension(32, 32));
+        for (int b = 0; b < 3; b++) {
+            final Band band = product.addBand("band_" + b, ProductData.TYPE_INT16);
+            final short[] data = new short[WIDTH * HEIGHT];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (short) (b * 1000 + i % 997);
+            }
+            band.setRasterData(ProductData.createInstance(data));
+        }
+        return product;
+    }
+
+    private static void assertBandsWritten(Path rootPath) throws IOException {
+        final Product readProduct = new ZarrProductReader(new ZarrProductReaderPlugIn()).readProductNodes(rootPath, null);
+        try {
+            for (int b = 0; b < 3; b++) {
+                final Band band = readProduct.getBand("band_" + b);
+                final int[] pixels = band.getSourceImage().getData().getPixels(0, 0, WIDTH, HEIGHT, (int[]) null);
+                for (int i = 0; i < pixels.length; i++) {
+                    assertThat(pixels[i]).isEqualTo(b * 1000 + i % 997);
+                }
+            }
+        } finally {
+            readProduct.dispose();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2021.  Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.snap.dataio.znap.snap;
+
+import com.bc.ceres.core.ProgressMonitor;
+import com.bc.zarr.ArrayParams;
+import com.bc.zarr.CompressorFactory;
+import com.bc.zarr.DataType;
+import com.bc.zarr.ZarrArray;
+import com.bc.zarr.ZarrGroup;
+import com.bc.zarr.storage.FileSystemStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.util.io.TreeDeleter;
+import org.esa.snap.dataio.znap.preferences.ZnapPreferencesConstants;
+import org.esa.snap.runtime.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.prefs.Preferences;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ZarrV3StoreTest {
+
+    private Path testPath;
+    private Path rootPath;
+
+    @Before
+    public void setUp() throws Exception {
+        testPath = Files.createTempDirectory("zarr-v3-store-test");
+        rootPath = testPath.resolve("product.znap");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TreeDeleter.deleteDir(testPath);
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        final ZarrGroup group = ZarrGroup.create(new ZarrV3Store(new FileSystemStore(rootPath)));
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("units", "mW");
+        attributes.put("_ARRAY_DIMENSIONS", Arrays.asList("y", "x"));
+        final ZarrArray array = group.createArray("band", new ArrayParams()
+                .shape(40, 60).chunks(20, 30).dataType(DataType.i2).fillValue(-1)
+                .compressor(CompressorFactory.create("zlib", "level", 1)), attributes);
+        final short[] data = createData(40 * 60);
+        array.write(data, new int[]{40, 60}, new int[]{0, 0});
+
+        assertThat(rootPath.resolve(ZarrV3Store.FILENAME_ZARR_JSON)).exists();
+        assertThat(rootPath.resolve(".zgroup")).doesNotExist();
+        assertThat(rootPath.resolve("band").resolve(".zarray")).doesNotExist();
+        assertThat(rootPath.resolve("band").resolve("c").resolve("1").resolve("1")).exists();
+        final Map<?, ?> document = new ObjectMapper().readValue(rootPath.resolve("band").resolve(ZarrV3Store.FILENAME_ZARR_JSON).toFile(), Map.class);
+        assertThat(document.get("zarr_format")).isEqualTo(3);
+        assertThat(document.get("node_type")).isEqualTo("array");
+        assertThat(document.get("data_type")).isEqualTo("int16");
+        assertThat(document.get("fill_value")).isEqualTo(-1);
+        assertThat((List<?>) document.get("dimension_names")).containsExactly("y", "x");
+        assertThat(getCodecNames(document)).containsExactly("bytes", "numcodecs.zlib");
+        assertThat((Map<?, ?>) document.get("attributes")).containsOnlyKeys("units");
+
+        final ZarrV3Store readStore = new ZarrV3Store(new FileSystemStore(rootPath));
+        assertThat(ZarrV3Store.isV3(new FileSystemStore(rootPath))).isTrue();
+        assertThat(readStore.getArrayKeys()).containsExactly("band");
+        final ZarrArray readArray = ZarrGroup.open(readStore).openArray("band");
+        assertThat(readArray.getChunks()).containsExactly(20, 30);
+        assertThat(readArray.getAttributes()).containsEntry("units", "mW").containsKey("_ARRAY_DIMENSIONS");
+        assertThat((short[]) readArray.read(new int[]{40, 60}, new int[]{0, 0})).containsExactly(data);
+        try (Stream<String> keys = readStore.getRelativeLeafKeys("band")) {
+            assertThat(keys.collect(Collectors.toList())).containsExactlyInAnyOrder(".zarray", ".zattrs", "0.0", "0.1", "1.0", "1.1");
+        }
+    }
+
+    @Test
+    public void testWriteAndReadSharded() throws Exception {
+        final CodecStore writeStore = new CodecStore(new ZarrV3Store(new FileSystemStore(rootPath)), header -> new CodecPipeline(
+                ChunkCodecs.createFilters("delta,shuffle", (String) header.get("dtype")),
+                ChunkCodecs.createCompressor(ChunkCodecs.ID_ZLIB, 5), CodecPipeline.getChunkByteSize(header)),
+                                                          header -> new ShardLayout(new int[]{40, 60}, new int[]{10, 10},
+                                                                                    new int[]{2, 2}, ShardLayout.INDEX_LOCATION_START));
+        final ZarrArray array = ZarrGroup.create(writeStore).createArray("band", new ArrayParams()
+                .shape(40, 60).chunks(10, 10).dataType(DataType.i2).fillValue(0)
+                .compressor(CompressorFactory.create("null")));
+        final short[] data = createData(40 * 60);
+        array.write(data, new int[]{40, 60}, new int[]{0, 0});
+        writeStore.flush();
+
+        assertThat(rootPath.resolve("band").resolve("c").resolve("1").resolve("2")).exists();
+        final Map<?, ?> document = new ObjectMapper().readValue(rootPath.resolve("band").resolve(ZarrV3Store.FILENAME_ZARR_JSON).toFile(), Map.class);
+        assertThat((List<?>) ((Map<?, ?>) ((Map<?, ?>) document.get("chunk_grid")).get("configuration")).get("chunk_shape")).containsExactly(20, 20);
+        assertThat(getCodecNames(document)).containsExactly(ShardLayout.CODEC_ID);
+        final Map<?, ?> sharding = (Map<?, ?>) ((List<?>) document.get("codecs")).get(0);
+        assertThat(getCodecNames((Map<?, ?>) sharding.get("configuration")))
+                .containsExactly("numcodecs.delta", "bytes", "numcodecs.shuffle", "numcodecs.zlib");
+
+        final ZarrArray readArray = ZarrGroup.open(new CodecStore(new ZarrV3Store(new FileSystemStore(rootPath)))).openArray("band");
+        assertThat(readArray.getChunks()).containsExactly(10, 10);
+        assertThat((short[]) readArray.read(new int[]{40, 60}, new int[]{0, 0})).containsExactly(data);
+    }
+
+    @Test
+    public void testProductIsWrittenWithoutConsolidatedMetadata() throws Exception {
+        final Preferences preferences = Config.instance("snap").load().preferences();
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_USE_ZIP_ARCHIVE, "false");
+        preferences.put(ZnapPreferencesConstants.PROPERTY_NAME_ZARR_FORMAT, "" + ZnapPreferencesConstants.ZARR_FORMAT_V3);
+        try {
+            final Product product = new Product("test", "type", 60, 40);
+            final Band band = product.addBand("band", ProductData.TYPE_INT16);
+            band.setRasterData(ProductData.createInstance(createData(40 * 60)));
+            final ZarrProductWriter writer = new ZarrProductWriter(new ZarrProductWriterPlugIn());
+            writer.writeProductNodes(product, rootPath);
+            writer.writeBandRasterData(band, 0, 0, 60, 40, band.getRasterData(), ProgressMonitor.NULL);
+            writer.close();
+        } finally {
+            preferences.remove(ZnapPreferencesConstants.PROPERTY_NAME_ZARR_FORMAT);
+        }
+
+        assertThat(rootPath.resolve(ZarrV3Store.FILENAME_ZARR_JSON)).exists();
+        assertThat(rootPath.resolve(ZnapConstantsAndUtils.FILENAME_DOT_ZMETADATA)).doesNotExist();
+        final Product readProduct = new ZarrProductReader(new ZarrProductReaderPlugIn()).readProductNodes(rootPath, null);
+        try {
+            final int[] pixels = readProduct.getBand("band").getSourceImage().getData().getPixels(0, 0, 60, 40, (int[]) null);
+            assertThat(pixels[0]).isEqualTo(0);
+            assertThat(pixels[123]).isEqualTo(23);
+        } finally {
+            readProduct.dispose();
+        }
+    }
+
+    private static short[] createData(int size) {
+        final short[] data = new short[size];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short) (i % 100);
+        }
+        return data;
+    }
+
+    private static List<Object> getCodecNames(Map<?, ?> document) {
+        return ((List<?>) document.get("codecs")).stream().map(codec -> ((Map<?, ?>) codec).get("name")).collect(Collectors.toList());
+    }
+}
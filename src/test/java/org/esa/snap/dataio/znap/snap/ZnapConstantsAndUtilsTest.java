@@ -116,4 +116,28 @@ public class ZnapConstantsAndUtilsTest {
         final String converted = ppWriter.writeValueAsString(convertedElems);
         assertThat(converted).isEqualTo(elemsJSON);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testThatMetadataListEqualsJsonAndCanBeReadFromParsedJson() throws JsonProcessingException {
+        //preparation
+        final MetadataElement nested = new MetadataElement("nested");
+        nested.addAttribute(new MetadataAttribute("floa", ProductData.createInstance(new float[]{Float.NaN, 3.5f}), true));
+        nested.addAttribute(new MetadataAttribute("long", ProductData.createInstance(new long[]{12345678901L}), true));
+        nested.addAttribute(new MetadataAttribute("byte", ProductData.createInstance(new byte[]{123, -7}), false));
+        final MetadataElement elem = new MetadataElement("elem");
+        elem.setDescription("elem desc");
+        elem.addAttribute(new MetadataAttribute("utc", ProductData.createInstance(ProductData.TYPE_UTC, new int[]{244, 233, 6}), true));
+        elem.addElement(nested);
+        final MetadataElement[] elements = {elem};
+
+        //execution
+        final ObjectMapper objectMapper = new ObjectMapper();
+        final String listJSON = objectMapper.writeValueAsString(ZnapConstantsAndUtils.metadataToList(elements));
+        final List<?> parsedList = objectMapper.readValue(listJSON, List.class);
+        final MetadataElement[] convertedElems = ZnapConstantsAndUtils.listToMetadata(parsedList);
+
+        //verification
+        assertThat(listJSON).isEqualTo(metadataToJson(elements));
+        assertThat(metadataToJson(convertedElems)).isEqualTo(metadataToJson(elements));
+    }
+}